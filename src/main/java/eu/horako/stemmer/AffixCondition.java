@@ -0,0 +1,337 @@
+package eu.horako.stemmer;
+
+import java.util.Arrays;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Affix rule condition compiled to a sequence of character classes.
+ *
+ * Hunspell conditions are regular expressions consisting only of literal
+ * characters, '.' and bracket expressions ([abc], [^abc]); such a condition
+ * matches the last (SFX) or the first (PFX) characters of a word. This class
+ * evaluates them by plain char comparisons, without {@link java.util.regex.Pattern}
+ * and without building the examined string.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public final class AffixCondition implements Accountable {
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(AffixCondition.class);
+    private static final char[] NO_CHARS = new char[0];
+    private static final String REGEX_META = "\\()*+?{}|$^";
+
+    private final boolean[] any;
+    private final boolean[] negated;
+    private final char[][] chars; // sorted
+    private final boolean suffix;
+
+    private AffixCondition(boolean[] any, boolean[] negated, char[][] chars, boolean suffix) {
+        this.any = any;
+        this.negated = negated;
+        this.chars = chars;
+        this.suffix = suffix;
+    }
+
+    /**
+     * Compile the condition.
+     * @param condition condition as written in the affix file
+     * @param type type of the rule (anchors the condition at the end or at the start of a word)
+     * @return compiled condition or null when the condition uses regex features not supported here
+     */
+    public static AffixCondition compile(String condition, AffixRuleType type) {
+        int n = condition.length();
+        boolean[] any = new boolean[n];
+        boolean[] negated = new boolean[n];
+        char[][] chars = new char[n][];
+        int count = 0;
+        for(int i = 0; i < n; i++) {
+            char c = condition.charAt(i);
+            if(c == '.') {
+                any[count] = true;
+                chars[count] = NO_CHARS;
+            } else if(c == '[') {
+                int end = condition.indexOf(']', i + 1);
+                if(end < 0) { return null; }
+                int start = i + 1;
+                if(start < end && condition.charAt(start) == '^') {
+                    negated[count] = true;
+                    start++;
+                }
+                if(start == end) { return null; } // "[]" or "[^]" - not a valid class
+                for(int j = start; j < end; j++) {
+                    char cc = condition.charAt(j);
+                    if(cc == '[' || cc == '\\' || cc == '&' || (cc == '-' && j > start && j < end - 1)) { return null; }
+                }
+                chars[count] = condition.substring(start, end).toCharArray();
+                Arrays.sort(chars[count]);
+                i = end;
+            } else if(REGEX_META.indexOf(c) >= 0 || c == ']' || Character.isSurrogate(c)) {
+                return null;
+            } else {
+                chars[count] = new char[] { c };
+            }
+            count++;
+        }
+        return new AffixCondition(Arrays.copyOf(any, count), Arrays.copyOf(negated, count),
+                Arrays.copyOf(chars, count), type == AffixRuleType.SFX);
+    }
+
+    public int length() {
+        return this.any.length;
+    }
+
+    public boolean matches(CharSequence word) {
+        int len = word.length();
+        int k = this.any.length;
+        if(len < k) { return false; }
+        int base = this.suffix ? len - k : 0;
+        for(int i = 0; i < k; i++) {
+            if(!this.matchesAt(i, word.charAt(base + i))) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Evaluate the condition on the string <code>head + word[from..to)</code>
+     * (SFX) or <code>head + word[from..to)</code> where head is the prefix
+     * (PFX), i.e. on a reduction candidate without building it.
+     *
+     * @param word reduced word
+     * @param from start of the kept part of the word
+     * @param to end of the kept part of the word
+     * @param added string added to the kept part (appended for SFX, prepended for PFX)
+     * @return true if the candidate matches the condition
+     */
+    public boolean matches(CharSequence word, int from, int to, String added) {
+        int kept = to - from;
+        int addedLen = added.length();
+        int len = kept + addedLen;
+        int k = this.any.length;
+        if(len < k) { return false; }
+        if(this.suffix) {
+            int base = len - k;
+            for(int i = 0; i < k; i++) {
+                int p = base + i;
+                char c = p < kept ? word.charAt(from + p) : added.charAt(p - kept);
+                if(!this.matchesAt(i, c)) { return false; }
+            }
+        } else {
+            for(int i = 0; i < k; i++) {
+                char c = i < addedLen ? added.charAt(i) : word.charAt(from + i - addedLen);
+                if(!this.matchesAt(i, c)) { return false; }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link #matches(CharSequence,int,int,String)} on UTF-8 bytes;
+     * the condition positions are matched against whole code points.
+     * Supplementary code points (4-byte sequences) match only "." and negated classes.
+     *
+     * @param word reduced word in UTF-8
+     * @param from start of the kept part of the word
+     * @param to end of the kept part of the word
+     * @param added UTF-8 bytes added to the kept part (appended for SFX, prepended for PFX)
+     * @return true if the candidate matches the condition
+     */
+    public boolean matches(byte[] word, int from, int to, byte[] added) {
+        int kept = to - from;
+        int len = kept + added.length;
+        int k = this.any.length;
+        if(len < k) { return false; }
+        if(this.suffix) {
+            int p = len;
+            for(int i = k - 1; i >= 0; i--) {
+                if(p == 0) { return false; }
+                p--;
+                while(p > 0 && (this.byteAt(word, from, kept, added, p) & 0xC0) == 0x80) { p--; }
+                if(!this.matchesCodePointAt(i, this.codePointAt(word, from, kept, added, p))) { return false; }
+            }
+        } else {
+            int p = 0;
+            for(int i = 0; i < k; i++) {
+                if(p >= len) { return false; }
+                int cp = this.codePointAt(word, from, kept, added, p);
+                if(!this.matchesCodePointAt(i, cp)) { return false; }
+                p += cp < 0x80 ? 1 : (cp < 0x800 ? 2 : (cp < 0x10000 ? 3 : 4));
+            }
+        }
+        return true;
+    }
+
+    // byte of the candidate word[from..from+kept)+added (SFX) or added+word[from..from+kept) (PFX)
+    private byte byteAt(byte[] word, int from, int kept, byte[] added, int p) {
+        if(this.suffix) {
+            return p < kept ? word[from + p] : added[p - kept];
+        }
+        return p < added.length ? added[p] : word[from + p - added.length];
+    }
+
+    private int codePointAt(byte[] word, int from, int kept, byte[] added, int p) {
+        int b = this.byteAt(word, from, kept, added, p) & 0xFF;
+        if(b < 0x80) { return b; }
+        if(b < 0xE0) {
+            return ((b & 0x1F) << 6) | (this.byteAt(word, from, kept, added, p + 1) & 0x3F);
+        }
+        if(b < 0xF0) {
+            return ((b & 0x0F) << 12) | ((this.byteAt(word, from, kept, added, p + 1) & 0x3F) << 6) |
+                    (this.byteAt(word, from, kept, added, p + 2) & 0x3F);
+        }
+        return ((b & 0x07) << 18) | ((this.byteAt(word, from, kept, added, p + 1) & 0x3F) << 12) |
+                ((this.byteAt(word, from, kept, added, p + 2) & 0x3F) << 6) | (this.byteAt(word, from, kept, added, p + 3) & 0x3F);
+    }
+
+    /**
+     * @param other condition of a rule of the same type
+     * @return true if every word matched by the other condition is matched by this one
+     */
+    boolean subsumes(AffixCondition other) {
+        int k = this.any.length;
+        int m = other.any.length;
+        if(k > m || this.suffix != other.suffix) { return false; }
+        int shift = this.suffix ? m - k : 0;
+        for(int i = 0; i < k; i++) {
+            if(!this.containsClass(i, other, i + shift)) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * @param other condition of a rule of the same type
+     * @return condition matching exactly the words matched by this or the other 
+     *   condition if they differ in at most one char class, otherwise null
+     */
+    AffixCondition union(AffixCondition other) {
+        int k = this.any.length;
+        if(other.any.length != k || this.suffix != other.suffix) { return null; }
+        int diff = -1;
+        for(int i = 0; i < k; i++) {
+            if(this.containsClass(i, other, i) && other.containsClass(i, this, i)) { continue; }
+            if(diff >= 0) { return null; }
+            diff = i;
+        }
+        if(diff < 0) { return this; }
+
+        boolean[] any = this.any.clone();
+        boolean[] negated = this.negated.clone();
+        char[][] chars = this.chars.clone();
+        char[] a = this.chars[diff];
+        char[] b = other.chars[diff];
+        if(this.any[diff] || other.any[diff]) {
+            any[diff] = true;
+            negated[diff] = false;
+            chars[diff] = NO_CHARS;
+        } else if(!this.negated[diff] && !other.negated[diff]) {
+            chars[diff] = merge(a, b);
+        } else {
+            // [^N] | [^M] = [^N&M], [^N] | [P] = [^N-P]
+            char[] excluded = this.negated[diff] && other.negated[diff] ? intersect(a, b)
+                    : this.negated[diff] ? subtract(a, b) : subtract(b, a);
+            negated[diff] = true;
+            chars[diff] = excluded;
+            if(excluded.length == 0) {
+                any[diff] = true;
+                negated[diff] = false;
+            }
+        }
+        return new AffixCondition(any, negated, chars, this.suffix);
+    }
+
+    /**
+     * @return the condition written as in the affix file or null when some of
+     *   its chars can't be written so that {@link #compile(String, AffixRuleType)} reads them back
+     */
+    String toPattern() {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < this.any.length; i++) {
+            if(this.any[i]) {
+                sb.append('.');
+                continue;
+            }
+            char[] set = this.chars[i];
+            for(char c : set) {
+                if(c == '[' || c == ']' || c == '\\' || c == '&' || c == '-' || c == '^' || Character.isSurrogate(c)) { return null; }
+            }
+            if(set.length == 1 && !this.negated[i] && set[0] != '.' && REGEX_META.indexOf(set[0]) < 0) {
+                sb.append(set[0]);
+            } else {
+                sb.append(this.negated[i] ? "[^" : "[").append(set).append(']');
+            }
+        }
+        return sb.toString();
+    }
+
+    // char class i of this condition contains char class j of the other one
+    private boolean containsClass(int i, AffixCondition other, int j) {
+        if(this.any[i]) { return true; }
+        if(other.any[j]) { return false; }
+        char[] a = this.chars[i];
+        char[] b = other.chars[j];
+        if(!this.negated[i]) { return !other.negated[j] && subtract(b, a).length == 0; }
+        return other.negated[j] ? subtract(a, b).length == 0 : intersect(a, b).length == 0;
+    }
+
+    // operations on sorted char sets
+    private static char[] merge(char[] a, char[] b) {
+        char[] r = Arrays.copyOf(a, a.length + b.length);
+        int n = a.length;
+        for(char c : b) {
+            if(Arrays.binarySearch(a, c) < 0) { r[n++] = c; }
+        }
+        r = Arrays.copyOf(r, n);
+        Arrays.sort(r);
+        return r;
+    }
+
+    private static char[] intersect(char[] a, char[] b) {
+        char[] r = new char[a.length];
+        int n = 0;
+        for(char c : a) {
+            if(Arrays.binarySearch(b, c) >= 0) { r[n++] = c; }
+        }
+        return Arrays.copyOf(r, n);
+    }
+
+    private static char[] subtract(char[] a, char[] b) {
+        char[] r = new char[a.length];
+        int n = 0;
+        for(char c : a) {
+            if(Arrays.binarySearch(b, c) < 0) { r[n++] = c; }
+        }
+        return Arrays.copyOf(r, n);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long size = SHALLOW_SIZE + RamUsageEstimator.sizeOf(this.any) + RamUsageEstimator.sizeOf(this.negated) +
+                RamUsageEstimator.shallowSizeOf(this.chars);
+        for(char[] set : this.chars) {
+            if(set != NO_CHARS) { size += RamUsageEstimator.sizeOf(set); }
+        }
+        return size;
+    }
+
+    private boolean matchesCodePointAt(int i, int cp) {
+        if(this.any[i]) { return true; }
+        if(cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT) { return this.negated[i]; }
+        return this.matchesAt(i, (char)cp);
+    }
+
+    private boolean matchesAt(int i, char c) {
+        if(this.any[i]) { return true; }
+        char[] set = this.chars[i];
+        boolean found;
+        if(set.length == 1) {
+            found = set[0] == c;
+        } else if(set.length <= 8) {
+            found = false;
+            for(char s : set) {
+                if(s == c) { found = true; break; }
+            }
+        } else {
+            found = Arrays.binarySearch(set, c) >= 0;
+        }
+        return found != this.negated[i];
+    }
+}
@@ -1,9 +1,14 @@
 package eu.horako.stemmer;
+import eu.horako.stemmer.jfr.StemmerEvents;
+import eu.horako.stemmer.metrics.CallStats;
+import eu.horako.stemmer.metrics.RuleProfile;
+import eu.horako.stemmer.metrics.StemmerMetrics;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * Class to find words derived from a stem. Because the expansion rules may be 
@@ -18,10 +23,14 @@ import java.util.Set;
  */
 public class AffixExpander implements IAffixProcessor {
     private final AffixRuleSet ruleSet;
-    private final Dictionary dictionary;
+    private final IDictionary dictionary;
+    private final RuleGraph graph;
     private int processingDepth = 1;
     private boolean stickyExpanded = false;
     private boolean noloop = true;
+    private StemmerMetrics metrics = null;
+    private RuleProfile profile = null;
+    boolean[] appliedRules = null; // by rule id: applied to some word; collected for RuleSetOptimizer
 
     
     /**
@@ -29,9 +38,10 @@ public class AffixExpander implements IAffixProcessor {
      * @param ruleSet
      * @param dictionary 
      */
-    public AffixExpander(AffixRuleSet ruleSet, Dictionary dictionary) {
+    public AffixExpander(AffixRuleSet ruleSet, IDictionary dictionary) {
         this.ruleSet = ruleSet;
         this.dictionary = dictionary;
+        this.graph = ruleSet.getRuleGraph();
     }
     
     /**
@@ -44,6 +54,19 @@ public class AffixExpander implements IAffixProcessor {
      * @return set of expanded words
      */
     public Set<String> expand(String word,int depth){
+        Object event = StemmerEvents.beginExpand();
+        if(this.metrics == null && this.profile == null && event == null) { return this.expand(word, depth, null); }
+
+        CallStats stats = new CallStats();
+        long startNS = System.nanoTime();
+        Set<String> forms = this.expand(word, depth, stats);
+        if(this.metrics != null) { this.metrics.recordExpand(stats, forms.size(), System.nanoTime() - startNS); }
+        if(this.profile != null && !forms.isEmpty()) { this.profile.recordExpansion(word, forms.size()); }
+        StemmerEvents.commitExpand(event, word, depth, forms.size());
+        return forms;
+    }
+
+    private Set<String> expand(String word, int depth, CallStats stats) {
         if(!stickyExpanded) expandStickyRules();
         
         Set<String> validWords = new HashSet<String>();
@@ -54,21 +77,21 @@ public class AffixExpander implements IAffixProcessor {
         List<ExpansionRules> startingExpansions = new ArrayList<ExpansionRules>();
         
         for(Set<String> flags : allFlags) {
-            Set<AffixRule> rules = new HashSet<AffixRule>();
+            Set<Integer> sfxRules = new TreeSet<Integer>();
+            Set<Integer> pfxRules = new TreeSet<Integer>();
             for(String flag: flags) {
-                Set<AffixRule> rulesByFlag = this.ruleSet.rulesByFlag.get(flag);
-                if(rulesByFlag != null) {
-                    rules.addAll(this.ruleSet.rulesByFlag.get(flag));
+                for(AffixRule rule : this.ruleSet.rulesByFlag.get(flag)) {
+                    (rule.getType() == AffixRuleType.SFX ? sfxRules : pfxRules).add(rule.getId());
                 }
             }
-            startingExpansions.add(new ExpansionRules(word,rules,false,false));
+            startingExpansions.add(new ExpansionRules(word,toArray(sfxRules),toArray(pfxRules),false,false));
         }
 
         List<ExpansionRules> currentExpansions = startingExpansions;
         for(int recursionStep=0; recursionStep < depth; recursionStep++) {
             List<ExpansionRules> followingExpansions = new ArrayList<ExpansionRules>();
             for(ExpansionRules fe : currentExpansions) {
-                followingExpansions.addAll(this.expandOneStep(fe.word, fe.expRules, fe.invalidSfx, fe.invalidPfx, validWords, invalidWords));
+                followingExpansions.addAll(this.expandOneStep(fe.word, fe.sfxRules, fe.pfxRules, fe.invalidSfx, fe.invalidPfx, validWords, invalidWords, stats));
             }
             currentExpansions = followingExpansions;
         }
@@ -84,71 +107,111 @@ public class AffixExpander implements IAffixProcessor {
         }
     }
     
-    // input: word + expRules set
+    // input: word + ids of the SFX and PFX rules to apply
     // input/output - valid + invalid words
-    private List<ExpansionRules> expandOneStep(String word, Collection<AffixRule> rules, 
+    private List<ExpansionRules> expandOneStep(String word, int[] sfxRules, int[] pfxRules,
             boolean invalidSfx, boolean invalidPfx,
-            Set<String> validWords, Set<String> invalidWords) {
+            Set<String> validWords, Set<String> invalidWords, CallStats stats) {
         String newSfxWord, newPfxWord, newCrossWord;
+        RuleGraph g = this.graph;
 
         List<ExpansionRules> followExpansions = new ArrayList<ExpansionRules>();
-        for(AffixRule sfxRule : rules) {
-            if(sfxRule.getType() != AffixRuleType.SFX) continue;
-            if(sfxRule.isSticky()) continue;
+        for(int sfx : sfxRules) {
+            if(g.is(sfx, RuleGraph.STICKY)) continue;
+            boolean sfxInvalid = g.is(sfx, RuleGraph.INVALID);
             
-            newSfxWord = sfxRule.apply(word);
+            newSfxWord = this.apply(sfx, word);
             if(newSfxWord == null) { continue; }
 
-            addWord(newSfxWord,sfxRule.isInvalid() || invalidPfx,validWords,invalidWords); // process word - add to valid / invalid
+            addWord(newSfxWord,sfxInvalid || invalidPfx,validWords,invalidWords); // process word - add to valid / invalid
 
-            AffixMap<String,AffixRule> followSfxRules = sfxRule.getExpansionRules();
-            if(followSfxRules!=null && followSfxRules.size()>0) {
-                followExpansions.add(new ExpansionRules(newSfxWord,followSfxRules.getAll(),sfxRule.isInvalid(),invalidPfx));
+            boolean sfxFollows = this.hasExpansions(sfx);
+            if(sfxFollows) {
+                followExpansions.add(new ExpansionRules(newSfxWord,this.expansions(sfx, -1, AffixRuleType.SFX),this.expansions(sfx, -1, AffixRuleType.PFX),sfxInvalid,invalidPfx));
             }
 
-            if(sfxRule.isCrossProduct()) {
-                for(AffixRule pfxRule : rules) {
-                    if(pfxRule.getType() != AffixRuleType.PFX || !pfxRule.isCrossProduct()) continue;
-                    if(pfxRule.isSticky()) continue;
+            if(g.is(sfx, RuleGraph.CROSS_PRODUCT)) {
+                for(int pfx : pfxRules) {
+                    if(!g.is(pfx, RuleGraph.CROSS_PRODUCT)) continue;
+                    if(g.is(pfx, RuleGraph.STICKY)) continue;
+                    if(stats != null) { stats.crossProductPairs++; }
+                    boolean pfxInvalid = g.is(pfx, RuleGraph.INVALID);
 
-                    newCrossWord = pfxRule.apply(newSfxWord);
+                    newCrossWord = this.apply(pfx, newSfxWord);
                     if(newCrossWord == null) { continue; }
 
-                    addWord(newCrossWord,pfxRule.isInvalid() || sfxRule.isInvalid(),validWords,invalidWords); // process word - add to valid / invalid
+                    addWord(newCrossWord,pfxInvalid || sfxInvalid,validWords,invalidWords); // process word - add to valid / invalid
 
-                    ExpansionRules expRules = null;
-                    if(followSfxRules!=null && followSfxRules.size()>0) {
-                       expRules = new ExpansionRules(newCrossWord,followSfxRules.getAll(),sfxRule.isInvalid(),pfxRule.isInvalid());
-                    }
-                    AffixMap<String,AffixRule> followPfxRules = pfxRule.getExpansionRules();
-                    if(followPfxRules!=null && followPfxRules.size()>0) {
-                        if(expRules != null) { 
-                            expRules.addRules(followPfxRules.getAll());                            
-                        }
-                        else {
-                            expRules =  new ExpansionRules(newCrossWord,followPfxRules.getAll(),sfxRule.isInvalid(),pfxRule.isInvalid());
-                        }
+                    if(sfxFollows || this.hasExpansions(pfx)) {
+                        int sfxWithFollow = sfxFollows ? sfx : -1;
+                        followExpansions.add(new ExpansionRules(newCrossWord,
+                                this.expansions(sfxWithFollow, pfx, AffixRuleType.SFX),
+                                this.expansions(sfxWithFollow, pfx, AffixRuleType.PFX),
+                                sfxInvalid,pfxInvalid));
                     }
-                    if(expRules != null) { followExpansions.add(expRules); }
                }
             }
         }
 
-        for(AffixRule pfxRule : rules) {
-            if(pfxRule.getType() != AffixRuleType.PFX) continue;
-            if(pfxRule.isSticky()) continue;
+        for(int pfx : pfxRules) {
+            if(g.is(pfx, RuleGraph.STICKY)) continue;
+            boolean pfxInvalid = g.is(pfx, RuleGraph.INVALID);
 
-            newPfxWord = pfxRule.apply(word);
+            newPfxWord = this.apply(pfx, word);
             if(newPfxWord == null) { continue; }
-            addWord(newPfxWord,pfxRule.isInvalid() || invalidSfx,validWords,invalidWords); // process word - add to valid / invalid
-            AffixMap<String,AffixRule> followPfxRules = pfxRule.getExpansionRules();
-            if(followPfxRules!=null && followPfxRules.size()>0) {
-                   followExpansions.add(new ExpansionRules(newPfxWord,followPfxRules.getAll(),invalidSfx,pfxRule.isInvalid()));
+            addWord(newPfxWord,pfxInvalid || invalidSfx,validWords,invalidWords); // process word - add to valid / invalid
+            if(this.hasExpansions(pfx)) {
+                   followExpansions.add(new ExpansionRules(newPfxWord,this.expansions(pfx, -1, AffixRuleType.SFX),this.expansions(pfx, -1, AffixRuleType.PFX),invalidSfx,pfxInvalid));
             }
         }
         return followExpansions;
     }
 
+    // AffixRule.apply() of the rule with the given id, recorded in the profile and the applied rules
+    private String apply(int rule, String word) {
+        RuleProfile profile = this.profile;
+        long startNS = profile == null ? 0 : System.nanoTime();
+        String newWord = this.graph.rules[rule].apply(word);
+        if(profile != null) { profile.recordApply(rule, newWord != null, System.nanoTime() - startNS); }
+        if(newWord != null && this.appliedRules != null) { this.appliedRules[rule] = true; }
+        return newWord;
+    }
+
+    private boolean hasExpansions(int rule) {
+        RuleGraph g = this.graph;
+        return g.sfxExpansionOffsets[rule + 1] > g.sfxExpansionOffsets[rule] ||
+               g.pfxExpansionOffsets[rule + 1] > g.pfxExpansionOffsets[rule];
+    }
+
+    // ids of the rules of the type following rule r1 or rule r2 (-1 - none), 
+    // sorted and without duplicates
+    private int[] expansions(int r1, int r2, AffixRuleType type) {
+        RuleGraph g = this.graph;
+        int[] offsets = type == AffixRuleType.SFX ? g.sfxExpansionOffsets : g.pfxExpansionOffsets;
+        int[] targets = type == AffixRuleType.SFX ? g.sfxExpansionTargets : g.pfxExpansionTargets;
+        int i = r1 < 0 ? 0 : offsets[r1], iEnd = r1 < 0 ? 0 : offsets[r1 + 1];
+        int j = r2 < 0 ? 0 : offsets[r2], jEnd = r2 < 0 ? 0 : offsets[r2 + 1];
+        if(j == jEnd) { return Arrays.copyOfRange(targets, i, iEnd); }
+        if(i == iEnd) { return Arrays.copyOfRange(targets, j, jEnd); }
+        int[] merged = new int[iEnd - i + jEnd - j];
+        int n = 0;
+        while(i < iEnd || j < jEnd) {
+            int next;
+            if(j == jEnd || i < iEnd && targets[i] < targets[j]) { next = targets[i++]; }
+            else if(i == iEnd || targets[j] < targets[i]) { next = targets[j++]; }
+            else { next = targets[i++]; j++; }
+            merged[n++] = next;
+        }
+        return n == merged.length ? merged : Arrays.copyOf(merged, n);
+    }
+
+    private static int[] toArray(Set<Integer> ids) {
+        int[] a = new int[ids.size()];
+        int i = 0;
+        for(int id : ids) { a[i++] = id; }
+        return a;
+    }
+
 
     
     @Override
@@ -163,6 +226,27 @@ public class AffixExpander implements IAffixProcessor {
     public void setNoloop(boolean noloop) {
         this.noloop = noloop;
     }
+
+    public StemmerMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Attach runtime metrics to the expander; null (default) turns the metrics off.
+     * @param metrics metrics to record the work of this expander into
+     */
+    public void setMetrics(StemmerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Attribute the rule applications and the forms of the lemmas to the
+     * profile; null (default) turns the profiling off.
+     * @param profile profile of the rule set of this expander
+     */
+    public void setProfile(RuleProfile profile) {
+        this.profile = profile;
+    }
     
     // one-level sticky expansion
     public void expandSticky1(String word, Set<String> flags, Dictionary outputDict) {
@@ -172,6 +256,7 @@ public class AffixExpander implements IAffixProcessor {
                 if(rule.isSticky()) {
                     String newWord = rule.apply(word);
                     if(newWord == null) continue;
+                    if(this.appliedRules != null) { this.appliedRules[rule.getId()] = true; }
                     Set<String> otherFlags = new HashSet<String>();
                     for(String otherFlag : flags) {
                         if(ruleSet.getRuleTypeByFlag(otherFlag) != rule.getType()) otherFlags.add(otherFlag);
@@ -190,7 +275,18 @@ public class AffixExpander implements IAffixProcessor {
     }
 
     
+    /**
+     * Adds the words generated by sticky rules to the dictionary. Read-only 
+     * dictionaries (e.g. {@link OffHeapDictionary}) are left unchanged, they 
+     * are expected to be built from an already expanded {@link Dictionary}.
+     */
     public void expandStickyRules() {
+        if(!(this.dictionary instanceof Dictionary)) {
+            stickyExpanded = true;
+            return;
+        }
+        Object event = StemmerEvents.beginStickyExpansion();
+        int words = this.dictionary.getWords().size();
         Dictionary newDict = new Dictionary();
         for(String w : this.dictionary.getWords()) {
             for(Set<String> flags : this.dictionary.getAllFlags(w)) {
@@ -200,26 +296,29 @@ public class AffixExpander implements IAffixProcessor {
         
         for(String w : newDict.getWords()) {
             for(Set<String> flags : newDict.getAllFlags(w)) {
-                dictionary.add(w, flags);
+                ((Dictionary)dictionary).add(w, flags);
             }
         }
         stickyExpanded = true;
+        StemmerEvents.commitStickyExpansion(event, words, this.dictionary.getWords().size() - words);
     }
 
     /**
-     * Encapsulates word and expRules that can be applied to this word
-     * Represents one step in the expansion (with expRules leading to next steps)
+     * Encapsulates word and the ids of the rules that can be applied to this word
+     * Represents one step in the expansion (with the rules leading to next steps)
      * 
      */
     class ExpansionRules {
         String word;
-        Set<AffixRule> expRules;
+        int[] sfxRules;
+        int[] pfxRules;
         boolean invalidPfx = false;
         boolean invalidSfx = false;
         
-        public ExpansionRules(String word, Set<AffixRule> expansionRules, boolean invalidSfx, boolean invalidPfx) {
+        public ExpansionRules(String word, int[] sfxRules, int[] pfxRules, boolean invalidSfx, boolean invalidPfx) {
             this.word = word;
-            this.expRules = new HashSet<AffixRule>(expansionRules);
+            this.sfxRules = sfxRules;
+            this.pfxRules = pfxRules;
             this.invalidSfx = invalidSfx;
             this.invalidPfx = invalidPfx;
         }
@@ -231,15 +330,14 @@ public class AffixExpander implements IAffixProcessor {
             sb.append(" SFX " ).append(this.invalidSfx?"in":"").append("valid");
             sb.append(" PFX " ).append(this.invalidPfx?"in":"").append("valid");
             sb.append(": ");
-            for(AffixRule r: this.expRules) {
-                sb.append(r.getFlag()).append(" ");
+            for(int r: this.sfxRules) {
+                sb.append(graph.rules[r].getFlag()).append(" ");
+            }
+            for(int r: this.pfxRules) {
+                sb.append(graph.rules[r].getFlag()).append(" ");
             }
             return sb.toString();
         }
-        
-        public void addRules(Set<AffixRule> rules) {
-            this.expRules.addAll(rules);
-        }
     }
 
 }
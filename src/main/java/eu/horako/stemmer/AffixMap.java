@@ -7,6 +7,8 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
 
 /**
  *
@@ -14,7 +16,9 @@ import java.util.Set;
  * @param <K> key
  * @param <V> value
  */
-public class AffixMap<K,V> {
+public class AffixMap<K,V> implements Accountable {
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(AffixMap.class);
+
     private final Map<K,Set<V>> affMap = new HashMap<K,Set<V>>();
     private final Set<V> affList = new LinkedHashSet<V>();
     private final Set<V> emptySet = new HashSet<V>();
@@ -87,4 +91,17 @@ public class AffixMap<K,V> {
     public int size() {
         return this.affList.size();
     }
+
+    /**
+     * @return heap taken by the map itself; the keys and values belong to the rules
+     */
+    @Override
+    public long ramBytesUsed() {
+        long size = SHALLOW_SIZE + RamUsage.hashMap(this.affMap.size(), false) +
+                RamUsage.hashSet(this.affList.size(), true) + RamUsage.hashSet(0, false);
+        for(Set<V> values : this.affMap.values()) {
+            size += RamUsage.hashSet(values.size(), true);
+        }
+        return size;
+    }
 }
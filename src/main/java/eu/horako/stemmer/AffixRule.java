@@ -1,14 +1,19 @@
 package eu.horako.stemmer;
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.regex.Pattern;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
 
 /**
  *
  * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
  */
-public class AffixRule {
+public class AffixRule implements Accountable {
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(AffixRule.class);
+
     private final AffixRuleType type;
     private final String remove;
     private final String append;
@@ -23,10 +28,64 @@ public class AffixRule {
     private final Pattern condition; // regex condition - whether this rule can be applied to a word
     private boolean invalid; // rule generating invalid word form (can be used as an intermediate word form for another rules)
     private final String strCondition;
+    private int id = -1; // index of the rule within its rule set
+    private int reductionStripBound = -1; // max. number of trailing (SFX) or leading (PFX) chars further reductions can change; see AffixRuleSet
+    private final int source; // index of the source rule set within a merged rule set; see MultiModelStemmer
+    
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
 
     
     public AffixRule(AffixRuleType type, String flag, String remove, String append,
             Set<String> addFlags, String condition, boolean crossProduct, String[] properties) {
+        this(type, flag, remove, append, addFlags, condition, crossProduct, properties, 0);
+    }
+    
+    /**
+     * Copy of the rule for a merged rule set: the flag and the expansion flags
+     * are namespaced by the index of the source rule set. The links to other
+     * rules are not copied.
+     * @param rule rule to copy
+     * @param source index of the rule set the rule comes from
+     */
+    AffixRule(AffixRule rule, int source) {
+        this.type = rule.type;
+        this.flag = AffixRuleSet.namespacedFlag(source, rule.flag);
+        this.remove = rule.remove;
+        this.append = rule.append;
+        this.condition = rule.condition;
+        this.strCondition = rule.strCondition;
+        this.crossProduct = rule.crossProduct;
+        if(rule.expansionFlags != null) {
+            this.expansionFlags = new HashSet<String>();
+            for(String f : rule.expansionFlags) {
+                this.expansionFlags.add(AffixRuleSet.namespacedFlag(source, f));
+            }
+        }
+        this.expansionRules = new AffixMap<String,AffixRule>();
+        this.expansionRulesNoLoop = new AffixMap<String,AffixRule>();
+        this.reductionRules = new AffixMap<String,AffixRule>();
+        this.sticky = rule.sticky;
+        this.invalid = rule.invalid;
+        this.source = source;
+    }
+    
+    /**
+     * Copy of the rule with other affixes and condition (e.g. with folded
+     * diacritics, see {@link DiacriticsFolding}). The links to other rules 
+     * are not copied.
+     * @param rule rule to copy
+     * @param remove new remove part
+     * @param append new append part
+     * @param condition new condition
+     */
+    AffixRule(AffixRule rule, String remove, String append, String condition) {
+        this(rule.type, rule.flag, remove, append, rule.expansionFlags, condition, rule.crossProduct, null, rule.source);
+        this.sticky = rule.sticky;
+        this.invalid = rule.invalid;
+    }
+
+    private AffixRule(AffixRuleType type, String flag, String remove, String append,
+            Set<String> addFlags, String condition, boolean crossProduct, String[] properties, int source) {
         this.type = type;
         this.flag = flag;
         this.remove = remove;
@@ -40,6 +99,7 @@ public class AffixRule {
         this.reductionRules = new AffixMap<String,AffixRule>(); // jen rules stejneho typu (PFX/SFX), jako je tenhle - vazba podle expansionFlags
         this.sticky = false;
         this.invalid = false;
+        this.source = source;
 
         if(properties != null) {
             for(String p : properties) {
@@ -199,6 +259,38 @@ public class AffixRule {
         return strCondition;
     }
     
+    /**
+     * @return dense index of the rule within its rule set (order of appearance in the affix file)
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return index of the source rule set within a merged rule set; 0 for rules read from an affix file
+     */
+    public int getSource() {
+        return source;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Upper bound of characters that can be changed by reductions following 
+     * this rule (at the end of the word for SFX rules, at the start for PFX); 
+     * {@link #UNBOUNDED} for rules in reduction cycles.
+     * @return the bound; -1 when not computed yet
+     */
+    public int getReductionStripBound() {
+        return reductionStripBound;
+    }
+
+    void setReductionStripBound(int reductionStripBound) {
+        this.reductionStripBound = reductionStripBound;
+    }
+
     public boolean hasExpansionFlag(String f) {
         return this.expansionFlags!=null && this.expansionFlags.contains(f);
     }
@@ -234,6 +326,17 @@ public class AffixRule {
         
         return false;
     }
+
+    /**
+     * @return heap taken by the rule, its strings, condition and links to other rules
+     */
+    @Override
+    public long ramBytesUsed() {
+        return SHALLOW_SIZE + RamUsage.string(this.remove) + RamUsage.string(this.append) + RamUsage.string(this.flag) +
+                RamUsage.string(this.strCondition) + RamUsage.PATTERN +
+                (this.expansionFlags == null ? 0 : RamUsage.stringSet(this.expansionFlags)) +
+                this.expansionRules.ramBytesUsed() + this.expansionRulesNoLoop.ramBytesUsed() + this.reductionRules.ramBytesUsed();
+    }
     
     
 }
@@ -1,5 +1,6 @@
 package eu.horako.stemmer;
 
+import eu.horako.stemmer.jfr.StemmerEvents;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
@@ -8,10 +9,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Accountables;
+import org.apache.lucene.util.RamUsageEstimator;
 
 /**
  * Affix rules to expand words from the dictionary to other forms.
@@ -19,12 +28,16 @@ import java.util.Set;
  * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
  * 
  */
-public class AffixRuleSet {
+public class AffixRuleSet implements Accountable {
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(AffixRuleSet.class);
+
     FlagType flagType;
     AffixMap<String,AffixRule> rulesByFlag = new AffixMap<String,AffixRule>();
     AffixMap<String,AffixRule> pfxRulesByAffix = new AffixMap<String,AffixRule>(); // by append affix
     AffixMap<String,AffixRule> sfxRulesByAffix = new AffixMap<String,AffixRule>();  // by append affix
     boolean lowerCase;
+    private CompiledRuleSet compiled = null;
+    private RuleGraph graph = null;
     
     private class AffixRuleBlock {
         private int count;
@@ -44,9 +57,52 @@ public class AffixRuleSet {
     public AffixRuleSet(Reader reader, boolean lowerCase) throws IOException, AffixFormatException {
         this.load(reader,lowerCase);
     }
+
+    /**
+     * Merge several rule sets into one; the flags of the rules from the i-th
+     * set are namespaced by i (see {@link #namespacedFlag(int, String)}), so
+     * rules of different sets never chain. Used by {@link MultiModelStemmer}.
+     * @param sources rule sets to merge
+     */
+    AffixRuleSet(List<AffixRuleSet> sources) {
+        this(FlagType.NUM, namespacedRules(sources)); // flags of a merged set do not come from an affix file
+    }
+
+    /**
+     * Rule set of the given rules (not linked to any other rule set yet).
+     * @param flagType flag type
+     * @param rules rules; their ids are reassigned
+     */
+    AffixRuleSet(FlagType flagType, List<AffixRule> rules) {
+        this.flagType = flagType;
+        for(AffixRule rule : rules) {
+            this.insertAffixRule(rule);
+        }
+        this.buildRecursiveRules();
+    }
+
+    private static List<AffixRule> namespacedRules(List<AffixRuleSet> sources) {
+        List<AffixRule> rules = new ArrayList<AffixRule>();
+        for(int i = 0; i < sources.size(); i++) {
+            for(AffixRule rule : sources.get(i).getRules()) {
+                rules.add(new AffixRule(rule, i));
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * @param source index of the source rule set
+     * @param flag flag within the source rule set
+     * @return flag within a merged rule set
+     */
+    static String namespacedFlag(int source, String flag) {
+        return source + ":" + flag;
+    }
     
     
     private void load(Reader r, boolean lowerCase) throws IOException, AffixFormatException {
+        Object event = StemmerEvents.beginAffixParse();
         BufferedReader reader = new BufferedReader(r);
 
         String[] params;
@@ -76,12 +132,16 @@ public class AffixRuleSet {
             }
         }
         this.buildRecursiveRules();
+        StemmerEvents.commitAffixParse(event, this.rulesByFlag.size(), this.rulesByFlag.getKeys().size(), this.flagType.name());
     }
     
 
     private void insertAffixRule(AffixRule r) {
         AffixMap<String,AffixRule> affMap;
+        r.setId(this.rulesByFlag.size());
         this.rulesByFlag.add(r.getFlag(), r);
+        this.compiled = null;
+        this.graph = null;
 
         if(r.getType() == AffixRuleType.SFX) { 
             affMap = this.sfxRulesByAffix;
@@ -97,6 +157,8 @@ public class AffixRuleSet {
     }
     
     private void buildRecursiveRules() {
+        Object event = StemmerEvents.beginRecursiveRules();
+        int links = 0;
         for(AffixRule rule : this.rulesByFlag.getAll()) {
             if(rule.getExpansionFlags() == null) { continue; }
             for(String flag : rule.getExpansionFlags()) { // prochazim vsechny additional flagy
@@ -104,9 +166,40 @@ public class AffixRuleSet {
                     if(addRule == null) { continue; }
                     rule.setAddRuleStraight(addRule); // pridavam straight pravidlo
                     addRule.setAddRuleReverse(rule);  // pridavam reverse pravidlo
+                    links++;
                 }
             }
         }
+        this.computeReductionBounds();
+        StemmerEvents.commitRecursiveRules(event, this.rulesByFlag.size(), links);
+    }
+
+    // For each rule compute how many chars at the "affix end" of a word can be
+    // changed by the reductions that may follow the rule; the rest of the word
+    // is fixed and must be found in the resulting stem.
+    private void computeReductionBounds() {
+        Set<AffixRule> visiting = Collections.newSetFromMap(new IdentityHashMap<AffixRule,Boolean>());
+        for(AffixRule rule : this.rulesByFlag.getAll()) {
+            this.computeReductionBound(rule, visiting);
+        }
+    }
+
+    private int computeReductionBound(AffixRule rule, Set<AffixRule> visiting) {
+        if(rule.getReductionStripBound() >= 0) { return rule.getReductionStripBound(); }
+        if(!visiting.add(rule)) { return AffixRule.UNBOUNDED; } // reduction cycle
+        int bound = 0;
+        for(AffixRule next : rule.getReductionRules().getAll()) {
+            if(next.getType() != rule.getType()) { continue; }
+            int nextBound = this.computeReductionBound(next, visiting);
+            if(nextBound == AffixRule.UNBOUNDED) {
+                bound = AffixRule.UNBOUNDED;
+                break;
+            }
+            bound = Math.max(bound, next.getAppend().length() + Math.max(0, nextBound - next.getRemove().length()));
+        }
+        visiting.remove(rule);
+        rule.setReductionStripBound(bound);
+        return bound;
     }
 
     
@@ -202,10 +295,64 @@ public class AffixRuleSet {
         return this.rulesByFlag.get(flag);
     }
     
+    /**
+     * @return all rules of the set, ordered by {@link AffixRule#getId()}
+     */
+    public Set<AffixRule> getRules() {
+        return this.rulesByFlag.getAll();
+    }
+
+    /**
+     * @return compiled form of this rule set (built on the first call)
+     */
+    public synchronized CompiledRuleSet getCompiled() {
+        if(this.compiled == null) {
+            this.compiled = new CompiledRuleSet(this);
+        }
+        return this.compiled;
+    }
+
+    /**
+     * @return array form of the links between the rules (built on the first call)
+     */
+    public synchronized RuleGraph getRuleGraph() {
+        if(this.graph == null) {
+            this.graph = new RuleGraph(this);
+        }
+        return this.graph;
+    }
+
     public AffixRuleType getRuleTypeByFlag(String flag) {
         Iterator<AffixRule> it = this.rulesByFlag.iterator(flag);
         if(it == null || !it.hasNext()) return null;
         return it.next().getType();
     }
-    
+
+    @Override
+    public long ramBytesUsed() {
+        long size = SHALLOW_SIZE;
+        for(Accountable child : this.getChildResources()) {
+            size += child.ramBytesUsed();
+        }
+        return size;
+    }
+
+    /**
+     * @return the rules with their links, the maps of the rules by flag and
+     *   affix and the rule graph and compiled rules when they are built
+     */
+    @Override
+    public synchronized Collection<Accountable> getChildResources() {
+        long rules = 0;
+        for(AffixRule rule : this.getRules()) {
+            rules += rule.ramBytesUsed();
+        }
+        List<Accountable> children = new ArrayList<Accountable>();
+        children.add(Accountables.namedAccountable("rules", rules));
+        children.add(Accountables.namedAccountable("rule maps", this.rulesByFlag.ramBytesUsed() +
+                this.pfxRulesByAffix.ramBytesUsed() + this.sfxRulesByAffix.ramBytesUsed()));
+        if(this.graph != null) { children.add(Accountables.namedAccountable("rule graph", this.graph)); }
+        if(this.compiled != null) { children.add(Accountables.namedAccountable("compiled rules", this.compiled)); }
+        return Collections.unmodifiableList(children);
+    }
 }
@@ -1,10 +1,20 @@
 package eu.horako.stemmer;
 
+import eu.horako.stemmer.jfr.StemmerEvents;
+import eu.horako.stemmer.metrics.CallStats;
+import eu.horako.stemmer.metrics.RuleProfile;
+import eu.horako.stemmer.metrics.StemmerMetrics;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Accountables;
+import org.apache.lucene.util.RamUsageEstimator;
 
 /**
  *
@@ -50,7 +60,7 @@ import java.util.Set;
  *   .aff a .dic, nebo i pro vstupni slova - coz se ale v Lucene/Solr da resit extra
  *   filtry; mozna to nejlepe udelat vsechno konfigurovatelne); pozn. tohle muze
  *   narusit kvalitu stemmingu - orezanim diakritiky muze matchovat vice pravidel
- *   nez s diakritikou, nutno vyresit VYSOKA PRIO
+ *   nez s diakritikou, nutno vyresit VYSOKA PRIO; ascii-folding FIXED (DiacriticsFolding)
  * 
  * - zavest kvalitni logovani pres standardni logger nebo slf4j, log4j nebo tak neco, 
  *   zahodit System.err.print; STREDNI PRIO
@@ -81,10 +91,35 @@ import java.util.Set;
  * - nejaka administrace? STREDNI PRIO
  * 
  */
-public class AffixStemmer implements IAffixProcessor {
-    private final Dictionary dictionary;
+public class AffixStemmer implements IAffixProcessor, Accountable {
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(AffixStemmer.class);
+    /** default max. number of chained reductions of one affix type */
+    public static final int DEFAULT_MAX_REDUCTION_DEPTH = 32;
+    /** default max. number of reduction candidates and prefix/suffix pairs per word */
+    public static final int DEFAULT_MAX_REDUCTION_WORK = 100000;
+
+    static final ThreadLocal<ReductionBuffer> BUFFERS = new ThreadLocal<ReductionBuffer>() { // shared by all models, see ReductionBuffer.release()
+        @Override
+        protected ReductionBuffer initialValue() {
+            return new ReductionBuffer();
+        }
+    };
+
+    private final IDictionary dictionary;
     private final AffixRuleSet ruleSet;
+    private final DiacriticsFolding folding;
     private boolean checkAgainstDictionary = true;
+    private boolean dictionaryPruning = true;
+    private StemmerMetrics metrics = null;
+    private RuleProfile profile = null;
+    private CompiledRuleSet compiled; // null - interpret the rules
+    private LemmaFrequencies lemmaFrequencies = null;
+    private int maxReductionDepth = DEFAULT_MAX_REDUCTION_DEPTH;
+    private int maxReductionWork = DEFAULT_MAX_REDUCTION_WORK;
+    private final int maxPfxLength; // longest affix of the rules, no longer word parts are looked up
+    private final int maxSfxLength;
+    private final RuleGraph graph;
+    private final CompiledRuleSet reduction; // rules of the buffered stem(), null with folding
     AffixRule emptyRule;
 
     
@@ -93,10 +128,38 @@ public class AffixStemmer implements IAffixProcessor {
      * @param ruleSet expansion rules for the dictionary
      * @param dictionary dictionary
      */
-    public AffixStemmer(AffixRuleSet ruleSet, Dictionary dictionary) {
+    public AffixStemmer(AffixRuleSet ruleSet, IDictionary dictionary) {
+        this(ruleSet, dictionary, null);
+    }
+
+    /**
+     * Create the stemmer accepting words written with as well as without 
+     * diacritics (see {@link DiacriticsFolding}); the stems have the diacritics
+     * of the dictionary words.
+     * @param folding folded view of the rule set and the dictionary
+     */
+    public AffixStemmer(DiacriticsFolding folding) {
+        this(folding.getFoldedRuleSet(), folding.getFoldedDictionary(), folding);
+    }
+
+    private AffixStemmer(AffixRuleSet ruleSet, IDictionary dictionary, DiacriticsFolding folding) {
         this.ruleSet = ruleSet;
         this.dictionary = dictionary;
+        this.folding = folding;
         this.emptyRule = new AffixRule(AffixRuleType.SFX,"","","",null,".",true,null);
+        this.maxPfxLength = maxKeyLength(ruleSet.pfxRulesByAffix);
+        this.maxSfxLength = maxKeyLength(ruleSet.sfxRulesByAffix);
+        this.graph = ruleSet.getRuleGraph();
+        this.reduction = folding == null ? ruleSet.getCompiled() : null;
+        this.compiled = ruleSet.getCompiled();
+    }
+
+    private static int maxKeyLength(AffixMap<String,AffixRule> rulesByAffix) {
+        int max = 0;
+        for(String affix : rulesByAffix.getKeys()) {
+            max = Math.max(max, affix.length());
+        }
+        return max;
     }
 
     /**
@@ -107,20 +170,111 @@ public class AffixStemmer implements IAffixProcessor {
      * @return set of stems; when there are no stems found, the set will be empty; it is never null
      */
     public Set<String> stem(String word) {
+        Object event = StemmerEvents.beginStem();
+        if(this.metrics == null && event == null) { return this.stem(word, null); }
+
+        CallStats stats = new CallStats();
+        long startNS = System.nanoTime();
+        Set<String> stems = this.stem(word, stats);
+        if(this.metrics != null) { this.metrics.recordStem(stats, stems.size(), System.nanoTime() - startNS); }
+        StemmerEvents.commitStem(event, word, stats, stems.size());
+        return stems;
+    }
+
+    /**
+     * Stem a batch of words; the result for each word is the same as from
+     * {@link #stem(String)}. The words are processed in the order of their
+     * reversed chars, so that the lookup of the suffix rules and their
+     * conditions is shared by the words with a common ending and a repeated
+     * word is stemmed only once.
+     *
+     * @param words words to be stemmed
+     * @param sink receives the stems of each word, in the order of the batch
+     */
+    public void stemAll(CharSequence[] words, BatchSink sink) {
+        int n = words.length;
+        final String[] strings = new String[n];
+        for(int i = 0; i < n; i++) {
+            strings[i] = words[i].toString();
+        }
+        if(this.folding != null || this.compiled == null) {
+            for(int i = 0; i < n; i++) {
+                sink.stems(i, words[i], this.stem(strings[i]));
+            }
+            return;
+        }
+
+        Integer[] order = new Integer[n];
+        for(int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareReversed(strings[a], strings[b]);
+            }
+        });
+
+        List<Set<String>> results = new ArrayList<Set<String>>(Collections.<Set<String>>nCopies(n, null));
+        CompiledRuleSet.SuffixSteps steps = this.reduction.newSuffixSteps();
+        String previous = null;
+        for(int k = 0; k < n; k++) {
+            int i = order[k];
+            String word = strings[i];
+            if(previous != null && previous.equals(word)) {
+                results.set(i, results.get(order[k - 1]));
+                continue;
+            }
+            previous = word;
+            Object event = StemmerEvents.beginStem();
+            if(this.metrics == null && event == null) {
+                results.set(i, this.stemBuffered(word, null, steps));
+                continue;
+            }
+            CallStats stats = new CallStats();
+            long startNS = System.nanoTime();
+            Set<String> stems = this.stemBuffered(word, stats, steps);
+            results.set(i, stems);
+            if(this.metrics != null) { this.metrics.recordStem(stats, stems.size(), System.nanoTime() - startNS); }
+            StemmerEvents.commitStem(event, word, stats, stems.size());
+        }
+        for(int i = 0; i < n; i++) {
+            sink.stems(i, words[i], results.get(i));
+        }
+    }
+
+    // order of the reversed strings
+    private static int compareReversed(String a, String b) {
+        int i = a.length() - 1;
+        int j = b.length() - 1;
+        for(; i >= 0 && j >= 0; i--, j--) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(j);
+            if(ca != cb) { return ca < cb ? -1 : 1; }
+        }
+        return i < 0 ? (j < 0 ? 0 : -1) : 1;
+    }
+
+    private Set<String> stem(String input, CallStats stats) {
+        if(this.folding == null && this.compiled != null) { return this.stemBuffered(input, stats, null); }
+        String word = this.folding != null ? DiacriticsFolding.fold(input) : input; // setCompiled(false) without folding gets here too
         Set<String> stems = new HashSet<String>();
-        Collection<WordRule> reduceSuffix = this.reduceAffix(word, AffixRuleType.SFX);
-        Collection<WordRule> reducePrefix = this.reduceAffix(word, AffixRuleType.PFX);
+        Collection<WordRule> reducePrefix = this.reduceAffix(word, AffixRuleType.PFX, false, stats, this.maxReductionWork);
+        // suffix reductions can be checked against the dictionary word prefixes
+        // only when they are not going to be combined with any prefix reduction
+        boolean pruneSuffix = this.dictionaryPruning && reducePrefix.size() == 1;
+        Collection<WordRule> reduceSuffix = this.reduceAffix(word, AffixRuleType.SFX, pruneSuffix, stats, this.maxReductionWork - reducePrefix.size());
 
         if(reduceSuffix != null) {
             for(WordRule wr : reduceSuffix) {
                 if(wr.rule == null) {
-                    if(this.dictContains(word)) {
-                        stems.add(wr.word);
+                    if(this.dictContains(word, stats)) {
+                        this.addStem(stems, input, wr);
                     }
                     continue;
                 }
-                if(this.dictContains(wr.word, wr.rule.getFlag())) {
-                    stems.add(this.expandStickyRule(wr));   
+                if(this.dictContains(wr.word, wr.rule.getFlag(), stats)) {
+                    this.addStem(stems, input, wr);
                 }
             }
         }
@@ -128,33 +282,34 @@ public class AffixStemmer implements IAffixProcessor {
         if(reducePrefix != null) {
             for(WordRule wr : reducePrefix) {
                 if(wr.rule == null) {
-                    if(this.dictContains(word)) {
-                        stems.add(wr.word);
+                    if(this.dictContains(word, stats)) {
+                        this.addStem(stems, input, wr);
                     }
                     continue;
                 }
-                if(this.dictContains(wr.word, wr.rule.getFlag())) {
-                    stems.add(this.expandStickyRule(wr));   
+                if(this.dictContains(wr.word, wr.rule.getFlag(), stats)) {
+                    this.addStem(stems, input, wr);
                 }
             }
         }
 
         
         if(reduceSuffix!=null && reducePrefix!=null) {
-            Collection<WordRulePair> reduceCombination = this.reduceCombined(reduceSuffix, reducePrefix);
+            Collection<WordRulePair> reduceCombination = this.reduceCombined(reduceSuffix, reducePrefix, stats,
+                    this.maxReductionWork - reducePrefix.size() - reduceSuffix.size());
             
             for(WordRulePair wrp : reduceCombination) {
-                if(this.dictContains(wrp.word, wrp.pfxWordRule.rule.getFlag(), wrp.sfxWordRule.rule.getFlag())) {
-                    stems.add(this.expandStickyRulePair(wrp));
+                if(this.dictContains(wrp.word, wrp.pfxWordRule.rule.getFlag(), wrp.sfxWordRule.rule.getFlag(), stats)) {
+                    this.addStem(stems, input, wrp);
                 }
                 else { // one should be an expansion rule of the other or vice versa...
                     AffixRule rsfx = wrp.sfxWordRule.rule;
                     AffixRule rpfx = wrp.pfxWordRule.rule;
-                    if(this.dictContains(wrp.word, rsfx.getFlag()) &&
+                    if(this.dictContains(wrp.word, rsfx.getFlag(), stats) &&
                             rsfx.hasExpansionFlag(rpfx.getFlag()) ||
-                       this.dictContains(wrp.word, rpfx.getFlag()) &&
+                       this.dictContains(wrp.word, rpfx.getFlag(), stats) &&
                             rpfx.hasExpansionFlag(rsfx.getFlag())) {
-                        stems.add(this.expandStickyRulePair(wrp));
+                        this.addStem(stems, input, wrp);
                     }
                 }
             }
@@ -163,6 +318,125 @@ public class AffixStemmer implements IAffixProcessor {
         return stems;
     }
 
+    /**
+     * Find the single best stem of the word: the stem with the highest
+     * frequency in the lemma frequency table (see {@link #setLemmaFrequencies(LemmaFrequencies)}),
+     * then the one reached by the fewest reductions, then the alphabetically first.
+     * 
+     * The candidates are checked against the dictionary from the best ranked 
+     * one and the search stops at the first valid one; the prefix/suffix 
+     * combinations are not generated at all when none of them can outrank 
+     * the best single-affix stem. The result is always one of the stems 
+     * returned by {@link #stem(String)}.
+     * 
+     * @param word the word to be stemmed
+     * @return the best stem or null if there is no stem
+     */
+    public String stemBest(String word) {
+        Object event = StemmerEvents.beginStem();
+        if(this.metrics == null && event == null) { return this.stemBest(word, null); }
+
+        CallStats stats = new CallStats();
+        long startNS = System.nanoTime();
+        String stem = this.stemBest(word, stats);
+        if(this.metrics != null) { this.metrics.recordStem(stats, stem == null ? 0 : 1, System.nanoTime() - startNS); }
+        StemmerEvents.commitStem(event, word, stats, stem == null ? 0 : 1);
+        return stem;
+    }
+
+    private String stemBest(String word, CallStats stats) {
+        if(this.folding != null) { // the candidates are folded, rank the accented stems
+            RankedStem best = null;
+            for(String stem : this.stem(word, stats)) {
+                RankedStem c = this.rank(stem, 0, null, null);
+                if(best == null || c.compareTo(best) < 0) { best = c; }
+            }
+            return best == null ? null : best.stem;
+        }
+        Collection<WordRule> reducePrefix = this.reduceAffix(word, AffixRuleType.PFX, false, stats, this.maxReductionWork);
+        boolean pruneSuffix = this.dictionaryPruning && reducePrefix.size() == 1;
+        Collection<WordRule> reduceSuffix = this.reduceAffix(word, AffixRuleType.SFX, pruneSuffix, stats, this.maxReductionWork - reducePrefix.size());
+
+        List<RankedStem> candidates = new ArrayList<RankedStem>(reduceSuffix.size() + reducePrefix.size());
+        for(WordRule wr : reduceSuffix) { // contains the word itself (rule == null)
+            candidates.add(this.rank(wr.rule == null ? wr.word : this.expandStickyRule(wr), depth(wr), wr, null));
+        }
+        for(WordRule wr : reducePrefix) {
+            if(wr.rule == null) { continue; }
+            candidates.add(this.rank(this.expandStickyRule(wr), depth(wr), wr, null));
+        }
+        Collections.sort(candidates);
+        RankedStem best = this.firstValid(word, candidates, stats);
+
+        // combinations are reached by at least 2 reductions
+        long maxFrequency = this.lemmaFrequencies == null ? 0 : this.lemmaFrequencies.getMaxFrequency();
+        if(best != null && (best.frequency > maxFrequency || best.frequency == maxFrequency && best.depth < 2)) {
+            return best.stem;
+        }
+        Collection<WordRulePair> reduceCombination = this.reduceCombined(reduceSuffix, reducePrefix, stats,
+                this.maxReductionWork - reducePrefix.size() - reduceSuffix.size());
+        candidates.clear();
+        for(WordRulePair wrp : reduceCombination) {
+            RankedStem c = this.rank(this.expandStickyRulePair(wrp), depth(wrp.sfxWordRule) + depth(wrp.pfxWordRule), null, wrp);
+            if(best == null || c.compareTo(best) < 0) {
+                candidates.add(c);
+            }
+        }
+        Collections.sort(candidates);
+        RankedStem bestCombined = this.firstValid(word, candidates, stats);
+        return bestCombined != null ? bestCombined.stem : (best != null ? best.stem : null);
+    }
+
+    // the first candidate (in the order of the list) that is a valid stem
+    private RankedStem firstValid(String word, List<RankedStem> candidates, CallStats stats) {
+        for(RankedStem c : candidates) {
+            if(c.wordRulePair == null ? this.isValid(word, c.wordRule, stats) : this.isValid(c.wordRulePair, stats)) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    // same checks as in stem()
+    private boolean isValid(String word, WordRule wr, CallStats stats) {
+        if(wr.rule == null) { return this.dictContains(word, stats); }
+        return this.dictContains(wr.word, wr.rule.getFlag(), stats);
+    }
+
+    private boolean isValid(WordRulePair wrp, CallStats stats) {
+        AffixRule rsfx = wrp.sfxWordRule.rule;
+        AffixRule rpfx = wrp.pfxWordRule.rule;
+        return this.dictContains(wrp.word, rpfx.getFlag(), rsfx.getFlag(), stats) ||
+               this.dictContains(wrp.word, rsfx.getFlag(), stats) && rsfx.hasExpansionFlag(rpfx.getFlag()) ||
+               this.dictContains(wrp.word, rpfx.getFlag(), stats) && rpfx.hasExpansionFlag(rsfx.getFlag());
+    }
+
+    private RankedStem rank(String stem, int depth, WordRule wr, WordRulePair wrp) {
+        long frequency = this.lemmaFrequencies == null ? 0 : this.lemmaFrequencies.getFrequency(stem);
+        return new RankedStem(stem, frequency, depth, wr, wrp);
+    }
+
+    // number of reductions leading to the word
+    private static int depth(WordRule wr) {
+        return wr == null ? 0 : wr.depth;
+    }
+
+    private void addStem(Set<String> stems, String input, WordRule wr) {
+        if(this.folding != null && this.checkAgainstDictionary) {
+            this.folding.addStems(stems, input, wr);
+            return;
+        }
+        stems.add(wr.rule == null ? wr.word : this.expandStickyRule(wr));
+    }
+
+    private void addStem(Set<String> stems, String input, WordRulePair wrp) {
+        if(this.folding != null && this.checkAgainstDictionary) {
+            this.folding.addStems(stems, input, wrp.word, wrp.sfxWordRule, wrp.pfxWordRule);
+            return;
+        }
+        stems.add(this.expandStickyRulePair(wrp));
+    }
+
     private String expandStickyRule(WordRule wr) {
         String word = wr.word;
         while(wr.rule!=null && wr.rule.isSticky()) {
@@ -200,28 +474,81 @@ public class AffixStemmer implements IAffixProcessor {
     // projdeme vsechny suffix redukce a pro kazdou z nich zkusime aplikovat vsechny prefix redukce, tj. MxN
     // platne kombinace jsou jen ty, ktere maji obe pravidla cross }obe musi byt pro dane slovo ve slovniku) 
     // nebo jedno pravidlo ma za reduction rule to druhe (to druhe musi byt ve slovniku)
-    private Collection<WordRulePair> reduceCombined(Collection<WordRule> sfxReduction, Collection<WordRule> pfxReduction) {
+    // At most `budget` pairs are tried; the rest is skipped as a limit hit.
+    private Collection<WordRulePair> reduceCombined(Collection<WordRule> sfxReduction, Collection<WordRule> pfxReduction, CallStats stats, int budget) {
         Collection<WordRulePair> combinedWordRules = new ArrayList<WordRulePair>();
+        List<PrefixGroup> pfxGroups = this.groupPrefixReductions(pfxReduction);
+        if(pfxGroups.isEmpty()) { return combinedWordRules; }
+
+        int pairs = 0;
         for(WordRule sfxRule: sfxReduction) {
             if(sfxRule.rule == null) { continue; }
-            for(WordRule pfxRule: pfxReduction) {
-                if(pfxRule.rule == null) { continue; }
-                String combinedStem = this.combineRules(sfxRule, pfxRule);
-                if(combinedStem == null) {
-                    continue;
+            int maxPfxRemoved = sfxRule.origLength - sfxRule.removedFromOrig;
+            for(PrefixGroup group : pfxGroups) {
+                if(group.removedFromOrig > maxPfxRemoved) { break; } // groups are sorted by removedFromOrig
+                String combinedStem = null;
+                for(WordRule pfxRule : group.wordRules) {
+                    if(++pairs > budget) {
+                        if(stats != null) { stats.reductionLimitHits++; }
+                        return combinedWordRules;
+                    }
+                    if(stats != null) { stats.crossProductPairs++; }
+                    if(!this.canCombine(sfxRule.rule, pfxRule.rule)) { continue; }
+                    if(combinedStem == null) {
+                        combinedStem = this.combineRules(sfxRule, group);
+                    }
+                    combinedWordRules.add(new WordRulePair(combinedStem, sfxRule,pfxRule));
                 }
-                combinedWordRules.add(new WordRulePair(combinedStem, sfxRule,pfxRule));
             }
         }
         return combinedWordRules;
     }
-    
-    private String combineRules(WordRule sfxRule, WordRule pfxRule) {
-        if(sfxRule.removedFromOrig + pfxRule.removedFromOrig > sfxRule.origLength) {
-            return null;
+
+    // prefix reductions producing the same beginning of the combined stem 
+    // (same removed part of the original word and the same new prefix)
+    private List<PrefixGroup> groupPrefixReductions(Collection<WordRule> pfxReduction) {
+        List<PrefixGroup> groups = new ArrayList<PrefixGroup>();
+        for(WordRule pfxRule: pfxReduction) {
+            if(pfxRule.rule == null) { continue; }
+            PrefixGroup group = null;
+            for(PrefixGroup g : groups) {
+                if(g.removedFromOrig == pfxRule.removedFromOrig && g.addedToOrig == pfxRule.addedToOrig &&
+                        pfxRule.word.regionMatches(0, g.wordRules.get(0).word, 0, g.addedToOrig)) {
+                    group = g;
+                    break;
+                }
+            }
+            if(group == null) {
+                group = new PrefixGroup(pfxRule);
+                groups.add(group);
+            } else {
+                group.wordRules.add(pfxRule);
+            }
         }
-        return pfxRule.word.substring(0, pfxRule.addedToOrig) + 
-                sfxRule.word.substring(pfxRule.removedFromOrig);
+        Collections.sort(groups);
+        return groups;
+    }
+
+    // False only for the pairs that cannot pass the dictionary checks of the
+    // combined stem: a stem with both flags needs an entry where the flags
+    // meet, a stem reached through an expansion rule needs some entry with
+    // the flag of the other rule. Without the dictionary check every pair is
+    // a stem. Rules coming from different rule sets of a merged set are never
+    // combined.
+    private boolean canCombine(AffixRule sfx, AffixRule pfx) {
+        if(sfx.getSource() != pfx.getSource()) { return false; } // rules of different merged rule sets
+        if(!this.checkAgainstDictionary) { return true; }
+        return this.dictionary.flagsCooccur(pfx.getFlag(), sfx.getFlag()) ||
+               sfx.hasExpansionFlag(pfx.getFlag()) && this.dictionary.hasFlag(sfx.getFlag()) ||
+               pfx.hasExpansionFlag(sfx.getFlag()) && this.dictionary.hasFlag(pfx.getFlag());
+    }
+    
+    private String combineRules(WordRule sfxRule, PrefixGroup pfxGroup) {
+        String sfxWord = sfxRule.word;
+        return new StringBuilder(pfxGroup.addedToOrig + sfxWord.length() - pfxGroup.removedFromOrig)
+                .append(pfxGroup.wordRules.get(0).word, 0, pfxGroup.addedToOrig)
+                .append(sfxWord, pfxGroup.removedFromOrig, sfxWord.length())
+                .toString();
     }
     
     /**
@@ -232,43 +559,90 @@ public class AffixStemmer implements IAffixProcessor {
      * @return
      */
     protected Collection<WordRule> reduceAffix(String word,AffixRuleType type) {
+        return this.reduceAffix(word, type, false, null, this.maxReductionWork);
+    }
+
+    // Breadth-first reduction. A (word, rule) state is expanded only once, so
+    // reduction cycles in the rule set terminate; chains longer than the max.
+    // depth are not followed and no more than `budget` candidates are
+    // generated. Hitting a limit returns the candidates found so far.
+    private Collection<WordRule> reduceAffix(String word,AffixRuleType type, boolean prune, CallStats stats, int budget) {
         Collection<WordRule> allWordRules = new ArrayList<WordRule>();
         WordRule topRule = new WordRule(word,null,null);
         allWordRules.add(topRule);
-        Collection<WordRule> wordRules = this.reduceAffixFirstStep(word,type,topRule);
+        Collection<WordRule> wordRules = this.reduceAffixFirstStep(word,type,topRule,prune,stats);
         if(wordRules == null) {
             return allWordRules;
         }
+        if(!addWithinBudget(allWordRules, wordRules, budget, stats)) {
+            return allWordRules;
+        }
 
         
         Collection<WordRule> nextWordRules = new ArrayList<WordRule>();
+        Set<ReductionState> expanded = null; // states already expanded
 
-        allWordRules.addAll(wordRules);
         nextWordRules.addAll(wordRules);
-        while(true) {
+        while(!nextWordRules.isEmpty()) {
             wordRules.clear();
             wordRules.addAll(nextWordRules);
             nextWordRules.clear();
             for(WordRule wr: wordRules) {
-                Collection<WordRule> newWordRules = this.reduceAffixNextStep(wr.word, wr, wr.rule.getReductionRules().getAll(),type);
+                if(!this.hasReductions(wr.rule)) {
+                    continue;
+                }
+                if(wr.depth >= this.maxReductionDepth) {
+                    if(stats != null) { stats.reductionLimitHits++; }
+                    continue;
+                }
+                if(expanded == null) {
+                    expanded = new HashSet<ReductionState>();
+                }
+                if(!expanded.add(new ReductionState(wr.rule.getId(), wr.word))) {
+                    continue;
+                }
+                Collection<WordRule> newWordRules = this.compiled != null
+                        ? this.reduceAffixNextStepCompiled(wr, prune, stats)
+                        : this.reduceAffixNextStep(wr, prune, stats);
                 if(newWordRules == null) {
                     continue;
                 }
-                allWordRules.addAll(newWordRules);
+                if(!addWithinBudget(allWordRules, newWordRules, budget, stats)) {
+                    return allWordRules;
+                }
                 nextWordRules.addAll(newWordRules);
             }
-            if(nextWordRules.isEmpty()) {
-                break;
-            }
         }
         
         return allWordRules;
     }
+
+    // add as many of the new candidates as the budget allows; false when some did not fit
+    private static boolean addWithinBudget(Collection<WordRule> allWordRules, Collection<WordRule> newWordRules, int budget, CallStats stats) {
+        if(allWordRules.size() + newWordRules.size() <= budget) {
+            allWordRules.addAll(newWordRules);
+            return true;
+        }
+        for(WordRule wr : newWordRules) {
+            if(allWordRules.size() >= budget) { break; }
+            allWordRules.add(wr);
+        }
+        if(stats != null) { stats.reductionLimitHits++; }
+        return false;
+    }
+
+    private boolean hasReductions(AffixRule rule) {
+        return this.graph.hasReductions(rule.getId());
+    }
     
     
-    protected Collection<WordRule> reduceAffixFirstStep(String word, AffixRuleType type, WordRule topRule) {
+    protected Collection<WordRule> reduceAffixFirstStep(String word, AffixRuleType type, WordRule topRule, boolean prune, CallStats stats) {
+        if(this.compiled != null) {
+            return this.reduceAffixFirstStepCompiled(word, type, topRule, prune, stats);
+        }
         List<WordRule> newRules = null;
-        for(int i=0 ; i <= word.length(); i++) {
+        int maxLength = Math.min(word.length(), type == AffixRuleType.PFX ? this.maxPfxLength : this.maxSfxLength);
+        for(int i=0 ; i <= maxLength; i++) {
             String affix;
             Collection<AffixRule> rules;
             if(type == AffixRuleType.PFX) {
@@ -286,7 +660,9 @@ public class AffixStemmer implements IAffixProcessor {
                 if(r.isInvalid()) { continue; }
                 String stem = r.stemWord(word);
                 if(stem == null) { continue; }
+                if(prune && !this.isAdmissible(stem, r, stats)) { continue; }
                 WordRule affixWordRule = new WordRule(stem,r,topRule);
+                if(stats != null) { stats.firstStepCandidates++; }
                 if(newRules ==  null) {
                     newRules = new ArrayList<WordRule>();
                 }
@@ -296,16 +672,21 @@ public class AffixStemmer implements IAffixProcessor {
         return newRules;
     }
 
-    private Collection<WordRule> reduceAffixNextStep(String word, WordRule previousWR, Collection<AffixRule> possibleRules, AffixRuleType type) {
-        if(possibleRules == null) { return null; } 
+    private Collection<WordRule> reduceAffixNextStep(WordRule previousWR, boolean prune, CallStats stats) {
+        RuleGraph g = this.graph;
+        String word = previousWR.word;
         List<WordRule> newRules = null;
-        
-        for(AffixRule r: possibleRules) {
-            if(r.getType() != type) { continue; }
+        int id = previousWR.rule.getId();
+        for(int k = g.reductionOffsets[id], end = g.reductionOffsets[id + 1]; k < end; k++) {
+            int target = g.reductionTargets[k];
+            if(!g.appendMatches(target, word)) { continue; }
+            AffixRule r = g.rules[target];
             String stem = r.stemWord(word);
 
             if(stem == null) { continue; }
+            if(prune && !this.isAdmissible(stem, r, stats)) { continue; }
             WordRule afxWordRule = new WordRule(stem,r,previousWR);
+            if(stats != null) { stats.reductionSteps++; }
             if(newRules ==  null) {
                 newRules = new ArrayList<WordRule>();
             }
@@ -315,9 +696,307 @@ public class AffixStemmer implements IAffixProcessor {
         return newRules;
     }
 
+    private Collection<WordRule> reduceAffixFirstStepCompiled(String word, AffixRuleType type, WordRule topRule, boolean prune, CallStats stats) {
+        List<CompiledRuleSet.CompiledRule> rules = new ArrayList<CompiledRuleSet.CompiledRule>();
+        this.compiled.collectFirstStepRules(word, type, rules);
+        List<WordRule> newRules = null;
+        for(CompiledRuleSet.CompiledRule cr : rules) {
+            String stem = cr.stemWord(word, true);
+            if(stem == null) { continue; }
+            if(prune && !this.isAdmissible(stem, cr.getRule(), stats)) { continue; }
+            if(stats != null) { stats.firstStepCandidates++; }
+            if(newRules ==  null) {
+                newRules = new ArrayList<WordRule>();
+            }
+            newRules.add(new WordRule(stem,cr.getRule(),topRule));
+        }
+        return newRules;
+    }
+
+    private Collection<WordRule> reduceAffixNextStepCompiled(WordRule previousWR, boolean prune, CallStats stats) {
+        List<WordRule> newRules = null;
+        for(CompiledRuleSet.CompiledRule cr : this.compiled.getRule(previousWR.rule).getReductions()) {
+            String stem = cr.stemWord(previousWR.word, false);
+            if(stem == null) { continue; }
+            if(prune && !this.isAdmissible(stem, cr.getRule(), stats)) { continue; }
+            if(stats != null) { stats.reductionSteps++; }
+            if(newRules ==  null) {
+                newRules = new ArrayList<WordRule>();
+            }
+            newRules.add(new WordRule(stem,cr.getRule(),previousWR));
+        }
+        return newRules;
+    }
+
+    // A suffix reduction candidate is admissible when the part of it that no 
+    // following reduction can change is a prefix of some dictionary word;
+    // a candidate with no further reductions must also have the shape of
+    // a dictionary word with the flag of its rule.
+    private boolean isAdmissible(CharSequence stem, AffixRule rule, CallStats stats) {
+        if(this.checkAgainstDictionary && !this.graph.hasReductions(rule.getId()) && !this.dictionary.admits(stem, rule.getFlag())) {
+            if(stats != null) { stats.prunedCandidates++; }
+            return false;
+        }
+        int bound = rule.getReductionStripBound();
+        if(bound == AffixRule.UNBOUNDED || bound < 0) { return true; }
+        int fixedLength = stem.length() - bound;
+        if(fixedLength <= 0 || this.dictionary.hasWordWithPrefix(stem, fixedLength)) { return true; }
+        if(stats != null) { stats.prunedCandidates++; }
+        return false;
+    }
 
     
-    
+    // The same reduction as stem() on the WordRule path (reduceAffix(), 
+    // reduceCombined() and the dictionary checks), with the candidates kept
+    // in the ReductionBuffer of the thread; the same candidates are generated
+    // and probed in the same order, so the stems and the call stats are the same.
+    // `steps` - suffix first step shared by the words of stemAll(), null for a single word
+    private Set<String> stemBuffered(String word, CallStats stats, CompiledRuleSet.SuffixSteps steps) {
+        ReductionBuffer buf = BUFFERS.get();
+        buf.reset();
+        try {
+            Set<String> stems = new HashSet<String>();
+            int wordLength = word.length();
+            int wordStart = buf.alloc(wordLength);
+            word.getChars(0, wordLength, buf.arena, wordStart);
+
+            int pfxFrom = this.reduceBuffered(buf, wordStart, wordLength, AffixRuleType.PFX, false, stats, this.maxReductionWork, null);
+            int pfxTo = buf.size;
+            boolean pruneSuffix = this.dictionaryPruning && pfxTo - pfxFrom == 1;
+            if(steps != null) { steps.next(word); }
+            int sfxFrom = this.reduceBuffered(buf, wordStart, wordLength, AffixRuleType.SFX, pruneSuffix, stats,
+                    this.maxReductionWork - (pfxTo - pfxFrom), steps);
+            int sfxTo = buf.size;
+
+            this.addStemsBuffered(buf, stems, word, sfxFrom, sfxTo, stats);
+            this.addStemsBuffered(buf, stems, word, pfxFrom, pfxTo, stats);
+            this.addCombinedStemsBuffered(buf, stems, sfxFrom, sfxTo, pfxFrom, pfxTo, stats,
+                    this.maxReductionWork - (pfxTo - pfxFrom) - (sfxTo - sfxFrom));
+            return stems;
+        } finally {
+            buf.release();
+            if(buf.isOversized()) { BUFFERS.remove(); }
+        }
+    }
+
+    // reduceAffix() into the buffer; returns the index of the word itself,
+    // the candidates follow it up to the end of the buffer; `steps` - SFX first
+    // step rules already positioned on the word or null
+    private int reduceBuffered(ReductionBuffer buf, int wordStart, int wordLength, AffixRuleType type, boolean prune, CallStats stats, int budget,
+            CompiledRuleSet.SuffixSteps steps) {
+        int from = buf.add(ReductionBuffer.NONE, ReductionBuffer.NONE, wordStart, wordLength, 0, 0, 0);
+        buf.clearExpanded();
+
+        if(steps != null) {
+            for(int k = 0, count = steps.getCount(); k < count; k++) {
+                byte state = steps.getState(k);
+                if(state == CompiledRuleSet.SuffixSteps.FAILED) { continue; }
+                if(this.addReduction(buf, from, steps.getRule(k), true, state == CompiledRuleSet.SuffixSteps.MATCHED, prune, stats) && stats != null) {
+                    stats.firstStepCandidates++;
+                }
+            }
+        } else {
+            List<CompiledRuleSet.CompiledRule> rules = buf.firstStepRules;
+            rules.clear();
+            this.reduction.collectFirstStepRules(buf.chars(from), type, rules);
+            for(CompiledRuleSet.CompiledRule cr : rules) {
+                if(this.addReduction(buf, from, cr, true, false, prune, stats) && stats != null) { stats.firstStepCandidates++; }
+            }
+        }
+        if(!withinBudget(buf, from, from + 1, budget, stats)) {
+            return from;
+        }
+
+        RuleGraph g = this.graph;
+        int levelStart = from + 1;
+        while(levelStart < buf.size) {
+            int levelEnd = buf.size;
+            for(int i = levelStart; i < levelEnd; i++) {
+                int id = buf.rule[i];
+                if(!g.hasReductions(id)) {
+                    continue;
+                }
+                if(buf.depth[i] >= this.maxReductionDepth) {
+                    if(stats != null) { stats.reductionLimitHits++; }
+                    continue;
+                }
+                if(!buf.markExpanded(i)) {
+                    continue;
+                }
+                int before = buf.size;
+                for(int k = g.reductionOffsets[id], end = g.reductionOffsets[id + 1]; k < end; k++) {
+                    if(this.addReduction(buf, i, this.reduction.getRule(g.reductionTargets[k]), false, false, prune, stats) && stats != null) {
+                        stats.reductionSteps++;
+                    }
+                }
+                if(!withinBudget(buf, from, before, budget, stats)) {
+                    return from;
+                }
+            }
+            levelStart = levelEnd;
+        }
+        return from;
+    }
+
+    // addWithinBudget(): keep at most `budget` candidates from `from` on;
+    // false when those added since `before` did not all fit
+    private static boolean withinBudget(ReductionBuffer buf, int from, int before, int budget, CallStats stats) {
+        if(buf.size == before || buf.size - from <= budget) { return true; }
+        buf.size = from + Math.max(before - from, budget);
+        if(stats != null) { stats.reductionLimitHits++; }
+        return false;
+    }
+
+    // CompiledRule.stemWord() of the candidate `parent` into the arena; 
+    // false when the rule can't be reversed on it or the result is pruned
+    private boolean addReduction(ReductionBuffer buf, int parent, CompiledRuleSet.CompiledRule cr, boolean appendMatched, boolean conditionMatched,
+            boolean prune, CallStats stats) {
+        RuleProfile profile = this.profile;
+        if(profile == null) {
+            return this.reduce(buf, parent, cr, appendMatched, conditionMatched, prune, stats) == RuleProfile.CANDIDATE;
+        }
+        long startNS = System.nanoTime();
+        int outcome = this.reduce(buf, parent, cr, appendMatched, conditionMatched, prune, stats);
+        profile.recordReduction(cr.rule.getId(), outcome, System.nanoTime() - startNS);
+        return outcome == RuleProfile.CANDIDATE;
+    }
+
+    // the outcome of addReduction() as a RuleProfile constant
+    private int reduce(ReductionBuffer buf, int parent, CompiledRuleSet.CompiledRule cr, boolean appendMatched, boolean conditionMatched,
+            boolean prune, CallStats stats) {
+        int wordStart = buf.start[parent];
+        int wordLength = buf.length[parent];
+        String append = cr.append;
+        String remove = cr.remove;
+        int appendLength = append.length();
+        int keptLength = wordLength - appendLength;
+        if(keptLength < 0) { return RuleProfile.NO_MATCH; }
+
+        int stemStart;
+        int stemLength = keptLength + remove.length();
+        if(cr.condition == null) { // no char-class form of the condition, use the regex
+            String stem = cr.rule.stemWord(buf.toString(wordStart, wordLength));
+            if(stem == null) { return RuleProfile.NO_MATCH; }
+            stemLength = stem.length();
+            stemStart = buf.alloc(stemLength);
+            stem.getChars(0, stemLength, buf.arena, stemStart);
+        } else if(cr.suffix) {
+            if(!appendMatched && !regionMatches(buf.arena, wordStart + keptLength, append)) { return RuleProfile.NO_MATCH; }
+            if(!conditionMatched && !cr.condition.matches(buf.chars(parent), 0, keptLength, remove)) { return RuleProfile.NO_MATCH; }
+            stemStart = buf.alloc(stemLength);
+            System.arraycopy(buf.arena, wordStart, buf.arena, stemStart, keptLength);
+            remove.getChars(0, remove.length(), buf.arena, stemStart + keptLength);
+        } else {
+            if(!appendMatched && !regionMatches(buf.arena, wordStart, append)) { return RuleProfile.NO_MATCH; }
+            if(!conditionMatched && !cr.condition.matches(buf.chars(parent), appendLength, wordLength, remove)) { return RuleProfile.NO_MATCH; }
+            stemStart = buf.alloc(stemLength);
+            remove.getChars(0, remove.length(), buf.arena, stemStart);
+            System.arraycopy(buf.arena, wordStart + appendLength, buf.arena, stemStart + remove.length(), keptLength);
+        }
+        if(prune && !this.isAdmissible(buf.view(stemStart, stemLength), cr.rule, stats)) {
+            buf.arenaUsed = stemStart;
+            return RuleProfile.PRUNED;
+        }
+        // same as in the WordRule constructor
+        int origLength = buf.length[0];
+        int removedFromOrig = Math.max(buf.removed[parent], origLength - stemLength + remove.length());
+        buf.add(cr.rule.getId(), parent, stemStart, stemLength, removedFromOrig,
+                stemLength - origLength + removedFromOrig, buf.depth[parent] + 1);
+        return RuleProfile.CANDIDATE;
+    }
+
+    private static boolean regionMatches(char[] chars, int offset, String s) {
+        for(int i = 0, len = s.length(); i < len; i++) {
+            if(chars[offset + i] != s.charAt(i)) { return false; }
+        }
+        return true;
+    }
+
+    // the single affix checks of stem()
+    private void addStemsBuffered(ReductionBuffer buf, Set<String> stems, String word, int from, int to, CallStats stats) {
+        for(int i = from; i < to; i++) {
+            if(buf.rule[i] == ReductionBuffer.NONE) {
+                if(this.dictContains(word, stats)) {
+                    stems.add(word);
+                }
+                continue;
+            }
+            RuleProfile profile = this.profile;
+            long startNS = profile == null ? 0 : System.nanoTime();
+            boolean hit = this.dictContains(buf, buf.start[i], buf.length[i], this.graph.rules[buf.rule[i]].getFlag(), stats);
+            if(profile != null) { profile.recordProbe(buf.rule[i], hit, System.nanoTime() - startNS); }
+            if(hit) {
+                stems.add(this.expandStickyRules(buf, i, buf.toString(buf.start[i], buf.length[i])));
+            }
+        }
+    }
+
+    // reduceCombined() and the checks of the pairs in stem()
+    private void addCombinedStemsBuffered(ReductionBuffer buf, Set<String> stems, int sfxFrom, int sfxTo, int pfxFrom, int pfxTo, CallStats stats, int budget) {
+        buf.groupPrefixes(pfxFrom, pfxTo);
+        if(buf.groupCount == 0) { return; }
+
+        RuleGraph g = this.graph;
+        int origLength = buf.length[0];
+        int pairs = 0;
+        for(int s = sfxFrom; s < sfxTo; s++) {
+            if(buf.rule[s] == ReductionBuffer.NONE) { continue; }
+            AffixRule rsfx = g.rules[buf.rule[s]];
+            int maxPfxRemoved = origLength - buf.removed[s];
+            for(int k = 0; k < buf.groupCount; k++) {
+                int first = buf.groupFirst[k];
+                int pfxRemoved = buf.removed[first];
+                if(pfxRemoved > maxPfxRemoved) { break; } // groups are sorted by removed
+                int stemStart = -1;
+                int stemLength = 0;
+                for(int p = first; p != ReductionBuffer.NONE; p = buf.next[p]) {
+                    if(++pairs > budget) {
+                        if(stats != null) { stats.reductionLimitHits++; }
+                        return;
+                    }
+                    if(stats != null) { stats.crossProductPairs++; }
+                    AffixRule rpfx = g.rules[buf.rule[p]];
+                    if(!this.canCombine(rsfx, rpfx)) { continue; }
+                    if(stemStart < 0) { // combineRules()
+                        int pfxAdded = buf.added[first];
+                        int sfxKept = buf.length[s] - pfxRemoved;
+                        stemLength = pfxAdded + sfxKept;
+                        stemStart = buf.alloc(stemLength);
+                        System.arraycopy(buf.arena, buf.start[first], buf.arena, stemStart, pfxAdded);
+                        System.arraycopy(buf.arena, buf.start[s] + pfxRemoved, buf.arena, stemStart + pfxAdded, sfxKept);
+                    }
+                    RuleProfile profile = this.profile;
+                    long startNS = profile == null ? 0 : System.nanoTime();
+                    boolean hit = this.isValidPair(buf, stemStart, stemLength, rsfx, rpfx, stats);
+                    if(profile != null) { // the time is split between the rules
+                        long nanos = System.nanoTime() - startNS;
+                        profile.recordProbe(buf.rule[s], hit, nanos / 2);
+                        profile.recordProbe(buf.rule[p], hit, nanos - nanos / 2);
+                    }
+                    if(hit) {
+                        String stem = this.expandStickyRules(buf, s, buf.toString(stemStart, stemLength));
+                        stems.add(this.expandStickyRules(buf, p, stem));
+                    }
+                }
+            }
+        }
+    }
+
+    // same checks as isValid(WordRulePair)
+    private boolean isValidPair(ReductionBuffer buf, int start, int length, AffixRule rsfx, AffixRule rpfx, CallStats stats) {
+        return this.dictContains(buf, start, length, rpfx.getFlag(), rsfx.getFlag(), stats) ||
+               this.dictContains(buf, start, length, rsfx.getFlag(), stats) && rsfx.hasExpansionFlag(rpfx.getFlag()) ||
+               this.dictContains(buf, start, length, rpfx.getFlag(), stats) && rpfx.hasExpansionFlag(rsfx.getFlag());
+    }
+
+    // expandStickyRule() along the parents of candidate i
+    private String expandStickyRules(ReductionBuffer buf, int i, String word) {
+        while(i != ReductionBuffer.NONE && buf.rule[i] != ReductionBuffer.NONE && this.graph.is(buf.rule[i], RuleGraph.STICKY)) {
+            word = this.graph.rules[buf.rule[i]].apply(word);
+            i = buf.parent[i];
+        }
+        return word;
+    }
 
     @Override
     public Set<String> process(String word) {
@@ -340,19 +1019,195 @@ public class AffixStemmer implements IAffixProcessor {
         this.checkAgainstDictionary = checkAgainstDictionary;
     }
 
-    private boolean dictContains(String word) {
-        if(this.checkAgainstDictionary) return this.dictionary.contains(word);
-        else return true;
+    public boolean isDictionaryPruning() {
+        return dictionaryPruning;
+    }
+
+    /**
+     * Turns on/off cutting of reduction branches that cannot lead to any 
+     * dictionary word (checked against dictionary word prefixes). The result
+     * of stemming with the dictionary check is the same either way, pruning just
+     * avoids generating dead candidates. With the dictionary check turned off
+     * (see {@link #setCheckAgainstDictionary(boolean)}) pruning restricts the 
+     * candidates to those consistent with the dictionary.
+     * 
+     * @param dictionaryPruning true to prune (default), false to generate all candidates
+     */
+    public void setDictionaryPruning(boolean dictionaryPruning) {
+        this.dictionaryPruning = dictionaryPruning;
+    }
+
+    public boolean isCompiled() {
+        return this.compiled != null;
+    }
+
+    /**
+     * Turns on/off the compiled form of the rule set (see {@link CompiledRuleSet}).
+     * With the compiled form, {@link #stem(String)} without diacritics folding
+     * keeps its candidates in a per-thread buffer and the other methods look
+     * up the matching rules in the compiled tries. Without it, the rules are
+     * interpreted one by one as they are written, which is much slower; it
+     * is the reference the compiled form is tested against. The stems found
+     * are the same either way.
+     *
+     * @param compiled true (default) to use the compiled rule set, false to interpret the rules
+     */
+    public void setCompiled(boolean compiled) {
+        this.compiled = compiled ? this.ruleSet.getCompiled() : null;
+    }
+
+    public AffixRuleSet getRuleSet() {
+        return this.ruleSet;
+    }
+
+    public IDictionary getDictionary() {
+        return this.dictionary;
+    }
+
+    /**
+     * @return folded view the stemmer works on or null if it works on the original rule set and dictionary
+     */
+    public DiacriticsFolding getDiacriticsFolding() {
+        return this.folding;
+    }
+
+    public int getMaxReductionDepth() {
+        return this.maxReductionDepth;
+    }
+
+    /**
+     * @param maxReductionDepth max. number of chained reductions of one affix
+     *   type (&gt; 0); longer chains are cut off
+     */
+    public void setMaxReductionDepth(int maxReductionDepth) {
+        if(maxReductionDepth <= 0) { throw new IllegalArgumentException("maxReductionDepth must be > 0"); }
+        this.maxReductionDepth = maxReductionDepth;
+    }
+
+    public int getMaxReductionWork() {
+        return this.maxReductionWork;
+    }
+
+    /**
+     * @param maxReductionWork max. number of reduction candidates and 
+     *   prefix/suffix pairs generated for one word (&gt; 0); when it is 
+     *   reached, the stems found so far are returned
+     */
+    public void setMaxReductionWork(int maxReductionWork) {
+        if(maxReductionWork <= 0) { throw new IllegalArgumentException("maxReductionWork must be > 0"); }
+        this.maxReductionWork = maxReductionWork;
+    }
+
+    public LemmaFrequencies getLemmaFrequencies() {
+        return this.lemmaFrequencies;
+    }
+
+    /**
+     * Set the lemma frequencies used by {@link #stemBest(String)} to rank
+     * the stems; null (default) ranks the stems just by the number of reductions.
+     * @param lemmaFrequencies frequencies (priorities) of lemmas
+     */
+    public void setLemmaFrequencies(LemmaFrequencies lemmaFrequencies) {
+        this.lemmaFrequencies = lemmaFrequencies;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long size = SHALLOW_SIZE;
+        for(Accountable child : this.getChildResources()) {
+            size += child.ramBytesUsed();
+        }
+        return size;
+    }
+
+    /**
+     * @return the model of the stemmer: the rule set and the dictionary (or
+     *   the diacritics folding holding both) and the lemma frequencies; the
+     *   per-thread reduction buffers are not included
+     */
+    @Override
+    public Collection<Accountable> getChildResources() {
+        List<Accountable> children = new ArrayList<Accountable>();
+        if(this.folding != null) {
+            children.add(Accountables.namedAccountable("diacritics folding", this.folding));
+        } else {
+            children.add(Accountables.namedAccountable("affix rules", this.ruleSet));
+            children.add(Accountables.namedAccountable("dictionary", this.dictionary));
+        }
+        LemmaFrequencies frequencies = this.lemmaFrequencies;
+        if(frequencies != null) { children.add(Accountables.namedAccountable("lemma frequencies", frequencies)); }
+        return Collections.unmodifiableList(children);
+    }
+
+    public StemmerMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Attach runtime metrics to the stemmer; null (default) turns the metrics off.
+     * @param metrics metrics to record the work of this stemmer into
+     */
+    public void setMetrics(StemmerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Attribute the work of the stemmer to the single rules; null (default)
+     * turns the profiling off. Only the stemming with the compiled rules
+     * and without diacritics folding is profiled.
+     * @param profile profile of the rule set of this stemmer
+     */
+    public void setProfile(RuleProfile profile) {
+        this.profile = profile;
+    }
+
+    public RuleProfile getProfile() {
+        return this.profile;
+    }
+
+    private boolean dictContains(String word, CallStats stats) {
+        if(!this.checkAgainstDictionary) return true;
+        return this.countProbe(this.dictionary.contains(word), stats);
     }
     
-    private boolean dictContains(String word,String affix) {
-        if(this.checkAgainstDictionary) return this.dictionary.contains(word,affix);
-        else return true;
+    private boolean dictContains(String word,String affix, CallStats stats) {
+        if(!this.checkAgainstDictionary) return true;
+        if(!this.admits(word, affix, stats)) return false;
+        return this.countProbe(this.dictionary.contains(word,affix), stats);
     }
     
-    private boolean dictContains(String word,String pfx,String sfx) {
-        if(this.checkAgainstDictionary) return this.dictionary.contains(word,pfx,sfx);
-        else return true;
+    private boolean dictContains(String word,String pfx,String sfx, CallStats stats) {
+        if(!this.checkAgainstDictionary) return true;
+        if(!this.admits(word, pfx, stats) || !this.admits(word, sfx, stats)) return false;
+        return this.countProbe(this.dictionary.contains(word,pfx,sfx), stats);
+    }
+
+    // the word buf.arena[start .. start + length - 1]
+    private boolean dictContains(ReductionBuffer buf, int start, int length, String affix, CallStats stats) {
+        if(!this.checkAgainstDictionary) return true;
+        if(!this.admits(buf.view(start, length), affix, stats)) return false;
+        return this.countProbe(this.dictionary.contains(buf.arena, start, length, affix), stats);
+    }
+
+    private boolean dictContains(ReductionBuffer buf, int start, int length, String pfx, String sfx, CallStats stats) {
+        if(!this.checkAgainstDictionary) return true;
+        if(!this.admits(buf.view(start, length), pfx, stats) || !this.admits(buf.view(start, length), sfx, stats)) return false;
+        return this.countProbe(this.dictionary.contains(buf.arena, start, length, pfx, sfx), stats);
+    }
+
+    // the flag shape check in front of the lookups (see IDictionary.admits()); a null flag is not checked
+    private boolean admits(CharSequence word, String flag, CallStats stats) {
+        if(flag == null || this.dictionary.admits(word, flag)) return true;
+        if(stats != null) { stats.shapeRejections++; }
+        return false;
+    }
+
+    private boolean countProbe(boolean hit, CallStats stats) {
+        if(stats != null) {
+            stats.dictionaryProbes++;
+            if(hit) { stats.dictionaryHits++; }
+        }
+        return hit;
     }
     
 
@@ -376,12 +1231,14 @@ public class AffixStemmer implements IAffixProcessor {
         int removedFromOrig;
         int addedToOrig;
         int origLength;
+        int depth; // number of reductions leading to the word
         
         public WordRule(String word, AffixRule rule, WordRule previous) {
             this.word = word;
             this.rule = rule;
             this.previous = previous;
             if(previous != null) {
+                this.depth = previous.depth + 1;
                 this.origLength = this.previous.origLength;
                 this.removedFromOrig = Math.max(previous.removedFromOrig,previous.origLength - this.word.length() + this.rule.getRemove().length());
                 this.addedToOrig = this.word.length() - this.origLength + this.removedFromOrig;
@@ -394,6 +1251,70 @@ public class AffixStemmer implements IAffixProcessor {
         
     }
 
+    // key of the expanded states of reduceAffix(): the word reached by the rule
+    private static final class ReductionState {
+        final int rule;
+        final String word;
+
+        ReductionState(int rule, String word) {
+            this.rule = rule;
+            this.word = word;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof ReductionState)) { return false; }
+            ReductionState other = (ReductionState) o;
+            return this.rule == other.rule && this.word.equals(other.word);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.rule + this.word.hashCode();
+        }
+    }
+
+    private static class PrefixGroup implements Comparable<PrefixGroup> {
+        final int removedFromOrig;
+        final int addedToOrig;
+        final List<WordRule> wordRules = new ArrayList<WordRule>(2);
+
+        PrefixGroup(WordRule first) {
+            this.removedFromOrig = first.removedFromOrig;
+            this.addedToOrig = first.addedToOrig;
+            this.wordRules.add(first);
+        }
+
+        @Override
+        public int compareTo(PrefixGroup other) {
+            return this.removedFromOrig < other.removedFromOrig ? -1 : (this.removedFromOrig == other.removedFromOrig ? 0 : 1);
+        }
+    }
+
+    // candidate of stemBest(); the best ranked candidate is the smallest one
+    private static class RankedStem implements Comparable<RankedStem> {
+        final String stem;
+        final long frequency;
+        final int depth;
+        final WordRule wordRule;
+        final WordRulePair wordRulePair;
+
+        RankedStem(String stem, long frequency, int depth, WordRule wordRule, WordRulePair wordRulePair) {
+            this.stem = stem;
+            this.frequency = frequency;
+            this.depth = depth;
+            this.wordRule = wordRule;
+            this.wordRulePair = wordRulePair;
+        }
+
+        @Override
+        public int compareTo(RankedStem other) {
+            if(this.frequency != other.frequency) { return this.frequency > other.frequency ? -1 : 1; }
+            if(this.depth != other.depth) { return this.depth < other.depth ? -1 : 1; }
+            return this.stem.compareTo(other.stem);
+        }
+    }
+
     public class WordRulePair {
         String word;
         WordRule pfxWordRule;
@@ -0,0 +1,20 @@
+package eu.horako.stemmer;
+
+import java.util.Set;
+
+/**
+ * Receives the stems of the words of a batch stemmed by
+ * {@link AffixStemmer#stemAll(CharSequence[], BatchSink)}.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public interface BatchSink {
+    /**
+     * Called once for each word of the batch, in the order of the batch.
+     * @param index index of the word in the batch
+     * @param word the word
+     * @param stems stems of the word, as returned by {@link AffixStemmer#stem(String)};
+     *   the same set is given for all occurrences of a repeated word, so it must not be modified
+     */
+    public void stems(int index, CharSequence word, Set<String> stems);
+}
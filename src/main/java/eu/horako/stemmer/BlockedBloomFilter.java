@@ -0,0 +1,175 @@
+package eu.horako.stemmer;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Cache-friendly (blocked) Bloom filter over 64-bit hashes of char sequences.
+ *
+ * All bits of one key live in a single 512-bit block (one cache line), so
+ * a query costs one memory access. Keys are hashed directly from chars, no
+ * String has to be created for the query.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public final class BlockedBloomFilter implements Accountable {
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(BlockedBloomFilter.class);
+    private static final int BLOCK_LONGS = 8;
+    private static final int BLOCK_BITS = BLOCK_LONGS * 64;
+    private static final long FLAG_SEPARATOR = 0x1F;
+
+    private final long[] bits;
+    private final int blocks;
+    private final int hashCount;
+    private final double fpp;
+
+    /**
+     * @param expectedKeys number of keys to be inserted
+     * @param fpp desired false positive probability (0 &lt; fpp &lt; 1)
+     */
+    public BlockedBloomFilter(long expectedKeys, double fpp) {
+        if(!(fpp > 0 && fpp < 1)) { throw new IllegalArgumentException("False positive probability must be in (0,1): " + fpp); }
+        double bitsPerKey = -Math.log(fpp) / (Math.log(2) * Math.log(2));
+        long totalBits = Math.max(BLOCK_BITS, (long)Math.ceil(Math.max(1, expectedKeys) * bitsPerKey));
+        this.blocks = (int)Math.min(Integer.MAX_VALUE / BLOCK_LONGS, (totalBits + BLOCK_BITS - 1) / BLOCK_BITS);
+        this.bits = new long[this.blocks * BLOCK_LONGS];
+        this.hashCount = (int)Math.max(1, Math.min(16, Math.round(bitsPerKey * Math.log(2))));
+        this.fpp = fpp;
+    }
+
+    public static long hash(CharSequence s, int start, int end) {
+        long h = 0xcbf29ce484222325L;
+        for(int i = start; i < end; i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    public static long hash(char[] buffer, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        for(int i = offset; i < offset + length; i++) {
+            h = (h ^ buffer[i]) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Same as {@link #hash(char[],int,int)} of the chars encoded in UTF-8 
+     * bytes[offset..offset+length), computed without decoding them to a buffer.
+     * @param bytes UTF-8 bytes
+     * @param offset start of the sequence
+     * @param length length of the sequence in bytes
+     * @return hash of the chars
+     */
+    public static long hashUtf8(byte[] bytes, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        int end = offset + length;
+        for(int p = offset; p < end; ) {
+            int b = bytes[p] & 0xFF;
+            int cp;
+            if(b < 0x80) {
+                cp = b;
+                p += 1;
+            } else if(b < 0xE0) {
+                cp = ((b & 0x1F) << 6) | (bytes[p + 1] & 0x3F);
+                p += 2;
+            } else if(b < 0xF0) {
+                cp = ((b & 0x0F) << 12) | ((bytes[p + 1] & 0x3F) << 6) | (bytes[p + 2] & 0x3F);
+                p += 3;
+            } else {
+                cp = ((b & 0x07) << 18) | ((bytes[p + 1] & 0x3F) << 12) | ((bytes[p + 2] & 0x3F) << 6) | (bytes[p + 3] & 0x3F);
+                p += 4;
+            }
+            if(cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                h = (h ^ cp) * 0x100000001b3L;
+            } else {
+                h = (h ^ Character.highSurrogate(cp)) * 0x100000001b3L;
+                h = (h ^ Character.lowSurrogate(cp)) * 0x100000001b3L;
+            }
+        }
+        return mix(h);
+    }
+
+    public static long hash(CharSequence s) {
+        return hash(s, 0, s.length());
+    }
+
+    /**
+     * Hash of a (word, flag) key derived from the hash of the word.
+     * @param wordHash hash of the word
+     * @param flag flag
+     * @return hash of the pair
+     */
+    public static long hash(long wordHash, String flag) {
+        long h = (wordHash ^ FLAG_SEPARATOR) * 0x100000001b3L;
+        for(int i = 0; i < flag.length(); i++) {
+            h = (h ^ flag.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    static long mix(long h) { // murmur3 fmix64
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public void put(long hash) {
+        int base = this.block(hash) * BLOCK_LONGS;
+        long g = hash;
+        for(int i = 0; i < this.hashCount; i++) {
+            g = g * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+            int bit = (int)(g >>> 55); // 9 bits = position within the block
+            this.bits[base + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @param hash hash of the key
+     * @return false if the key has certainly not been inserted, true if it may have been
+     */
+    public boolean mightContain(long hash) {
+        int base = this.block(hash) * BLOCK_LONGS;
+        long g = hash;
+        for(int i = 0; i < this.hashCount; i++) {
+            g = g * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+            int bit = (int)(g >>> 55);
+            if((this.bits[base + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the high 32 bits of the hash scaled to [0, blocks)
+    int block(long hash) {
+        return (int)(((hash >>> 32) * this.blocks) >>> 32);
+    }
+
+    public double getFalsePositiveProbability() {
+        return this.fpp;
+    }
+
+    /**
+     * @return fraction of the bits set; the false positive rate grows with it
+     */
+    public double getOccupancy() {
+        long set = 0;
+        for(long word : this.bits) {
+            set += Long.bitCount(word);
+        }
+        return (double) set / (64.0 * this.bits.length);
+    }
+
+    public long getSizeInBytes() {
+        return 8L * this.bits.length;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return SHALLOW_SIZE + RamUsageEstimator.sizeOf(this.bits);
+    }
+}
@@ -0,0 +1,398 @@
+package eu.horako.stemmer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Stemmer working on UTF-8 bytes ({@link BytesRef}) instead of Strings.
+ *
+ * It produces the same stems as {@link AffixStemmer} with the same rule set,
+ * dictionary and reduction limits, but the input word, the append/remove strings of the rules,
+ * the candidates and the dictionary probes are all UTF-8 bytes, so callers
+ * working with Lucene terms or FST keys don't have to convert between chars
+ * and bytes. Dictionary probes go directly to the UTF-8 arena of an
+ * {@link OffHeapDictionary}.
+ *
+ * Rules with conditions not supported by {@link AffixCondition} and words
+ * with supplementary characters are handled through the String based path,
+ * as well as malformed UTF-8 input (decoded with replacement characters).
+ *
+ * The reduction is limited in the same way as in {@link AffixStemmer} (see
+ * {@link #setMaxReductionDepth(int)} and {@link #setMaxReductionWork(int)});
+ * when a limit is hit, the stems found so far are returned and they may
+ * differ from the truncated result of {@link AffixStemmer}, which tries the
+ * prefix/suffix pairs in a different order.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class ByteAffixStemmer {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final OffHeapDictionary dictionary;
+    private final ByteRule[] rules; // by rule id
+    private final TrieNode sfxTrie = new TrieNode();
+    private final TrieNode pfxTrie = new TrieNode();
+    private final AffixStemmer fallback;
+    private boolean checkAgainstDictionary = true;
+    private int maxReductionDepth = AffixStemmer.DEFAULT_MAX_REDUCTION_DEPTH;
+    private int maxReductionWork = AffixStemmer.DEFAULT_MAX_REDUCTION_WORK;
+
+    public ByteAffixStemmer(AffixRuleSet ruleSet, OffHeapDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.fallback = new AffixStemmer(ruleSet, dictionary);
+        this.rules = new ByteRule[ruleSet.getRules().size()];
+        for(AffixRule r : ruleSet.getRules()) {
+            this.rules[r.getId()] = new ByteRule(r);
+        }
+        for(ByteRule br : this.rules) {
+            List<ByteRule> reductions = new ArrayList<ByteRule>();
+            for(AffixRule red : br.rule.getReductionRules().getAll()) {
+                if(red.getType() == br.rule.getType()) {
+                    reductions.add(this.rules[red.getId()]);
+                }
+            }
+            br.reductions = reductions.toArray(new ByteRule[reductions.size()]);
+            if(br.rule.isInvalid()) { continue; }
+            if(br.suffix) {
+                this.sfxTrie.insert(br, true);
+            } else {
+                this.pfxTrie.insert(br, false);
+            }
+        }
+    }
+
+    /**
+     * Stem one UTF-8 encoded word.
+     * @param word the word to be stemmed
+     * @return set of UTF-8 encoded stems; empty when there are no stems found
+     */
+    public Set<BytesRef> stem(BytesRef word) {
+        byte[] bytes = Arrays.copyOfRange(word.bytes, word.offset, word.offset + word.length);
+        int longest = Utf8.check(bytes, 0, bytes.length); // the byte lookups rely on well-formed input
+        if(longest < 0 || longest == 4) { return this.stemFallback(bytes); } // malformed or supplementary chars
+
+        Set<BytesRef> stems = new HashSet<BytesRef>();
+        List<Candidate> reducePrefix = this.reduceAffix(bytes, this.pfxTrie, this.maxReductionWork);
+        List<Candidate> reduceSuffix = this.reduceAffix(bytes, this.sfxTrie, this.maxReductionWork - reducePrefix.size());
+        this.checkReductions(bytes, reduceSuffix, stems);
+        this.checkReductions(bytes, reducePrefix, stems);
+
+        int budget = this.maxReductionWork - reducePrefix.size() - reduceSuffix.size();
+        int pairs = 0;
+        for(Candidate sfx : reduceSuffix) {
+            if(sfx.rule == null) { continue; }
+            for(Candidate pfx : reducePrefix) {
+                if(pfx.rule == null || pfx.removedFromOrig > sfx.origLength - sfx.removedFromOrig) { continue; }
+                if(++pairs > budget) { return stems; }
+                AffixRule rsfx = sfx.rule.rule;
+                AffixRule rpfx = pfx.rule.rule;
+                if(!this.canCombine(rsfx, rpfx)) { continue; }
+                byte[] combined = new byte[pfx.addedToOrig + sfx.bytes.length - pfx.removedFromOrig];
+                System.arraycopy(pfx.bytes, 0, combined, 0, pfx.addedToOrig);
+                System.arraycopy(sfx.bytes, pfx.removedFromOrig, combined, pfx.addedToOrig, sfx.bytes.length - pfx.removedFromOrig);
+                if(this.dictContains(combined, rpfx.getFlag(), rsfx.getFlag()) ||
+                        this.dictContains(combined, rsfx.getFlag()) && rsfx.hasExpansionFlag(rpfx.getFlag()) ||
+                        this.dictContains(combined, rpfx.getFlag()) && rpfx.hasExpansionFlag(rsfx.getFlag())) {
+                    byte[] stem = this.expandSticky(this.expandSticky(combined, sfx), pfx);
+                    if(stem != null) { stems.add(new BytesRef(stem)); }
+                }
+            }
+        }
+        return stems;
+    }
+
+    // the JDK decoder replaces malformed input, BytesRef.utf8ToString() doesn't check it
+    private Set<BytesRef> stemFallback(byte[] word) {
+        Set<BytesRef> stems = new HashSet<BytesRef>();
+        for(String s : this.fallback.stem(new String(word, StandardCharsets.UTF_8))) {
+            stems.add(new BytesRef(s));
+        }
+        return stems;
+    }
+
+    private void checkReductions(byte[] word, List<Candidate> reductions, Set<BytesRef> stems) {
+        for(Candidate c : reductions) {
+            if(c.rule == null) {
+                if(this.dictContains(word)) { stems.add(new BytesRef(word)); }
+                continue;
+            }
+            if(this.dictContains(c.bytes, c.rule.rule.getFlag())) {
+                byte[] stem = this.expandSticky(c.bytes, c);
+                if(stem != null) { stems.add(new BytesRef(stem)); }
+            }
+        }
+    }
+
+    // same as AffixStemmer.canCombine
+    private boolean canCombine(AffixRule sfx, AffixRule pfx) {
+        if(sfx.getSource() != pfx.getSource()) { return false; } // rules of different merged rule sets
+        if(!this.checkAgainstDictionary) { return true; }
+        return this.dictionary.flagsCooccur(pfx.getFlag(), sfx.getFlag()) ||
+               sfx.hasExpansionFlag(pfx.getFlag()) && this.dictionary.hasFlag(sfx.getFlag()) ||
+               pfx.hasExpansionFlag(sfx.getFlag()) && this.dictionary.hasFlag(pfx.getFlag());
+    }
+
+    private byte[] expandSticky(byte[] word, Candidate c) {
+        while(word != null && c != null && c.rule != null && c.rule.rule.isSticky()) {
+            word = c.rule.apply(word);
+            c = c.previous;
+        }
+        return word;
+    }
+
+    // Breadth-first reduction with the limits of AffixStemmer.reduceAffix():
+    // a (rule, word) state is expanded only once, chains longer than the max.
+    // depth are not followed and no more than `budget` candidates are kept.
+    private List<Candidate> reduceAffix(byte[] word, TrieNode trie, int budget) {
+        List<Candidate> all = new ArrayList<Candidate>();
+        Candidate top = new Candidate(word, null, null);
+        all.add(top);
+        boolean suffix = trie == this.sfxTrie;
+        int len = word.length;
+        TrieNode node = trie;
+        for(int i = 0; node != null; i++) {
+            if(node.rules != null) {
+                for(ByteRule r : node.rules) {
+                    byte[] stem = r.stemWord(word, true);
+                    if(stem == null) { continue; }
+                    if(all.size() >= budget) { return all; }
+                    all.add(new Candidate(stem, r, top));
+                }
+            }
+            if(i >= len) { break; }
+            node = node.child(word[suffix ? len - 1 - i : i]);
+        }
+        Set<State> expanded = null; // states already expanded
+        for(int next = 1; next < all.size(); next++) { // breadth-first over the reduction chains
+            Candidate c = all.get(next);
+            if(c.rule.reductions.length == 0 || c.depth >= this.maxReductionDepth) { continue; }
+            if(expanded == null) {
+                expanded = new HashSet<State>();
+            }
+            if(!expanded.add(new State(c.rule.rule.getId(), c.bytes))) { continue; }
+            for(ByteRule r : c.rule.reductions) {
+                byte[] stem = r.stemWord(c.bytes, false);
+                if(stem == null) { continue; }
+                if(all.size() >= budget) { return all; }
+                all.add(new Candidate(stem, r, c));
+            }
+        }
+        return all;
+    }
+
+    private boolean dictContains(byte[] word) {
+        return !this.checkAgainstDictionary || this.dictionary.containsUtf8(word, 0, word.length);
+    }
+
+    private boolean dictContains(byte[] word, String flag) {
+        return !this.checkAgainstDictionary || this.dictionary.containsUtf8(word, 0, word.length, flag);
+    }
+
+    private boolean dictContains(byte[] word, String pfxFlag, String sfxFlag) {
+        return !this.checkAgainstDictionary || this.dictionary.containsUtf8(word, 0, word.length, pfxFlag, sfxFlag);
+    }
+
+    public boolean isCheckAgainstDictionary() {
+        return this.checkAgainstDictionary;
+    }
+
+    /**
+     * See {@link AffixStemmer#setCheckAgainstDictionary(boolean)}.
+     * @param checkAgainstDictionary true (default) to check the stem candidates against the dictionary
+     */
+    public void setCheckAgainstDictionary(boolean checkAgainstDictionary) {
+        this.checkAgainstDictionary = checkAgainstDictionary;
+        this.fallback.setCheckAgainstDictionary(checkAgainstDictionary);
+    }
+
+    public int getMaxReductionDepth() {
+        return this.maxReductionDepth;
+    }
+
+    /**
+     * See {@link AffixStemmer#setMaxReductionDepth(int)}.
+     * @param maxReductionDepth max. number of chained reductions of one affix type (&gt; 0)
+     */
+    public void setMaxReductionDepth(int maxReductionDepth) {
+        this.fallback.setMaxReductionDepth(maxReductionDepth);
+        this.maxReductionDepth = maxReductionDepth;
+    }
+
+    public int getMaxReductionWork() {
+        return this.maxReductionWork;
+    }
+
+    /**
+     * See {@link AffixStemmer#setMaxReductionWork(int)}.
+     * @param maxReductionWork max. number of reduction candidates and prefix/suffix pairs of one word (&gt; 0)
+     */
+    public void setMaxReductionWork(int maxReductionWork) {
+        this.fallback.setMaxReductionWork(maxReductionWork);
+        this.maxReductionWork = maxReductionWork;
+    }
+
+    private static final class Candidate {
+        final byte[] bytes;
+        final ByteRule rule;
+        final Candidate previous;
+        final int removedFromOrig; // all in bytes
+        final int addedToOrig;
+        final int origLength;
+        final int depth; // number of reductions leading to the word
+
+        Candidate(byte[] bytes, ByteRule rule, Candidate previous) {
+            this.bytes = bytes;
+            this.rule = rule;
+            this.previous = previous;
+            this.depth = previous == null ? 0 : previous.depth + 1;
+            if(previous != null) {
+                this.origLength = previous.origLength;
+                this.removedFromOrig = Math.max(previous.removedFromOrig, previous.origLength - bytes.length + rule.remove.length);
+                this.addedToOrig = bytes.length - this.origLength + this.removedFromOrig;
+            } else {
+                this.removedFromOrig = 0;
+                this.addedToOrig = 0;
+                this.origLength = bytes.length;
+            }
+        }
+    }
+
+    // reduction state: the word reached by the rule
+    private static final class State {
+        final int rule;
+        final byte[] bytes;
+
+        State(int rule, byte[] bytes) {
+            this.rule = rule;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof State)) { return false; }
+            State other = (State) o;
+            return this.rule == other.rule && Arrays.equals(this.bytes, other.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.rule + Arrays.hashCode(this.bytes);
+        }
+    }
+
+    // rule with the affixes encoded in UTF-8
+    private static final class ByteRule {
+        final AffixRule rule;
+        final byte[] append;
+        final byte[] remove;
+        final boolean suffix;
+        final AffixCondition condition; // null - fall back to the regex
+        ByteRule[] reductions;
+
+        ByteRule(AffixRule rule) {
+            this.rule = rule;
+            this.append = rule.getAppend().getBytes(StandardCharsets.UTF_8);
+            this.remove = rule.getRemove().getBytes(StandardCharsets.UTF_8);
+            this.suffix = rule.getType() == AffixRuleType.SFX;
+            this.condition = AffixCondition.compile(rule.getStrCondition(), rule.getType());
+        }
+
+        // same as AffixRule.stemWord
+        byte[] stemWord(byte[] word, boolean appendMatched) {
+            int len = word.length;
+            int appendLen = this.append.length;
+            if(appendLen > len) { return null; }
+            if(!appendMatched) {
+                int base = this.suffix ? len - appendLen : 0;
+                for(int i = 0; i < appendLen; i++) {
+                    if(word[base + i] != this.append[i]) { return null; }
+                }
+            }
+            int from = this.suffix ? 0 : appendLen;
+            int to = this.suffix ? len - appendLen : len;
+            if(this.condition != null && !this.condition.matches(word, from, to, this.remove)) { return null; }
+            byte[] stem = new byte[to - from + this.remove.length];
+            if(this.suffix) {
+                System.arraycopy(word, from, stem, 0, to - from);
+                System.arraycopy(this.remove, 0, stem, to - from, this.remove.length);
+            } else {
+                System.arraycopy(this.remove, 0, stem, 0, this.remove.length);
+                System.arraycopy(word, from, stem, this.remove.length, to - from);
+            }
+            if(this.condition == null && !this.rule.getCondition().matcher(new String(stem, StandardCharsets.UTF_8)).find()) {
+                return null;
+            }
+            return stem;
+        }
+
+        // same as AffixRule.apply
+        byte[] apply(byte[] word) {
+            if(this.remove.length > word.length) { return null; }
+            if(this.condition != null) {
+                if(!this.condition.matches(word, 0, word.length, EMPTY)) { return null; }
+            } else if(!this.rule.getCondition().matcher(new String(word, StandardCharsets.UTF_8)).find()) {
+                return null;
+            }
+            byte[] result = new byte[word.length - this.remove.length + this.append.length];
+            if(this.suffix) {
+                System.arraycopy(word, 0, result, 0, word.length - this.remove.length);
+                System.arraycopy(this.append, 0, result, word.length - this.remove.length, this.append.length);
+            } else {
+                System.arraycopy(this.append, 0, result, 0, this.append.length);
+                System.arraycopy(word, this.remove.length, result, this.append.length, word.length - this.remove.length);
+            }
+            return result;
+        }
+    }
+
+    private static final class TrieNode {
+        byte[] labels = EMPTY; // sorted
+        TrieNode[] children = new TrieNode[0];
+        ByteRule[] rules = null;
+
+        void insert(ByteRule r, boolean reversed) {
+            TrieNode node = this;
+            byte[] key = r.append;
+            int len = key.length;
+            for(int i = 0; i < len; i++) {
+                byte b = key[reversed ? len - 1 - i : i];
+                TrieNode next = node.child(b);
+                if(next == null) {
+                    next = node.addChild(b);
+                }
+                node = next;
+            }
+            if(node.rules == null) {
+                node.rules = new ByteRule[] { r };
+            } else {
+                node.rules = Arrays.copyOf(node.rules, node.rules.length + 1);
+                node.rules[node.rules.length - 1] = r;
+            }
+        }
+
+        TrieNode child(byte b) {
+            int i = Arrays.binarySearch(this.labels, b);
+            return i >= 0 ? this.children[i] : null;
+        }
+
+        private TrieNode addChild(byte b) {
+            int pos = -Arrays.binarySearch(this.labels, b) - 1;
+            byte[] labels = new byte[this.labels.length + 1];
+            TrieNode[] children = new TrieNode[this.children.length + 1];
+            System.arraycopy(this.labels, 0, labels, 0, pos);
+            System.arraycopy(this.children, 0, children, 0, pos);
+            labels[pos] = b;
+            children[pos] = new TrieNode();
+            System.arraycopy(this.labels, pos, labels, pos + 1, this.labels.length - pos);
+            System.arraycopy(this.children, pos, children, pos + 1, this.children.length - pos);
+            this.labels = labels;
+            this.children = children;
+            return children[pos];
+        }
+    }
+}
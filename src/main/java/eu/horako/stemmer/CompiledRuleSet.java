@@ -0,0 +1,316 @@
+package eu.horako.stemmer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Rule set resolved ahead of time for the reduction (stemming) direction.
+ *
+ * Compared to the generic path of {@link AffixStemmer} which looks up every
+ * possible affix of a word in a hash map and evaluates regex conditions on
+ * freshly built strings, the compiled form
+ * <ul>
+ * <li>dispatches on the trailing (SFX) or leading (PFX) characters of a word
+ *     by walking a character trie of the rules' append strings,</li>
+ * <li>evaluates conditions as char-class comparisons ({@link AffixCondition})
+ *     before the candidate stem string is built,</li>
+ * <li>keeps the reduction rules of every rule in a plain array already
+ *     filtered by the rule type.</li>
+ * </ul>
+ * The candidates produced are the same, in the same order, as those of the
+ * generic path.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class CompiledRuleSet implements Accountable {
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(CompiledRuleSet.class);
+
+    private final CompiledRule[] rules;
+    private final TrieNode sfxTrie = new TrieNode();
+    private final TrieNode pfxTrie = new TrieNode();
+
+    public CompiledRuleSet(AffixRuleSet ruleSet) {
+        this.rules = new CompiledRule[ruleSet.getRules().size()];
+        for(AffixRule r : ruleSet.getRules()) {
+            this.rules[r.getId()] = new CompiledRule(r);
+        }
+        RuleGraph graph = ruleSet.getRuleGraph();
+        for(CompiledRule cr : this.rules) {
+            int[] reductions = graph.getReductions(cr.rule.getId());
+            cr.reductions = new CompiledRule[reductions.length];
+            for(int i = 0; i < reductions.length; i++) {
+                cr.reductions[i] = this.rules[reductions[i]];
+            }
+            if(cr.rule.isInvalid()) { continue; } // invalid rules can't be the first reduction step
+            if(cr.rule.getType() == AffixRuleType.SFX) {
+                this.sfxTrie.insert(cr, true);
+            } else {
+                this.pfxTrie.insert(cr, false);
+            }
+        }
+    }
+
+    public CompiledRule getRule(AffixRule rule) {
+        return this.rules[rule.getId()];
+    }
+
+    CompiledRule getRule(int id) {
+        return this.rules[id];
+    }
+
+    /**
+     * Collects the rules whose append string is a suffix (SFX) or a prefix (PFX)
+     * of the word, ordered by the append length and the order in the affix file.
+     *
+     * @param word word to reduce
+     * @param type type of the rules
+     * @param out list to add the rules to
+     */
+    public void collectFirstStepRules(CharSequence word, AffixRuleType type, List<CompiledRule> out) {
+        boolean suffix = type == AffixRuleType.SFX;
+        TrieNode node = suffix ? this.sfxTrie : this.pfxTrie;
+        int len = word.length();
+        for(int i = 0; node != null; i++) {
+            if(node.rules != null) {
+                for(CompiledRule r : node.rules) { out.add(r); }
+            }
+            if(i >= len) { break; }
+            node = node.child(word.charAt(suffix ? len - 1 - i : i));
+        }
+    }
+
+    /**
+     * @return first step of the suffix rules for a batch of words sorted by their reversed chars
+     */
+    SuffixSteps newSuffixSteps() {
+        return new SuffixSteps();
+    }
+
+    /**
+     * {@link #collectFirstStepRules(CharSequence, AffixRuleType, List)} of the
+     * SFX rules together with their conditions, for words given in the order
+     * of their reversed chars. The part of the trie walk and the condition
+     * results depending only on the suffix shared with the previous word are
+     * kept: a rule with the append string of length a and a condition of
+     * length k gives the same result for two words sharing their last a + k chars.
+     */
+    final class SuffixSteps {
+        static final byte FAILED = 0;
+        static final byte MATCHED = 1;
+        static final byte UNCHECKED = 2; // regex condition, checked on the word by the caller
+
+        private TrieNode[] path = new TrieNode[16]; // trie nodes of the previous word by depth
+        private int pathLength = 0;
+        private CompiledRule[] rules = new CompiledRule[16];
+        private byte[] states = new byte[16];
+        private int count = 0;
+        private String previous = null;
+
+        /**
+         * Move to the next word.
+         * @param word next word; sorting the words by their reversed chars maximizes the reused part
+         */
+        void next(String word) {
+            int len = word.length();
+            int shared = 0;
+            if(this.previous != null) {
+                int prevLen = this.previous.length();
+                while(shared < len && shared < prevLen && word.charAt(len - 1 - shared) == this.previous.charAt(prevLen - 1 - shared)) {
+                    shared++;
+                }
+            } else { // the rules of the empty append string are the same for all words
+                this.path[0] = sfxTrie;
+                this.pathLength = 1;
+                if(sfxTrie.rules != null) {
+                    for(CompiledRule r : sfxTrie.rules) { this.add(r, UNCHECKED); }
+                }
+            }
+            this.previous = word;
+
+            int kept = 0;
+            for(; kept < this.count && this.rules[kept].append.length() <= shared; kept++) {
+                CompiledRule r = this.rules[kept];
+                if(r.condition == null || r.append.length() + r.condition.length() > shared) {
+                    this.states[kept] = state(r, word);
+                }
+            }
+            this.count = kept;
+
+            // continue the walk below the shared part
+            int depth = Math.min(shared, this.pathLength - 1);
+            if(depth < shared) { return; } // the trie ends within the shared suffix
+            this.pathLength = depth + 1;
+            TrieNode node = this.path[depth];
+            for(int i = depth; ; ) {
+                if(i > depth && node.rules != null) {
+                    for(CompiledRule r : node.rules) { this.add(r, state(r, word)); }
+                }
+                if(i >= len) { break; }
+                node = node.child(word.charAt(len - 1 - i));
+                if(node == null) { break; }
+                i++;
+                if(i == this.path.length) { this.path = Arrays.copyOf(this.path, i * 2); }
+                this.path[i] = node;
+                this.pathLength = i + 1;
+            }
+        }
+
+        int getCount() {
+            return this.count;
+        }
+
+        CompiledRule getRule(int i) {
+            return this.rules[i];
+        }
+
+        byte getState(int i) {
+            return this.states[i];
+        }
+
+        private void add(CompiledRule r, byte state) {
+            if(this.count == this.rules.length) {
+                this.rules = Arrays.copyOf(this.rules, this.count * 2);
+                this.states = Arrays.copyOf(this.states, this.count * 2);
+            }
+            this.rules[this.count] = r;
+            this.states[this.count++] = state;
+        }
+
+        private byte state(CompiledRule r, String word) {
+            if(r.condition == null) { return UNCHECKED; }
+            int len = word.length();
+            return r.condition.matches(word, 0, len - r.append.length(), r.remove) ? MATCHED : FAILED;
+        }
+    }
+
+    /**
+     * One rule prepared for the reduction.
+     */
+    public static final class CompiledRule {
+        static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(CompiledRule.class);
+
+        final AffixRule rule;
+        final String append;
+        final String remove;
+        final boolean suffix;
+        final AffixCondition condition; // null - fall back to the regex
+        CompiledRule[] reductions;
+
+        CompiledRule(AffixRule rule) {
+            this.rule = rule;
+            this.append = rule.getAppend();
+            this.remove = rule.getRemove();
+            this.suffix = rule.getType() == AffixRuleType.SFX;
+            this.condition = AffixCondition.compile(rule.getStrCondition(), rule.getType());
+        }
+
+        public AffixRule getRule() {
+            return this.rule;
+        }
+
+        public CompiledRule[] getReductions() {
+            return this.reductions;
+        }
+
+        /**
+         * Same as {@link AffixRule#stemWord(String)}.
+         * @param word word to reduce
+         * @param appendMatched true if the caller has already verified that the word ends (SFX) or starts (PFX) with the append string
+         * @return stem candidate or null when the rule can't be reversed on the word
+         */
+        public String stemWord(String word, boolean appendMatched) {
+            int len = word.length();
+            int appendLen = this.append.length();
+            if(appendLen > len) { return null; }
+            if(this.suffix) {
+                if(!appendMatched && !word.regionMatches(len - appendLen, this.append, 0, appendLen)) { return null; }
+                if(this.condition != null) {
+                    if(!this.condition.matches(word, 0, len - appendLen, this.remove)) { return null; }
+                    return this.remove.isEmpty() ? word.substring(0, len - appendLen)
+                            : new StringBuilder(len - appendLen + this.remove.length()).append(word, 0, len - appendLen).append(this.remove).toString();
+                }
+            } else {
+                if(!appendMatched && !word.startsWith(this.append)) { return null; }
+                if(this.condition != null) {
+                    if(!this.condition.matches(word, appendLen, len, this.remove)) { return null; }
+                    return this.remove.isEmpty() ? word.substring(appendLen)
+                            : new StringBuilder(len - appendLen + this.remove.length()).append(this.remove).append(word, appendLen, len).toString();
+                }
+            }
+            return this.rule.stemWord(word);
+        }
+    }
+
+    /**
+     * @return heap taken by the compiled rules and the tries (the rules themselves belong to the rule set)
+     */
+    @Override
+    public long ramBytesUsed() {
+        long size = SHALLOW_SIZE + RamUsageEstimator.shallowSizeOf(this.rules) + this.sfxTrie.ramBytesUsed() + this.pfxTrie.ramBytesUsed();
+        for(CompiledRule cr : this.rules) {
+            size += CompiledRule.SHALLOW_SIZE + RamUsageEstimator.shallowSizeOf(cr.reductions) +
+                    (cr.condition == null ? 0 : cr.condition.ramBytesUsed());
+        }
+        return size;
+    }
+
+    private static final class TrieNode {
+        static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(TrieNode.class);
+
+        char[] labels = new char[0]; // sorted
+        TrieNode[] children = new TrieNode[0];
+        CompiledRule[] rules = null;
+
+        long ramBytesUsed() {
+            long size = SHALLOW_SIZE + RamUsageEstimator.sizeOf(this.labels) + RamUsageEstimator.shallowSizeOf(this.children) +
+                    (this.rules == null ? 0 : RamUsageEstimator.shallowSizeOf(this.rules));
+            for(TrieNode child : this.children) {
+                size += child.ramBytesUsed();
+            }
+            return size;
+        }
+
+        void insert(CompiledRule r, boolean reversed) {
+            TrieNode node = this;
+            String key = r.append;
+            int len = key.length();
+            for(int i = 0; i < len; i++) {
+                char c = key.charAt(reversed ? len - 1 - i : i);
+                TrieNode next = node.child(c);
+                if(next == null) {
+                    next = node.addChild(c);
+                }
+                node = next;
+            }
+            if(node.rules == null) {
+                node.rules = new CompiledRule[] { r };
+            } else {
+                node.rules = Arrays.copyOf(node.rules, node.rules.length + 1);
+                node.rules[node.rules.length - 1] = r;
+            }
+        }
+
+        TrieNode child(char c) {
+            int i = Arrays.binarySearch(this.labels, c);
+            return i >= 0 ? this.children[i] : null;
+        }
+
+        private TrieNode addChild(char c) {
+            int pos = -Arrays.binarySearch(this.labels, c) - 1;
+            char[] labels = new char[this.labels.length + 1];
+            TrieNode[] children = new TrieNode[this.children.length + 1];
+            System.arraycopy(this.labels, 0, labels, 0, pos);
+            System.arraycopy(this.children, 0, children, 0, pos);
+            labels[pos] = c;
+            children[pos] = new TrieNode();
+            System.arraycopy(this.labels, pos, labels, pos + 1, this.labels.length - pos);
+            System.arraycopy(this.children, pos, children, pos + 1, this.children.length - pos);
+            this.labels = labels;
+            this.children = children;
+            return children[pos];
+        }
+    }
+}
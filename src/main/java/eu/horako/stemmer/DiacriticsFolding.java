@@ -0,0 +1,294 @@
+package eu.horako.stemmer;
+
+import eu.horako.stemmer.AffixStemmer.WordRule;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Accountables;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Diacritics-folded view of a rule set and a dictionary, used by
+ * {@link AffixStemmer#AffixStemmer(DiacriticsFolding)} to stem words written
+ * with, without or with only some of the diacritics in one reduction pass.
+ *
+ * The folded rule set has the affixes and conditions of the original rules
+ * with the diacritics removed; the folded dictionary has the folded words
+ * with the flag sets of all the words folding to them. The input word is
+ * folded and reduced over the folded view; every folded stem found is mapped
+ * back to the accented dictionary words folding to it. Such a word is a stem
+ * when the original rules of the reduction, applied to it, produce a word the
+ * input could be a folded spelling of (each input char equals the produced
+ * char or its folded form). The conditions of the original rules are thus
+ * checked on the accented words and a fully accented input gets the same
+ * stems as from the original model.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class DiacriticsFolding implements Accountable {
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(DiacriticsFolding.class);
+    private static final char[] FOLDED = new char[0x300]; // folded forms of the Latin chars
+
+    static {
+        for(char c = 0; c < FOLDED.length; c++) {
+            String d = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            FOLDED[c] = d.length() > 1 && Character.getType(d.charAt(1)) == Character.NON_SPACING_MARK ? d.charAt(0) : c;
+        }
+    }
+
+    private final AffixRuleSet ruleSet;
+    private final IDictionary dictionary;
+    private final AffixRuleSet foldedRuleSet;
+    private final AffixRule[] originalRules; // by folded rule id
+    private final Dictionary foldedDictionary;
+    private final Map<String,String[]> accentedWords = new HashMap<String,String[]>(); // folded word -> accented words (only those differing from the folded one)
+
+    /**
+     * @param ruleSet original rule set
+     * @param dictionary original dictionary (not changed any more)
+     */
+    public DiacriticsFolding(AffixRuleSet ruleSet, IDictionary dictionary) {
+        this.ruleSet = ruleSet;
+        this.dictionary = dictionary;
+
+        Set<Character> alphabet = new HashSet<Character>();
+        Map<String,List<String>> accented = new HashMap<String,List<String>>();
+        this.foldedDictionary = new Dictionary();
+        for(String word : dictionary.getWords()) {
+            for(int i = 0; i < word.length(); i++) { alphabet.add(word.charAt(i)); }
+            String folded = fold(word);
+            for(Set<String> flags : dictionary.getAllFlags(word)) {
+                this.foldedDictionary.add(folded, flags);
+            }
+            if(!folded.equals(word)) {
+                List<String> words = accented.get(folded);
+                if(words == null) {
+                    words = new ArrayList<String>(1);
+                    accented.put(folded, words);
+                }
+                words.add(word);
+            }
+        }
+        for(Map.Entry<String,List<String>> e : accented.entrySet()) {
+            this.accentedWords.put(e.getKey(), e.getValue().toArray(new String[e.getValue().size()]));
+        }
+        this.foldedDictionary.freeze();
+
+        Set<AffixRule> rules = ruleSet.getRules();
+        for(AffixRule rule : rules) {
+            String s = rule.getRemove() + rule.getAppend();
+            for(int i = 0; i < s.length(); i++) { alphabet.add(s.charAt(i)); }
+        }
+        List<AffixRule> foldedRules = new ArrayList<AffixRule>(rules.size());
+        this.originalRules = new AffixRule[rules.size()];
+        for(AffixRule rule : rules) {
+            this.originalRules[foldedRules.size()] = rule;
+            foldedRules.add(new AffixRule(rule, fold(rule.getRemove()), fold(rule.getAppend()), foldCondition(rule.getStrCondition(), alphabet)));
+        }
+        this.foldedRuleSet = new AffixRuleSet(ruleSet.flagType, foldedRules);
+    }
+
+    /**
+     * @param c char
+     * @return the char without diacritics
+     */
+    public static char fold(char c) {
+        return c < FOLDED.length ? FOLDED[c] : c;
+    }
+
+    /**
+     * @param s string
+     * @return the string without diacritics (the same instance when there are none)
+     */
+    public static String fold(String s) {
+        int i = 0;
+        while(i < s.length() && fold(s.charAt(i)) == s.charAt(i)) { i++; }
+        if(i == s.length()) { return s; }
+        char[] chars = s.toCharArray();
+        for(; i < chars.length; i++) {
+            chars[i] = fold(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    // Fold a condition so that it accepts every folded spelling of a word
+    // accepted by the original one: a folded char is excluded by a negated
+    // class only when all the chars of the alphabet folding to it are.
+    static String foldCondition(String condition, Set<Character> alphabet) {
+        StringBuilder folded = new StringBuilder(condition.length());
+        for(int i = 0; i < condition.length(); i++) {
+            char c = condition.charAt(i);
+            int end = c == '[' ? condition.indexOf(']', i + 1) : -1;
+            if(end < 0) {
+                folded.append(fold(c));
+                continue;
+            }
+            boolean negated = end > i + 1 && condition.charAt(i + 1) == '^';
+            Set<Character> chars = new TreeSet<Character>();
+            for(int j = negated ? i + 2 : i + 1; j < end; j++) {
+                chars.add(condition.charAt(j));
+            }
+            Set<Character> foldedChars = new TreeSet<Character>();
+            for(char cc : chars) {
+                char f = fold(cc);
+                boolean all = true;
+                for(char a : alphabet) {
+                    if(negated && fold(a) == f && !chars.contains(a)) { all = false; break; }
+                }
+                if(all) { foldedChars.add(f); }
+            }
+            if(foldedChars.isEmpty()) {
+                folded.append(negated ? "." : condition.substring(i, end + 1));
+            } else {
+                folded.append(negated ? "[^" : "[");
+                for(char f : foldedChars) { folded.append(f); }
+                folded.append(']');
+            }
+            i = end;
+        }
+        return folded.toString();
+    }
+
+    /**
+     * Add the accented stems corresponding to a reduction of the folded input.
+     * @param stems stems to add to
+     * @param input input word (not folded)
+     * @param wr verified reduction of the folded input
+     */
+    void addStems(Set<String> stems, String input, WordRule wr) {
+        for(String lemma : this.lemmas(wr.word)) {
+            if(wr.rule != null && !this.dictionary.contains(lemma, this.original(wr.rule).getFlag())) { continue; }
+            String form = this.applyChain(lemma, wr);
+            if(form != null && matches(input, form)) {
+                stems.add(this.applySticky(lemma, wr));
+            }
+        }
+    }
+
+    /**
+     * Add the accented stems corresponding to a combined prefix/suffix
+     * reduction of the folded input.
+     * @param stems stems to add to
+     * @param input input word (not folded)
+     * @param word folded stem
+     * @param sfxWordRule suffix reduction
+     * @param pfxWordRule prefix reduction
+     */
+    void addStems(Set<String> stems, String input, String word, WordRule sfxWordRule, WordRule pfxWordRule) {
+        AffixRule rsfx = this.original(sfxWordRule.rule);
+        AffixRule rpfx = this.original(pfxWordRule.rule);
+        for(String lemma : this.lemmas(word)) {
+            if(!(this.dictionary.contains(lemma, rpfx.getFlag(), rsfx.getFlag()) ||
+                 this.dictionary.contains(lemma, rsfx.getFlag()) && rsfx.hasExpansionFlag(rpfx.getFlag()) ||
+                 this.dictionary.contains(lemma, rpfx.getFlag()) && rpfx.hasExpansionFlag(rsfx.getFlag()))) {
+                continue;
+            }
+            String form = this.applyChain(lemma, sfxWordRule);
+            form = form == null ? null : this.applyChain(form, pfxWordRule);
+            if(form != null && matches(input, form)) {
+                stems.add(this.applySticky(this.applySticky(lemma, sfxWordRule), pfxWordRule));
+            }
+        }
+    }
+
+    // accented dictionary words folding to the folded word
+    private Set<String> lemmas(String folded) {
+        Set<String> lemmas = new LinkedHashSet<String>(2);
+        if(this.dictionary.contains(folded)) { lemmas.add(folded); }
+        String[] accented = this.accentedWords.get(folded);
+        if(accented != null) {
+            for(String w : accented) { lemmas.add(w); }
+        }
+        return lemmas;
+    }
+
+    // the word produced from the lemma by the original rules of the reduction
+    private String applyChain(String lemma, WordRule wr) {
+        String word = lemma;
+        for(; word != null && wr != null && wr.rule != null; wr = wr.previous) {
+            word = this.original(wr.rule).apply(word);
+        }
+        return word;
+    }
+
+    private String applySticky(String lemma, WordRule wr) {
+        String word = lemma;
+        for(; wr != null && wr.rule != null && wr.rule.isSticky(); wr = wr.previous) {
+            String w = this.original(wr.rule).apply(word);
+            if(w != null) { word = w; }
+        }
+        return word;
+    }
+
+    // whether the input may be a (partially) folded spelling of the word
+    private static boolean matches(String input, String word) {
+        if(input.length() != word.length()) { return false; }
+        for(int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            char w = word.charAt(i);
+            if(c != w && c != fold(w)) { return false; }
+        }
+        return true;
+    }
+
+    AffixRule original(AffixRule foldedRule) {
+        return this.originalRules[foldedRule.getId()];
+    }
+
+    public AffixRuleSet getRuleSet() {
+        return this.ruleSet;
+    }
+
+    public IDictionary getDictionary() {
+        return this.dictionary;
+    }
+
+    public AffixRuleSet getFoldedRuleSet() {
+        return this.foldedRuleSet;
+    }
+
+    public Dictionary getFoldedDictionary() {
+        return this.foldedDictionary;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long size = SHALLOW_SIZE;
+        for(Accountable child : this.getChildResources()) {
+            size += child.ramBytesUsed();
+        }
+        return size;
+    }
+
+    /**
+     * @return the original and the folded rule sets and dictionaries and the
+     *   map back to the accented words; the flag sets shared by both
+     *   dictionaries are counted twice
+     */
+    @Override
+    public Collection<Accountable> getChildResources() {
+        long accented = RamUsage.hashMap(this.accentedWords.size(), false) + RamUsageEstimator.shallowSizeOf(this.originalRules);
+        for(Map.Entry<String,String[]> e : this.accentedWords.entrySet()) {
+            accented += RamUsage.string(e.getKey()) + RamUsageEstimator.shallowSizeOf(e.getValue());
+            for(String word : e.getValue()) {
+                accented += RamUsage.string(word);
+            }
+        }
+        List<Accountable> children = new ArrayList<Accountable>();
+        children.add(Accountables.namedAccountable("affix rules", this.ruleSet));
+        children.add(Accountables.namedAccountable("dictionary", this.dictionary));
+        children.add(Accountables.namedAccountable("folded affix rules", this.foldedRuleSet));
+        children.add(Accountables.namedAccountable("folded dictionary", this.foldedDictionary));
+        children.add(Accountables.namedAccountable("accented words", accented));
+        return Collections.unmodifiableList(children);
+    }
+}
@@ -1,5 +1,7 @@
 package eu.horako.stemmer;
 
+import eu.horako.stemmer.jfr.StemmerEvents;
+import eu.horako.stemmer.metrics.StemmerMetrics;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
@@ -12,18 +14,33 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Accountables;
+import org.apache.lucene.util.RamUsageEstimator;
 
 /**
  *
  * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
  */
-public class Dictionary {
+public class Dictionary implements IDictionary {
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(Dictionary.class);
+
     private final Map<String,List<Set<String>>> dictionary = new HashMap<String,List<Set<String>>>();
     private boolean lowerCase = false;
+    private volatile WordPrefixIndex prefixIndex = null; // built lazily, dropped on every change
+    private volatile FlagPairIndex flagPairIndex = null; // built lazily, dropped on every change
+    private volatile FlagShapeIndex flagShapeIndex = null; // built lazily, dropped on every change
+    private boolean frozen = false;
+    private double bloomFilterFpp = 0;
+    private BlockedBloomFilter bloomFilter = null; // built on freeze when bloomFilterFpp > 0
+    private volatile StemmerMetrics metrics = null; // Bloom filter statistics
+    private volatile long wordsRamBytes = -1; // computed once frozen
 
     public Dictionary() {
     }
@@ -48,7 +65,9 @@ public class Dictionary {
     }
     
     private void load(Reader r,AffixRuleSet affixRuleSet) throws IOException {
+        Object event = StemmerEvents.beginDictionaryLoad();
         BufferedReader reader = new BufferedReader(r);
+        int entries = 0;
         while(true) {
             String line = reader.readLine();
             if(line == null) { break; }
@@ -57,24 +76,175 @@ public class Dictionary {
             Set<String> flags = affixRuleSet.extractFlags(pair[1]);
 
             add(lowerCase ? pair[0].toLowerCase() : pair[0] ,flags);
+            entries++;
         }
         reader.close();
+        StemmerEvents.commitDictionaryLoad(event, entries, this.dictionary.size());
     }
     
     public void add(String word, Set<String> flags) {
+            if(this.frozen) { throw new IllegalStateException("Cannot add '" + word + "' to a frozen dictionary"); }
             List<Set<String>> fl = this.dictionary.get(word);
             if(fl == null) {
                 fl = new ArrayList<Set<String>>(1);
                 this.dictionary.put(word.trim(), fl);
             }
             fl.add(flags);
+            this.prefixIndex = null;
+            this.flagPairIndex = null;
+            this.flagShapeIndex = null;
     }
     
+    /**
+     * Make the dictionary read-only and build all lookup structures (prefix
+     * index, flag indexes and the Bloom filter if configured) up front.
+     * Sticky rules must be expanded (see {@link AffixExpander#expandStickyRules()})
+     * before the dictionary is frozen.
+     */
+    public synchronized void freeze() {
+        if(this.frozen) { return; }
+        Object event = StemmerEvents.beginFreeze();
+        this.frozen = true;
+        this.getPrefixIndex();
+        this.getFlagPairIndex();
+        this.getFlagShapeIndex();
+        if(this.bloomFilterFpp > 0) {
+            this.bloomFilter = this.buildBloomFilter(this.bloomFilterFpp);
+        }
+        this.reportBloomFilter();
+        StemmerEvents.commitFreeze(event, Dictionary.class, this.dictionary.size(), this.bloomFilter != null);
+    }
+
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
+    /**
+     * Set the false positive probability of the Bloom filter put in front 
+     * of the lookups in a frozen dictionary; 0 (default) means no filter. 
+     * The filter holds the words as well as (word, flag) pairs, so it rejects 
+     * most of the misses of all the contains() methods without touching the 
+     * hash map. Must be called before {@link #freeze()}.
+     * 
+     * @param fpp false positive probability, e.g. 0.01
+     */
+    public void setBloomFilterFpp(double fpp) {
+        if(this.frozen) { throw new IllegalStateException("Dictionary is already frozen"); }
+        this.bloomFilterFpp = fpp;
+    }
+
+    public BlockedBloomFilter getBloomFilter() {
+        return this.bloomFilter;
+    }
+
+    /**
+     * Count the queries passed and rejected by the Bloom filter and its false
+     * positives in the given metrics and report the size of the filter there.
+     * The counters are shared by all threads, so nothing is counted (default)
+     * unless somebody reads them.
+     * @param metrics metrics of the model; null - don't count
+     */
+    public synchronized void setMetrics(StemmerMetrics metrics) {
+        this.metrics = metrics;
+        this.reportBloomFilter();
+    }
+
+    private void reportBloomFilter() {
+        StemmerMetrics m = this.metrics;
+        if(m == null || !this.frozen) { return; }
+        BlockedBloomFilter filter = this.bloomFilter;
+        if(filter == null) { m.setBloomFilter(0, 0); }
+        else { m.setBloomFilter(filter.getSizeInBytes(), filter.getOccupancy()); }
+    }
+
+    private boolean mightContain(BlockedBloomFilter filter, long hash) {
+        boolean passed = filter.mightContain(hash);
+        StemmerMetrics m = this.metrics;
+        if(m != null) { m.recordBloomFilter(passed); }
+        return passed;
+    }
+
+    private BlockedBloomFilter buildBloomFilter(double fpp) {
+        long keys = 0;
+        for(List<Set<String>> flagSets : this.dictionary.values()) {
+            keys++;
+            for(Set<String> flags : flagSets) {
+                keys += flags.size();
+            }
+        }
+        BlockedBloomFilter filter = new BlockedBloomFilter(keys, fpp);
+        for(Map.Entry<String,List<Set<String>>> e : this.dictionary.entrySet()) {
+            long wordHash = BlockedBloomFilter.hash(e.getKey());
+            filter.put(wordHash);
+            for(Set<String> flags : e.getValue()) {
+                for(String flag : flags) {
+                    filter.put(BlockedBloomFilter.hash(wordHash, flag));
+                }
+            }
+        }
+        return filter;
+    }
+
+    @Override
     public boolean contains(String word) {
-        return this.dictionary.containsKey(word);
+        BlockedBloomFilter filter = this.bloomFilter;
+        if(filter == null) { return this.dictionary.containsKey(word); }
+        if(!this.mightContain(filter, BlockedBloomFilter.hash(word))) { return false; }
+        return this.countFalsePositive(this.dictionary.containsKey(word));
     }
     
+    @Override
     public boolean contains(String word, String flag) {
+        BlockedBloomFilter filter = this.bloomFilter;
+        if(filter != null) {
+            if(!this.mightContain(filter, BlockedBloomFilter.hash(BlockedBloomFilter.hash(word), flag))) { return false; }
+            return this.countFalsePositive(this.containsInMap(word, flag));
+        }
+        return this.containsInMap(word, flag);
+    }
+
+    // The char[] lookups consult the Bloom filter before building the String key.
+
+    @Override
+    public boolean contains(char[] buffer, int offset, int length) {
+        BlockedBloomFilter filter = this.bloomFilter;
+        if(filter == null) { return this.dictionary.containsKey(new String(buffer, offset, length)); }
+        if(!this.mightContain(filter, BlockedBloomFilter.hash(buffer, offset, length))) { return false; }
+        return this.countFalsePositive(this.dictionary.containsKey(new String(buffer, offset, length)));
+    }
+
+    @Override
+    public boolean contains(char[] buffer, int offset, int length, String flag) {
+        BlockedBloomFilter filter = this.bloomFilter;
+        if(filter != null) {
+            if(!this.mightContain(filter, BlockedBloomFilter.hash(BlockedBloomFilter.hash(buffer, offset, length), flag))) { return false; }
+            return this.countFalsePositive(this.containsInMap(new String(buffer, offset, length), flag));
+        }
+        return this.containsInMap(new String(buffer, offset, length), flag);
+    }
+
+    @Override
+    public boolean contains(char[] buffer, int offset, int length, String pfxFlag, String sfxFlag) {
+        if(pfxFlag == null) { return this.contains(buffer, offset, length, sfxFlag); }
+        else if(sfxFlag == null) { return this.contains(buffer, offset, length, pfxFlag); }
+
+        BlockedBloomFilter filter = this.bloomFilter;
+        if(filter != null) {
+            long wordHash = BlockedBloomFilter.hash(buffer, offset, length);
+            if(!this.mightContain(filter, BlockedBloomFilter.hash(wordHash, pfxFlag)) ||
+               !this.mightContain(filter, BlockedBloomFilter.hash(wordHash, sfxFlag))) { return false; }
+            return this.countFalsePositive(this.containsInMap(new String(buffer, offset, length), pfxFlag, sfxFlag));
+        }
+        return this.containsInMap(new String(buffer, offset, length), pfxFlag, sfxFlag);
+    }
+
+    private boolean countFalsePositive(boolean found) {
+        StemmerMetrics m = this.metrics;
+        if(!found && m != null) { m.recordBloomFalsePositive(); }
+        return found;
+    }
+
+    private boolean containsInMap(String word, String flag) {
         List<Set<String>> fl = this.dictionary.get(word);
         if(fl == null) { return false; }
         for(Set<String> fs : fl) {
@@ -85,10 +255,22 @@ public class Dictionary {
 
     
    
+    @Override
     public boolean contains(String word, String pfxFlag, String sfxFlag) {
         if(pfxFlag == null) { return this.contains(word,sfxFlag); }
         else if(sfxFlag == null) { return this.contains(word,pfxFlag); }
         
+        BlockedBloomFilter filter = this.bloomFilter;
+        if(filter != null) {
+            long wordHash = BlockedBloomFilter.hash(word);
+            if(!this.mightContain(filter, BlockedBloomFilter.hash(wordHash, pfxFlag)) ||
+               !this.mightContain(filter, BlockedBloomFilter.hash(wordHash, sfxFlag))) { return false; }
+            return this.countFalsePositive(this.containsInMap(word, pfxFlag, sfxFlag));
+        }
+        return this.containsInMap(word, pfxFlag, sfxFlag);
+    }
+
+    private boolean containsInMap(String word, String pfxFlag, String sfxFlag) {
         List<Set<String>> fl = this.dictionary.get(word);
         if(fl == null) { return false; }
         for(Set<String> fs : fl) {
@@ -98,12 +280,93 @@ public class Dictionary {
     }
     
     
+    /**
+     * Checks whether some dictionary word starts with the first <code>length</code>
+     * characters of <code>s</code>. Used to cut reduction branches that cannot
+     * lead to any dictionary word.
+     * 
+     * @param s string
+     * @param length length of the prefix of s to check
+     * @return true if there is a word in the dictionary starting with the prefix
+     */
+    @Override
+    public boolean hasWordWithPrefix(CharSequence s, int length) {
+        return this.getPrefixIndex().hasPrefix(s, 0, length);
+    }
+
+    /**
+     * @param flag flag
+     * @return true if at least one dictionary word has the flag
+     */
+    @Override
+    public boolean hasFlag(String flag) {
+        return this.getFlagPairIndex().hasFlag(flag);
+    }
+
+    /**
+     * @param flag1 first flag
+     * @param flag2 second flag
+     * @return true if at least one dictionary entry has both flags in the same flag set
+     */
+    @Override
+    public boolean flagsCooccur(String flag1, String flag2) {
+        return this.getFlagPairIndex().cooccur(flag1, flag2);
+    }
+
+    @Override
+    public boolean admits(CharSequence word, String flag) {
+        return this.getFlagShapeIndex().admits(word, 0, word.length(), flag);
+    }
+
+    private FlagShapeIndex getFlagShapeIndex() {
+        FlagShapeIndex index = this.flagShapeIndex;
+        if(index == null) {
+            synchronized(this) {
+                index = this.flagShapeIndex;
+                if(index == null) {
+                    index = new FlagShapeIndex(this);
+                    this.flagShapeIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private FlagPairIndex getFlagPairIndex() {
+        FlagPairIndex index = this.flagPairIndex;
+        if(index == null) {
+            synchronized(this) {
+                index = this.flagPairIndex;
+                if(index == null) {
+                    index = new FlagPairIndex(this.dictionary.values());
+                    this.flagPairIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private WordPrefixIndex getPrefixIndex() {
+        WordPrefixIndex index = this.prefixIndex;
+        if(index == null) {
+            synchronized(this) {
+                index = this.prefixIndex;
+                if(index == null) {
+                    index = new WordPrefixIndex(this.dictionary.keySet());
+                    this.prefixIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+    
     public Set<String> getFlags(String word) { // temporary - for backward compatibility with single-flagset version
         List<Set<String>> lf = this.dictionary.get(word);
         if(lf == null) { return null; }
         return lf.get(0); 
     }
 
+    @Override
     public List<Set<String>> getAllFlags(String word) { // temporary - for backward compatibility with single-flagset version
         return this.dictionary.get(word);
     }
@@ -117,6 +380,7 @@ public class Dictionary {
         }
     }
     
+    @Override
     public Set<String> getWords() {
         return this.dictionary.keySet();
     }
@@ -141,4 +405,44 @@ public class Dictionary {
         return dictionary.entrySet().size();
     }
 
+    @Override
+    public long ramBytesUsed() {
+        long size = SHALLOW_SIZE;
+        for(Accountable child : this.getChildResources()) {
+            size += child.ramBytesUsed();
+        }
+        return size;
+    }
+
+    /**
+     * @return the words with their flag sets and the lookup structures built so far
+     */
+    @Override
+    public Collection<Accountable> getChildResources() {
+        List<Accountable> children = new ArrayList<Accountable>();
+        children.add(Accountables.namedAccountable("words", this.wordsRamBytesUsed()));
+        WordPrefixIndex prefix = this.prefixIndex;
+        if(prefix != null) { children.add(Accountables.namedAccountable("prefix index", prefix)); }
+        FlagPairIndex pairs = this.flagPairIndex;
+        if(pairs != null) { children.add(Accountables.namedAccountable("flag pair index", pairs)); }
+        FlagShapeIndex shapes = this.flagShapeIndex;
+        if(shapes != null) { children.add(Accountables.namedAccountable("flag shape index", shapes)); }
+        if(this.bloomFilter != null) { children.add(Accountables.namedAccountable("Bloom filter", this.bloomFilter)); }
+        return Collections.unmodifiableList(children);
+    }
+
+    // the map of the words, the lists of the flag sets and the sets; computed once for a frozen dictionary
+    private long wordsRamBytesUsed() {
+        long size = this.wordsRamBytes;
+        if(size >= 0) { return size; }
+        size = RamUsage.hashMap(this.dictionary.size(), false);
+        for(Map.Entry<String,List<Set<String>>> e : this.dictionary.entrySet()) {
+            size += RamUsage.string(e.getKey()) + RamUsage.arrayList(e.getValue().size());
+            for(Set<String> flags : e.getValue()) {
+                size += RamUsage.stringSet(flags);
+            }
+        }
+        if(this.frozen) { this.wordsRamBytes = size; }
+        return size;
+    }
 }
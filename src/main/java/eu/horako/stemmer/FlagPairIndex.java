@@ -0,0 +1,77 @@
+package eu.horako.stemmer;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Index of flags used in a dictionary and of flag pairs occurring together
+ * in at least one flag set of a dictionary entry.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+class FlagPairIndex implements Accountable {
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(FlagPairIndex.class);
+    private static final long BIT_SET = RamUsageEstimator.shallowSizeOfInstance(BitSet.class);
+
+    private final Map<String,Integer> flagIds = new HashMap<String,Integer>();
+    private final BitSet pairs;
+
+    FlagPairIndex(Collection<List<Set<String>>> entries) {
+        for(List<Set<String>> flagSets : entries) {
+            for(Set<String> flags : flagSets) {
+                for(String f : flags) {
+                    if(!this.flagIds.containsKey(f)) {
+                        this.flagIds.put(f, this.flagIds.size());
+                    }
+                }
+            }
+        }
+
+        int n = this.flagIds.size();
+        this.pairs = new BitSet(n * n);
+        int[] ids = new int[16];
+        for(List<Set<String>> flagSets : entries) {
+            for(Set<String> flags : flagSets) {
+                if(ids.length < flags.size()) { ids = new int[flags.size()]; }
+                int count = 0;
+                for(String f : flags) {
+                    ids[count++] = this.flagIds.get(f);
+                }
+                for(int i = 0; i < count; i++) {
+                    for(int j = 0; j < count; j++) {
+                        this.pairs.set(ids[i] * n + ids[j]);
+                    }
+                }
+            }
+        }
+    }
+
+    boolean hasFlag(String flag) {
+        return this.flagIds.containsKey(flag);
+    }
+
+    boolean cooccur(String flag1, String flag2) {
+        Integer id1 = this.flagIds.get(flag1);
+        if(id1 == null) { return false; }
+        Integer id2 = this.flagIds.get(flag2);
+        if(id2 == null) { return false; }
+        return this.pairs.get(id1 * this.flagIds.size() + id2);
+    }
+
+    // the flag strings are shared with the flag sets of the dictionary
+    @Override
+    public long ramBytesUsed() {
+        long size = SHALLOW_SIZE + RamUsage.hashMap(this.flagIds.size(), false) + BIT_SET +
+                RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + this.pairs.size() / 8);
+        for(Integer id : this.flagIds.values()) {
+            size += RamUsageEstimator.sizeOfObject(id);
+        }
+        return size;
+    }
+}
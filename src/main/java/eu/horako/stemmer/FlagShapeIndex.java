@@ -0,0 +1,143 @@
+package eu.horako.stemmer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Shape of the dictionary words carrying each flag: the minimum and maximum
+ * length and the sets of their first and last {@link #K} chars. A word which
+ * doesn't fit the shape of a flag can't be in the dictionary with the flag,
+ * which is much cheaper to find out than by a lookup.
+ *
+ * The char sets are kept as bit sets indexed by a hash of the packed chars,
+ * so a check costs two bit tests; a hash collision only lets a word through.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+class FlagShapeIndex implements Accountable {
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(FlagShapeIndex.class);
+    static final int K = 2; // chars packed into an int
+    private static final int BITS_PER_VALUE = 8;
+    private static final int MAX_BITS = 1 << 16;
+
+    private final Map<String,Shape> shapes = new HashMap<String,Shape>();
+
+    private static final class Shape {
+        static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(Shape.class);
+
+        int minLength = Integer.MAX_VALUE;
+        int maxLength = 0;
+        int[] heads = new int[4]; // packed chars of the words, dropped by build()
+        int[] tails = new int[4];
+        int count = 0;
+        long[] headBits;
+        long[] tailBits;
+        int mask;
+
+        void add(String word) {
+            int length = word.length();
+            this.minLength = Math.min(this.minLength, length);
+            this.maxLength = Math.max(this.maxLength, length);
+            if(this.count == this.heads.length) {
+                this.heads = Arrays.copyOf(this.heads, this.count * 2);
+                this.tails = Arrays.copyOf(this.tails, this.count * 2);
+            }
+            this.heads[this.count] = head(word, 0, length);
+            this.tails[this.count] = tail(word, 0, length);
+            this.count++;
+        }
+
+        void build() {
+            int distinct = Math.max(distinct(this.heads, this.count), distinct(this.tails, this.count));
+            int bits = Math.max(64, Math.min(MAX_BITS, Integer.highestOneBit(distinct * BITS_PER_VALUE - 1) << 1));
+            this.mask = bits - 1;
+            this.headBits = new long[bits / 64];
+            this.tailBits = new long[bits / 64];
+            for(int i = 0; i < this.count; i++) {
+                set(this.headBits, bit(this.heads[i], this.mask));
+                set(this.tailBits, bit(this.tails[i], this.mask));
+            }
+            this.heads = null;
+            this.tails = null;
+        }
+    }
+
+    FlagShapeIndex(IDictionary dictionary) {
+        for(String word : dictionary.getWords()) {
+            for(Set<String> flags : dictionary.getAllFlags(word)) {
+                for(String flag : flags) {
+                    Shape shape = this.shapes.get(flag);
+                    if(shape == null) {
+                        shape = new Shape();
+                        this.shapes.put(flag, shape);
+                    }
+                    shape.add(word);
+                }
+            }
+        }
+        for(Shape shape : this.shapes.values()) {
+            shape.build();
+        }
+    }
+
+    /**
+     * @param word word
+     * @param offset start of the word in <code>word</code>
+     * @param length length of the word
+     * @param flag flag
+     * @return false when no dictionary word with the flag has the length, the first or the last chars of the word
+     */
+    boolean admits(CharSequence word, int offset, int length, String flag) {
+        Shape shape = this.shapes.get(flag);
+        if(shape == null || length < shape.minLength || length > shape.maxLength) { return false; }
+        return get(shape.tailBits, bit(tail(word, offset, length), shape.mask)) &&
+               get(shape.headBits, bit(head(word, offset, length), shape.mask));
+    }
+
+    // the flag strings are shared with the flag sets of the dictionary
+    @Override
+    public long ramBytesUsed() {
+        long size = SHALLOW_SIZE + RamUsage.hashMap(this.shapes.size(), false);
+        for(Shape shape : this.shapes.values()) {
+            size += Shape.SHALLOW_SIZE + RamUsageEstimator.sizeOf(shape.headBits) + RamUsageEstimator.sizeOf(shape.tailBits);
+        }
+        return size;
+    }
+
+    // the first K chars packed; a shorter word is packed as if padded by '\0' on the left
+    private static int head(CharSequence word, int offset, int length) {
+        if(length < K) { return length == 0 ? 0 : word.charAt(offset); }
+        return word.charAt(offset) << 16 | word.charAt(offset + 1);
+    }
+
+    private static int tail(CharSequence word, int offset, int length) {
+        if(length < K) { return length == 0 ? 0 : word.charAt(offset); }
+        return word.charAt(offset + length - 2) << 16 | word.charAt(offset + length - 1);
+    }
+
+    private static int bit(int packed, int mask) {
+        return (packed * 0x9E3779B1 >>> 16) & mask;
+    }
+
+    private static void set(long[] bits, int bit) {
+        bits[bit >>> 6] |= 1L << bit;
+    }
+
+    private static boolean get(long[] bits, int bit) {
+        return (bits[bit >>> 6] & 1L << bit) != 0;
+    }
+
+    private static int distinct(int[] values, int count) {
+        int[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        int n = 0;
+        for(int i = 0; i < count; i++) {
+            if(n == 0 || sorted[n - 1] != sorted[i]) { sorted[n++] = sorted[i]; }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,90 @@
+package eu.horako.stemmer;
+
+import java.util.List;
+import java.util.Set;
+import org.apache.lucene.util.Accountable;
+
+/**
+ * Read access to a dictionary of words with their flag sets, as needed by
+ * {@link AffixStemmer} and {@link AffixExpander}. The memory taken by the
+ * dictionary is reported through {@link Accountable}.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public interface IDictionary extends Accountable {
+    public boolean contains(String word);
+
+    public boolean contains(String word, String flag);
+
+    public boolean contains(String word, String pfxFlag, String sfxFlag);
+
+    /**
+     * Same as {@link #contains(String)} for the word buffer[offset..offset+length).
+     * @param buffer buffer with the word
+     * @param offset start of the word
+     * @param length length of the word
+     * @return true if the word is in the dictionary
+     */
+    public boolean contains(char[] buffer, int offset, int length);
+
+    /**
+     * Same as {@link #contains(String,String)} for the word buffer[offset..offset+length).
+     * @param buffer buffer with the word
+     * @param offset start of the word
+     * @param length length of the word
+     * @param flag flag
+     * @return true if the word is in the dictionary with the flag
+     */
+    public boolean contains(char[] buffer, int offset, int length, String flag);
+
+    /**
+     * Same as {@link #contains(String,String,String)} for the word buffer[offset..offset+length).
+     * @param buffer buffer with the word
+     * @param offset start of the word
+     * @param length length of the word
+     * @param pfxFlag prefix flag
+     * @param sfxFlag suffix flag
+     * @return true if the word is in the dictionary with both flags in one flag set
+     */
+    public boolean contains(char[] buffer, int offset, int length, String pfxFlag, String sfxFlag);
+
+    /**
+     * @param word word
+     * @return all flag sets of the word or null if the word is not in the dictionary
+     */
+    public List<Set<String>> getAllFlags(String word);
+
+    public Set<String> getWords();
+
+    /**
+     * Checks whether some dictionary word starts with the first <code>length</code>
+     * characters of <code>s</code>.
+     * @param s string
+     * @param length length of the prefix of s to check
+     * @return true if there is a word in the dictionary starting with the prefix
+     */
+    public boolean hasWordWithPrefix(CharSequence s, int length);
+
+    /**
+     * @param flag flag
+     * @return true if at least one dictionary word has the flag
+     */
+    public boolean hasFlag(String flag);
+
+    /**
+     * @param flag1 first flag
+     * @param flag2 second flag
+     * @return true if at least one dictionary entry has both flags in the same flag set
+     */
+    public boolean flagsCooccur(String flag1, String flag2);
+
+    /**
+     * Cheap necessary condition of {@link #contains(String,String)}: the length,
+     * the first two and the last two chars of the word are those of some
+     * dictionary word with the flag.
+     * @param word word
+     * @param flag flag
+     * @return false if the word can't be in the dictionary with the flag
+     */
+    public boolean admits(CharSequence word, String flag);
+}
@@ -0,0 +1,99 @@
+package eu.horako.stemmer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Priorities (typically corpus frequencies) of lemmas, used by
+ * {@link AffixStemmer#stemBest(String)} to choose one of several stems.
+ *
+ * The file has one lemma per line followed by its frequency, separated by
+ * whitespace; a lemma without a frequency gets 1, lines starting with # are
+ * ignored. Lemmas not in the file have frequency 0.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class LemmaFrequencies implements Accountable {
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(LemmaFrequencies.class);
+
+    private final Map<String,Long> frequencies = new HashMap<String,Long>();
+    private long maxFrequency = 0;
+
+    public LemmaFrequencies() {
+    }
+
+    public LemmaFrequencies(String filename, boolean lowerCase) throws IOException {
+        this(new FileInputStream(new File(filename)), lowerCase);
+    }
+
+    public LemmaFrequencies(InputStream input, boolean lowerCase) throws IOException {
+        this(new InputStreamReader(input, "UTF-8"), lowerCase);
+    }
+
+    public LemmaFrequencies(Reader r, boolean lowerCase) throws IOException {
+        BufferedReader reader = new BufferedReader(r);
+        while(true) {
+            String line = reader.readLine();
+            if(line == null) { break; }
+            line = line.trim();
+            if(line.isEmpty() || line.charAt(0) == '#') { continue; }
+            String[] params = line.split("\\s+");
+            long frequency;
+            try {
+                frequency = params.length > 1 ? Long.parseLong(params[1]) : 1;
+            } catch(NumberFormatException ex) {
+                throw new IOException("Bad frequency of lemma " + params[0] + ": " + params[1]);
+            }
+            this.put(lowerCase ? params[0].toLowerCase() : params[0], frequency);
+        }
+        reader.close();
+    }
+
+    /**
+     * @param lemma lemma
+     * @param frequency frequency (priority) of the lemma, &gt;= 0
+     */
+    public void put(String lemma, long frequency) {
+        if(frequency < 0) { throw new IllegalArgumentException("Negative frequency of lemma " + lemma); }
+        this.frequencies.put(lemma, frequency);
+        this.maxFrequency = Math.max(this.maxFrequency, frequency);
+    }
+
+    /**
+     * @param lemma lemma
+     * @return frequency of the lemma; 0 if unknown
+     */
+    public long getFrequency(String lemma) {
+        Long f = this.frequencies.get(lemma);
+        return f == null ? 0 : f;
+    }
+
+    /**
+     * @return the highest frequency of all lemmas
+     */
+    public long getMaxFrequency() {
+        return this.maxFrequency;
+    }
+
+    public int size() {
+        return this.frequencies.size();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long size = SHALLOW_SIZE + RamUsage.hashMap(this.frequencies.size(), false);
+        for(Map.Entry<String,Long> e : this.frequencies.entrySet()) {
+            size += RamUsage.string(e.getKey()) + RamUsageEstimator.sizeOf(e.getValue());
+        }
+        return size;
+    }
+}
@@ -0,0 +1,150 @@
+package eu.horako.stemmer;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.lucene.util.Accountable;
+
+/**
+ * Stemmer for several dictionary/affix file pairs at once.
+ *
+ * The rule sets are merged into one rule set and the dictionaries into one
+ * dictionary, with the flags namespaced by the index of the pair they come
+ * from (see {@link AffixRuleSet#namespacedFlag(int, String)}); each merged
+ * dictionary entry also carries the bare namespace of its pair as a marker of
+ * its source. A word is then reduced in a single pass over the merged rules
+ * and every candidate is probed once in the merged dictionary, instead of
+ * running a separate {@link AffixStemmer} per pair. The stems found are the
+ * union of the stems the separate stemmers would find.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class MultiModelStemmer implements IAffixProcessor, Accountable {
+    private final AffixRuleSet ruleSet;
+    private final IDictionary dictionary;
+    private final AffixStemmer stemmer;
+    private final int sourceCount;
+
+    /**
+     * @param ruleSets rule sets, one per pair
+     * @param dictionaries dictionaries, one per pair (in the same order as the rule sets)
+     */
+    public MultiModelStemmer(List<AffixRuleSet> ruleSets, List<? extends IDictionary> dictionaries) {
+        this(ruleSets, dictionaries, false);
+    }
+
+    /**
+     * @param ruleSets rule sets, one per pair
+     * @param dictionaries dictionaries, one per pair (in the same order as the rule sets)
+     * @param offHeap true to keep the merged dictionary in an {@link OffHeapDictionary}
+     */
+    public MultiModelStemmer(List<AffixRuleSet> ruleSets, List<? extends IDictionary> dictionaries, boolean offHeap) {
+        if(ruleSets.size() != dictionaries.size()) {
+            throw new IllegalArgumentException("Counts of rule sets and dictionaries differ: " + ruleSets.size() + ", " + dictionaries.size());
+        }
+        this.sourceCount = ruleSets.size();
+        this.ruleSet = mergeRuleSets(ruleSets);
+        Dictionary merged = mergeDictionaries(dictionaries);
+        merged.freeze();
+        this.dictionary = offHeap ? new OffHeapDictionary(merged) : merged;
+        this.stemmer = new AffixStemmer(this.ruleSet, this.dictionary);
+    }
+
+    /**
+     * @param ruleSets rule sets to merge
+     * @return one rule set with the flags of the i-th set namespaced by i
+     */
+    public static AffixRuleSet mergeRuleSets(List<AffixRuleSet> ruleSets) {
+        return new AffixRuleSet(ruleSets);
+    }
+
+    /**
+     * @param dictionaries dictionaries to merge
+     * @return one dictionary with the flags of the i-th dictionary namespaced by i;
+     *   each flag set also contains the source marker of its dictionary
+     */
+    public static Dictionary mergeDictionaries(List<? extends IDictionary> dictionaries) {
+        Dictionary merged = new Dictionary();
+        for(int i = 0; i < dictionaries.size(); i++) {
+            IDictionary source = dictionaries.get(i);
+            String marker = AffixRuleSet.namespacedFlag(i, "");
+            for(String word : source.getWords()) {
+                for(Set<String> flags : source.getAllFlags(word)) {
+                    Set<String> mergedFlags = new TreeSet<String>();
+                    mergedFlags.add(marker);
+                    for(String flag : flags) {
+                        mergedFlags.add(AffixRuleSet.namespacedFlag(i, flag));
+                    }
+                    merged.add(word, mergedFlags);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @param word the word to be stemmed
+     * @return set of stems found by any of the pairs; never null
+     */
+    public Set<String> stem(String word) {
+        return this.stemmer.stem(word);
+    }
+
+    /**
+     * @param word the word to be stemmed
+     * @return the best stem found by any of the pairs or null (see {@link AffixStemmer#stemBest(String)})
+     */
+    public String stemBest(String word) {
+        return this.stemmer.stemBest(word);
+    }
+
+    @Override
+    public Set<String> process(String word) {
+        return this.stem(word);
+    }
+
+    /**
+     * @param word dictionary word (e.g. a stem)
+     * @return indexes of the pairs whose dictionary contains the word
+     */
+    public Set<Integer> getSources(String word) {
+        Set<Integer> sources = new TreeSet<Integer>();
+        for(int i = 0; i < this.sourceCount; i++) {
+            if(this.dictionary.contains(word, AffixRuleSet.namespacedFlag(i, ""))) {
+                sources.add(i);
+            }
+        }
+        return sources;
+    }
+
+    public int getSourceCount() {
+        return this.sourceCount;
+    }
+
+    public AffixRuleSet getRuleSet() {
+        return this.ruleSet;
+    }
+
+    public IDictionary getDictionary() {
+        return this.dictionary;
+    }
+
+    /**
+     * @return the stemmer working on the merged rule set and dictionary;
+     *   use it to configure the stemming (dictionary check, pruning, compiled rules, metrics)
+     */
+    public AffixStemmer getStemmer() {
+        return this.stemmer;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return this.stemmer.ramBytesUsed();
+    }
+
+    @Override
+    public Collection<Accountable> getChildResources() {
+        return this.stemmer.getChildResources();
+    }
+}
@@ -0,0 +1,526 @@
+package eu.horako.stemmer;
+
+import eu.horako.stemmer.jfr.StemmerEvents;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Accountables;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Read-only dictionary keeping the words outside of the Java heap.
+ *
+ * The words are stored as UTF-8 in a direct byte buffer (the arena) and
+ * located by a minimal perfect hash function (hash and displace: keys are
+ * split into buckets, every bucket has a pilot value choosing the slots of
+ * its keys). The word stored in the slot is compared with the looked up one,
+ * so non-members are rejected. Every slot has an ordinal of its list of flag
+ * sets; the ordinals are bit-packed in the arena, the (few) distinct lists of
+ * flag sets stay on the heap.
+ *
+ * Lookups by char[] slice or by UTF-8 bytes don't create any objects.
+ *
+ * The dictionary is a snapshot of another one; sticky rules should be expanded
+ * in the source dictionary first (see {@link AffixExpander#expandStickyRules()}).
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class OffHeapDictionary implements IDictionary {
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(OffHeapDictionary.class);
+    private static final long UNMODIFIABLE = RamUsageEstimator.shallowSizeOfInstance(Collections.unmodifiableList(new ArrayList<Object>()).getClass());
+    private static final int BUCKET_SIZE = 3; // average number of keys in a bucket
+    private static final double LOAD_FACTOR = 0.97; // keys hashed to the extra slots are remapped to the free ones
+    private static final long PILOT_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    static final int MAX_PILOT_ATTEMPTS = 1 << 20; // a bucket needs tens of attempts on average; more means a broken hash
+
+    private final int size;
+    private final int numBuckets;
+    private final int tableSize;
+    private final ByteBuffer arena;
+    private final int offsetsBase; // int[size + 1] - start of the word of each slot
+    private final int pilotsBase; // int[numBuckets]
+    private final int remapBase; // int[tableSize - size] - slots of the keys hashed beyond size
+    private final int ordinalsBase; // bit-packed flag set list ordinals
+    private final int bitsPerOrdinal;
+    private final List<List<Set<String>>> flagSetLists; // by ordinal
+    private final WordPrefixIndex prefixIndex;
+    private final FlagPairIndex flagPairIndex;
+    private final FlagShapeIndex flagShapeIndex;
+    private final Set<String> words = new WordSet();
+
+    public OffHeapDictionary(IDictionary source) {
+        Object event = StemmerEvents.beginFreeze();
+        List<String> keys = new ArrayList<String>(source.getWords());
+        this.size = keys.size();
+        this.numBuckets = Math.max(1, (this.size + BUCKET_SIZE - 1) / BUCKET_SIZE);
+        this.tableSize = Math.max(this.size, (int)Math.ceil(this.size / LOAD_FACTOR));
+
+        // distinct lists of flag sets
+        Map<List<Set<String>>,Integer> listOrdinals = new HashMap<List<Set<String>>,Integer>();
+        ArrayList<List<Set<String>>> lists = new ArrayList<List<Set<String>>>();
+        int[] keyOrdinals = new int[this.size];
+        for(int i = 0; i < this.size; i++) {
+            List<Set<String>> flags = source.getAllFlags(keys.get(i));
+            Integer ord = listOrdinals.get(flags);
+            if(ord == null) {
+                ord = lists.size();
+                List<Set<String>> copy = new ArrayList<Set<String>>(flags.size());
+                for(Set<String> fs : flags) {
+                    copy.add(Collections.unmodifiableSet(fs));
+                }
+                lists.add(Collections.unmodifiableList(copy));
+                listOrdinals.put(copy, ord);
+            }
+            keyOrdinals[i] = ord;
+        }
+        lists.trimToSize();
+        this.flagSetLists = lists;
+        this.bitsPerOrdinal = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(0, lists.size() - 1)));
+
+        int[] pilots = new int[this.numBuckets];
+        int[] remap = new int[this.tableSize - this.size];
+        int[] slotKeys = this.buildHash(keys, pilots, remap);
+
+        byte[][] utf8 = new byte[this.size][];
+        long wordBytes = 0;
+        for(int slot = 0; slot < this.size; slot++) {
+            utf8[slot] = keys.get(slotKeys[slot]).getBytes(StandardCharsets.UTF_8);
+            wordBytes += utf8[slot].length;
+        }
+        long ordinalLongs = ((long)this.size * this.bitsPerOrdinal + 63) / 64;
+        long offsetsBase = (wordBytes + 7) & ~7L;
+        long pilotsBase = offsetsBase + 4L * (this.size + 1);
+        long remapBase = pilotsBase + 4L * this.numBuckets;
+        long ordinalsBase = (remapBase + 4L * remap.length + 7) & ~7L;
+        long capacity = ordinalsBase + 8 * ordinalLongs;
+        if(capacity > Integer.MAX_VALUE) { throw new IllegalArgumentException("Dictionary too large for an off-heap arena: " + capacity + " bytes"); }
+        this.offsetsBase = (int)offsetsBase;
+        this.pilotsBase = (int)pilotsBase;
+        this.remapBase = (int)remapBase;
+        this.ordinalsBase = (int)ordinalsBase;
+        this.arena = ByteBuffer.allocateDirect((int)capacity).order(ByteOrder.nativeOrder());
+
+        int pos = 0;
+        for(int slot = 0; slot < this.size; slot++) {
+            this.arena.putInt(this.offsetsBase + 4 * slot, pos);
+            for(byte b : utf8[slot]) {
+                this.arena.put(pos++, b);
+            }
+        }
+        this.arena.putInt(this.offsetsBase + 4 * this.size, pos);
+        for(int b = 0; b < this.numBuckets; b++) {
+            this.arena.putInt(this.pilotsBase + 4 * b, pilots[b]);
+        }
+        for(int i = 0; i < remap.length; i++) {
+            this.arena.putInt(this.remapBase + 4 * i, remap[i]);
+        }
+        long[] packed = new long[(int)ordinalLongs];
+        for(int slot = 0; slot < this.size; slot++) {
+            long bitPos = (long)slot * this.bitsPerOrdinal;
+            int w = (int)(bitPos >>> 6);
+            int shift = (int)(bitPos & 63);
+            long value = keyOrdinals[slotKeys[slot]];
+            packed[w] |= value << shift;
+            if(shift + this.bitsPerOrdinal > 64) {
+                packed[w + 1] |= value >>> (64 - shift);
+            }
+        }
+        for(int i = 0; i < packed.length; i++) {
+            this.arena.putLong(this.ordinalsBase + 8 * i, packed[i]);
+        }
+
+        this.prefixIndex = new WordPrefixIndex(keys);
+        this.flagPairIndex = new FlagPairIndex(lists);
+        this.flagShapeIndex = new FlagShapeIndex(source);
+        StemmerEvents.commitFreeze(event, OffHeapDictionary.class, this.size, false);
+    }
+
+    // finds the pilots of all buckets and the remapping of the extra slots; returns the key index for every slot
+    private int[] buildHash(List<String> keys, int[] pilots, int[] remap) {
+        int n = this.size;
+        long[] hashes = new long[n];
+        int[] bucketSizes = new int[this.numBuckets + 1];
+        for(int i = 0; i < n; i++) {
+            hashes[i] = BlockedBloomFilter.hash(keys.get(i));
+            bucketSizes[this.bucket(hashes[i]) + 1]++;
+        }
+        // keys grouped by bucket (counting sort)
+        int[] bucketStarts = new int[this.numBuckets + 1];
+        for(int b = 0; b < this.numBuckets; b++) {
+            bucketStarts[b + 1] = bucketStarts[b] + bucketSizes[b + 1];
+        }
+        int[] fill = Arrays.copyOf(bucketStarts, this.numBuckets);
+        int[] bucketKeys = new int[n];
+        for(int i = 0; i < n; i++) {
+            bucketKeys[fill[this.bucket(hashes[i])]++] = i;
+        }
+        // the biggest buckets are placed first, while there is most room
+        List<int[]> order = new ArrayList<int[]>(this.numBuckets);
+        for(int b = 0; b < this.numBuckets; b++) {
+            int bs = bucketStarts[b + 1] - bucketStarts[b];
+            if(bs > 0) { order.add(new int[] { bs, b }); }
+        }
+        Collections.sort(order, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return a[0] != b[0] ? (a[0] > b[0] ? -1 : 1) : (a[1] < b[1] ? -1 : (a[1] == b[1] ? 0 : 1));
+            }
+        });
+
+        int[] tableKeys = new int[this.tableSize];
+        BitSet taken = new BitSet(this.tableSize);
+        int[] slots = new int[16];
+        for(int[] entry : order) {
+            int b = entry[1];
+            int start = bucketStarts[b];
+            int count = entry[0];
+            if(slots.length < count) { slots = new int[count]; }
+            for(int k = 1; k < count; k++) {
+                for(int j = 0; j < k; j++) {
+                    if(hashes[bucketKeys[start + k]] == hashes[bucketKeys[start + j]]) {
+                        throw new IllegalStateException("Cannot build perfect hash, hash collision of '" + keys.get(bucketKeys[start + k]) + "' and '" + keys.get(bucketKeys[start + j]) + "'");
+                    }
+                }
+            }
+            for(int pilot = 0; ; pilot++) {
+                if(pilot == MAX_PILOT_ATTEMPTS) {
+                    throw new IllegalStateException("Cannot build perfect hash, no pilot found for a bucket of " + count + " key(s) ('" +
+                            keys.get(bucketKeys[start]) + "', ...) in " + MAX_PILOT_ATTEMPTS + " attempts");
+                }
+                boolean ok = true;
+                for(int k = 0; k < count && ok; k++) {
+                    int slot = this.slot(hashes[bucketKeys[start + k]], pilot);
+                    if(taken.get(slot)) { ok = false; break; }
+                    for(int j = 0; j < k; j++) {
+                        if(slots[j] == slot) { ok = false; break; }
+                    }
+                    slots[k] = slot;
+                }
+                if(!ok) { continue; }
+                for(int k = 0; k < count; k++) {
+                    taken.set(slots[k]);
+                    tableKeys[slots[k]] = bucketKeys[start + k];
+                }
+                pilots[b] = pilot;
+                break;
+            }
+        }
+
+        int[] slotKeys = Arrays.copyOf(tableKeys, n);
+        int free = taken.nextClearBit(0);
+        for(int s = n; s < this.tableSize; s++) {
+            if(!taken.get(s)) { continue; }
+            remap[s - n] = free;
+            slotKeys[free] = tableKeys[s];
+            free = taken.nextClearBit(free + 1);
+        }
+        return slotKeys;
+    }
+
+    private int bucket(long hash) {
+        return (int)(((hash >>> 32) * this.numBuckets) >>> 32);
+    }
+
+    private int slot(long hash, int pilot) {
+        long h = BlockedBloomFilter.mix(hash ^ (pilot * PILOT_MULTIPLIER));
+        return (int)(((h >>> 32) * this.tableSize) >>> 32);
+    }
+
+    // slot of the word or -1 when the word is not in the dictionary
+    private int find(char[] buffer, CharSequence s, int offset, int length) {
+        if(this.size == 0) { return -1; }
+        long hash = buffer != null ? BlockedBloomFilter.hash(buffer, offset, length) : BlockedBloomFilter.hash(s, offset, offset + length);
+        int slot = this.slot(hash, this.arena.getInt(this.pilotsBase + 4 * this.bucket(hash)));
+        if(slot >= this.size) {
+            slot = this.arena.getInt(this.remapBase + 4 * (slot - this.size));
+        }
+        return this.wordEquals(slot, buffer, s, offset, length) ? slot : -1;
+    }
+
+    // compares the UTF-8 word of the slot with the chars without decoding it to a String
+    private boolean wordEquals(int slot, char[] buffer, CharSequence s, int offset, int length) {
+        int p = this.arena.getInt(this.offsetsBase + 4 * slot);
+        int end = this.arena.getInt(this.offsetsBase + 4 * slot + 4);
+        if(end - p < length || end - p > 3 * length) { return false; }
+        int i = 0;
+        while(p < end) {
+            int b = this.arena.get(p) & 0xFF;
+            int cp;
+            if(b < 0x80) {
+                cp = b;
+                p += 1;
+            } else if(b < 0xE0) {
+                cp = ((b & 0x1F) << 6) | (this.arena.get(p + 1) & 0x3F);
+                p += 2;
+            } else if(b < 0xF0) {
+                cp = ((b & 0x0F) << 12) | ((this.arena.get(p + 1) & 0x3F) << 6) | (this.arena.get(p + 2) & 0x3F);
+                p += 3;
+            } else {
+                cp = ((b & 0x07) << 18) | ((this.arena.get(p + 1) & 0x3F) << 12) | ((this.arena.get(p + 2) & 0x3F) << 6) | (this.arena.get(p + 3) & 0x3F);
+                p += 4;
+            }
+            if(cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                if(i >= length || charAt(buffer, s, offset + i) != cp) { return false; }
+                i++;
+            } else {
+                if(i + 1 >= length || charAt(buffer, s, offset + i) != Character.highSurrogate(cp) ||
+                        charAt(buffer, s, offset + i + 1) != Character.lowSurrogate(cp)) { return false; }
+                i += 2;
+            }
+        }
+        return i == length;
+    }
+
+    // slot of the UTF-8 encoded word or -1 when the word is not in the dictionary (or not well-formed UTF-8)
+    private int find(byte[] bytes, int offset, int length) {
+        if(this.size == 0 || Utf8.check(bytes, offset, length) < 0) { return -1; } // hashUtf8 doesn't check bounds
+        long hash = BlockedBloomFilter.hashUtf8(bytes, offset, length);
+        int slot = this.slot(hash, this.arena.getInt(this.pilotsBase + 4 * this.bucket(hash)));
+        if(slot >= this.size) {
+            slot = this.arena.getInt(this.remapBase + 4 * (slot - this.size));
+        }
+        int p = this.arena.getInt(this.offsetsBase + 4 * slot);
+        if(this.arena.getInt(this.offsetsBase + 4 * slot + 4) - p != length) { return -1; }
+        for(int i = 0; i < length; i++) {
+            if(this.arena.get(p + i) != bytes[offset + i]) { return -1; }
+        }
+        return slot;
+    }
+
+    private static char charAt(char[] buffer, CharSequence s, int i) {
+        return buffer != null ? buffer[i] : s.charAt(i);
+    }
+
+    private List<Set<String>> flagSets(int slot) {
+        long bitPos = (long)slot * this.bitsPerOrdinal;
+        int w = (int)(bitPos >>> 6);
+        int shift = (int)(bitPos & 63);
+        long value = this.arena.getLong(this.ordinalsBase + 8 * w) >>> shift;
+        if(shift + this.bitsPerOrdinal > 64) {
+            value |= this.arena.getLong(this.ordinalsBase + 8 * w + 8) << (64 - shift);
+        }
+        return this.flagSetLists.get((int)(value & ((1L << this.bitsPerOrdinal) - 1)));
+    }
+
+    private String word(int slot) {
+        int start = this.arena.getInt(this.offsetsBase + 4 * slot);
+        int end = this.arena.getInt(this.offsetsBase + 4 * slot + 4);
+        byte[] bytes = new byte[end - start];
+        for(int i = 0; i < bytes.length; i++) {
+            bytes[i] = this.arena.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean hasFlag(int slot, String flag) {
+        if(slot < 0) { return false; }
+        for(Set<String> fs : this.flagSets(slot)) {
+            if(fs.contains(flag)) { return true; }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean contains(String word) {
+        return this.find(null, word, 0, word.length()) >= 0;
+    }
+
+    @Override
+    public boolean contains(String word, String flag) {
+        return this.hasFlag(this.find(null, word, 0, word.length()), flag);
+    }
+
+    @Override
+    public boolean contains(String word, String pfxFlag, String sfxFlag) {
+        if(pfxFlag == null) { return this.contains(word,sfxFlag); }
+        else if(sfxFlag == null) { return this.contains(word,pfxFlag); }
+        return this.hasFlags(this.find(null, word, 0, word.length()), pfxFlag, sfxFlag);
+    }
+
+    private boolean hasFlags(int slot, String pfxFlag, String sfxFlag) {
+        if(slot < 0) { return false; }
+        for(Set<String> fs : this.flagSets(slot)) {
+            if(fs.contains(pfxFlag) && fs.contains(sfxFlag)) { return true; }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean contains(char[] buffer, int offset, int length) {
+        return this.find(buffer, null, offset, length) >= 0;
+    }
+
+    @Override
+    public boolean contains(char[] buffer, int offset, int length, String flag) {
+        return this.hasFlag(this.find(buffer, null, offset, length), flag);
+    }
+
+    @Override
+    public boolean contains(char[] buffer, int offset, int length, String pfxFlag, String sfxFlag) {
+        if(pfxFlag == null) { return this.contains(buffer, offset, length, sfxFlag); }
+        else if(sfxFlag == null) { return this.contains(buffer, offset, length, pfxFlag); }
+        return this.hasFlags(this.find(buffer, null, offset, length), pfxFlag, sfxFlag);
+    }
+
+    /**
+     * Same as {@link #contains(String)} for the UTF-8 encoded word bytes[offset..offset+length);
+     * malformed UTF-8 is never found.
+     * @param bytes buffer with the word
+     * @param offset start of the word
+     * @param length length of the word in bytes
+     * @return true if the word is in the dictionary
+     */
+    public boolean containsUtf8(byte[] bytes, int offset, int length) {
+        return this.find(bytes, offset, length) >= 0;
+    }
+
+    /**
+     * Same as {@link #contains(String,String)} for the UTF-8 encoded word bytes[offset..offset+length).
+     * @param bytes buffer with the word
+     * @param offset start of the word
+     * @param length length of the word in bytes
+     * @param flag flag
+     * @return true if the word is in the dictionary with the flag
+     */
+    public boolean containsUtf8(byte[] bytes, int offset, int length, String flag) {
+        return this.hasFlag(this.find(bytes, offset, length), flag);
+    }
+
+    /**
+     * Same as {@link #contains(String,String,String)} for the UTF-8 encoded word bytes[offset..offset+length).
+     * @param bytes buffer with the word
+     * @param offset start of the word
+     * @param length length of the word in bytes
+     * @param pfxFlag prefix flag
+     * @param sfxFlag suffix flag
+     * @return true if the word is in the dictionary with both flags in one flag set
+     */
+    public boolean containsUtf8(byte[] bytes, int offset, int length, String pfxFlag, String sfxFlag) {
+        if(pfxFlag == null) { return this.containsUtf8(bytes, offset, length, sfxFlag); }
+        else if(sfxFlag == null) { return this.containsUtf8(bytes, offset, length, pfxFlag); }
+        int slot = this.find(bytes, offset, length);
+        if(slot < 0) { return false; }
+        for(Set<String> fs : this.flagSets(slot)) {
+            if(fs.contains(pfxFlag) && fs.contains(sfxFlag)) { return true; }
+        }
+        return false;
+    }
+
+    @Override
+    public List<Set<String>> getAllFlags(String word) {
+        int slot = this.find(null, word, 0, word.length());
+        return slot < 0 ? null : this.flagSets(slot);
+    }
+
+    @Override
+    public Set<String> getWords() {
+        return this.words;
+    }
+
+    @Override
+    public boolean hasWordWithPrefix(CharSequence s, int length) {
+        return this.prefixIndex.hasPrefix(s, 0, length);
+    }
+
+    @Override
+    public boolean hasFlag(String flag) {
+        return this.flagPairIndex.hasFlag(flag);
+    }
+
+    @Override
+    public boolean flagsCooccur(String flag1, String flag2) {
+        return this.flagPairIndex.cooccur(flag1, flag2);
+    }
+
+    @Override
+    public boolean admits(CharSequence word, String flag) {
+        return this.flagShapeIndex.admits(word, 0, word.length(), flag);
+    }
+
+    /**
+     * @return size of the off-heap arena in bytes
+     */
+    public long getOffHeapSizeInBytes() {
+        return this.arena.capacity();
+    }
+
+    /**
+     * @return memory taken by the dictionary including the off-heap arena
+     */
+    @Override
+    public long ramBytesUsed() {
+        long size = SHALLOW_SIZE;
+        for(Accountable child : this.getChildResources()) {
+            size += child.ramBytesUsed();
+        }
+        return size;
+    }
+
+    @Override
+    public Collection<Accountable> getChildResources() {
+        long flagSets = RamUsage.arrayList(this.flagSetLists.size());
+        for(List<Set<String>> list : this.flagSetLists) {
+            flagSets += UNMODIFIABLE + RamUsage.arrayList(list.size());
+            for(Set<String> flags : list) {
+                flagSets += UNMODIFIABLE + RamUsage.stringSet(flags);
+            }
+        }
+        List<Accountable> children = new ArrayList<Accountable>();
+        children.add(Accountables.namedAccountable("off-heap arena", this.arena.capacity()));
+        children.add(Accountables.namedAccountable("flag sets", flagSets));
+        children.add(Accountables.namedAccountable("prefix index", this.prefixIndex));
+        children.add(Accountables.namedAccountable("flag pair index", this.flagPairIndex));
+        children.add(Accountables.namedAccountable("flag shape index", this.flagShapeIndex));
+        return Collections.unmodifiableList(children);
+    }
+
+    // words decoded from the arena on iteration
+    private class WordSet extends AbstractSet<String> {
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int slot = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return this.slot < size;
+                }
+
+                @Override
+                public String next() {
+                    if(!this.hasNext()) { throw new NoSuchElementException(); }
+                    return word(this.slot++);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof String && OffHeapDictionary.this.contains((String)o);
+        }
+    }
+}
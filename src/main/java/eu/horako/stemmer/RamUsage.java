@@ -0,0 +1,88 @@
+package eu.horako.stemmer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Estimates of the heap taken by the JDK collections the model is built of,
+ * for the {@link org.apache.lucene.util.Accountable} implementations. Unlike
+ * {@link RamUsageEstimator#sizeOfMap(Map)} they count the hash table, the
+ * entry objects and the spare capacity and leave out the keys and values,
+ * which are often shared and counted by their owner.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+final class RamUsage {
+    static final long REF = RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+    static final long HASH_MAP = RamUsageEstimator.shallowSizeOfInstance(HashMap.class);
+    static final long HASH_SET = RamUsageEstimator.shallowSizeOfInstance(HashSet.class);
+    static final long ARRAY_LIST = RamUsageEstimator.shallowSizeOfInstance(ArrayList.class);
+    // HashMap.Node: hash, key, value, next; LinkedHashMap.Entry adds before, after
+    static final long HASH_NODE = RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 4 + 3 * REF);
+    static final long LINKED_NODE = RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 4 + 5 * REF);
+    // compiled regex with its source string and node tree; measured for typical affix conditions like "[^aeo]k$"
+    static final long PATTERN = 384;
+
+    private RamUsage() {
+    }
+
+    /**
+     * @param size number of entries
+     * @param linked true for LinkedHashMap (or LinkedHashSet)
+     * @return size of a hash map without its keys and values
+     */
+    static long hashMap(int size, boolean linked) {
+        long table = size == 0 ? 0 : RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + REF * tableSize(size));
+        return HASH_MAP + (linked ? 2 * REF + 8 : 0) + table + size * (linked ? LINKED_NODE : HASH_NODE);
+    }
+
+    /**
+     * @param size number of elements
+     * @param linked true for LinkedHashSet
+     * @return size of a hash set without its elements
+     */
+    static long hashSet(int size, boolean linked) {
+        return HASH_SET + hashMap(size, linked);
+    }
+
+    /**
+     * @param size number of elements
+     * @return size of an ArrayList without its elements
+     */
+    static long arrayList(int size) {
+        return ARRAY_LIST + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + REF * size);
+    }
+
+    /**
+     * @param s string, may be null
+     * @return size of the string with its chars
+     */
+    static long string(String s) {
+        return s == null ? 0 : RamUsageEstimator.sizeOf(s);
+    }
+
+    /**
+     * @param strings strings of a hash set
+     * @return size of the set with its strings
+     */
+    static long stringSet(Set<String> strings) {
+        long size = hashSet(strings.size(), false);
+        for(String s : strings) {
+            size += string(s);
+        }
+        return size;
+    }
+
+    // capacity of the table of a map grown to `size` entries with the default initial capacity and load factor
+    private static int tableSize(int size) {
+        int capacity = 16;
+        while(capacity * 3 / 4 < size) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,283 @@
+package eu.horako.stemmer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Working storage of the reduction in {@link AffixStemmer#stem(String)}, one
+ * per thread and reused for every word.
+ *
+ * The candidates are kept as parallel int arrays instead of WordRule objects:
+ * candidate i is the word <code>arena[start[i] .. start[i] + length[i] - 1]</code>
+ * reached from candidate <code>parent[i]</code> by reversing the rule with id
+ * <code>rule[i]</code>; the word itself has the rule {@link #NONE}. The chars of
+ * all candidates are written one after another into a single char arena, so
+ * once the arrays have grown to the usual word, the reduction allocates
+ * nothing; only the stems found are turned into Strings.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+final class ReductionBuffer {
+    static final int NONE = -1;
+
+    // buffers grown over these sizes by a pathological word are not kept
+    private static final int MAX_RETAINED_CANDIDATES = 1 << 14;
+    private static final int MAX_RETAINED_CHARS = 1 << 16;
+
+    int size = 0;
+    int[] rule = new int[64];
+    int[] parent = new int[64];
+    int[] start = new int[64];
+    int[] length = new int[64];
+    int[] removed = new int[64]; // WordRule.removedFromOrig
+    int[] added = new int[64]; // WordRule.addedToOrig
+    int[] depth = new int[64];
+    int[] next = new int[64]; // next candidate of the same prefix group
+
+    char[] arena = new char[1024];
+    int arenaUsed = 0;
+
+    // prefix groups: first candidates of the groups, sorted by removed[]
+    int groupCount = 0;
+    int[] groupFirst = new int[16];
+    private int[] groupLast = new int[16];
+
+    // expanded (rule, word) states: candidate indexes, valid when stamped with the current generation
+    private int[] seen = new int[64];
+    private int[] seenStamp = new int[64];
+    private int seenCount = 0;
+    private int generation = 1;
+
+    final List<CompiledRuleSet.CompiledRule> firstStepRules = new ArrayList<CompiledRuleSet.CompiledRule>(); // the only model references
+    private final Chars view = new Chars();
+
+    void reset() {
+        this.size = 0;
+        this.arenaUsed = 0;
+        this.groupCount = 0;
+        this.firstStepRules.clear();
+    }
+
+    /**
+     * Drop the references to the rules of the model at the end of a word, so
+     * that the buffer kept by an idle pooled thread doesn't keep a replaced
+     * model alive; the arrays are kept.
+     */
+    void release() {
+        this.firstStepRules.clear();
+    }
+
+    /**
+     * @return true when the buffer has grown too big to be kept for the next word
+     */
+    boolean isOversized() {
+        return this.rule.length > MAX_RETAINED_CANDIDATES || this.arena.length > MAX_RETAINED_CHARS;
+    }
+
+    /**
+     * @return index of the new candidate
+     */
+    int add(int rule, int parent, int start, int length, int removed, int added, int depth) {
+        int i = this.size;
+        if(i == this.rule.length) {
+            int capacity = i * 2;
+            this.rule = Arrays.copyOf(this.rule, capacity);
+            this.parent = Arrays.copyOf(this.parent, capacity);
+            this.start = Arrays.copyOf(this.start, capacity);
+            this.length = Arrays.copyOf(this.length, capacity);
+            this.removed = Arrays.copyOf(this.removed, capacity);
+            this.added = Arrays.copyOf(this.added, capacity);
+            this.depth = Arrays.copyOf(this.depth, capacity);
+            this.next = Arrays.copyOf(this.next, capacity);
+        }
+        this.rule[i] = rule;
+        this.parent[i] = parent;
+        this.start[i] = start;
+        this.length[i] = length;
+        this.removed[i] = removed;
+        this.added[i] = added;
+        this.depth[i] = depth;
+        this.size = i + 1;
+        return i;
+    }
+
+    /**
+     * Reserve n chars of the arena. The arena may be replaced by a bigger one,
+     * so it must be read again after the call.
+     * @param n number of chars
+     * @return start of the reserved chars
+     */
+    int alloc(int n) {
+        int s = this.arenaUsed;
+        if(s + n > this.arena.length) {
+            this.arena = Arrays.copyOf(this.arena, Math.max(this.arena.length * 2, s + n));
+        }
+        this.arenaUsed = s + n;
+        return s;
+    }
+
+    /**
+     * @return the word of candidate i; the view is shared, valid until the next call
+     */
+    CharSequence chars(int i) {
+        return this.view(this.start[i], this.length[i]);
+    }
+
+    /**
+     * @return the arena chars from start; the view is shared, valid until the next call
+     */
+    CharSequence view(int start, int length) {
+        this.view.set(this.arena, start, length);
+        return this.view;
+    }
+
+    String toString(int start, int length) {
+        return new String(this.arena, start, length);
+    }
+
+    // the first n chars of the words of candidates i and j are the same
+    private boolean regionMatches(int i, int j, int n) {
+        if(this.length[i] < n || this.length[j] < n) { return false; }
+        char[] a = this.arena;
+        for(int k = 0, si = this.start[i], sj = this.start[j]; k < n; k++) {
+            if(a[si + k] != a[sj + k]) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Forget the expanded states (start of a new reduction).
+     */
+    void clearExpanded() {
+        this.seenCount = 0;
+        if(++this.generation == 0) {
+            Arrays.fill(this.seenStamp, 0);
+            this.generation = 1;
+        }
+    }
+
+    /**
+     * @param i candidate
+     * @return false if a candidate with the same rule and word has been marked since {@link #clearExpanded()}
+     */
+    boolean markExpanded(int i) {
+        if(this.seenCount * 2 >= this.seen.length) {
+            this.growSeen();
+        }
+        int mask = this.seen.length - 1;
+        int h = this.hash(i) & mask;
+        while(this.seenStamp[h] == this.generation) {
+            int j = this.seen[h];
+            if(this.rule[j] == this.rule[i] && this.length[j] == this.length[i] && this.regionMatches(i, j, this.length[i])) {
+                return false;
+            }
+            h = (h + 1) & mask;
+        }
+        this.seen[h] = i;
+        this.seenStamp[h] = this.generation;
+        this.seenCount++;
+        return true;
+    }
+
+    private int hash(int i) {
+        int h = this.rule[i];
+        char[] a = this.arena;
+        for(int k = this.start[i], end = k + this.length[i]; k < end; k++) {
+            h = 31 * h + a[k];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private void growSeen() {
+        int[] oldSeen = this.seen;
+        int[] oldStamp = this.seenStamp;
+        this.seen = new int[oldSeen.length * 2];
+        this.seenStamp = new int[oldSeen.length * 2];
+        int mask = this.seen.length - 1;
+        for(int k = 0; k < oldSeen.length; k++) {
+            if(oldStamp[k] != this.generation) { continue; }
+            int h = this.hash(oldSeen[k]) & mask;
+            while(this.seenStamp[h] == this.generation) {
+                h = (h + 1) & mask;
+            }
+            this.seen[h] = oldSeen[k];
+            this.seenStamp[h] = this.generation;
+        }
+    }
+
+    /**
+     * Group the prefix reductions from..to-1 producing the same beginning of
+     * the combined stem (same removed[], added[] and the added chars), in the
+     * order of their first candidates; the groups are then stably sorted by
+     * removed[]. The members of group g are groupFirst[g], next[groupFirst[g]], ...
+     * up to {@link #NONE}.
+     */
+    void groupPrefixes(int from, int to) {
+        this.groupCount = 0;
+        for(int i = from; i < to; i++) {
+            if(this.rule[i] == NONE) { continue; }
+            this.next[i] = NONE;
+            int g = 0;
+            for(; g < this.groupCount; g++) {
+                int f = this.groupFirst[g];
+                if(this.removed[f] == this.removed[i] && this.added[f] == this.added[i] && this.regionMatches(i, f, this.added[f])) {
+                    break;
+                }
+            }
+            if(g < this.groupCount) {
+                this.next[this.groupLast[g]] = i;
+                this.groupLast[g] = i;
+                continue;
+            }
+            if(g == this.groupFirst.length) {
+                this.groupFirst = Arrays.copyOf(this.groupFirst, g * 2);
+                this.groupLast = Arrays.copyOf(this.groupLast, g * 2);
+            }
+            this.groupFirst[g] = i;
+            this.groupLast[g] = i;
+            this.groupCount++;
+        }
+        for(int g = 1; g < this.groupCount; g++) { // insertion sort, stable
+            int f = this.groupFirst[g];
+            int k = g - 1;
+            while(k >= 0 && this.removed[this.groupFirst[k]] > this.removed[f]) {
+                this.groupFirst[k + 1] = this.groupFirst[k];
+                k--;
+            }
+            this.groupFirst[k + 1] = f;
+        }
+    }
+
+    private static final class Chars implements CharSequence {
+        private char[] chars;
+        private int offset;
+        private int length;
+
+        void set(char[] chars, int offset, int length) {
+            this.chars = chars;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return this.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return this.chars[this.offset + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(this.chars, this.offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(this.chars, this.offset, this.length);
+        }
+    }
+}
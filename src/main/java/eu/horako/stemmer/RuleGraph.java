@@ -0,0 +1,185 @@
+package eu.horako.stemmer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Frozen, array based form of the links between the rules of a rule set,
+ * walked by {@link AffixStemmer} and {@link AffixExpander} instead of the
+ * {@link AffixMap}s of the single rules.
+ *
+ * Rules are numbered by {@link AffixRule#getId()}. The links of rule i are
+ * stored CSR-style: the targets of rule i are
+ * <code>targets[offsets[i]] .. targets[offsets[i + 1] - 1]</code>, ordered by
+ * the rule id. There are three such tables:
+ * <ul>
+ * <li>reductions - rules of the same type which can precede rule i in a
+ *     reduction chain (the reduction rules of rule i),</li>
+ * <li>SFX expansions and PFX expansions - rules which can follow rule i
+ *     in an expansion, split by the rule type.</li>
+ * </ul>
+ * The append strings of all rules, matched against the reduced words, are
+ * pooled in one char array.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public final class RuleGraph implements Accountable {
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(RuleGraph.class);
+
+    static final int SUFFIX = 1;
+    static final int CROSS_PRODUCT = 2;
+    static final int STICKY = 4;
+    static final int INVALID = 8;
+
+    final AffixRule[] rules; // by id
+    final int[] properties; // by id - SUFFIX, CROSS_PRODUCT, STICKY, INVALID bits
+    final int[] reductionOffsets;
+    final int[] reductionTargets;
+    final int[] sfxExpansionOffsets;
+    final int[] sfxExpansionTargets;
+    final int[] pfxExpansionOffsets;
+    final int[] pfxExpansionTargets;
+    final char[] pool; // append strings
+    final int[] appendStart; // by id, into the pool
+    final int[] appendLength;
+
+    RuleGraph(AffixRuleSet ruleSet) {
+        Set<AffixRule> all = ruleSet.getRules();
+        int n = all.size();
+        this.rules = all.toArray(new AffixRule[n]);
+        this.properties = new int[n];
+        this.appendStart = new int[n];
+        this.appendLength = new int[n];
+
+        StringBuilder pool = new StringBuilder();
+        Map<String,Integer> pooled = new HashMap<String,Integer>();
+        for(int i = 0; i < n; i++) {
+            AffixRule r = this.rules[i];
+            if(r.getId() != i) { throw new IllegalStateException("Rule ids are not dense: " + r.getId() + " at " + i); }
+            this.properties[i] = (r.getType() == AffixRuleType.SFX ? SUFFIX : 0) |
+                    (r.isCrossProduct() ? CROSS_PRODUCT : 0) |
+                    (r.isSticky() ? STICKY : 0) |
+                    (r.isInvalid() ? INVALID : 0);
+            this.appendStart[i] = pool(r.getAppend(), pool, pooled);
+            this.appendLength[i] = r.getAppend().length();
+        }
+        this.pool = pool.toString().toCharArray();
+
+        int[][] reductions = new int[n][];
+        int[][] sfxExpansions = new int[n][];
+        int[][] pfxExpansions = new int[n][];
+        for(int i = 0; i < n; i++) {
+            AffixRule r = this.rules[i];
+            Set<Integer> red = new TreeSet<Integer>();
+            for(AffixRule t : r.getReductionRules().getAll()) {
+                if(t.getType() == r.getType()) { red.add(t.getId()); }
+            }
+            reductions[i] = toArray(red);
+            Set<Integer> sfx = new TreeSet<Integer>();
+            Set<Integer> pfx = new TreeSet<Integer>();
+            for(AffixRule t : r.getExpansionRules().getAll()) {
+                (t.getType() == AffixRuleType.SFX ? sfx : pfx).add(t.getId());
+            }
+            sfxExpansions[i] = toArray(sfx);
+            pfxExpansions[i] = toArray(pfx);
+        }
+        this.reductionOffsets = new int[n + 1];
+        this.reductionTargets = flatten(reductions, this.reductionOffsets);
+        this.sfxExpansionOffsets = new int[n + 1];
+        this.sfxExpansionTargets = flatten(sfxExpansions, this.sfxExpansionOffsets);
+        this.pfxExpansionOffsets = new int[n + 1];
+        this.pfxExpansionTargets = flatten(pfxExpansions, this.pfxExpansionOffsets);
+    }
+
+    private static int pool(String s, StringBuilder pool, Map<String,Integer> pooled) {
+        Integer start = pooled.get(s);
+        if(start == null) {
+            int i = pool.indexOf(s); // also shares the affixes contained in others
+            start = i >= 0 ? i : pool.length();
+            if(i < 0) { pool.append(s); }
+            pooled.put(s, start);
+        }
+        return start;
+    }
+
+    private static int[] toArray(Set<Integer> ids) {
+        int[] a = new int[ids.size()];
+        int i = 0;
+        for(int id : ids) { a[i++] = id; }
+        return a;
+    }
+
+    private static int[] flatten(int[][] lists, int[] offsets) {
+        int total = 0;
+        for(int i = 0; i < lists.length; i++) {
+            offsets[i] = total;
+            total += lists[i].length;
+        }
+        offsets[lists.length] = total;
+        int[] targets = new int[total];
+        for(int i = 0; i < lists.length; i++) {
+            System.arraycopy(lists[i], 0, targets, offsets[i], lists[i].length);
+        }
+        return targets;
+    }
+
+    public int size() {
+        return this.rules.length;
+    }
+
+    public AffixRule getRule(int id) {
+        return this.rules[id];
+    }
+
+    public boolean hasReductions(int id) {
+        return this.reductionOffsets[id + 1] > this.reductionOffsets[id];
+    }
+
+    /**
+     * @param id rule id
+     * @return ids of the reduction rules of the rule (a copy)
+     */
+    public int[] getReductions(int id) {
+        return Arrays.copyOfRange(this.reductionTargets, this.reductionOffsets[id], this.reductionOffsets[id + 1]);
+    }
+
+    boolean is(int id, int property) {
+        return (this.properties[id] & property) != 0;
+    }
+
+    /**
+     * @param id rule id
+     * @param word word
+     * @return whether the word ends (SFX) or starts (PFX) with the append string of the rule
+     */
+    boolean appendMatches(int id, String word) {
+        int len = this.appendLength[id];
+        int wordLen = word.length();
+        if(len > wordLen) { return false; }
+        int offset = (this.properties[id] & SUFFIX) != 0 ? wordLen - len : 0;
+        char[] pool = this.pool;
+        int start = this.appendStart[id];
+        for(int i = 0; i < len; i++) {
+            if(pool[start + i] != word.charAt(offset + i)) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * @return heap taken by the arrays (the rules belong to the rule set)
+     */
+    @Override
+    public long ramBytesUsed() {
+        return SHALLOW_SIZE + RamUsageEstimator.shallowSizeOf(this.rules) + RamUsageEstimator.sizeOf(this.properties) +
+                RamUsageEstimator.sizeOf(this.reductionOffsets) + RamUsageEstimator.sizeOf(this.reductionTargets) +
+                RamUsageEstimator.sizeOf(this.sfxExpansionOffsets) + RamUsageEstimator.sizeOf(this.sfxExpansionTargets) +
+                RamUsageEstimator.sizeOf(this.pfxExpansionOffsets) + RamUsageEstimator.sizeOf(this.pfxExpansionTargets) +
+                RamUsageEstimator.sizeOf(this.pool) + RamUsageEstimator.sizeOf(this.appendStart) +
+                RamUsageEstimator.sizeOf(this.appendLength);
+    }
+}
@@ -0,0 +1,335 @@
+package eu.horako.stemmer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Offline optimization of an affix file against its dictionary. The rules
+ * which cannot change the expansion (and so the stemming) of the dictionary
+ * words are dropped:
+ * <ul>
+ * <li>{@link Change#UNREACHABLE} - rules of a flag used neither by a dictionary
+ *     word nor as an expansion flag of a reachable rule,</li>
+ * <li>{@link Change#DEAD} - reachable rules never applied when the whole
+ *     dictionary is expanded to the given depth, i.e. their condition never
+ *     matches the words they get,</li>
+ * <li>{@link Change#DUPLICATE} - rules identical to another rule of the flag,</li>
+ * <li>{@link Change#SUBSUMED} - rules whose condition matches only words matched
+ *     by another rule with the same flag, affixes, expansion flags and options,</li>
+ * <li>{@link Change#MERGED} - such rules whose conditions differ in one char
+ *     class only are merged into one rule with the union of the classes.</li>
+ * </ul>
+ * Expansion flags without any rule left are dropped too. {@link #write(Reader, Writer)}
+ * writes the affix file with these changes, all the other lines are kept as they are.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class RuleSetOptimizer {
+    public enum Change { UNREACHABLE, DEAD, DUPLICATE, SUBSUMED, MERGED }
+
+    private static final Pattern TOKEN = Pattern.compile("\\S+");
+
+    private final AffixRuleSet ruleSet;
+    private final Dictionary dictionary;
+    private final int depth;
+    private final AffixRule[] rules; // by rule id
+    private final Change[] removed; // by rule id; null - the rule is kept
+    private final String[] conditions; // by rule id; new condition of a kept rule, null - unchanged
+    private final Set<String> keptFlags = new HashSet<String>();
+    private Map<String,Long> digest = null;
+
+    /**
+     * @param ruleSet rule set loaded from the affix file to optimize (without lower-casing)
+     * @param dictionary dictionary of the rule set; it gets the sticky rule words added
+     * @param depth expansion depth the dead rules are found for
+     */
+    public RuleSetOptimizer(AffixRuleSet ruleSet, Dictionary dictionary, int depth) {
+        this.ruleSet = ruleSet;
+        this.dictionary = dictionary;
+        this.depth = depth;
+        this.rules = new AffixRule[ruleSet.getRules().size()];
+        for(AffixRule r : ruleSet.getRules()) {
+            this.rules[r.getId()] = r;
+        }
+        this.removed = new Change[this.rules.length];
+        this.conditions = new String[this.removed.length];
+    }
+
+    /**
+     * Find the rules to drop and to merge. Expands the whole dictionary.
+     */
+    public void analyze() {
+        Set<String> reachable = this.reachableFlags();
+        boolean[] applied = new boolean[this.removed.length];
+        this.digest = expansionDigest(this.ruleSet, this.dictionary, this.depth, applied);
+
+        Map<String,List<AffixRule>> groups = new LinkedHashMap<String,List<AffixRule>>();
+        for(AffixRule r : this.ruleSet.getRules()) {
+            if(!reachable.contains(r.getFlag())) {
+                this.removed[r.getId()] = Change.UNREACHABLE;
+            } else if(!applied[r.getId()]) {
+                this.removed[r.getId()] = Change.DEAD;
+            } else {
+                String key = r.getType() + " " + r.getFlag() + " " + r.getRemove() + " " + r.getAppend() + " " +
+                        (r.getExpansionFlags() == null ? "" : new TreeSet<String>(r.getExpansionFlags()).toString()) + " " +
+                        r.isSticky() + " " + r.isInvalid();
+                List<AffixRule> group = groups.get(key);
+                if(group == null) {
+                    group = new ArrayList<AffixRule>();
+                    groups.put(key, group);
+                }
+                group.add(r);
+            }
+        }
+        for(List<AffixRule> group : groups.values()) {
+            if(group.size() > 1) { this.mergeConditions(group); }
+        }
+        for(AffixRule r : this.ruleSet.getRules()) {
+            if(this.removed[r.getId()] == null) { this.keptFlags.add(r.getFlag()); }
+        }
+    }
+
+    // flags of the dictionary words and, transitively, the expansion flags of their rules
+    private Set<String> reachableFlags() {
+        Set<String> reachable = new HashSet<String>();
+        Deque<String> queue = new ArrayDeque<String>();
+        for(String word : this.dictionary.getWords()) {
+            for(Set<String> flags : this.dictionary.getAllFlags(word)) {
+                for(String flag : flags) {
+                    if(reachable.add(flag)) { queue.add(flag); }
+                }
+            }
+        }
+        while(!queue.isEmpty()) {
+            for(AffixRule r : this.ruleSet.getRulesByFlag(queue.poll())) {
+                if(r.getExpansionFlags() == null) { continue; }
+                for(String flag : r.getExpansionFlags()) {
+                    if(reachable.add(flag)) { queue.add(flag); }
+                }
+            }
+        }
+        return reachable;
+    }
+
+    // rules differing only in the condition: drop the duplicate and subsumed ones, merge the rest where possible
+    private void mergeConditions(List<AffixRule> group) {
+        int n = group.size();
+        AffixCondition[] compiled = new AffixCondition[n];
+        for(int i = 0; i < n; i++) {
+            AffixRule r = group.get(i);
+            for(int j = 0; j < i; j++) {
+                if(this.removed[group.get(j).getId()] == null && group.get(j).getStrCondition().equals(r.getStrCondition())) {
+                    this.removed[r.getId()] = Change.DUPLICATE;
+                    break;
+                }
+            }
+            compiled[i] = AffixCondition.compile(r.getStrCondition(), r.getType());
+        }
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(int i = 0; i < n; i++) {
+                if(compiled[i] == null || this.removed[group.get(i).getId()] != null) { continue; }
+                for(int j = 0; j < n; j++) {
+                    if(j == i || compiled[j] == null || this.removed[group.get(j).getId()] != null) { continue; }
+                    if(compiled[i].subsumes(compiled[j])) {
+                        this.removed[group.get(j).getId()] = Change.SUBSUMED;
+                        changed = true;
+                        continue;
+                    }
+                    if(j < i) { continue; } // each pair is tried for a union once
+                    AffixCondition union = compiled[i].union(compiled[j]);
+                    String pattern = union == null ? null : union.toPattern();
+                    if(pattern == null) { continue; }
+                    compiled[i] = union;
+                    this.conditions[group.get(i).getId()] = pattern;
+                    this.removed[group.get(j).getId()] = Change.MERGED;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the optimized affix file.
+     * @param affixFile the original affix file (the one the rule set was loaded from)
+     * @param out output
+     * @return number of rules written
+     * @throws IOException when the file can't be read or written
+     */
+    public int write(Reader affixFile, Writer out) throws IOException {
+        if(this.digest == null) { throw new IllegalStateException("The rule set has not been analyzed"); }
+        BufferedReader reader = new BufferedReader(affixFile);
+        List<String> block = new ArrayList<String>(); // header and lines of the current rule block
+        String header = null;
+        int remaining = 0;
+        int kept = 0;
+        int id = 0;
+        int written = 0;
+        String line;
+        // the same line recognition as in AffixRuleSet.load()
+        while((line = reader.readLine()) != null) {
+            String[] params = line.trim().split("\\s+",6);
+            boolean affixLine = params.length >= 2 && params[0].charAt(0) != '#' && (params[0].equals("PFX") || params[0].equals("SFX"));
+            if(!affixLine) {
+                if(header != null) { block.add(line); }
+                else { out.write(line); out.write('\n'); }
+                continue;
+            }
+            if(header == null) {
+                header = line;
+                kept = 0;
+                try { remaining = Integer.parseInt(params[3]); }
+                catch(RuntimeException e) { throw new IOException("Bad rule block header: " + line); }
+                continue;
+            }
+            if(id >= this.removed.length) { throw new IOException("The affix file has more rules than the rule set"); }
+            if(this.removed[id] == null) {
+                block.add(this.rewriteRule(line, id));
+                kept++;
+            }
+            id++;
+            if(--remaining <= 0) {
+                written += this.flushBlock(header, block, kept, out);
+                header = null;
+            }
+        }
+        if(header != null) { written += this.flushBlock(header, block, kept, out); }
+        if(id != this.removed.length) { throw new IOException("The affix file has " + id + " rules, the rule set " + this.removed.length); }
+        out.flush();
+        return written;
+    }
+
+    private int flushBlock(String header, List<String> block, int kept, Writer out) throws IOException {
+        if(kept > 0) {
+            out.write(replaceToken(header, 3, Integer.toString(kept)));
+            out.write('\n');
+            for(String l : block) {
+                out.write(l);
+                out.write('\n');
+            }
+        }
+        block.clear();
+        return kept;
+    }
+
+    // the rule line with the new condition and without the expansion flags having no rules
+    private String rewriteRule(String line, int id) {
+        AffixRule r = this.rules[id];
+        if(this.conditions[id] != null) {
+            line = replaceToken(line, 4, this.conditions[id]);
+        }
+        Set<String> flags = r.getExpansionFlags();
+        if(flags != null && !this.keptFlags.containsAll(flags)) {
+            String append = token(line, 3);
+            int slash = append.indexOf('/');
+            StringBuilder kept = new StringBuilder();
+            for(String f : this.splitFlags(append.substring(slash + 1))) {
+                if(!this.keptFlags.contains(f)) { continue; }
+                if(kept.length() > 0 && this.ruleSet.flagType == FlagType.NUM) { kept.append(','); }
+                kept.append(f);
+            }
+            line = replaceToken(line, 3, kept.length() == 0 ? append.substring(0, slash) : append.substring(0, slash + 1) + kept);
+        }
+        return line;
+    }
+
+    // the flags in the order of the affix file
+    private List<String> splitFlags(String flagString) {
+        List<String> flags = new ArrayList<String>();
+        switch(this.ruleSet.flagType) {
+            case LONG:
+                for(int i = 0; i + 2 <= flagString.length(); i += 2) { flags.add(flagString.substring(i, i + 2)); }
+                break;
+            case NUM:
+                for(String f : flagString.split("\\s*,\\s*")) { flags.add(f); }
+                break;
+            default:
+                for(int i = 0; i < flagString.length(); i++) { flags.add(flagString.substring(i, i + 1)); }
+                break;
+        }
+        return flags;
+    }
+
+    private static String token(String line, int index) {
+        Matcher m = TOKEN.matcher(line);
+        for(int i = 0; i <= index; i++) { m.find(); }
+        return m.group();
+    }
+
+    private static String replaceToken(String line, int index, String replacement) {
+        Matcher m = TOKEN.matcher(line);
+        for(int i = 0; i <= index; i++) { m.find(); }
+        return line.substring(0, m.start()) + replacement + line.substring(m.end());
+    }
+
+    /**
+     * @return number of the rules dropped for each reason ({@link Change#MERGED} - rules merged into another one)
+     */
+    public Map<Change,Integer> getChangeCounts() {
+        Map<Change,Integer> counts = new EnumMap<Change,Integer>(Change.class);
+        for(Change c : Change.values()) { counts.put(c, 0); }
+        for(Change c : this.removed) {
+            if(c != null) { counts.put(c, counts.get(c) + 1); }
+        }
+        return counts;
+    }
+
+    /**
+     * @param ruleId rule id
+     * @return why the rule is dropped or null when it is kept
+     */
+    public Change getChange(int ruleId) {
+        return this.removed[ruleId];
+    }
+
+    /**
+     * @return {@link #expansionDigest(AffixRuleSet, Dictionary, int)} of the original rule set
+     */
+    public Map<String,Long> getDigest() {
+        return this.digest;
+    }
+
+    /**
+     * Expand all the dictionary words (after adding the sticky rule words, as
+     * in the expandall mode) and hash the sets of the forms.
+     * @param ruleSet rule set
+     * @param dictionary dictionary; it gets the sticky rule words added
+     * @param depth expansion depth
+     * @return order independent hash of the forms of each dictionary word
+     */
+    public static Map<String,Long> expansionDigest(AffixRuleSet ruleSet, Dictionary dictionary, int depth) {
+        return expansionDigest(ruleSet, dictionary, depth, null);
+    }
+
+    private static Map<String,Long> expansionDigest(AffixRuleSet ruleSet, Dictionary dictionary, int depth, boolean[] applied) {
+        AffixExpander expander = new AffixExpander(ruleSet, dictionary);
+        expander.appliedRules = applied;
+        expander.expandStickyRules();
+        Map<String,Long> digest = new HashMap<String,Long>();
+        for(String word : new ArrayList<String>(dictionary.getWords())) {
+            Set<String> forms = expander.expand(word, depth);
+            long h = forms.size();
+            for(String form : forms) {
+                h += BlockedBloomFilter.hash(form);
+            }
+            digest.put(word, h);
+        }
+        return digest;
+    }
+}
@@ -0,0 +1,65 @@
+package eu.horako.stemmer;
+
+/**
+ * Validation of UTF-8 input for the byte based lookups, which decode the
+ * bytes without bounds checks ({@link BlockedBloomFilter#hashUtf8(byte[], int, int)},
+ * {@link AffixCondition}).
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+final class Utf8 {
+
+    private Utf8() {
+    }
+
+    /**
+     * Check that bytes[offset..offset+length) is well-formed UTF-8 (RFC 3629):
+     * no truncated sequences, stray continuation bytes, overlong encodings or
+     * encoded surrogates.
+     *
+     * @param bytes buffer with the word
+     * @param offset start of the word
+     * @param length length of the word in bytes
+     * @return length of the longest sequence in the word (1 - ASCII only, 4 -
+     *         supplementary characters); 0 for an empty word; -1 if the word
+     *         is not well-formed
+     */
+    static int check(byte[] bytes, int offset, int length) {
+        int longest = 0;
+        int end = offset + length;
+        for(int p = offset; p < end; ) {
+            int b = bytes[p] & 0xFF;
+            int n;
+            int min = 0x80; // range of the second byte
+            int max = 0xBF;
+            if(b < 0x80) {
+                n = 1;
+            } else if(b < 0xC2) { // continuation byte or overlong 2-byte sequence
+                return -1;
+            } else if(b < 0xE0) {
+                n = 2;
+            } else if(b < 0xF0) {
+                n = 3;
+                if(b == 0xE0) { min = 0xA0; } // overlong
+                else if(b == 0xED) { max = 0x9F; } // surrogates
+            } else if(b < 0xF5) {
+                n = 4;
+                if(b == 0xF0) { min = 0x90; } // overlong
+                else if(b == 0xF4) { max = 0x8F; } // beyond U+10FFFF
+            } else {
+                return -1;
+            }
+            if(n > end - p) { return -1; }
+            if(n > 1) {
+                int second = bytes[p + 1] & 0xFF;
+                if(second < min || second > max) { return -1; }
+                for(int i = 2; i < n; i++) {
+                    if((bytes[p + i] & 0xC0) != 0x80) { return -1; }
+                }
+            }
+            longest = Math.max(longest, n);
+            p += n;
+        }
+        return longest;
+    }
+}
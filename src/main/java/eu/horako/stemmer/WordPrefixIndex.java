@@ -0,0 +1,88 @@
+package eu.horako.stemmer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.NoOutputs;
+import org.apache.lucene.util.fst.Util;
+
+/**
+ * Set of words stored in a char-labelled FST, used to answer whether a string
+ * is a prefix of any word without building a String of the examined part.
+ *
+ * The arc followed through the FST is reused per thread; the arc holds no
+ * reference to the FST, so it doesn't keep the index of a replaced model
+ * alive. The bytes reader of the FST is positioned per call (one small
+ * object for an on-heap FST) for the same reason: a cached reader would pin
+ * the FST bytes in idle pooled threads.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+class WordPrefixIndex implements Accountable {
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(WordPrefixIndex.class);
+    private static final ThreadLocal<FST.Arc<Object>> ARCS = new ThreadLocal<FST.Arc<Object>>() {
+        @Override
+        protected FST.Arc<Object> initialValue() {
+            return new FST.Arc<Object>();
+        }
+    };
+
+    private final FST<Object> fst;
+
+    WordPrefixIndex(Collection<String> words) {
+        this.fst = build(words);
+    }
+
+    private static FST<Object> build(Collection<String> words) {
+        List<String> sorted = new ArrayList<String>(words);
+        Collections.sort(sorted); // String order is the UTF-16 order required by the FST builder
+        NoOutputs outputs = NoOutputs.getSingleton();
+        Builder<Object> builder = new Builder<Object>(FST.INPUT_TYPE.BYTE2, outputs);
+        IntsRefBuilder scratch = new IntsRefBuilder();
+        try {
+            String previous = null;
+            for(String w : sorted) {
+                if(w.equals(previous)) { continue; }
+                builder.add(Util.toUTF16(w, scratch), outputs.getNoOutput());
+                previous = w;
+            }
+            return builder.finish();
+        } catch(IOException ex) { // on-heap FST building doesn't do any I/O
+            throw new IllegalStateException("Cannot build word prefix index", ex);
+        }
+    }
+
+    /**
+     * @param s string
+     * @param start start of the examined part of the string (inclusive)
+     * @param end end of the examined part of the string (exclusive)
+     * @return true if s[start..end) is a prefix of (or equal to) some word in the index
+     */
+    boolean hasPrefix(CharSequence s, int start, int end) {
+        if(this.fst == null) { return false; }
+        FST.BytesReader reader = this.fst.getBytesReader();
+        FST.Arc<Object> arc = this.fst.getFirstArc(ARCS.get());
+        try {
+            for(int i = start; i < end; i++) {
+                if(this.fst.findTargetArc(s.charAt(i), arc, arc, reader) == null) {
+                    return false;
+                }
+            }
+        } catch(IOException ex) { // cannot happen for on-heap FST, be conservative anyway
+            return true;
+        }
+        return true;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return SHALLOW_SIZE + (this.fst == null ? 0 : this.fst.ramBytesUsed());
+    }
+}
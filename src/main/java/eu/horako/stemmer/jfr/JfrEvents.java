@@ -0,0 +1,254 @@
+package eu.horako.stemmer.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The event types and the code touching the JFR API; used only through
+ * {@link StemmerEvents}, which doesn't load this class when JFR is missing.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+final class JfrEvents {
+    private JfrEvents() {
+    }
+
+    @Name("eu.horako.stemmer.AffixParse")
+    @Label("Affix File Parse")
+    @Category({"Czech Stemmer", "Model"})
+    @StackTrace(false)
+    static class AffixParse extends Event {
+        @Label("Rules")
+        int rules;
+        @Label("Flags")
+        int flags;
+        @Label("Flag Type")
+        String flagType;
+    }
+
+    @Name("eu.horako.stemmer.RecursiveRules")
+    @Label("Recursive Rules Linking")
+    @Description("Linking of the rules to the rules of their continuation flags")
+    @Category({"Czech Stemmer", "Model"})
+    @StackTrace(false)
+    static class RecursiveRules extends Event {
+        @Label("Rules")
+        int rules;
+        @Label("Links")
+        int links;
+    }
+
+    @Name("eu.horako.stemmer.DictionaryLoad")
+    @Label("Dictionary Load")
+    @Category({"Czech Stemmer", "Model"})
+    @StackTrace(false)
+    static class DictionaryLoad extends Event {
+        @Label("Entries")
+        int entries;
+        @Label("Words")
+        int words;
+    }
+
+    @Name("eu.horako.stemmer.StickyExpansion")
+    @Label("Sticky Rules Expansion")
+    @Category({"Czech Stemmer", "Model"})
+    @StackTrace(false)
+    static class StickyExpansion extends Event {
+        @Label("Words")
+        int words;
+        @Label("Added Words")
+        int addedWords;
+    }
+
+    @Name("eu.horako.stemmer.Freeze")
+    @Label("Dictionary Freeze")
+    @Description("Build of the lookup structures of a read-only dictionary")
+    @Category({"Czech Stemmer", "Model"})
+    @StackTrace(false)
+    static class Freeze extends Event {
+        @Label("Dictionary")
+        String dictionary;
+        @Label("Words")
+        int words;
+        @Label("Bloom Filter")
+        boolean bloomFilter;
+    }
+
+    @Name("eu.horako.stemmer.SlowStem")
+    @Label("Slow Stem")
+    @Description("Stemming of a word which took longer than the threshold")
+    @Category({"Czech Stemmer", "Calls"})
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static class SlowStem extends Event {
+        @Label("Word")
+        String word;
+        @Label("Candidates")
+        int candidates;
+        @Label("Dictionary Probes")
+        int probes;
+        @Label("Stems")
+        int stems;
+    }
+
+    @Name("eu.horako.stemmer.SlowExpand")
+    @Label("Slow Expand")
+    @Description("Expansion of a lemma which took longer than the threshold")
+    @Category({"Czech Stemmer", "Calls"})
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static class SlowExpand extends Event {
+        @Label("Word")
+        String word;
+        @Label("Depth")
+        int depth;
+        @Label("Forms")
+        int forms;
+    }
+
+    @Name("eu.horako.stemmer.CacheEviction")
+    @Label("Stem Cache Eviction")
+    @Description("Cached stems of a term replaced by the stems of a colliding term")
+    @Category({"Czech Stemmer", "Calls"})
+    @Enabled(false)
+    @StackTrace(false)
+    static class CacheEviction extends Event {
+        @Label("Term")
+        String term;
+        @Label("Cache Size")
+        int cacheSize;
+    }
+
+    // keep StemmerEvents.isRecording() in sync with the recordings of the JVM
+    static void register() {
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recorderInitialized(FlightRecorder recorder) {
+                update(recorder);
+            }
+
+            @Override
+            public void recordingStateChanged(Recording recording) {
+                update(FlightRecorder.getFlightRecorder());
+            }
+        });
+    }
+
+    private static void update(FlightRecorder recorder) {
+        boolean running = false;
+        for(Recording r : recorder.getRecordings()) {
+            if(r.getState() == RecordingState.RUNNING) { running = true; }
+        }
+        StemmerEvents.setRecording(running);
+    }
+
+    private static Event begin(Event event) {
+        if(!event.isEnabled()) { return null; }
+        event.begin();
+        return event;
+    }
+
+    static Object beginAffixParse() {
+        return begin(new AffixParse());
+    }
+
+    static void commitAffixParse(Object e, int rules, int flags, String flagType) {
+        AffixParse event = (AffixParse)e;
+        event.rules = rules;
+        event.flags = flags;
+        event.flagType = flagType;
+        event.commit();
+    }
+
+    static Object beginRecursiveRules() {
+        return begin(new RecursiveRules());
+    }
+
+    static void commitRecursiveRules(Object e, int rules, int links) {
+        RecursiveRules event = (RecursiveRules)e;
+        event.rules = rules;
+        event.links = links;
+        event.commit();
+    }
+
+    static Object beginDictionaryLoad() {
+        return begin(new DictionaryLoad());
+    }
+
+    static void commitDictionaryLoad(Object e, int entries, int words) {
+        DictionaryLoad event = (DictionaryLoad)e;
+        event.entries = entries;
+        event.words = words;
+        event.commit();
+    }
+
+    static Object beginStickyExpansion() {
+        return begin(new StickyExpansion());
+    }
+
+    static void commitStickyExpansion(Object e, int words, int addedWords) {
+        StickyExpansion event = (StickyExpansion)e;
+        event.words = words;
+        event.addedWords = addedWords;
+        event.commit();
+    }
+
+    static Object beginFreeze() {
+        return begin(new Freeze());
+    }
+
+    static void commitFreeze(Object e, String dictionary, int words, boolean bloomFilter) {
+        Freeze event = (Freeze)e;
+        event.dictionary = dictionary;
+        event.words = words;
+        event.bloomFilter = bloomFilter;
+        event.commit();
+    }
+
+    static Object beginStem() {
+        return begin(new SlowStem());
+    }
+
+    static void commitStem(Object e, String word, int candidates, int probes, int stems) {
+        SlowStem event = (SlowStem)e;
+        event.end();
+        if(!event.shouldCommit()) { return; } // under the threshold
+        event.word = word;
+        event.candidates = candidates;
+        event.probes = probes;
+        event.stems = stems;
+        event.commit();
+    }
+
+    static Object beginExpand() {
+        return begin(new SlowExpand());
+    }
+
+    static void commitExpand(Object e, String word, int depth, int forms) {
+        SlowExpand event = (SlowExpand)e;
+        event.end();
+        if(!event.shouldCommit()) { return; }
+        event.word = word;
+        event.depth = depth;
+        event.forms = forms;
+        event.commit();
+    }
+
+    static void cacheEviction(char[] term, int length, int cacheSize) {
+        CacheEviction event = new CacheEviction();
+        if(!event.shouldCommit()) { return; }
+        event.term = new String(term, 0, length);
+        event.cacheSize = cacheSize;
+        event.commit();
+    }
+}
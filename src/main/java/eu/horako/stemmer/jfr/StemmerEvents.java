@@ -0,0 +1,165 @@
+package eu.horako.stemmer.jfr;
+
+import eu.horako.stemmer.metrics.CallStats;
+
+/**
+ * Entry point for the Java Flight Recorder events of the stemmer: loading
+ * of the model (affix file parse, dictionary load, linking of the recursive
+ * rules, sticky rule expansion, dictionary freeze), stem/expand calls longer
+ * than the threshold of their event type and evictions from the term cache
+ * of the Lucene filter.
+ *
+ * The events are created only while a recording is running, so the price of
+ * a call without a recording is one volatile read. The methods take and
+ * return the events as plain objects and the event classes themselves
+ * (see {@link JfrEvents}) are loaded only when JFR is present, so the library
+ * still works on a JVM without it.
+ *
+ * The threshold of the slow call events is set like for any JDK event, e.g.
+ * <code>eu.horako.stemmer.SlowStem#threshold=5 ms</code> in a .jfc file;
+ * the cache eviction event is disabled by default.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public final class StemmerEvents {
+    private static final boolean AVAILABLE = register();
+    private static volatile boolean recording = false;
+
+    private StemmerEvents() {
+    }
+
+    private static boolean register() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+        } catch(ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+        JfrEvents.register();
+        return true;
+    }
+
+    /**
+     * @return true when JFR is available in this JVM
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * @return true while a flight recording is running
+     */
+    public static boolean isRecording() {
+        return recording;
+    }
+
+    static void setRecording(boolean running) {
+        recording = running;
+    }
+
+    public static Object beginAffixParse() {
+        return recording ? JfrEvents.beginAffixParse() : null;
+    }
+
+    /**
+     * @param event event from {@link #beginAffixParse()}, may be null
+     * @param rules number of rules
+     * @param flags number of flags
+     * @param flagType flag type of the file
+     */
+    public static void commitAffixParse(Object event, int rules, int flags, String flagType) {
+        if(event != null) { JfrEvents.commitAffixParse(event, rules, flags, flagType); }
+    }
+
+    public static Object beginRecursiveRules() {
+        return recording ? JfrEvents.beginRecursiveRules() : null;
+    }
+
+    /**
+     * @param event event from {@link #beginRecursiveRules()}, may be null
+     * @param rules number of rules
+     * @param links number of links from a rule to the rules of its continuation flags
+     */
+    public static void commitRecursiveRules(Object event, int rules, int links) {
+        if(event != null) { JfrEvents.commitRecursiveRules(event, rules, links); }
+    }
+
+    public static Object beginDictionaryLoad() {
+        return recording ? JfrEvents.beginDictionaryLoad() : null;
+    }
+
+    /**
+     * @param event event from {@link #beginDictionaryLoad()}, may be null
+     * @param entries number of entries read
+     * @param words number of distinct words of the dictionary
+     */
+    public static void commitDictionaryLoad(Object event, int entries, int words) {
+        if(event != null) { JfrEvents.commitDictionaryLoad(event, entries, words); }
+    }
+
+    public static Object beginStickyExpansion() {
+        return recording ? JfrEvents.beginStickyExpansion() : null;
+    }
+
+    /**
+     * @param event event from {@link #beginStickyExpansion()}, may be null
+     * @param words number of words before the expansion
+     * @param addedWords number of words generated by the sticky rules
+     */
+    public static void commitStickyExpansion(Object event, int words, int addedWords) {
+        if(event != null) { JfrEvents.commitStickyExpansion(event, words, addedWords); }
+    }
+
+    public static Object beginFreeze() {
+        return recording ? JfrEvents.beginFreeze() : null;
+    }
+
+    /**
+     * @param event event from {@link #beginFreeze()}, may be null
+     * @param dictionary class of the frozen dictionary
+     * @param words number of words
+     * @param bloomFilter true if a Bloom filter was built
+     */
+    public static void commitFreeze(Object event, Class<?> dictionary, int words, boolean bloomFilter) {
+        if(event != null) { JfrEvents.commitFreeze(event, dictionary.getSimpleName(), words, bloomFilter); }
+    }
+
+    public static Object beginStem() {
+        return recording ? JfrEvents.beginStem() : null;
+    }
+
+    /**
+     * @param event event from {@link #beginStem()}, may be null
+     * @param word stemmed word
+     * @param stats work of the call
+     * @param stems number of stems found
+     */
+    public static void commitStem(Object event, String word, CallStats stats, int stems) {
+        if(event != null) {
+            JfrEvents.commitStem(event, word, stats.firstStepCandidates + stats.reductionSteps, stats.dictionaryProbes, stems);
+        }
+    }
+
+    public static Object beginExpand() {
+        return recording ? JfrEvents.beginExpand() : null;
+    }
+
+    /**
+     * @param event event from {@link #beginExpand()}, may be null
+     * @param word expanded lemma
+     * @param depth expansion depth
+     * @param forms number of forms generated
+     */
+    public static void commitExpand(Object event, String word, int depth, int forms) {
+        if(event != null) { JfrEvents.commitExpand(event, word, depth, forms); }
+    }
+
+    /**
+     * Record the eviction of cached stems of a term.
+     * @param term evicted term
+     * @param length length of the term
+     * @param cacheSize number of entries of the cache
+     */
+    public static void cacheEviction(char[] term, int length, int cacheSize) {
+        if(recording) { JfrEvents.cacheEviction(term, length, cacheSize); }
+    }
+}
@@ -0,0 +1,63 @@
+package eu.horako.stemmer.lucene;
+
+import eu.horako.stemmer.ByteAffixStemmer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.BytesTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Variant of {@link StemFilter} for token streams carrying UTF-8 terms in
+ * {@link BytesTermAttribute}; the terms are stemmed by {@link ByteAffixStemmer}
+ * without being converted to chars.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public final class ByteStemFilter extends TokenFilter {
+    private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+    private final BytesTermAttribute termAtt = addAttribute(BytesTermAttribute.class);
+    private final ByteAffixStemmer stemmer;
+    private State savedState;
+    private List<BytesRef> buffer;
+
+    public ByteStemFilter(TokenStream input, ByteAffixStemmer stemmer) {
+        super(input);
+        this.stemmer = stemmer;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (buffer != null && !buffer.isEmpty()) { // more stems from previous run
+            BytesRef nextStem = buffer.remove(0);
+            restoreState(savedState);
+            posIncAtt.setPositionIncrement(0);
+            termAtt.setBytesRef(nextStem);
+            return true;
+        }
+
+        if (!input.incrementToken()) {
+            return false;
+        }
+
+        buffer = new ArrayList<BytesRef>(stemmer.stem(termAtt.getBytesRef()));
+        if(buffer.isEmpty()) { // we do not know this word, return it unchanged;
+            return true;
+        }
+        termAtt.setBytesRef(buffer.remove(0));
+        if(!buffer.isEmpty()) { // save state to be restored in the next round
+            savedState = captureState();
+        }
+        return true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        buffer = null;
+        savedState = null;
+    }
+}
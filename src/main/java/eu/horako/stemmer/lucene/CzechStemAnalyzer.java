@@ -0,0 +1,104 @@
+package eu.horako.stemmer.lucene;
+
+import eu.horako.stemmer.AffixFormatException;
+import eu.horako.stemmer.AffixRuleSet;
+import eu.horako.stemmer.AffixStemmer;
+import eu.horako.stemmer.Dictionary;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+
+/**
+ * Ready-made analyzer for use outside of Solr: {@link StandardTokenizer}
+ * followed by a {@link StemFilter} which lower-cases the terms itself, so
+ * there is no separate LowerCaseFilter pass.
+ *
+ * The model is loaded (or given) once and shared by all the token streams;
+ * the analyzer uses the global reuse strategy, so each thread gets one token
+ * stream reused for all fields and documents. Create one analyzer per model
+ * and keep it for the life of the application.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public final class CzechStemAnalyzer extends Analyzer {
+    /** memo cache size used unless given */
+    public static final int DEFAULT_CACHE_SIZE = 4096;
+
+    private final AtomicReference<AffixStemmer> stemmer;
+    private final boolean bestStem;
+    private final StemEmissionPolicy policy;
+    private final int cacheSize;
+
+    /**
+     * Load the model from a lower-cased dictionary/affix file pair.
+     * @param dictFile dictionary file
+     * @param affixFile affix file
+     * @throws IOException when a file can't be read
+     * @throws AffixFormatException when the affix file is malformed
+     */
+    public CzechStemAnalyzer(String dictFile, String affixFile) throws IOException, AffixFormatException {
+        this(loadStemmer(dictFile, affixFile));
+    }
+
+    /**
+     * All stems are emitted, the token streams have memo caches of
+     * {@link #DEFAULT_CACHE_SIZE} entries.
+     * @param stemmer stemmer of a frozen model loaded with lower-casing
+     */
+    public CzechStemAnalyzer(AffixStemmer stemmer) {
+        this(stemmer, false, new StemEmissionPolicy(), DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param stemmer stemmer of a frozen model loaded with lower-casing
+     * @param bestStem true to replace each token by its best stem only
+     * @param policy which tokens to stem and which stems to emit
+     * @param cacheSize number of entries of the memo cache of each token stream; 0 - no cache
+     */
+    public CzechStemAnalyzer(AffixStemmer stemmer, boolean bestStem, StemEmissionPolicy policy, int cacheSize) {
+        this(new AtomicReference<AffixStemmer>(stemmer), bestStem, policy, cacheSize);
+    }
+
+    /**
+     * @param stemmer reference to the current model (see {@link StemmerReloader})
+     * @param bestStem true to replace each token by its best stem only
+     * @param policy which tokens to stem and which stems to emit
+     * @param cacheSize number of entries of the memo cache of each token stream; 0 - no cache
+     */
+    public CzechStemAnalyzer(AtomicReference<AffixStemmer> stemmer, boolean bestStem, StemEmissionPolicy policy, int cacheSize) {
+        super(GLOBAL_REUSE_STRATEGY);
+        if(cacheSize < 0) { throw new IllegalArgumentException("cacheSize must be >= 0"); }
+        this.stemmer = stemmer;
+        this.bestStem = bestStem;
+        this.policy = policy;
+        this.cacheSize = cacheSize;
+    }
+
+    private static AffixStemmer loadStemmer(String dictFile, String affixFile) throws IOException, AffixFormatException {
+        AffixRuleSet rules = new AffixRuleSet(affixFile, true);
+        Dictionary dict = new Dictionary(dictFile, rules, true);
+        dict.freeze();
+        return new AffixStemmer(rules, dict);
+    }
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName) {
+        StandardTokenizer source = new StandardTokenizer();
+        return new TokenStreamComponents(source, new StemFilter(source, this.stemmer, this.bestStem, this.policy, this.cacheSize, true));
+    }
+
+    @Override
+    protected TokenStream normalize(String fieldName, TokenStream in) {
+        return new LowerCaseFilter(in);
+    }
+
+    /**
+     * @return the current model
+     */
+    public AffixStemmer getStemmer() {
+        return this.stemmer.get();
+    }
+}
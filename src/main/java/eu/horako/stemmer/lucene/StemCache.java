@@ -0,0 +1,129 @@
+package eu.horako.stemmer.lucene;
+
+import eu.horako.stemmer.jfr.StemmerEvents;
+import java.util.Arrays;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Direct-mapped cache of the stems emitted for a term, owned by one
+ * {@link StemFilter}. Lucene reuses a token stream per thread, so the cache
+ * needs no locking; it is keyed on the raw term chars and a hit returns the
+ * stems as char arrays ready to be copied into the term attribute, without
+ * creating any String. A colliding term simply replaces the older entry.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+final class StemCache implements Accountable {
+    private static final long SHALLOW_SIZE = RamUsageEstimator.shallowSizeOfInstance(StemCache.class);
+    static final char[][] NO_STEMS = new char[0][];
+
+    private final char[][] keys;
+    private final char[][][] values;
+    private final boolean[] keepOriginal;
+    private final int mask;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param size number of entries; rounded up to a power of two
+     */
+    StemCache(int size) {
+        if(size <= 0) { throw new IllegalArgumentException("Cache size must be > 0"); }
+        int capacity = Integer.highestOneBit(size);
+        if(capacity < size) { capacity <<= 1; }
+        this.keys = new char[capacity][];
+        this.values = new char[capacity][][];
+        this.keepOriginal = new boolean[capacity];
+        this.mask = capacity - 1;
+    }
+
+    static int hash(char[] term, int length) {
+        int h = 0;
+        for(int i = 0; i < length; i++) {
+            h = 31 * h + term[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @param term term buffer
+     * @param length length of the term
+     * @param hash {@link #hash(char[], int)} of the term
+     * @return the slot of the term or -1 when it is not cached
+     */
+    int find(char[] term, int length, int hash) {
+        int slot = hash & this.mask;
+        char[] key = this.keys[slot];
+        if(key != null && key.length == length && equals(key, term, length)) {
+            this.hits++;
+            return slot;
+        }
+        this.misses++;
+        return -1;
+    }
+
+    char[][] getStems(int slot) {
+        return this.values[slot];
+    }
+
+    boolean isKeepOriginal(int slot) {
+        return this.keepOriginal[slot];
+    }
+
+    /**
+     * @param term term buffer
+     * @param length length of the term
+     * @param hash {@link #hash(char[], int)} of the term
+     * @param stems stems to emit, in the order of emission
+     * @param keepOriginal whether the original token is emitted before the stems
+     */
+    void put(char[] term, int length, int hash, char[][] stems, boolean keepOriginal) {
+        int slot = hash & this.mask;
+        if(this.keys[slot] != null) { StemmerEvents.cacheEviction(this.keys[slot], this.keys[slot].length, this.keys.length); }
+        this.keys[slot] = Arrays.copyOf(term, length);
+        this.values[slot] = stems;
+        this.keepOriginal[slot] = keepOriginal;
+    }
+
+    void clear() {
+        Arrays.fill(this.keys, null);
+        Arrays.fill(this.values, null);
+    }
+
+    int size() {
+        return this.keys.length;
+    }
+
+    long getHits() {
+        return this.hits;
+    }
+
+    long getMisses() {
+        return this.misses;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long size = SHALLOW_SIZE + RamUsageEstimator.shallowSizeOf(this.keys) + RamUsageEstimator.shallowSizeOf(this.values) +
+                RamUsageEstimator.sizeOf(this.keepOriginal);
+        for(int i = 0; i < this.keys.length; i++) {
+            if(this.keys[i] == null) { continue; }
+            size += RamUsageEstimator.sizeOf(this.keys[i]);
+            char[][] stems = this.values[i];
+            if(stems == NO_STEMS) { continue; }
+            size += RamUsageEstimator.shallowSizeOf(stems);
+            for(char[] stem : stems) {
+                size += RamUsageEstimator.sizeOf(stem);
+            }
+        }
+        return size;
+    }
+
+    private static boolean equals(char[] key, char[] term, int length) {
+        for(int i = 0; i < length; i++) {
+            if(key[i] != term[i]) { return false; }
+        }
+        return true;
+    }
+}
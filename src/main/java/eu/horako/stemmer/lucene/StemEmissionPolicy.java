@@ -0,0 +1,145 @@
+package eu.horako.stemmer.lucene;
+
+import eu.horako.stemmer.LemmaFrequencies;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.lucene.analysis.CharArraySet;
+
+/**
+ * Which tokens {@link StemFilter} stems and which of their stems it emits.
+ * The defaults keep the original behaviour: every token is stemmed and all
+ * its stems are emitted (in no particular order) instead of the token.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class StemEmissionPolicy {
+    /**
+     * Order of the stems of a token; with {@link StemEmissionPolicy#setMaxStems(int)}
+     * it decides which stems are kept.
+     */
+    public enum Order {
+        /** as returned by the stemmer */
+        NONE,
+        /** shortest first, then alphabetically */
+        SHORTEST,
+        /** alphabetically */
+        ALPHABETICAL,
+        /** most frequent first according to the lemma frequencies of the stemmer, then shortest */
+        FREQUENCY
+    }
+
+    private static final Comparator<String> SHORTEST_FIRST = new Comparator<String>() {
+        @Override
+        public int compare(String s1, String s2) {
+            if(s1.length() != s2.length()) { return s1.length() < s2.length() ? -1 : 1; }
+            return s1.compareTo(s2);
+        }
+    };
+
+    private boolean skipKeywords = false;
+    private CharArraySet protectedWords = null;
+    private int maxStems = Integer.MAX_VALUE;
+    private Order order = Order.NONE;
+    private boolean keepOriginal = false;
+
+    /**
+     * @param skipKeywords true to pass tokens marked by the KeywordAttribute unchanged
+     */
+    public void setSkipKeywords(boolean skipKeywords) {
+        this.skipKeywords = skipKeywords;
+    }
+
+    public boolean isSkipKeywords() {
+        return this.skipKeywords;
+    }
+
+    /**
+     * @param protectedWords words passed unchanged; null - none
+     */
+    public void setProtectedWords(CharArraySet protectedWords) {
+        this.protectedWords = protectedWords;
+    }
+
+    public CharArraySet getProtectedWords() {
+        return this.protectedWords;
+    }
+
+    /**
+     * @param maxStems max. number of stems emitted per token (&gt; 0)
+     */
+    public void setMaxStems(int maxStems) {
+        if(maxStems <= 0) { throw new IllegalArgumentException("maxStems must be > 0"); }
+        this.maxStems = maxStems;
+    }
+
+    public int getMaxStems() {
+        return this.maxStems;
+    }
+
+    public void setOrder(Order order) {
+        this.order = order;
+    }
+
+    public Order getOrder() {
+        return this.order;
+    }
+
+    /**
+     * @param keepOriginal true to emit the original token before its stems
+     *   (when it differs from all of them)
+     */
+    public void setKeepOriginal(boolean keepOriginal) {
+        this.keepOriginal = keepOriginal;
+    }
+
+    public boolean isKeepOriginal() {
+        return this.keepOriginal;
+    }
+
+    /**
+     * @param term term of the token
+     * @param length length of the term
+     * @param keyword whether the token is marked as a keyword
+     * @return true if the token should be passed unchanged
+     */
+    boolean isProtected(char[] term, int length, boolean keyword) {
+        return keyword && this.skipKeywords || this.protectedWords != null && this.protectedWords.contains(term, 0, length);
+    }
+
+    /**
+     * @param stems stems of a token
+     * @param frequencies lemma frequencies for {@link Order#FREQUENCY}; may be null
+     * @return the stems to emit, in the order of emission
+     */
+    List<String> select(Collection<String> stems, final LemmaFrequencies frequencies) {
+        List<String> selected = new ArrayList<String>(stems);
+        switch(this.order) {
+            case SHORTEST:
+                Collections.sort(selected, SHORTEST_FIRST);
+                break;
+            case ALPHABETICAL:
+                Collections.sort(selected);
+                break;
+            case FREQUENCY:
+                Collections.sort(selected, new Comparator<String>() {
+                    @Override
+                    public int compare(String s1, String s2) {
+                        long f1 = frequencies == null ? 0 : frequencies.getFrequency(s1);
+                        long f2 = frequencies == null ? 0 : frequencies.getFrequency(s2);
+                        if(f1 != f2) { return f1 > f2 ? -1 : 1; }
+                        return SHORTEST_FIRST.compare(s1, s2);
+                    }
+                });
+                break;
+            default:
+                break;
+        }
+        if(selected.size() > this.maxStems) {
+            selected.subList(this.maxStems, selected.size()).clear();
+        }
+        return selected;
+    }
+}
@@ -1,9 +1,13 @@
 package eu.horako.stemmer.lucene;
 
 import eu.horako.stemmer.AffixStemmer;
+import eu.horako.stemmer.metrics.StemmerMetrics;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.lucene.analysis.CharacterUtils;
 import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
@@ -11,34 +15,144 @@ import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 
 /**
+ * The filter stems with the model current at the time of its {@link #reset()},
+ * so a model replaced by a reload (see {@link StemmerReloader}) is used till
+ * the end of the token stream and released on {@link #close()}.
+ *
+ * With a cache size given, the filter remembers the stems of recent terms
+ * (see {@link StemCache}); Lucene reuses the filter per thread, so frequent
+ * terms are stemmed once per thread. The cache is emptied when the model
+ * changes.
  *
  * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
  */
 public final class StemFilter extends TokenFilter {
     private final PositionIncrementAttribute posIncAtt = (PositionIncrementAttribute) addAttribute(PositionIncrementAttribute.class);
-    private final AffixStemmer stemmer;
+    private final AtomicReference<AffixStemmer> currentStemmer;
+    private AffixStemmer stemmer;
+    private StemmerMetrics metrics;
+    private final boolean bestStem;
+    private final StemEmissionPolicy policy;
+    private final boolean lowerCase;
   
     private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
     private final KeywordAttribute keywordAttr = addAttribute(KeywordAttribute.class);
     private State savedState;
-    List<String> buffer;
+    private char[][] pending; // stems of the current token
+    private int pendingPos;
+    private final StemCache cache;
+    private WeakReference<AffixStemmer> cacheModel; // model the cached stems come from (not kept alive)
+    private long reportedHits = 0;
+    private long reportedMisses = 0;
 
     public StemFilter(TokenStream input, AffixStemmer stemmer) {
+        this(input, new AtomicReference<AffixStemmer>(stemmer));
+    }
+
+    /**
+     * @param input input token stream
+     * @param currentStemmer reference to the current model
+     */
+    public StemFilter(TokenStream input, AtomicReference<AffixStemmer> currentStemmer) {
+        this(input, currentStemmer, false);
+    }
+
+    /**
+     * @param input input token stream
+     * @param currentStemmer reference to the current model
+     * @param bestStem true to replace each token by its best stem only 
+     *   (see {@link AffixStemmer#stemBest(String)}), false to emit all the stems
+     */
+    public StemFilter(TokenStream input, AtomicReference<AffixStemmer> currentStemmer, boolean bestStem) {
+        this(input, currentStemmer, bestStem, new StemEmissionPolicy());
+    }
+
+    /**
+     * @param input input token stream
+     * @param currentStemmer reference to the current model
+     * @param bestStem true to replace each token by its best stem only 
+     *   (see {@link AffixStemmer#stemBest(String)}), false to emit all the stems
+     * @param policy which tokens to stem and which stems to emit
+     */
+    public StemFilter(TokenStream input, AtomicReference<AffixStemmer> currentStemmer, boolean bestStem, StemEmissionPolicy policy) {
+        this(input, currentStemmer, bestStem, policy, 0);
+    }
+
+    /**
+     * @param input input token stream
+     * @param currentStemmer reference to the current model
+     * @param bestStem true to replace each token by its best stem only 
+     *   (see {@link AffixStemmer#stemBest(String)}), false to emit all the stems
+     * @param policy which tokens to stem and which stems to emit
+     * @param cacheSize number of entries of the memo cache of the stems of 
+     *   recent terms; 0 - no cache
+     */
+    public StemFilter(TokenStream input, AtomicReference<AffixStemmer> currentStemmer, boolean bestStem, StemEmissionPolicy policy, int cacheSize) {
+        this(input, currentStemmer, bestStem, policy, cacheSize, false);
+    }
+
+    /**
+     * @param input input token stream
+     * @param currentStemmer reference to the current model
+     * @param bestStem true to replace each token by its best stem only 
+     *   (see {@link AffixStemmer#stemBest(String)}), false to emit all the stems
+     * @param policy which tokens to stem and which stems to emit
+     * @param cacheSize number of entries of the memo cache of the stems of 
+     *   recent terms; 0 - no cache
+     * @param lowerCase true to lower-case the terms before stemming, instead 
+     *   of a separate LowerCaseFilter in front of this filter
+     */
+    public StemFilter(TokenStream input, AtomicReference<AffixStemmer> currentStemmer, boolean bestStem, StemEmissionPolicy policy, int cacheSize, boolean lowerCase) {
         super(input);
-        this.stemmer = stemmer;
+        this.lowerCase = lowerCase;
+        if(cacheSize < 0) { throw new IllegalArgumentException("cacheSize must be >= 0"); }
+        this.currentStemmer = currentStemmer;
+        this.bestStem = bestStem;
+        this.policy = policy;
+        this.cache = cacheSize > 0 ? new StemCache(cacheSize) : null;
+        this.stemmer = currentStemmer.get();
+        this.metrics = this.stemmer.getMetrics();
+        this.cacheModel = new WeakReference<AffixStemmer>(this.stemmer);
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        AffixStemmer current = this.currentStemmer.get();
+        if(this.cache != null && current != this.cacheModel.get()) { // stems of the previous model
+            this.cache.clear();
+            this.cacheModel = new WeakReference<AffixStemmer>(current);
+        }
+        this.stemmer = current;
+        this.metrics = this.stemmer.getMetrics();
+        this.pending = null;
+        this.savedState = null;
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+        if(this.cache != null && this.metrics != null) {
+            this.metrics.recordFilterCache(this.cache.getHits() - this.reportedHits, this.cache.getMisses() - this.reportedMisses);
+            this.reportedHits = this.cache.getHits();
+            this.reportedMisses = this.cache.getMisses();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        this.stemmer = null; // don't keep a replaced model alive in an idle reused stream
+        this.metrics = null;
     }
 
     @Override
     public boolean incrementToken() throws IOException {
-        if (buffer != null && !buffer.isEmpty()) { // more stems from previous run
-            String nextStem = buffer.remove(0); // get stem
-//Logger.getLogger(StemFilter.class.getName()).log(Level.INFO, "NEXT STEM={0}", nextStem);
+        if (pending != null && pendingPos < pending.length) { // more stems from previous run
+            char[] nextStem = pending[pendingPos++];
             restoreState(savedState); // restore previous state of the token stream
             posIncAtt.setPositionIncrement(0); // this otput token has the same position in the text as previous
-
-            char[] stemBuffer = new char[nextStem.length()];
-            nextStem.getChars(0, nextStem.length(), stemBuffer, 0); //!!!
-            termAtt.copyBuffer(stemBuffer, 0, stemBuffer.length);
+            termAtt.copyBuffer(nextStem, 0, nextStem.length);
             return true;
         }
 
@@ -46,23 +160,82 @@ public final class StemFilter extends TokenFilter {
             return false;
         }
 
-        buffer = new ArrayList<String>();
-        buffer.addAll(stemmer.stem(termAtt.toString()));
-
-        String stem;
-        if(buffer.isEmpty()) { // we do not know this word, return it unchanged;
+        char[] term = termAtt.buffer();
+        int length = termAtt.length();
+        if(lowerCase) {
+            CharacterUtils.toLowerCase(term, 0, length);
+        }
+        if(policy.isProtected(term, length, keywordAttr.isKeyword())) {
             return true;
+        }
+
+        boolean original;
+        if(cache != null) {
+            int hash = StemCache.hash(term, length);
+            int slot = cache.find(term, length, hash);
+            if(slot >= 0) {
+                pending = cache.getStems(slot);
+                original = cache.isKeepOriginal(slot);
+            } else {
+                original = this.stem(termAtt.toString());
+                cache.put(term, length, hash, pending, original);
+            }
         } else {
-            stem = buffer.remove(0);
+            original = this.stem(termAtt.toString());
+        }
+        pendingPos = 0;
+        if(metrics != null) { metrics.recordFilterToken(pending.length); }
+
+        if(pending.length == 0) { // we do not know this word, return it unchanged;
+            return true;
+        }
+        if(original) { // the original first, the stems stacked on it
+            savedState = captureState();
+            return true;
         }
 
-//Logger.getLogger(StemFilter.class.getName()).log(Level.INFO, "TERM={0} STEM={1}", new Object[]{termAtt.toString(), stem});
-        termAtt.copyBuffer(stem.toCharArray(), 0, stem.length());
-        if(!buffer.isEmpty()) { // save state to be restored in the next round
+        char[] stem = pending[pendingPos++];
+        termAtt.copyBuffer(stem, 0, stem.length);
+        if(pendingPos < pending.length) { // save state to be restored in the next round
             savedState = captureState();
         }
 
         return true;
     }
 
+    // Fill the pending stems of the term; returns true when the original
+    // token is to be emitted before them.
+    private boolean stem(String term) {
+        List<String> stems;
+        if(bestStem) {
+            String best = stemmer.stemBest(term);
+            stems = best == null ? Collections.<String>emptyList() : Collections.singletonList(best);
+        } else {
+            stems = policy.select(stemmer.stem(term), stemmer.getLemmaFrequencies());
+        }
+        if(stems.isEmpty()) {
+            pending = StemCache.NO_STEMS;
+            return false;
+        }
+        pending = new char[stems.size()][];
+        for(int i = 0; i < pending.length; i++) {
+            pending[i] = stems.get(i).toCharArray();
+        }
+        return policy.isKeepOriginal() && !stems.contains(term);
+    }
+
+    /**
+     * @return number of terms found in the memo cache (0 without the cache)
+     */
+    public long getCacheHits() {
+        return cache == null ? 0 : cache.getHits();
+    }
+
+    /**
+     * @return number of terms stemmed since they were not in the memo cache
+     *   (0 without the cache)
+     */
+    public long getCacheMisses() {
+        return cache == null ? 0 : cache.getMisses();
+    }
 }
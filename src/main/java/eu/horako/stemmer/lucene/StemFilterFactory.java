@@ -3,14 +3,31 @@ package eu.horako.stemmer.lucene;
 import eu.horako.stemmer.AffixFormatException;
 import eu.horako.stemmer.AffixRuleSet;
 import eu.horako.stemmer.AffixStemmer;
+import eu.horako.stemmer.DiacriticsFolding;
 import eu.horako.stemmer.Dictionary;
+import eu.horako.stemmer.IDictionary;
+import eu.horako.stemmer.LemmaFrequencies;
+import eu.horako.stemmer.OffHeapDictionary;
+import eu.horako.stemmer.metrics.StemmerMetrics;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.management.JMException;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.util.ResourceLoader;
 import org.apache.lucene.analysis.util.ResourceLoaderAware;
 import org.apache.lucene.analysis.util.TokenFilterFactory;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
@@ -23,13 +40,77 @@ import org.apache.lucene.analysis.util.TokenFilterFactory;
  * class="solr.StemFilterFactory"/&gt; &lt;/analyzer&gt;
  * &lt;/fieldType&gt;
  * </pre>
+ * 
+ * Optional arguments:
+ * <ul>
+ * <li>metrics="true" - collect runtime metrics and publish them as a JMX MBean
+ *     <code>eu.horako.stemmer:type=StemmerMetrics,name=&lt;metricsName&gt;,id=&lt;n&gt;</code></li>
+ * <li>metricsName - name of the MBean (defaults to the dictionary file name)</li>
+ * <li>bloomFilterFpp - false positive probability of the Bloom filter put in 
+ *     front of dictionary lookups, e.g. "0.01"; no filter is used by default</li>
+ * <li>offHeap="true" - keep the dictionary words outside of the Java heap
+ *     (see {@link eu.horako.stemmer.OffHeapDictionary})</li>
+ * <li>compiled="false" - interpret the affix rules instead of using their
+ *     compiled form (see {@link eu.horako.stemmer.CompiledRuleSet}); much
+ *     slower, for checking the compiled form only</li>
+ * <li>reloadable="true" - allow replacing the model without a core reload by
+ *     the JMX operation <code>reload</code> of
+ *     <code>eu.horako.stemmer:type=StemmerReloader,name=&lt;metricsName&gt;,id=&lt;n&gt;</code>;
+ *     each factory has a reloader of its own</li>
+ * <li>reloadInterval - check the dictionary and affix files for changes every
+ *     given number of seconds and reload the model when they change 
+ *     (implies reloadable="true")</li>
+ * <li>skipKeywords="true" - pass the tokens marked as keywords unchanged</li>
+ * <li>protected - file(s) of words passed unchanged (comma separated, as in 
+ *     other Lucene filters); the lookup ignores case with lowerCase="true"</li>
+ * <li>maxStems - emit at most the given number of stems per token</li>
+ * <li>stemOrder - order of the stems, deciding which stems maxStems keeps:
+ *     none (default), shortest, alphabetical, frequency (needs lemmaFrequencies)</li>
+ * <li>keepOriginal="true" - emit the original token too, the stems are 
+ *     stacked on it</li>
+ * <li>foldDiacritics="true" - stem also tokens written without (some of the)
+ *     diacritics, in the same pass (see {@link eu.horako.stemmer.DiacriticsFolding});
+ *     the stems keep the diacritics of the dictionary</li>
+ * <li>cacheSize - number of entries of the per-filter memo cache of the stems
+ *     of recent terms, e.g. "4096"; no cache by default. Hits and misses
+ *     are published with the metrics</li>
+ * <li>bestStem="true" - replace each token by its single best stem instead of 
+ *     emitting all its stems at the same position</li>
+ * <li>lemmaFrequencies - file of lemma frequencies used to choose the best stem
+ *     (see {@link eu.horako.stemmer.LemmaFrequencies}); without it the stem
+ *     reached by the fewest reductions is the best one</li>
+ * </ul>
+ * 
+ * The model is loaded once in {@link #inform(ResourceLoader)} and shared by 
+ * all the filters created by the factory; see {@link StemmerReloader} for 
+ * the reload semantics. The memory of the current model is reported through
+ * {@link Accountable}, broken down by its parts; the caches of the filters
+ * are per thread and not included.
+ *
+ * The MBeans registered by the factory keep the model alive, so the owner of
+ * the factory must {@link #close()} it when the analyzer is discarded.
  */
-public class StemFilterFactory extends TokenFilterFactory implements ResourceLoaderAware {
-    private AffixStemmer stemmer;
+public class StemFilterFactory extends TokenFilterFactory implements ResourceLoaderAware, Accountable, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(StemFilterFactory.class);
+    private final AtomicReference<AffixStemmer> stemmer = new AtomicReference<AffixStemmer>();
+    private StemmerReloader reloader = null;
+    private long reloadInterval = 0;
+    private boolean reloadable = false;
+    private String modelName;
     private String dictFile = null;
     private String affixRulesFile = null;
     private ResourceLoader loader;
     private boolean lowerCase = false;
+    private StemmerMetrics metrics = null;
+    private double bloomFilterFpp = 0;
+    private boolean compiled = true;
+    private boolean offHeap = false;
+    private boolean bestStem = false;
+    private boolean foldDiacritics = false;
+    private int cacheSize = 0;
+    private final StemEmissionPolicy policy = new StemEmissionPolicy();
+    private String protectedWordsFile = null;
+    private String lemmaFrequenciesFile = null;
 
     /**
      *
@@ -39,27 +120,155 @@ public class StemFilterFactory extends TokenFilterFactory implements ResourceLoa
         super(args);
         dictFile = args.get("dictionary").trim();
         affixRulesFile = args.get("affix");
-        String lowerCaseStr = args.get("lowerCase");
-        lowerCase = lowerCaseStr != null && !lowerCaseStr.isEmpty() && (lowerCaseStr.charAt(0)=='1' || lowerCaseStr.toLowerCase().charAt(0)=='t');
+        lowerCase = parseBoolean(args.get("lowerCase"));
+        compiled = args.get("compiled") == null || parseBoolean(args.get("compiled"));
+        offHeap = parseBoolean(args.get("offHeap"));
+        bestStem = parseBoolean(args.get("bestStem"));
+        foldDiacritics = parseBoolean(args.get("foldDiacritics"));
+        policy.setSkipKeywords(parseBoolean(args.get("skipKeywords")));
+        policy.setKeepOriginal(parseBoolean(args.get("keepOriginal")));
+        String maxStems = args.get("maxStems");
+        if(maxStems != null && !maxStems.trim().isEmpty()) {
+            policy.setMaxStems(Integer.parseInt(maxStems.trim()));
+        }
+        String cache = args.get("cacheSize");
+        if(cache != null && !cache.trim().isEmpty()) {
+            cacheSize = Integer.parseInt(cache.trim());
+        }
+        String order = args.get("stemOrder");
+        if(order != null && !order.trim().isEmpty()) {
+            policy.setOrder(StemEmissionPolicy.Order.valueOf(order.trim().toUpperCase()));
+        }
+        String protectedWords = args.get("protected");
+        if(protectedWords != null && !protectedWords.trim().isEmpty()) {
+            protectedWordsFile = protectedWords.trim();
+        }
+        String frequencies = args.get("lemmaFrequencies");
+        if(frequencies != null && !frequencies.trim().isEmpty()) {
+            lemmaFrequenciesFile = frequencies.trim();
+        }
+        String fpp = args.get("bloomFilterFpp");
+        if(fpp != null && !fpp.trim().isEmpty()) {
+            bloomFilterFpp = Double.parseDouble(fpp.trim());
+        }
+        String metricsName = args.get("metricsName");
+        modelName = metricsName != null ? metricsName.trim() : dictFile;
+        if(parseBoolean(args.get("metrics"))) {
+            metrics = new StemmerMetrics(modelName);
+        }
+        String interval = args.get("reloadInterval");
+        if(interval != null && !interval.trim().isEmpty()) {
+            reloadInterval = Long.parseLong(interval.trim());
+        }
+        reloadable = reloadInterval > 0 || parseBoolean(args.get("reloadable"));
     }
     
     @Override
     public void inform(ResourceLoader loader) {
          this.loader = loader;
+         if(metrics != null) {
+             try {
+                 metrics.register();
+             } catch (JMException ex) {
+                 logger.warn("Cannot register stemmer metrics MBean for " + metrics.getModelName(), ex);
+             }
+         }
+         try {
+             if(protectedWordsFile != null) {
+                 policy.setProtectedWords(getWordSet(loader, protectedWordsFile, lowerCase));
+             }
+             stemmer.set(loadStemmer());
+             logger.info("Stemmer model " + modelName + " loaded, " + RamUsageEstimator.humanReadableUnits(stemmer.get().ramBytesUsed()));
+         } catch (AffixFormatException | IOException ex) {
+             throw new RuntimeException("Unable to load LMCStemFilter data! [dictionary=" + dictFile + ",affix=" + affixRulesFile + "]", ex);
+         }
+         if(reloadable) {
+             reloader = new StemmerReloader(modelName, stemmer, new StemmerReloader.ModelBuilder() {
+                 @Override
+                 public AffixStemmer build() throws Exception {
+                     return loadStemmer();
+                 }
+             }, loader, this.watchedResources(), reloadInterval);
+             reloader.start();
+         }
+    }
+
+    private List<String> watchedResources() {
+        List<String> resources = new ArrayList<String>(Arrays.asList(dictFile, affixRulesFile));
+        if(lemmaFrequenciesFile != null) { resources.add(lemmaFrequenciesFile); }
+        return resources;
+    }
+
+    public StemmerReloader getReloader() {
+        return reloader;
+    }
+
+    public StemmerMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        AffixStemmer current = stemmer.get();
+        return current == null ? 0 : current.ramBytesUsed();
+    }
+
+    @Override
+    public Collection<Accountable> getChildResources() {
+        AffixStemmer current = stemmer.get();
+        return current == null ? Collections.<Accountable>emptyList() : current.getChildResources();
+    }
+
+    private static boolean parseBoolean(String s) {
+        return s != null && !s.isEmpty() && (s.charAt(0)=='1' || s.toLowerCase().charAt(0)=='t');
+    }
+    
+    private AffixStemmer loadStemmer() throws AffixFormatException, IOException {
+        AffixRuleSet rules;
+        try (InputStream rulesStream = this.loader.openResource(affixRulesFile)) {
+            rules = new AffixRuleSet(rulesStream, lowerCase);
+        }
+        Dictionary dict;
+        try (InputStream dictStream = this.loader.openResource(dictFile)) {
+            dict = new Dictionary(dictStream, rules, lowerCase);
+        }
+        dict.setBloomFilterFpp(bloomFilterFpp);
+        dict.freeze();
+        IDictionary dictionary = offHeap ? new OffHeapDictionary(dict) : dict;
+        AffixStemmer newStemmer = foldDiacritics ? new AffixStemmer(new DiacriticsFolding(rules, dictionary)) : new AffixStemmer(rules, dictionary);
+        newStemmer.setMetrics(metrics);
+        newStemmer.setCompiled(compiled);
+        if(lemmaFrequenciesFile != null) {
+            try (InputStream frequenciesStream = this.loader.openResource(lemmaFrequenciesFile)) {
+                newStemmer.setLemmaFrequencies(new LemmaFrequencies(frequenciesStream, lowerCase));
+            }
+        }
+        if(metrics != null) {
+            if(dictionary == dict) { dict.setMetrics(metrics); } // the Bloom filter of the heap dictionary only
+            else { metrics.setBloomFilter(0, 0); }
+        } // the Bloom filter counts of the heap dictionary only
+        return newStemmer;
     }
     
     @Override
     public TokenStream create(TokenStream input) {
-        try {
-            InputStream rulesStream = this.loader.openResource(affixRulesFile);
-            AffixRuleSet rules = new AffixRuleSet(rulesStream, lowerCase);
-            InputStream dictStream = this.loader.openResource(dictFile);
-            Dictionary dict = new Dictionary(dictStream, rules, lowerCase);
-            this.stemmer = new AffixStemmer(rules,dict);
-        } catch (AffixFormatException | IOException ex) {
-            throw new RuntimeException("Unable to load LMCStemFilter data! [dictionary=" + dictFile + ",affix=" + affixRulesFile + "]", ex);
-        }
+        return new StemFilter(input,this.stemmer,this.bestStem,this.policy,this.cacheSize);
+    }
 
-        return new StemFilter(input,this.stemmer);
+    /**
+     * Stop the reloader and unregister the MBeans of the reloader and the metrics.
+     */
+    @Override
+    public void close() {
+        if(reloader != null) {
+            reloader.stop();
+        }
+        if(metrics != null) {
+            try {
+                metrics.unregister();
+            } catch (JMException ex) {
+                logger.warn("Cannot unregister stemmer metrics MBean for " + metrics.getModelName(), ex);
+            }
+        }
     }
 }
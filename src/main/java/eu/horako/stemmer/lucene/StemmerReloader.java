@@ -0,0 +1,281 @@
+package eu.horako.stemmer.lucene;
+
+import eu.horako.stemmer.AffixStemmer;
+import eu.horako.stemmer.metrics.StemmerMetrics;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.lucene.analysis.util.ResourceLoader;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replaces the model (dictionary + affix rules) of a {@link StemFilterFactory}
+ * without reloading the Solr core.
+ *
+ * The new model is built on a background thread while the old one keeps
+ * serving; then it is published by a single reference swap. Every
+ * {@link StemFilter} picks up the current model when it is reset, so a token
+ * stream being processed finishes on the model it started with and the old
+ * model is garbage once the last such stream is reset.
+ *
+ * A reload is triggered either explicitly (JMX operation <code>reload</code> of
+ * <code>eu.horako.stemmer:type=StemmerReloader,name=&lt;modelName&gt;,id=&lt;n&gt;</code>)
+ * or by a change of the content of the watched resources, checked every
+ * watch interval. All reloaders share one background thread, so at most one
+ * model is being built at any time.
+ *
+ * The MBean server holds a started reloader and through it the model, so
+ * the owner must {@link #stop()} it when the model is no longer used (see
+ * {@link StemFilterFactory#close()}).
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class StemmerReloader implements StemmerReloaderMBean {
+    private static final Logger logger = LoggerFactory.getLogger(StemmerReloader.class);
+    private static final AtomicLong instances = new AtomicLong(); // the id of the MBean
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "stemmer-reloader");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Builds a new model.
+     */
+    public interface ModelBuilder {
+        public AffixStemmer build() throws Exception;
+    }
+
+    private final String modelName;
+    private final AtomicReference<AffixStemmer> current;
+    private final ModelBuilder builder;
+    private final ResourceLoader loader;
+    private final List<String> resources;
+    private final long watchIntervalSeconds;
+    private long resourcesChecksum;
+    private ObjectName objectName = null;
+    private ScheduledFuture<?> watchTask = null;
+
+    private volatile long reloadCount = 0;
+    private volatile long failedReloadCount = 0;
+    private volatile long lastReloadTimeMillis = 0;
+    private volatile long lastReloadDurationMillis = 0;
+    private volatile String lastError = null;
+
+    /**
+     * @param modelName name of the model (of the MBean)
+     * @param current reference to the current model, updated on reload
+     * @param builder builder of new models
+     * @param loader loader of the watched resources
+     * @param resources names of the watched resources
+     * @param watchIntervalSeconds interval of checking the resources for changes; 0 - don't watch
+     */
+    public StemmerReloader(String modelName, AtomicReference<AffixStemmer> current, ModelBuilder builder,
+            ResourceLoader loader, List<String> resources, long watchIntervalSeconds) {
+        this.modelName = modelName;
+        this.current = current;
+        this.builder = builder;
+        this.loader = loader;
+        this.resources = resources;
+        this.watchIntervalSeconds = watchIntervalSeconds;
+    }
+
+    /**
+     * Register the MBean and start watching the resources (when the watch interval is &gt; 0).
+     * Every reloader gets an MBean of its own, also when the model name is
+     * shared (e.g. by the index and query analyzers of one field type).
+     */
+    public synchronized void start() {
+        if(this.watchIntervalSeconds > 0 && this.watchTask == null) {
+            this.resourcesChecksum = this.checksum();
+            this.watchTask = executor.scheduleWithFixedDelay(new WatchTask(this),
+                    this.watchIntervalSeconds, this.watchIntervalSeconds, TimeUnit.SECONDS);
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if(this.objectName == null) {
+                ObjectName name = new ObjectName(StemmerMetrics.JMX_DOMAIN + ":type=StemmerReloader,name=" + ObjectName.quote(this.modelName) +
+                        ",id=" + instances.incrementAndGet());
+                server.registerMBean(this, name);
+                this.objectName = name;
+            }
+        } catch(JMException ex) {
+            logger.warn("Cannot register stemmer reloader MBean for " + this.modelName, ex);
+        }
+    }
+
+    /**
+     * Stop watching the resources and unregister the MBean.
+     */
+    public synchronized void stop() {
+        if(this.watchTask != null) {
+            this.watchTask.cancel(false);
+            this.watchTask = null;
+        }
+        if(this.objectName != null) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if(server.isRegistered(this.objectName)) {
+                    server.unregisterMBean(this.objectName);
+                }
+            } catch(JMException ex) {
+                logger.warn("Cannot unregister stemmer reloader MBean for " + this.modelName, ex);
+            }
+            this.objectName = null;
+        }
+    }
+
+    /**
+     * @return name of the MBean; null when not started
+     */
+    public synchronized ObjectName getObjectName() {
+        return this.objectName;
+    }
+
+    @Override
+    public void reload() {
+        this.reloadAsync();
+    }
+
+    /**
+     * Schedule a reload on the background thread.
+     * @return future completed when the reload finishes; true if the new model has been published
+     */
+    public Future<Boolean> reloadAsync() {
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return reloadNow();
+            }
+        });
+    }
+
+    /**
+     * Build the new model in the calling thread and publish it. On failure
+     * the current model stays in use.
+     * @return true if the new model has been published
+     */
+    public synchronized boolean reloadNow() {
+        long start = System.currentTimeMillis();
+        AffixStemmer stemmer;
+        try {
+            stemmer = this.builder.build();
+        } catch(Exception ex) {
+            logger.error("Reload of stemmer model " + this.modelName + " failed, keeping the current model", ex);
+            this.lastError = ex.toString();
+            this.failedReloadCount++;
+            return false;
+        }
+        this.current.set(stemmer);
+        this.lastReloadTimeMillis = System.currentTimeMillis();
+        this.lastReloadDurationMillis = this.lastReloadTimeMillis - start;
+        this.lastError = null;
+        this.reloadCount++;
+        logger.info("Stemmer model " + this.modelName + " reloaded in " + this.lastReloadDurationMillis + " ms, " +
+                RamUsageEstimator.humanReadableUnits(stemmer.ramBytesUsed()));
+        return true;
+    }
+
+    // reloads the model when the content of the resources has changed
+    private synchronized void checkResources() {
+        long checksum = this.checksum();
+        if(checksum == this.resourcesChecksum) { return; }
+        this.resourcesChecksum = checksum; // a broken file is not retried until it changes again
+        this.reloadNow();
+    }
+
+    private long checksum() {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[65536];
+        for(String resource : this.resources) {
+            try(InputStream input = this.loader.openResource(resource)) {
+                int n;
+                while((n = input.read(buffer)) > 0) {
+                    crc.update(buffer, 0, n);
+                }
+            } catch(IOException ex) {
+                logger.warn("Cannot read " + resource + " to check for changes", ex);
+                return this.resourcesChecksum;
+            }
+        }
+        return crc.getValue();
+    }
+
+    @Override
+    public String getModelName() {
+        return this.modelName;
+    }
+
+    @Override
+    public long getReloadCount() {
+        return this.reloadCount;
+    }
+
+    @Override
+    public long getFailedReloadCount() {
+        return this.failedReloadCount;
+    }
+
+    @Override
+    public long getLastReloadTimeMillis() {
+        return this.lastReloadTimeMillis;
+    }
+
+    @Override
+    public long getLastReloadDurationMillis() {
+        return this.lastReloadDurationMillis;
+    }
+
+    @Override
+    public String getLastError() {
+        return this.lastError;
+    }
+
+    @Override
+    public long getWatchIntervalSeconds() {
+        return this.watchIntervalSeconds;
+    }
+
+    // Holds the reloader weakly: the schedule must not keep a reloader alive
+    // (its MBean does until stop(), which cancels the task as well).
+    private static class WatchTask implements Runnable {
+        private final WeakReference<StemmerReloader> reloader;
+
+        WatchTask(StemmerReloader reloader) {
+            this.reloader = new WeakReference<StemmerReloader>(reloader);
+        }
+
+        @Override
+        public void run() {
+            StemmerReloader r = this.reloader.get();
+            if(r == null) {
+                throw new IllegalStateException("Reloader released"); // cancels further executions
+            }
+            try {
+                r.checkResources();
+            } catch(RuntimeException ex) { // keep watching
+                logger.error("Checking resources of stemmer model " + r.getModelName() + " failed", ex);
+            }
+        }
+    }
+}
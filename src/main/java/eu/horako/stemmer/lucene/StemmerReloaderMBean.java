@@ -0,0 +1,22 @@
+package eu.horako.stemmer.lucene;
+
+/**
+ * JMX view of {@link StemmerReloader}.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public interface StemmerReloaderMBean {
+    public String getModelName();
+
+    /**
+     * Rebuild the model from the resources in the background.
+     */
+    public void reload();
+
+    public long getReloadCount();
+    public long getFailedReloadCount();
+    public long getLastReloadTimeMillis();
+    public long getLastReloadDurationMillis();
+    public String getLastError();
+    public long getWatchIntervalSeconds();
+}
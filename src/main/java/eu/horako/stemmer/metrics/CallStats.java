@@ -0,0 +1,19 @@
+package eu.horako.stemmer.metrics;
+
+/**
+ * Plain (non thread-safe) counters of the work done by a single stem/expand
+ * call. The object is created only when metrics are enabled and its values are
+ * added to the shared {@link StemmerMetrics} once the call finishes.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class CallStats {
+    public int firstStepCandidates;
+    public int reductionSteps;
+    public int prunedCandidates;
+    public int shapeRejections; // dictionary lookups saved by the flag shape check
+    public int dictionaryProbes;
+    public int dictionaryHits;
+    public int crossProductPairs;
+    public int reductionLimitHits; // reductions cut off by the depth or work limit
+}
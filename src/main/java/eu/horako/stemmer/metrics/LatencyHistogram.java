@@ -0,0 +1,125 @@
+package eu.horako.stemmer.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent latency histogram with HDR-style log-linear buckets.
+ *
+ * Values below 64 are counted exactly, larger values fall into one of 32
+ * sub-buckets per power of two, i.e. the relative error of a reported
+ * percentile is at most ~3%. Values are expected in nanoseconds, anything
+ * above 2^42 ns (~73 minutes) is clamped.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 42;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record one value.
+     * @param value value (typically duration in nanoseconds); negative values are recorded as 0
+     */
+    public void record(long value) {
+        if(value < 0) { value = 0; }
+        else if(value > MAX_VALUE) { value = MAX_VALUE; }
+        this.counts.incrementAndGet(index(value));
+        this.total.increment();
+        this.sum.add(value);
+        long m = this.max.get();
+        while(value > m && !this.max.compareAndSet(m, value)) {
+            m = this.max.get();
+        }
+    }
+
+    public long getCount() {
+        return this.total.sum();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    public double getMean() {
+        long n = this.total.sum();
+        return n == 0 ? 0.0 : (double)this.sum.sum() / n;
+    }
+
+    /**
+     * Value at the given percentile; the upper bound of the bucket containing
+     * the percentile is returned, capped by the maximum recorded value.
+     *
+     * @param percentile percentile in the range 0..100
+     * @return value at the percentile or 0 when nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = this.counts.get(i);
+            n += snapshot[i];
+        }
+        if(n == 0) { return 0; }
+        long target = Math.max(1, (long)Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * n));
+        long cumulative = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            cumulative += snapshot[i];
+            if(cumulative >= target) {
+                return Math.min(highestValue(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    /**
+     * Add all values recorded by another histogram to this one.
+     * @param other source histogram
+     */
+    public void add(LatencyHistogram other) {
+        for(int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if(c != 0) { this.counts.addAndGet(i, c); }
+        }
+        this.total.add(other.total.sum());
+        this.sum.add(other.sum.sum());
+        long otherMax = other.max.get();
+        long m = this.max.get();
+        while(otherMax > m && !this.max.compareAndSet(m, otherMax)) {
+            m = this.max.get();
+        }
+    }
+
+    public void reset() {
+        for(int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.total.reset();
+        this.sum.reset();
+        this.max.set(0);
+    }
+
+    static int index(long value) {
+        if(value < 2 * SUB_BUCKETS) { return (int)value; }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int)(value >>> shift);
+        return (shift + 1) * SUB_BUCKETS + (sub - SUB_BUCKETS);
+    }
+
+    static long highestValue(int index) {
+        if(index < 2 * SUB_BUCKETS) { return index; }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
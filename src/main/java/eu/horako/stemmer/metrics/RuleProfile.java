@@ -0,0 +1,287 @@
+package eu.horako.stemmer.metrics;
+
+import eu.horako.stemmer.AffixRule;
+import eu.horako.stemmer.AffixRuleSet;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Work of the stemming and the expansion attributed to the single rules of
+ * a rule set: how many times a rule was tried, how often it failed on the
+ * affix or the condition, how many candidates it produced, the dictionary
+ * probes and hits of those candidates and the time spent on all of it; on the
+ * expansion side the applications of the rule and the forms per lemma.
+ *
+ * Profiling is opt-in, see {@link eu.horako.stemmer.AffixStemmer#setProfile(RuleProfile)}
+ * and {@link eu.horako.stemmer.AffixExpander#setProfile(RuleProfile)}; it
+ * takes the time of every rule application, so it is meant for tuning the
+ * affix files, not for production. The counters are thread-safe.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class RuleProfile {
+    // outcomes of reversing a rule on a stem candidate
+    public static final int NO_MATCH = 0; // the affix or the condition doesn't match
+    public static final int PRUNED = 1;
+    public static final int CANDIDATE = 2;
+
+    private static final int TOP_LEMMAS = 100;
+
+    private final AffixRule[] rules; // by rule id
+    private final AtomicLongArray attempts;
+    private final AtomicLongArray noMatches;
+    private final AtomicLongArray pruned;
+    private final AtomicLongArray candidates;
+    private final AtomicLongArray probes;
+    private final AtomicLongArray hits;
+    private final AtomicLongArray stemNanos;
+    private final AtomicLongArray expandAttempts;
+    private final AtomicLongArray expandForms;
+    private final AtomicLongArray expandNanos;
+    private final LongAdder lemmas = new LongAdder();
+    private final LongAdder lemmaForms = new LongAdder();
+    private final PriorityQueue<Fanout> topLemmas = new PriorityQueue<Fanout>(); // smallest fan-out first
+
+    private static final class Fanout implements Comparable<Fanout> {
+        final String lemma;
+        final int forms;
+
+        Fanout(String lemma, int forms) {
+            this.lemma = lemma;
+            this.forms = forms;
+        }
+
+        @Override
+        public int compareTo(Fanout o) {
+            return this.forms != o.forms ? Integer.compare(this.forms, o.forms) : o.lemma.compareTo(this.lemma);
+        }
+    }
+
+    // counters summed over the rules of a flag or a single rule
+    private static final class Row {
+        final String name;
+        int rules;
+        long attempts, noMatches, pruned, candidates, probes, hits, stemNanos, expandAttempts, expandForms, expandNanos;
+
+        Row(String name) {
+            this.name = name;
+        }
+
+        long nanos() {
+            return this.stemNanos + this.expandNanos;
+        }
+    }
+
+    /**
+     * @param ruleSet rule set of the profiled stemmer/expander
+     */
+    public RuleProfile(AffixRuleSet ruleSet) {
+        this.rules = new AffixRule[ruleSet.getRules().size()];
+        for(AffixRule r : ruleSet.getRules()) {
+            this.rules[r.getId()] = r;
+        }
+        int n = this.rules.length;
+        this.attempts = new AtomicLongArray(n);
+        this.noMatches = new AtomicLongArray(n);
+        this.pruned = new AtomicLongArray(n);
+        this.candidates = new AtomicLongArray(n);
+        this.probes = new AtomicLongArray(n);
+        this.hits = new AtomicLongArray(n);
+        this.stemNanos = new AtomicLongArray(n);
+        this.expandAttempts = new AtomicLongArray(n);
+        this.expandForms = new AtomicLongArray(n);
+        this.expandNanos = new AtomicLongArray(n);
+    }
+
+    /**
+     * Record one reversal of a rule on a stem candidate.
+     * @param rule rule id
+     * @param outcome {@link #NO_MATCH}, {@link #PRUNED} or {@link #CANDIDATE}
+     * @param nanos time spent
+     */
+    public void recordReduction(int rule, int outcome, long nanos) {
+        this.attempts.incrementAndGet(rule);
+        if(outcome == NO_MATCH) { this.noMatches.incrementAndGet(rule); }
+        else if(outcome == PRUNED) { this.pruned.incrementAndGet(rule); }
+        else { this.candidates.incrementAndGet(rule); }
+        this.stemNanos.addAndGet(rule, nanos);
+    }
+
+    /**
+     * Record the dictionary check of a candidate produced by a rule.
+     * @param rule rule id
+     * @param hit true if the candidate is a stem
+     * @param nanos time spent
+     */
+    public void recordProbe(int rule, boolean hit, long nanos) {
+        this.probes.incrementAndGet(rule);
+        if(hit) { this.hits.incrementAndGet(rule); }
+        this.stemNanos.addAndGet(rule, nanos);
+    }
+
+    /**
+     * Record one application of a rule in the expansion.
+     * @param rule rule id
+     * @param applied true if the rule produced a form
+     * @param nanos time spent
+     */
+    public void recordApply(int rule, boolean applied, long nanos) {
+        this.expandAttempts.incrementAndGet(rule);
+        if(applied) { this.expandForms.incrementAndGet(rule); }
+        this.expandNanos.addAndGet(rule, nanos);
+    }
+
+    /**
+     * Record the expansion of one lemma.
+     * @param lemma lemma
+     * @param forms number of its forms
+     */
+    public void recordExpansion(String lemma, int forms) {
+        this.lemmas.increment();
+        this.lemmaForms.add(forms);
+        synchronized(this.topLemmas) {
+            if(this.topLemmas.size() < TOP_LEMMAS) {
+                this.topLemmas.add(new Fanout(lemma, forms));
+            } else if(this.topLemmas.peek().forms < forms) {
+                this.topLemmas.poll();
+                this.topLemmas.add(new Fanout(lemma, forms));
+            }
+        }
+    }
+
+    public long getAttempts(int rule) {
+        return this.attempts.get(rule);
+    }
+
+    public long getCandidates(int rule) {
+        return this.candidates.get(rule);
+    }
+
+    public long getHits(int rule) {
+        return this.hits.get(rule);
+    }
+
+    public long getExpandForms(int rule) {
+        return this.expandForms.get(rule);
+    }
+
+    /**
+     * Print the flags and the rules ranked by the time spent on them and the
+     * lemmas with the most forms.
+     * @param out output
+     * @param top number of rules and lemmas listed
+     */
+    public void report(PrintStream out, int top) {
+        Map<String,Row> flags = new LinkedHashMap<String,Row>();
+        List<Row> rules = new ArrayList<Row>(this.rules.length);
+        Row total = new Row("total");
+        for(int id = 0; id < this.rules.length; id++) {
+            AffixRule r = this.rules[id];
+            Row row = new Row(id + " " + r.getType() + " " + r.getFlag() + " " + affix(r.getRemove()) + " " +
+                    affix(r.getAppend()) + " " + r.getStrCondition());
+            this.fill(row, id);
+            rules.add(row);
+            Row flag = flags.get(r.getFlag());
+            if(flag == null) {
+                flag = new Row(r.getFlag());
+                flags.put(r.getFlag(), flag);
+            }
+            add(flag, row);
+            add(total, row);
+        }
+        List<Row> flagRows = new ArrayList<Row>(flags.values());
+        Comparator<Row> byTime = new Comparator<Row>() {
+            @Override
+            public int compare(Row a, Row b) {
+                return a.nanos() != b.nanos() ? Long.compare(b.nanos(), a.nanos()) : Long.compare(b.attempts, a.attempts);
+            }
+        };
+        Collections.sort(flagRows, byTime);
+        Collections.sort(rules, byTime);
+
+        out.println(String.format(Locale.ROOT, "rules: %d, flags: %d, stem time: %.1f ms, expand time: %.1f ms",
+                this.rules.length, flagRows.size(), total.stemNanos / 1e6, total.expandNanos / 1e6));
+        out.println();
+        out.println("Flags by time:");
+        header(out, "flag");
+        for(Row row : flagRows) {
+            if(row.attempts == 0 && row.expandAttempts == 0) { break; }
+            line(out, row, total);
+        }
+        out.println();
+        out.println("Rules by time (id type flag remove append condition):");
+        header(out, "rule");
+        for(int i = 0; i < Math.min(top, rules.size()); i++) {
+            if(rules.get(i).attempts == 0 && rules.get(i).expandAttempts == 0) { break; }
+            line(out, rules.get(i), total);
+        }
+
+        long lemmaCount = this.lemmas.sum();
+        if(lemmaCount == 0) { return; }
+        List<Fanout> fanouts;
+        synchronized(this.topLemmas) {
+            fanouts = new ArrayList<Fanout>(this.topLemmas);
+        }
+        Collections.sort(fanouts, Collections.reverseOrder());
+        out.println();
+        out.println(String.format(Locale.ROOT, "Lemmas by expansion fan-out (lemmas: %d, forms: %d, %.1f forms per lemma):",
+                lemmaCount, this.lemmaForms.sum(), (double)this.lemmaForms.sum() / lemmaCount));
+        for(int i = 0; i < Math.min(top, fanouts.size()); i++) {
+            out.println(String.format(Locale.ROOT, "%8d  %s", fanouts.get(i).forms, fanouts.get(i).lemma));
+        }
+    }
+
+    private void fill(Row row, int id) {
+        row.rules = 1;
+        row.attempts = this.attempts.get(id);
+        row.noMatches = this.noMatches.get(id);
+        row.pruned = this.pruned.get(id);
+        row.candidates = this.candidates.get(id);
+        row.probes = this.probes.get(id);
+        row.hits = this.hits.get(id);
+        row.stemNanos = this.stemNanos.get(id);
+        row.expandAttempts = this.expandAttempts.get(id);
+        row.expandForms = this.expandForms.get(id);
+        row.expandNanos = this.expandNanos.get(id);
+    }
+
+    private static void add(Row sum, Row row) {
+        sum.rules += row.rules;
+        sum.attempts += row.attempts;
+        sum.noMatches += row.noMatches;
+        sum.pruned += row.pruned;
+        sum.candidates += row.candidates;
+        sum.probes += row.probes;
+        sum.hits += row.hits;
+        sum.stemNanos += row.stemNanos;
+        sum.expandAttempts += row.expandAttempts;
+        sum.expandForms += row.expandForms;
+        sum.expandNanos += row.expandNanos;
+    }
+
+    private static String affix(String s) {
+        return s.isEmpty() ? "0" : s;
+    }
+
+    private static void header(PrintStream out, String name) {
+        out.println(String.format(Locale.ROOT, "%6s %10s %10s %10s %10s %10s %10s %9s %10s %10s %9s  %s",
+                "rules", "attempts", "no-match", "pruned", "candidates", "probes", "hits", "stem ms",
+                "applied", "forms", "exp. ms", "share  " + name));
+    }
+
+    private static void line(PrintStream out, Row row, Row total) {
+        out.println(String.format(Locale.ROOT, "%6d %10d %10d %10d %10d %10d %10d %9.1f %10d %10d %9.1f %5.1f%%  %s",
+                row.rules, row.attempts, row.noMatches, row.pruned, row.candidates, row.probes, row.hits, row.stemNanos / 1e6,
+                row.expandAttempts, row.expandForms, row.expandNanos / 1e6,
+                total.nanos() == 0 ? 0 : 100.0 * row.nanos() / total.nanos(), row.name));
+    }
+}
@@ -0,0 +1,376 @@
+package eu.horako.stemmer.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Runtime counters of one loaded model (dictionary + affix rules).
+ *
+ * The same object may be shared by any number of {@link eu.horako.stemmer.AffixStemmer},
+ * {@link eu.horako.stemmer.AffixExpander} and {@link eu.horako.stemmer.lucene.StemFilter}
+ * instances. Processors without metrics attached don't touch any counter,
+ * so the instrumentation costs nothing when disabled.
+ *
+ * Usage:
+ * <pre>
+ * StemmerMetrics metrics = new StemmerMetrics("czech");
+ * metrics.register();
+ * stemmer.setMetrics(metrics);
+ * ...
+ * metrics.unregister(); // the MBean server keeps the metrics otherwise
+ * </pre>
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class StemmerMetrics implements StemmerMetricsMBean {
+    public static final String JMX_DOMAIN = "eu.horako.stemmer";
+    private static final AtomicLong instances = new AtomicLong(); // the id of the MBean
+
+    private final String modelName;
+    private ObjectName objectName = null;
+
+    private final LongAdder stemCalls = new LongAdder();
+    private final LongAdder stemsReturned = new LongAdder();
+    private final LongAdder firstStepCandidates = new LongAdder();
+    private final LongAdder reductionSteps = new LongAdder();
+    private final LongAdder prunedCandidates = new LongAdder();
+    private final LongAdder shapeRejections = new LongAdder();
+    private final LongAdder dictionaryProbes = new LongAdder();
+    private final LongAdder dictionaryHits = new LongAdder();
+    private final LongAdder crossProductPairs = new LongAdder();
+    private final LongAdder reductionLimitHits = new LongAdder();
+    private final LatencyHistogram stemLatency = new LatencyHistogram();
+
+    private final LongAdder expandCalls = new LongAdder();
+    private final LongAdder expandedForms = new LongAdder();
+    private final LongAdder expandCrossProductPairs = new LongAdder();
+    private final LatencyHistogram expandLatency = new LatencyHistogram();
+
+    private final LongAdder filterTokens = new LongAdder();
+    private final LongAdder filterStemTokens = new LongAdder();
+    private final LongAdder filterCacheHits = new LongAdder();
+    private final LongAdder filterCacheMisses = new LongAdder();
+
+    private final LongAdder bloomFilterPassed = new LongAdder();
+    private final LongAdder bloomFilterRejected = new LongAdder();
+    private final LongAdder bloomFilterFalsePositives = new LongAdder();
+    private volatile long bloomFilterSizeBytes = 0;
+    private volatile double bloomFilterOccupancy = 0;
+
+    public StemmerMetrics(String modelName) {
+        this.modelName = modelName;
+    }
+
+    /**
+     * Record one finished stem() call.
+     * @param stats work counters of the call
+     * @param stems number of stems returned
+     * @param nanos duration of the call
+     */
+    public void recordStem(CallStats stats, int stems, long nanos) {
+        this.stemCalls.increment();
+        this.stemsReturned.add(stems);
+        this.firstStepCandidates.add(stats.firstStepCandidates);
+        this.reductionSteps.add(stats.reductionSteps);
+        this.prunedCandidates.add(stats.prunedCandidates);
+        this.shapeRejections.add(stats.shapeRejections);
+        this.dictionaryProbes.add(stats.dictionaryProbes);
+        this.dictionaryHits.add(stats.dictionaryHits);
+        this.crossProductPairs.add(stats.crossProductPairs);
+        if(stats.reductionLimitHits > 0) { this.reductionLimitHits.increment(); }
+        this.stemLatency.record(nanos);
+    }
+
+    /**
+     * Record one finished expand() call.
+     * @param stats work counters of the call
+     * @param forms number of word forms returned
+     * @param nanos duration of the call
+     */
+    public void recordExpand(CallStats stats, int forms, long nanos) {
+        this.expandCalls.increment();
+        this.expandedForms.add(forms);
+        this.expandCrossProductPairs.add(stats.crossProductPairs);
+        this.expandLatency.record(nanos);
+    }
+
+    /**
+     * Record one token processed by a token filter.
+     * @param stemTokens number of stem tokens emitted for the input token
+     */
+    public void recordFilterToken(int stemTokens) {
+        this.filterTokens.increment();
+        this.filterStemTokens.add(stemTokens);
+    }
+
+    /**
+     * Record the memo cache lookups of a token filter since its last report.
+     * @param hits terms found in the cache
+     * @param misses terms stemmed
+     */
+    public void recordFilterCache(long hits, long misses) {
+        this.filterCacheHits.add(hits);
+        this.filterCacheMisses.add(misses);
+    }
+
+    /**
+     * Record one query of the Bloom filter of the dictionary.
+     * @param passed true if the filter let the query through to the dictionary
+     */
+    public void recordBloomFilter(boolean passed) {
+        if(passed) { this.bloomFilterPassed.increment(); }
+        else { this.bloomFilterRejected.increment(); }
+    }
+
+    /**
+     * Record a query passed by the Bloom filter but not found in the dictionary.
+     */
+    public void recordBloomFalsePositive() {
+        this.bloomFilterFalsePositives.increment();
+    }
+
+    /**
+     * @param sizeBytes size of the Bloom filter of the current model; 0 - no filter
+     * @param occupancy fraction of the bits of the filter set
+     */
+    public void setBloomFilter(long sizeBytes, double occupancy) {
+        this.bloomFilterSizeBytes = sizeBytes;
+        this.bloomFilterOccupancy = occupancy;
+    }
+
+    public LatencyHistogram getStemLatency() {
+        return this.stemLatency;
+    }
+
+    public LatencyHistogram getExpandLatency() {
+        return this.expandLatency;
+    }
+
+    /**
+     * Register this object in the platform MBean server as
+     * <code>eu.horako.stemmer:type=StemmerMetrics,name=&lt;modelName&gt;,id=&lt;n&gt;</code>.
+     * Every instance gets an MBean of its own, also when the model name is
+     * shared (e.g. by the index and query analyzers of one field type); call
+     * {@link #unregister()} when the metrics are no longer used.
+     *
+     * @return name of the registered MBean
+     * @throws JMException when the registration fails
+     */
+    public synchronized ObjectName register() throws JMException {
+        if(this.objectName != null) { return this.objectName; }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(JMX_DOMAIN + ":type=StemmerMetrics,name=" + ObjectName.quote(this.modelName) +
+                ",id=" + instances.incrementAndGet());
+        server.registerMBean(this, name);
+        this.objectName = name;
+        return name;
+    }
+
+    /**
+     * @return name of the MBean; null when not registered
+     */
+    public synchronized ObjectName getObjectName() {
+        return this.objectName;
+    }
+
+    public synchronized void unregister() throws JMException {
+        if(this.objectName == null) { return; }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if(server.isRegistered(this.objectName)) {
+            server.unregisterMBean(this.objectName);
+        }
+        this.objectName = null;
+    }
+
+    @Override
+    public String getModelName() {
+        return this.modelName;
+    }
+
+    @Override
+    public long getStemCalls() {
+        return this.stemCalls.sum();
+    }
+
+    @Override
+    public long getStemsReturned() {
+        return this.stemsReturned.sum();
+    }
+
+    @Override
+    public long getFirstStepCandidates() {
+        return this.firstStepCandidates.sum();
+    }
+
+    @Override
+    public long getReductionSteps() {
+        return this.reductionSteps.sum();
+    }
+
+    @Override
+    public long getPrunedCandidates() {
+        return this.prunedCandidates.sum();
+    }
+
+    @Override
+    public long getShapeRejections() {
+        return this.shapeRejections.sum();
+    }
+
+    @Override
+    public long getDictionaryProbes() {
+        return this.dictionaryProbes.sum();
+    }
+
+    @Override
+    public long getDictionaryHits() {
+        return this.dictionaryHits.sum();
+    }
+
+    @Override
+    public long getCrossProductPairs() {
+        return this.crossProductPairs.sum();
+    }
+
+    @Override
+    public long getReductionLimitHits() {
+        return this.reductionLimitHits.sum();
+    }
+
+    @Override
+    public double getStemLatencyMeanMicros() {
+        return this.stemLatency.getMean() / 1000.0;
+    }
+
+    @Override
+    public double getStemLatencyP50Micros() {
+        return this.stemLatency.getValueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getStemLatencyP90Micros() {
+        return this.stemLatency.getValueAtPercentile(90) / 1000.0;
+    }
+
+    @Override
+    public double getStemLatencyP99Micros() {
+        return this.stemLatency.getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getStemLatencyP999Micros() {
+        return this.stemLatency.getValueAtPercentile(99.9) / 1000.0;
+    }
+
+    @Override
+    public double getStemLatencyMaxMicros() {
+        return this.stemLatency.getMax() / 1000.0;
+    }
+
+    @Override
+    public long getExpandCalls() {
+        return this.expandCalls.sum();
+    }
+
+    @Override
+    public long getExpandedForms() {
+        return this.expandedForms.sum();
+    }
+
+    @Override
+    public long getExpandCrossProductPairs() {
+        return this.expandCrossProductPairs.sum();
+    }
+
+    @Override
+    public double getExpandLatencyP50Micros() {
+        return this.expandLatency.getValueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getExpandLatencyP99Micros() {
+        return this.expandLatency.getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public long getBloomFilterPassed() {
+        return this.bloomFilterPassed.sum();
+    }
+
+    @Override
+    public long getBloomFilterRejected() {
+        return this.bloomFilterRejected.sum();
+    }
+
+    @Override
+    public long getBloomFilterFalsePositives() {
+        return this.bloomFilterFalsePositives.sum();
+    }
+
+    @Override
+    public long getBloomFilterSizeBytes() {
+        return this.bloomFilterSizeBytes;
+    }
+
+    @Override
+    public double getBloomFilterOccupancy() {
+        return this.bloomFilterOccupancy;
+    }
+
+    @Override
+    public long getFilterTokens() {
+        return this.filterTokens.sum();
+    }
+
+    @Override
+    public long getFilterStemTokens() {
+        return this.filterStemTokens.sum();
+    }
+
+    @Override
+    public long getFilterCacheHits() {
+        return this.filterCacheHits.sum();
+    }
+
+    @Override
+    public long getFilterCacheMisses() {
+        return this.filterCacheMisses.sum();
+    }
+
+    @Override
+    public double getFilterCacheHitRate() {
+        long hits = this.filterCacheHits.sum();
+        long lookups = hits + this.filterCacheMisses.sum();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public void reset() {
+        this.stemCalls.reset();
+        this.stemsReturned.reset();
+        this.firstStepCandidates.reset();
+        this.reductionSteps.reset();
+        this.prunedCandidates.reset();
+        this.shapeRejections.reset();
+        this.dictionaryProbes.reset();
+        this.dictionaryHits.reset();
+        this.crossProductPairs.reset();
+        this.reductionLimitHits.reset();
+        this.stemLatency.reset();
+        this.expandCalls.reset();
+        this.expandedForms.reset();
+        this.expandCrossProductPairs.reset();
+        this.expandLatency.reset();
+        this.filterTokens.reset();
+        this.filterStemTokens.reset();
+        this.filterCacheHits.reset();
+        this.filterCacheMisses.reset();
+        this.bloomFilterPassed.reset();
+        this.bloomFilterRejected.reset();
+        this.bloomFilterFalsePositives.reset();
+    }
+}
@@ -0,0 +1,47 @@
+package eu.horako.stemmer.metrics;
+
+/**
+ * JMX view of {@link StemmerMetrics}. Latencies are in microseconds.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public interface StemmerMetricsMBean {
+    public String getModelName();
+
+    public long getStemCalls();
+    public long getStemsReturned();
+    public long getFirstStepCandidates();
+    public long getReductionSteps();
+    public long getPrunedCandidates();
+    public long getShapeRejections();
+    public long getDictionaryProbes();
+    public long getDictionaryHits();
+    public long getCrossProductPairs();
+    public long getReductionLimitHits();
+    public double getStemLatencyMeanMicros();
+    public double getStemLatencyP50Micros();
+    public double getStemLatencyP90Micros();
+    public double getStemLatencyP99Micros();
+    public double getStemLatencyP999Micros();
+    public double getStemLatencyMaxMicros();
+
+    public long getExpandCalls();
+    public long getExpandedForms();
+    public long getExpandCrossProductPairs();
+    public double getExpandLatencyP50Micros();
+    public double getExpandLatencyP99Micros();
+
+    public long getBloomFilterPassed();
+    public long getBloomFilterRejected();
+    public long getBloomFilterFalsePositives();
+    public long getBloomFilterSizeBytes();
+    public double getBloomFilterOccupancy();
+
+    public long getFilterTokens();
+    public long getFilterStemTokens();
+    public long getFilterCacheHits();
+    public long getFilterCacheMisses();
+    public double getFilterCacheHitRate();
+
+    public void reset();
+}
@@ -0,0 +1,301 @@
+package eu.horako.stemmer.run;
+
+import eu.horako.stemmer.AffixExpander;
+import eu.horako.stemmer.AffixRuleSet;
+import eu.horako.stemmer.AffixStemmer;
+import eu.horako.stemmer.Dictionary;
+import eu.horako.stemmer.Pair;
+import eu.horako.stemmer.metrics.LatencyHistogram;
+import gnu.getopt.Getopt;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Throughput benchmark of the stemmer: loads the model once, timing the
+ * load phases, then stems the words of the input over and over on several
+ * threads for a warmup and a measurement period and prints the throughput,
+ * the latency percentiles of the single stem calls, the bytes allocated per
+ * token and the GC time of the measurement as JSON to stdout, so the results
+ * of different dictionaries, JVM flags or releases can be compared.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class BenchRunner extends DictionaryRunner {
+    private String inputFile = null;
+    private int threads = 1;
+    private int warmupSeconds = 5;
+    private int measureSeconds = 20;
+    private boolean expandSticky = false;
+    private boolean compiled = true;
+    private double bloomFilterFpp = 0;
+    private List<String> words;
+
+    @Override
+    public void init(String[] args) throws Exception {
+        parseOptions(args);
+        InputStream input = inputFile == null ? System.in : new FileInputStream(inputFile);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        words = new ArrayList<String>();
+        String line;
+        while((line = reader.readLine()) != null) {
+            line = lowerCase ? line.trim().toLowerCase() : line.trim();
+            if(!line.isEmpty()) { words.add(line); }
+        }
+        reader.close();
+        if(words.isEmpty()) {
+            System.err.println("ERROR: No input words");
+            System.exit(1);
+        }
+        dictAffList = loadDictAffixFiles();
+        if(dictAffList == null || dictAffList.isEmpty()) {
+            System.err.println("ERROR: No dict/affix file pair loaded");
+            System.exit(1);
+        }
+    }
+
+    @Override
+    public void run() throws Exception {
+        long stickyNS = 0;
+        if(expandSticky) {
+            long startNS = System.nanoTime();
+            for(Pair<Dictionary,AffixRuleSet> dictAff : dictAffList) {
+                new AffixExpander(dictAff.second, dictAff.first).expandStickyRules();
+            }
+            stickyNS = System.nanoTime() - startNS;
+        }
+        long startNS = System.nanoTime();
+        for(Pair<Dictionary,AffixRuleSet> dictAff : dictAffList) {
+            dictAff.first.setBloomFilterFpp(bloomFilterFpp);
+        }
+        final AffixStemmer stemmer = createStemmer(dictAffList);
+        stemmer.setCompiled(compiled);
+        long buildNS = System.nanoTime() - startNS;
+        dictAffList = null;
+
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        final boolean allocation = threadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean)threadBean).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean)threadBean).isThreadAllocatedMemoryEnabled();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final long warmupEndNS = System.nanoTime() + warmupSeconds * 1000000000L;
+        final long endNS = warmupEndNS + measureSeconds * 1000000000L;
+        for(int i = 0; i < threads; i++) {
+            final int offset = (int)((long)i * words.size() / threads);
+            results.add(executor.submit(new Callable<long[]>() {
+                @Override
+                public long[] call() {
+                    return runThread(stemmer, offset, warmupEndNS, endNS, latencies, allocation ? threadBean : null);
+                }
+            }));
+        }
+        sleepUntil(warmupEndNS);
+        long[] gcBefore = gcTotals();
+        sleepUntil(endNS);
+        long tokens = 0;
+        long allocatedBytes = 0;
+        for(Future<long[]> result : results) {
+            long[] r = result.get();
+            tokens += r[0];
+            allocatedBytes += r[1];
+        }
+        long[] gcAfter = gcTotals();
+        executor.shutdown();
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"dictionaries\": ").append(jsonStrings(dictFiles)).append(",\n");
+        json.append("  \"affixFiles\": ").append(jsonStrings(affixFiles)).append(",\n");
+        json.append("  \"options\": {\"lowerCase\": ").append(lowerCase).append(", \"offHeap\": ").append(offHeap)
+                .append(", \"foldDiacritics\": ").append(foldDiacritics).append(", \"compiled\": ").append(compiled)
+                .append(", \"bloomFilterFpp\": ").append(bloomFilterFpp).append(", \"expandSticky\": ").append(expandSticky).append("},\n");
+        json.append("  \"jvm\": {\"version\": ").append(jsonString(System.getProperty("java.vm.version")))
+                .append(", \"vm\": ").append(jsonString(System.getProperty("java.vm.name")))
+                .append(", \"arguments\": ").append(jsonStrings(ManagementFactory.getRuntimeMXBean().getInputArguments()))
+                .append(", \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append("},\n");
+        json.append("  \"loadMs\": {\"affixLoad\": ").append(ms(affixLoadNS)).append(", \"dictionaryLoad\": ").append(ms(dictionaryLoadNS))
+                .append(", \"stickyExpansion\": ").append(expandSticky ? ms(stickyNS) : "null")
+                .append(", \"modelBuild\": ").append(ms(buildNS)).append("},\n");
+        json.append("  \"modelBytes\": ").append(stemmer.ramBytesUsed()).append(",\n");
+        json.append("  \"inputWords\": ").append(words.size()).append(",\n");
+        json.append("  \"threads\": ").append(threads).append(",\n");
+        json.append("  \"warmupSeconds\": ").append(warmupSeconds).append(",\n");
+        json.append("  \"measureSeconds\": ").append(measureSeconds).append(",\n");
+        json.append("  \"tokens\": ").append(tokens).append(",\n");
+        json.append("  \"tokensPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", tokens / (double)measureSeconds)).append(",\n");
+        json.append("  \"latencyNs\": {\"mean\": ").append(String.format(Locale.ROOT, "%.1f", latencies.getMean()))
+                .append(", \"p50\": ").append(latencies.getValueAtPercentile(50))
+                .append(", \"p90\": ").append(latencies.getValueAtPercentile(90))
+                .append(", \"p99\": ").append(latencies.getValueAtPercentile(99))
+                .append(", \"p999\": ").append(latencies.getValueAtPercentile(99.9))
+                .append(", \"max\": ").append(latencies.getMax()).append("},\n");
+        json.append("  \"allocatedBytesPerToken\": ")
+                .append(allocation && tokens > 0 ? String.format(Locale.ROOT, "%.1f", allocatedBytes / (double)tokens) : "null").append(",\n");
+        json.append("  \"gc\": {\"collections\": ").append(gcAfter[0] - gcBefore[0])
+                .append(", \"timeMs\": ").append(gcAfter[1] - gcBefore[1]).append("}\n");
+        json.append("}");
+
+        PrintStream out = new PrintStream(System.out, false, "UTF-8");
+        out.println(json);
+        out.flush();
+    }
+
+    // stems the words from the offset on until endNS; returns the tokens and the bytes allocated after warmupEndNS
+    private long[] runThread(AffixStemmer stemmer, int offset, long warmupEndNS, long endNS, LatencyHistogram latencies, ThreadMXBean threadBean) {
+        LatencyHistogram local = new LatencyHistogram();
+        long threadId = Thread.currentThread().getId();
+        int next = offset;
+        long nowNS = System.nanoTime();
+        while(nowNS < warmupEndNS) {
+            stemmer.stem(words.get(next));
+            next = next + 1 == words.size() ? 0 : next + 1;
+            nowNS = System.nanoTime();
+        }
+        long allocatedBefore = threadBean == null ? 0 : ((com.sun.management.ThreadMXBean)threadBean).getThreadAllocatedBytes(threadId);
+        long tokens = 0;
+        while(nowNS < endNS) {
+            stemmer.stem(words.get(next));
+            long endCallNS = System.nanoTime();
+            local.record(endCallNS - nowNS);
+            tokens++;
+            next = next + 1 == words.size() ? 0 : next + 1;
+            nowNS = endCallNS;
+        }
+        long allocated = threadBean == null ? 0 : ((com.sun.management.ThreadMXBean)threadBean).getThreadAllocatedBytes(threadId) - allocatedBefore;
+        latencies.add(local);
+        return new long[] {tokens, allocated};
+    }
+
+    private static void sleepUntil(long deadlineNS) throws InterruptedException {
+        long remainingNS;
+        while((remainingNS = deadlineNS - System.nanoTime()) > 0) {
+            Thread.sleep(remainingNS / 1000000, (int)(remainingNS % 1000000));
+        }
+    }
+
+    // number of collections and time spent in them [ms], summed over the collectors
+    private static long[] gcTotals() {
+        long[] totals = new long[2];
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, gc.getCollectionCount());
+            totals[1] += Math.max(0, gc.getCollectionTime());
+        }
+        return totals;
+    }
+
+    private static String ms(long ns) {
+        return String.format(Locale.ROOT, "%.3f", ns / 1e6);
+    }
+
+    private static String jsonStrings(List<String> values) {
+        StringBuilder sb = new StringBuilder("[");
+        for(String v : values) {
+            if(sb.length() > 1) { sb.append(", "); }
+            sb.append(jsonString(v));
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String jsonString(String s) {
+        if(s == null) { return "null"; }
+        StringBuilder sb = new StringBuilder("\"");
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if(c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if(c < 0x20) {
+                sb.append(String.format(Locale.ROOT, "\\u%04x", (int)c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private void parseOptions(String[] inputArgs) {
+        String[] args  = Arrays.copyOf(inputArgs, inputArgs.length);
+        Getopt g = new Getopt("processor", args, "d:a:m:i:t:w:r:b:lofnxh");
+        g.setOpterr(true);
+
+        int opt;
+        boolean printHelp = false;
+        while ((opt = g.getopt()) != -1) {
+            switch(opt) {
+              case 'h':
+                  printHelp = true;
+                  break;
+              case 'm':
+                  break;
+              case 'd':
+                  dictFiles.add(g.getOptarg());
+                  break;
+              case 'a':
+                  affixFiles.add(g.getOptarg());
+                  break;
+              case 'i':
+                  inputFile = g.getOptarg();
+                  break;
+              case 't':
+                  threads = ServeRunner.parsePositive(g.getOptarg(), "threads", false);
+                  break;
+              case 'w':
+                  warmupSeconds = ServeRunner.parsePositive(g.getOptarg(), "warmup seconds", true);
+                  break;
+              case 'r':
+                  measureSeconds = ServeRunner.parsePositive(g.getOptarg(), "measurement seconds", false);
+                  break;
+              case 'b':
+                  try {
+                      bloomFilterFpp = Double.parseDouble(g.getOptarg());
+                  } catch(NumberFormatException ex) {
+                      bloomFilterFpp = -1;
+                  }
+                  if(!(bloomFilterFpp > 0 && bloomFilterFpp < 1)) {
+                      System.err.println("ERROR: false positive probability must be in (0,1)");
+                      System.exit(1);
+                  }
+                  break;
+              case 'l':
+                  lowerCase = true;
+                  break;
+              case 'o':
+                  offHeap = true;
+                  break;
+              case 'f':
+                  foldDiacritics = true;
+                  break;
+              case 'n':
+                  compiled = false;
+                  break;
+              case 'x':
+                  expandSticky = true;
+                  break;
+              case '?':
+                  break;
+              default:
+                  break;
+            }
+        }
+
+        if(printHelp) {
+            Main.printResourceToStderr("help-bench.txt");
+            System.exit(1);
+        }
+    }
+}
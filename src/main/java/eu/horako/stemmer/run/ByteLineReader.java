@@ -0,0 +1,58 @@
+package eu.horako.stemmer.run;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+
+/**
+ * Reads lines of UTF-8 input as raw bytes, without decoding them to chars.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+class ByteLineReader {
+    private final InputStream input;
+    private final BytesRefBuilder line = new BytesRefBuilder();
+
+    ByteLineReader(InputStream input) {
+        this.input = new BufferedInputStream(input);
+    }
+
+    /**
+     * @return next line without the line terminator (valid until the next call) or null at the end of the input
+     * @throws IOException when the input cannot be read
+     */
+    BytesRef readLine() throws IOException {
+        this.line.clear();
+        int b;
+        while((b = this.input.read()) != -1 && b != '\n') {
+            this.line.append((byte)b);
+        }
+        if(b == -1 && this.line.length() == 0) { return null; }
+        if(this.line.length() > 0 && this.line.byteAt(this.line.length() - 1) == '\r') {
+            this.line.setLength(this.line.length() - 1);
+        }
+        return this.line.get();
+    }
+
+    void close() throws IOException {
+        this.input.close();
+    }
+
+    /**
+     * @param s bytes to search in
+     * @param separator bytes to search for
+     * @return offset of the first occurrence of separator in s (relative to s.offset) or -1
+     */
+    static int indexOf(BytesRef s, byte[] separator) {
+        outer:
+        for(int i = 0; i <= s.length - separator.length; i++) {
+            for(int j = 0; j < separator.length; j++) {
+                if(s.bytes[s.offset + i + j] != separator[j]) { continue outer; }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
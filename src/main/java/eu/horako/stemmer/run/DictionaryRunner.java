@@ -4,7 +4,11 @@ import eu.horako.stemmer.AffixExpander;
 import eu.horako.stemmer.AffixFormatException;
 import eu.horako.stemmer.AffixRuleSet;
 import eu.horako.stemmer.AffixStemmer;
+import eu.horako.stemmer.BatchSink;
+import eu.horako.stemmer.DiacriticsFolding;
 import eu.horako.stemmer.Dictionary;
+import eu.horako.stemmer.MultiModelStemmer;
+import eu.horako.stemmer.OffHeapDictionary;
 import eu.horako.stemmer.Pair;
 import gnu.getopt.Getopt;
 import java.io.BufferedReader;
@@ -27,11 +31,17 @@ import java.util.logging.Logger;
  * 
  */
 public class DictionaryRunner implements IRunner {
+    private static final int STEM_BATCH_SIZE = 1024; // lines stemmed at once by stemAll()
+
     protected final List<String> dictFiles = new ArrayList<String>();
     protected final List<String> affixFiles = new ArrayList<String>();
     protected List<Pair<Dictionary,AffixRuleSet>> dictAffList;
     protected boolean lowerCase = false;
+    protected boolean offHeap = false;
+    protected boolean foldDiacritics = false;
     protected String exceptionsFile = null;
+    protected long affixLoadNS = 0; // time spent by loadDictAffixFiles() on the affix files
+    protected long dictionaryLoadNS = 0; // and on the dictionaries
     private int depth = 5;
     private String mode;
     private final String expandSeparator = ":";
@@ -83,7 +93,7 @@ public class DictionaryRunner implements IRunner {
 
     private void parseOptions(String[] inputArgs) {
         String[] args  = Arrays.copyOf(inputArgs, inputArgs.length);
-        Getopt g = new Getopt("processor", args, "d:a:m:p:e:lh");
+        Getopt g = new Getopt("processor", args, "d:a:m:p:e:lofh");
         g.setOpterr(true);
 
         int opt;
@@ -99,6 +109,12 @@ public class DictionaryRunner implements IRunner {
               case 'l':
                   lowerCase = true;
                   break;
+              case 'o':
+                  offHeap = true;
+                  break;
+              case 'f':
+                  foldDiacritics = true;
+                  break;
               case 'd':
                   dictFiles.add(g.getOptarg());
                   break;
@@ -131,7 +147,7 @@ public class DictionaryRunner implements IRunner {
         }
     }
 
-    private List<Pair<Dictionary,AffixRuleSet>> loadDictAffixFiles() {
+    protected List<Pair<Dictionary,AffixRuleSet>> loadDictAffixFiles() {
         List<Pair<Dictionary,AffixRuleSet>> ret = new ArrayList<Pair<Dictionary,AffixRuleSet>>();
 
         if(dictFiles.size() != affixFiles.size()) {
@@ -144,6 +160,7 @@ public class DictionaryRunner implements IRunner {
             String affixFileName = affixFiles.get(i);
                     
             AffixRuleSet ruleSet;
+            long startNS = System.nanoTime();
             try {
                 ruleSet =  new AffixRuleSet(affixFileName, lowerCase);
             } catch (AffixFormatException | IOException ex) {
@@ -152,7 +169,10 @@ public class DictionaryRunner implements IRunner {
                 return null;
             }
             
+            affixLoadNS += System.nanoTime() - startNS;
+
             Dictionary dictionary;
+            startNS = System.nanoTime();
             try {
                 dictionary = new Dictionary(dictFileName, ruleSet, lowerCase);
             } catch (IOException ex) {
@@ -160,6 +180,7 @@ public class DictionaryRunner implements IRunner {
                 System.exit(1);
                 return null;
             }
+            dictionaryLoadNS += System.nanoTime() - startNS;
             
             Logger.getLogger(Main.class.getName()).log(Level.INFO, "Dictionary/Affix file pair loaded: " + dictFileName + " / " + affixFileName);
             
@@ -172,12 +193,13 @@ public class DictionaryRunner implements IRunner {
 
 
     private long expand(BufferedReader reader, int depth, List<Pair<Dictionary,AffixRuleSet>> dictAffs, Set exceptions) throws IOException {
-        List<AffixExpander> expanders = new ArrayList<AffixExpander>();
-        for(Pair<Dictionary,AffixRuleSet> dictAff : dictAffs) {
-            AffixExpander expander = new AffixExpander(dictAff.second,dictAff.first);
-            expander.expandStickyRules();
-            expanders.add(expander); 
+        AffixExpander expander;
+        if(dictAffs.size() == 1) {
+            expander = new AffixExpander(dictAffs.get(0).second,dictAffs.get(0).first);
+        } else { // all pairs expanded in one pass over the merged rules
+            expander = new AffixExpander(MultiModelStemmer.mergeRuleSets(ruleSets(dictAffs)), MultiModelStemmer.mergeDictionaries(dictionaries(dictAffs)));
         }
+        expander.expandStickyRules();
                 
         long count = 0;
         OutputStreamWriter writer = new OutputStreamWriter(System.out, "UTF-8");
@@ -185,10 +207,7 @@ public class DictionaryRunner implements IRunner {
             String word = reader.readLine();
             if(word == null) break;
             word = lowerCase ? word.trim().toLowerCase() : word.trim();
-            Set<String> result = new HashSet<String>();
-            for(AffixExpander expander : expanders) {
-                result.addAll(expander.expand(word, depth));
-            }
+            Set<String> result = expander.expand(word, depth);
             for(String s : result) {
                 String outputStr = word + expandSeparator + s;
                 if(!exceptions.contains(outputStr)) {
@@ -260,35 +279,78 @@ public class DictionaryRunner implements IRunner {
     private long stem(BufferedReader reader, List<Pair<Dictionary,AffixRuleSet>> dictAffs) throws IOException {
         long count = 0;
 
-        List<AffixStemmer> stemmers = new ArrayList<AffixStemmer>();
-        for(Pair<Dictionary,AffixRuleSet> dictAff : dictAffs) {
-            stemmers.add(new AffixStemmer(dictAff.second, dictAff.first));
-        }
+        AffixStemmer stemmer = createStemmer(dictAffs);
         
-        String line;
-        OutputStreamWriter writer = new OutputStreamWriter(System.out, "UTF-8");
-        while(true) {
-            line = reader.readLine();
-            if(line == null) break;
-            line = lowerCase ? line.trim().toLowerCase() : line.trim() ;
-            
-            Set<String> result = new HashSet<String>();
-            for(AffixStemmer stemmer : stemmers) {
-                Set<String> r = stemmer.process(line);
-                if(r == null) continue;
-                result.addAll(r);
+        final StringBuilder output = new StringBuilder();
+        BatchSink sink = new BatchSink() {
+            @Override
+            public void stems(int index, CharSequence word, Set<String> stems) {
+                output.append(word).append(':');
+                for(String s : stems) {
+                    output.append(' ').append(s);
+                }
+                output.append('\n');
             }
-            writer.write(line + ":");
-            for(String s : result) {
-                writer.write(" ");
-                writer.write(s);
+        };
+        String[] batch = new String[STEM_BATCH_SIZE];
+        OutputStreamWriter writer = new OutputStreamWriter(System.out, "UTF-8");
+        boolean end = false;
+        while(!end) {
+            int n = 0;
+            while(n < batch.length) {
+                String line = reader.readLine();
+                if(line == null) {
+                    end = true;
+                    break;
+                }
+                batch[n++] = lowerCase ? line.trim().toLowerCase() : line.trim();
             }
-            writer.write('\n');
-            count++;
+            if(n == 0) break;
+
+            stemmer.stemAll(n == batch.length ? batch : Arrays.copyOf(batch, n), sink);
+            writer.write(output.toString());
+            output.setLength(0);
+            count += n;
         }
+        writer.flush();
         return count;
     }
     
+    /**
+     * @param dictAffs loaded dictionary/affix file pairs
+     * @return stemmer over all the pairs (merged into one model when there are more of them)
+     */
+    protected AffixStemmer createStemmer(List<Pair<Dictionary,AffixRuleSet>> dictAffs) {
+        AffixStemmer stemmer;
+        if(dictAffs.size() == 1) {
+            Dictionary dictionary = dictAffs.get(0).first;
+            dictionary.freeze();
+            stemmer = new AffixStemmer(dictAffs.get(0).second, offHeap ? new OffHeapDictionary(dictionary) : dictionary);
+        } else { // all pairs stemmed in one pass over the merged rules and dictionary
+            stemmer = new MultiModelStemmer(ruleSets(dictAffs), dictionaries(dictAffs), offHeap).getStemmer();
+        }
+        if(foldDiacritics) { // one pass for input with and without diacritics
+            stemmer = new AffixStemmer(new DiacriticsFolding(stemmer.getRuleSet(), stemmer.getDictionary()));
+        }
+        return stemmer;
+    }
+
+    private static List<AffixRuleSet> ruleSets(List<Pair<Dictionary,AffixRuleSet>> dictAffs) {
+        List<AffixRuleSet> ret = new ArrayList<AffixRuleSet>();
+        for(Pair<Dictionary,AffixRuleSet> dictAff : dictAffs) {
+            ret.add(dictAff.second);
+        }
+        return ret;
+    }
+
+    private static List<Dictionary> dictionaries(List<Pair<Dictionary,AffixRuleSet>> dictAffs) {
+        List<Dictionary> ret = new ArrayList<Dictionary>();
+        for(Pair<Dictionary,AffixRuleSet> dictAff : dictAffs) {
+            ret.add(dictAff.first);
+        }
+        return ret;
+    }
+
     private Set<String> loadExceptions(String fileName) {
         Set<String> result = new HashSet<>();
         if(fileName == null) {
@@ -1,16 +1,21 @@
 package eu.horako.stemmer.run;
 
+import eu.horako.stemmer.AffixFormatException;
+import eu.horako.stemmer.AffixRuleSet;
+import eu.horako.stemmer.ByteAffixStemmer;
+import eu.horako.stemmer.Dictionary;
+import eu.horako.stemmer.OffHeapDictionary;
 import gnu.getopt.Getopt;
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -19,7 +24,6 @@ import java.util.TreeMap;
 import java.util.regex.Pattern;
 import org.apache.lucene.util.BytesRef;
 
-import org.apache.lucene.util.BytesRefBuilder;
 import org.apache.lucene.util.CharsRef;
 import org.apache.lucene.util.CharsRefBuilder;
 import org.apache.lucene.util.IntsRefBuilder;
@@ -44,31 +48,21 @@ public class FSTBuilder implements IRunner {
     private String textFile = null;
     private String fstFile = null;
     private String mode = null;
-    private Writer output;
+    private String dictFile = null;
+    private String affixFile = null;
+    private ByteAffixStemmer stemmer = null;
+    private OutputStream output;
 
-    private class StringMultimap extends TreeMap<String,Set<String>> {
-        public void put(String k,String v) {
+    // keys kept as UTF-8 bytes - their order is the order required by the FST builder
+    private class BytesMultimap extends TreeMap<BytesRef,Set<String>> {
+        public void put(BytesRef k,String v) {
             Set<String> values = get(k);
             if(values == null) {
                 values = new HashSet<String>();
-                put(k,values);
+                put(BytesRef.deepCopyOf(k),values);
             }
             values.add(v);
         }
-        
-        public String getJoined(String k, String separator) {
-            Set<String> values = get(k);
-            if(values == null) return null;
-            if(values.size()==1) return values.iterator().next();
-            StringBuilder sb = new StringBuilder();
-            boolean first = true;
-            for(String s : values) {
-                if(!first) sb.append(separator);
-                else first = false;
-                sb.append(s);
-            }
-            return sb.toString();
-        }
     }
 
     @Override
@@ -81,31 +75,32 @@ public class FSTBuilder implements IRunner {
     @Override
     public void run() throws Exception {
         FST<CharsRef> fst;
-        BufferedReader input;
+        ByteLineReader input;
         switch(mode) {
             case "fstbuild":
-                if(textFile != null) {
-                    input = new BufferedReader(new FileReader(textFile));
-                } else {
-                    input = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
-                }
+                input = new ByteLineReader(textFile != null ? new FileInputStream(textFile) : System.in);
                 fst = createFST(input);
                 saveFST(fst, fstFile);
                 break;
             case "fstcheck":
             case "fstsearch":
                 fst = loadFST(fstFile);
-                if(textFile != null) {
-                    input = new BufferedReader(new FileReader(textFile));
-                } else {
-                    input = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+                if(dictFile != null && affixFile != null) {
+                    stemmer = createStemmer(dictFile, affixFile);
                 }
-                output = new OutputStreamWriter(System.out, "UTF-8");
+                input = new ByteLineReader(textFile != null ? new FileInputStream(textFile) : System.in);
+                output = new BufferedOutputStream(System.out);
                 checkFST(fst, input, output);
                 output.close();
                 break;
         }
     }
+
+    private ByteAffixStemmer createStemmer(String dictFile, String affixFile) throws IOException, AffixFormatException {
+        AffixRuleSet ruleSet = new AffixRuleSet(affixFile, false);
+        Dictionary dictionary = new Dictionary(dictFile, ruleSet, false);
+        return new ByteAffixStemmer(ruleSet, new OffHeapDictionary(dictionary));
+    }
     
     public String join(Collection<String> values, String separator) {
         if(values == null) return null;
@@ -128,54 +123,41 @@ public class FSTBuilder implements IRunner {
         valuesSeparator = s;
     }
     
-    private class StringPair {
-        public String key;
-        public String value;
-
-        public StringPair(String k, String v) {
-            key = k;
-            value = v;
-        }
-    }
-
     public FSTBuilder() {
     }
 
 
-    private StringPair getNextPair(BufferedReader reader) throws IOException {
-        while(true) {
-            String line = reader.readLine();
-            if(line == null) return null;
-            String[] keyValue = inputSeparatorPattern.split(line,2);
-            if(keyValue.length != 2 || keyValue[0].isEmpty()) { // read next line
-                    continue;
-            }
-            return new StringPair(keyValue[0],keyValue[1]);
-        }
-    }
-    
-    
-    public FST<CharsRef> createFST(BufferedReader reader) throws IOException {
+    /**
+     * Builds the FST from lines "key:value"; the keys are used as UTF-8 bytes
+     * just as they were read, only the values are decoded.
+     * @param reader input
+     * @return the FST
+     * @throws IOException when the input cannot be read
+     */
+    public FST<CharsRef> createFST(ByteLineReader reader) throws IOException {
         CharSequenceOutputs outputs = CharSequenceOutputs.getSingleton();
         Builder<CharsRef> builder = 
                 new Builder(FST.INPUT_TYPE.BYTE1, 0, 0, true, true, Integer.MAX_VALUE, outputs, true, 15); 
-        BytesRefBuilder scratchBytes = new BytesRefBuilder();
         IntsRefBuilder scratchInts = new IntsRefBuilder();
+        byte[] separator = inputSeparator.getBytes(StandardCharsets.UTF_8);
  
-        StringMultimap smm = new StringMultimap();
+        BytesMultimap bmm = new BytesMultimap();
         while(true) {
-            StringPair p = getNextPair(reader);
-            if(p == null) break;
-            smm.put(p.key, p.value);
+            BytesRef line = reader.readLine();
+            if(line == null) break;
+            int sep = ByteLineReader.indexOf(line, separator);
+            if(sep <= 0) { // no key - read next line
+                continue;
+            }
+            String value = new String(line.bytes, line.offset + sep + separator.length, line.length - sep - separator.length, StandardCharsets.UTF_8);
+            bmm.put(new BytesRef(line.bytes, line.offset, sep), value);
         }
 
-        for(Map.Entry<String,Set<String>> e : smm.entrySet()) {
-            String key = e.getKey();
+        for(Map.Entry<BytesRef,Set<String>> e : bmm.entrySet()) {
             String value = join(e.getValue(),valuesSeparator); 
-            scratchBytes.copyChars(key);             
             CharsRefBuilder chrefs = new CharsRefBuilder();
             chrefs.copyChars(value.toCharArray(),0,value.length()); 
-            builder.add(Util.toIntsRef(scratchBytes.get(), scratchInts), chrefs.get());
+            builder.add(Util.toIntsRef(e.getKey(), scratchInts), chrefs.get());
         }
 
         return builder.finish();        
@@ -189,7 +171,7 @@ public class FSTBuilder implements IRunner {
 
     private void parseOptions(String[] inputArgs) {
         String[] args  = Arrays.copyOf(inputArgs, inputArgs.length);
-        Getopt g = new Getopt("processor", args, "i:t:f:I:T:F:m:h");
+        Getopt g = new Getopt("processor", args, "i:t:f:I:T:F:m:d:a:h");
         g.setOpterr(false);
 
         int opt;
@@ -213,6 +195,12 @@ public class FSTBuilder implements IRunner {
               case 'F':
                   valuesSeparator = g.getOptarg();
                   break;
+              case 'd':
+                  dictFile = g.getOptarg();
+                  break;
+              case 'a':
+                  affixFile = g.getOptarg();
+                  break;
               case 'm':
                   mode = g.getOptarg();
               case '?':
@@ -231,22 +219,31 @@ public class FSTBuilder implements IRunner {
         }
     }
     
-    private void checkFST(FST<CharsRef> fst, BufferedReader input, Writer output) throws IOException {
+    // the input is looked up (and stemmed, with a stemmer set) as UTF-8 bytes
+    private void checkFST(FST<CharsRef> fst, ByteLineReader input, OutputStream output) throws IOException {
+        byte[] separator = inputSeparator.getBytes(StandardCharsets.UTF_8);
         while(true) {
-            String s = input.readLine();
+            BytesRef s = input.readLine();
             if(s == null) {
                 break;
             }
-            List<String> values = getValuesFromFST(s, fst);
+            Collection<BytesRef> keys = stemmer == null ? null : stemmer.stem(s);
+            if(keys == null || keys.isEmpty()) {
+                keys = Collections.singletonList(s);
+            }
+            List<String> values = new ArrayList<String>();
+            for(BytesRef key : keys) {
+                values.addAll(getValuesFromFST(key, fst));
+            }
             if(values.isEmpty()) {
-                output.write(s);
-                output.write("\n");
+                output.write(s.bytes, s.offset, s.length);
+                output.write('\n');
             } else {
                 for(String v : values) {
-                    output.write(s);
-                    output.write(inputSeparator);
-                    output.write(v);
-                    output.write("\n");
+                    output.write(s.bytes, s.offset, s.length);
+                    output.write(separator);
+                    output.write(v.getBytes(StandardCharsets.UTF_8));
+                    output.write('\n');
                 }
             }
         }
@@ -259,15 +256,15 @@ public class FSTBuilder implements IRunner {
         return fst;
     }
 
-    private List<String> getValuesFromFST(String key, FST<CharsRef> fst) {
+    private List<String> getValuesFromFST(BytesRef key, FST<CharsRef> fst) {
         try {
-            CharsRef charsRef = Util.get(fst, new BytesRef(key));
+            CharsRef charsRef = Util.get(fst, key);
             if(charsRef == null) {
                 return new ArrayList<>();
             }
             return Arrays.asList(valuesSeparatorPattern.split(charsRef.toString()));
         } catch (IOException ex) {
-            logger.warn("Cannot get string from FST (key='" + key + "'", ex);
+            logger.warn("Cannot get string from FST (key='" + key.utf8ToString() + "'", ex);
             return new ArrayList<>();
         }
         
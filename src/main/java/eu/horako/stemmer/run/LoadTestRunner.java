@@ -0,0 +1,164 @@
+package eu.horako.stemmer.run;
+
+import eu.horako.stemmer.server.StemClient;
+import gnu.getopt.Getopt;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load test of a running stem server (see {@link ServeRunner}): several
+ * connections send batches of words taken from the input as fast as they are
+ * answered; the latency percentiles of the requests and the throughput are
+ * printed to stdout.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class LoadTestRunner implements IRunner {
+    private String host = "127.0.0.1";
+    private int port = 7373;
+    private int connections = 4;
+    private int batchSize = 20;
+    private int requests = 10000;
+    private int warmupRequests = 1000;
+    private String inputFile = null;
+    private List<String> words;
+
+    @Override
+    public void init(String[] args) throws Exception {
+        parseOptions(args);
+        InputStream input = inputFile == null ? System.in : new FileInputStream(inputFile);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        words = new ArrayList<String>();
+        String line;
+        while((line = reader.readLine()) != null) {
+            line = line.trim();
+            if(!line.isEmpty()) { words.add(line); }
+        }
+        reader.close();
+        if(words.isEmpty()) {
+            System.err.println("ERROR: No input words");
+            System.exit(1);
+        }
+    }
+
+    @Override
+    public void run() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(connections);
+        List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+        long startNS = System.nanoTime();
+        for(int i = 0; i < connections; i++) {
+            final int offset = (int)((long)i * words.size() / connections);
+            results.add(executor.submit(new Callable<long[]>() {
+                @Override
+                public long[] call() throws Exception {
+                    return runConnection(offset);
+                }
+            }));
+        }
+        long[] latencies = new long[connections * requests];
+        int n = 0;
+        for(Future<long[]> result : results) {
+            long[] l = result.get();
+            System.arraycopy(l, 0, latencies, n, l.length);
+            n += l.length;
+        }
+        long elapsedNS = System.nanoTime() - startNS;
+        executor.shutdown();
+
+        Arrays.sort(latencies);
+        long measuredNS = 0;
+        for(long l : latencies) { measuredNS += l; }
+        double seconds = measuredNS / 1e9 / connections; // time spent on the measured requests per connection
+        System.out.println(String.format(Locale.ROOT, "connections: %d, batch size: %d, requests: %d (+%d warmup per connection), total time: %.3f s",
+                connections, batchSize, latencies.length, warmupRequests, elapsedNS / 1e9));
+        System.out.println(String.format(Locale.ROOT, "throughput: %.0f requests/s, %.0f tokens/s",
+                latencies.length / seconds, (double)latencies.length * batchSize / seconds));
+        System.out.println(String.format(Locale.ROOT, "latency [ms]: p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f",
+                percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e6));
+    }
+
+    private long[] runConnection(int offset) throws Exception {
+        long[] latencies = new long[requests];
+        List<String> batch = new ArrayList<String>(batchSize);
+        int next = offset;
+        try(StemClient client = new StemClient(host, port)) {
+            for(int r = -warmupRequests; r < requests; r++) {
+                batch.clear();
+                for(int i = 0; i < batchSize; i++) {
+                    batch.add(words.get(next));
+                    next = (next + 1) % words.size();
+                }
+                long startNS = System.nanoTime();
+                client.stem(batch);
+                if(r >= 0) {
+                    latencies[r] = System.nanoTime() - startNS;
+                }
+            }
+        }
+        return latencies;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int idx = (int)Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(idx, sorted.length - 1))] / 1e6;
+    }
+
+    private void parseOptions(String[] inputArgs) {
+        String[] args  = Arrays.copyOf(inputArgs, inputArgs.length);
+        Getopt g = new Getopt("processor", args, "m:H:p:t:b:n:w:i:h");
+        g.setOpterr(true);
+
+        int opt;
+        boolean printHelp = false;
+        while ((opt = g.getopt()) != -1) {
+            switch(opt) {
+              case 'h':
+                  printHelp = true;
+                  break;
+              case 'm':
+                  break;
+              case 'H':
+                  host = g.getOptarg();
+                  break;
+              case 'p':
+                  port = ServeRunner.parsePositive(g.getOptarg(), "port", false);
+                  break;
+              case 't':
+                  connections = ServeRunner.parsePositive(g.getOptarg(), "connections", false);
+                  break;
+              case 'b':
+                  batchSize = ServeRunner.parsePositive(g.getOptarg(), "batch size", false);
+                  break;
+              case 'n':
+                  requests = ServeRunner.parsePositive(g.getOptarg(), "requests", false);
+                  break;
+              case 'w':
+                  warmupRequests = ServeRunner.parsePositive(g.getOptarg(), "warmup requests", true);
+                  break;
+              case 'i':
+                  inputFile = g.getOptarg();
+                  break;
+              case '?':
+                  break;
+              default:
+                  break;
+            }
+        }
+
+        if(printHelp) {
+            Main.printResourceToStderr("help-loadtest.txt");
+            System.exit(1);
+        }
+    }
+}
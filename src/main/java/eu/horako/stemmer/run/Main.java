@@ -47,6 +47,24 @@ public class Main {
                 case "fstsearch":
                     runner = new FSTBuilder();
                     break;
+                case "serve":
+                    runner = new ServeRunner();
+                    break;
+                case "loadtest":
+                    runner = new LoadTestRunner();
+                    break;
+                case "optimize":
+                    runner = new OptimizeRunner();
+                    break;
+                case "profile":
+                    runner = new ProfileRunner();
+                    break;
+                case "stats":
+                    runner = new StatsRunner();
+                    break;
+                case "bench":
+                    runner = new BenchRunner();
+                    break;
                 default:
                     System.err.println("Unknown mode: " + mode);
                     return;
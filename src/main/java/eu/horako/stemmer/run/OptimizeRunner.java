@@ -0,0 +1,111 @@
+package eu.horako.stemmer.run;
+
+import eu.horako.stemmer.AffixRuleSet;
+import eu.horako.stemmer.Dictionary;
+import eu.horako.stemmer.RuleSetOptimizer;
+import gnu.getopt.Getopt;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes an optimized copy of an affix file (see {@link RuleSetOptimizer})
+ * and verifies that it expands the dictionary to the same forms as the
+ * original one.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class OptimizeRunner implements IRunner {
+    private static final int MAX_REPORTED_MISMATCHES = 20;
+
+    private String dictFile = null;
+    private String affixFile = null;
+    private String outputFile = null;
+    private int depth = 5;
+
+    @Override
+    public void init(String[] args) throws Exception {
+        parseOptions(args);
+        if(dictFile == null || affixFile == null || outputFile == null) {
+            System.err.println("ERROR: Dictionary, affix file and output file must be set");
+            Main.printResourceToStderr("help-optimize.txt");
+            System.exit(1);
+        }
+    }
+
+    @Override
+    public void run() throws Exception {
+        Logger logger = Logger.getLogger(Main.class.getName());
+        AffixRuleSet ruleSet = new AffixRuleSet(affixFile, false);
+        RuleSetOptimizer optimizer = new RuleSetOptimizer(ruleSet, new Dictionary(dictFile, ruleSet, false), depth);
+        optimizer.analyze();
+        int written;
+        try(Reader in = new InputStreamReader(new FileInputStream(affixFile), "UTF-8");
+                Writer out = new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8")) {
+            written = optimizer.write(in, out);
+        }
+        logger.log(Level.INFO, "Rules: " + ruleSet.getRules().size() + " -> " + written + ", dropped/merged: " + optimizer.getChangeCounts());
+
+        AffixRuleSet optimized = new AffixRuleSet(outputFile, false);
+        Map<String,Long> expected = optimizer.getDigest();
+        Map<String,Long> actual = RuleSetOptimizer.expansionDigest(optimized, new Dictionary(dictFile, optimized, false), depth);
+        int mismatches = 0;
+        for(Map.Entry<String,Long> e : expected.entrySet()) {
+            if(e.getValue().equals(actual.get(e.getKey()))) { continue; }
+            if(++mismatches <= MAX_REPORTED_MISMATCHES) {
+                logger.log(Level.WARNING, "Expansion differs for: " + e.getKey());
+            }
+        }
+        if(mismatches > 0 || actual.size() != expected.size()) {
+            logger.log(Level.SEVERE, "Verification failed: " + mismatches + " of " + expected.size() + " words expand differently");
+            System.exit(1);
+        }
+        logger.log(Level.INFO, "Verified: " + expected.size() + " words expand to the same forms");
+    }
+
+    private void parseOptions(String[] inputArgs) {
+        String[] args  = Arrays.copyOf(inputArgs, inputArgs.length);
+        Getopt g = new Getopt("processor", args, "m:d:a:w:p:h");
+        g.setOpterr(true);
+
+        int opt;
+        boolean printHelp = false;
+        while ((opt = g.getopt()) != -1) {
+            switch(opt) {
+              case 'h':
+                  printHelp = true;
+                  break;
+              case 'm':
+                  break;
+              case 'd':
+                  dictFile = g.getOptarg();
+                  break;
+              case 'a':
+                  affixFile = g.getOptarg();
+                  break;
+              case 'w':
+                  outputFile = g.getOptarg();
+                  break;
+              case 'p':
+                  depth = ServeRunner.parsePositive(g.getOptarg(), "depth", false);
+                  break;
+              case '?':
+                  break;
+              default:
+                  break;
+            }
+        }
+
+        if(printHelp) {
+            Main.printResourceToStderr("help-optimize.txt");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package eu.horako.stemmer.run;
+
+import eu.horako.stemmer.AffixExpander;
+import eu.horako.stemmer.AffixRuleSet;
+import eu.horako.stemmer.AffixStemmer;
+import eu.horako.stemmer.Dictionary;
+import eu.horako.stemmer.metrics.RuleProfile;
+import gnu.getopt.Getopt;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stems a corpus (and optionally expands the whole dictionary) with a
+ * {@link RuleProfile} attached and prints the flags and rules ranked by the
+ * time spent on them, to find the rules that make the stemming slow.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class ProfileRunner implements IRunner {
+    private String dictFile = null;
+    private String affixFile = null;
+    private String inputFile = null;
+    private boolean lowerCase = false;
+    private boolean expand = false;
+    private int depth = 5;
+    private int top = 30;
+
+    @Override
+    public void init(String[] args) throws Exception {
+        parseOptions(args);
+        if(dictFile == null || affixFile == null) {
+            System.err.println("ERROR: Dictionary and affix file must be set");
+            Main.printResourceToStderr("help-profile.txt");
+            System.exit(1);
+        }
+    }
+
+    @Override
+    public void run() throws Exception {
+        AffixRuleSet ruleSet = new AffixRuleSet(affixFile, lowerCase);
+        RuleProfile profile = new RuleProfile(ruleSet);
+
+        if(expand) {
+            Dictionary dictionary = new Dictionary(dictFile, ruleSet, lowerCase);
+            AffixExpander expander = new AffixExpander(ruleSet, dictionary);
+            expander.expandStickyRules();
+            expander.setProfile(profile);
+            long startNS = System.nanoTime();
+            int lemmas = 0;
+            for(String word : new ArrayList<String>(dictionary.getWords())) {
+                expander.expand(word, depth);
+                lemmas++;
+            }
+            Logger.getLogger(Main.class.getName()).log(Level.INFO, String.format(Locale.ROOT, "Expanded %d lemmas in %.3f s",
+                    lemmas, (System.nanoTime() - startNS) / 1e9));
+        }
+
+        Dictionary dictionary = new Dictionary(dictFile, ruleSet, lowerCase);
+        dictionary.freeze();
+        AffixStemmer stemmer = new AffixStemmer(ruleSet, dictionary);
+        stemmer.setProfile(profile);
+        InputStream input = inputFile == null ? System.in : new FileInputStream(inputFile);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        long startNS = System.nanoTime();
+        long words = 0;
+        String line;
+        while((line = reader.readLine()) != null) {
+            String word = lowerCase ? line.trim().toLowerCase() : line.trim();
+            if(word.isEmpty()) { continue; }
+            stemmer.stem(word);
+            words++;
+        }
+        reader.close();
+        Logger.getLogger(Main.class.getName()).log(Level.INFO, String.format(Locale.ROOT, "Stemmed %d words in %.3f s",
+                words, (System.nanoTime() - startNS) / 1e9));
+
+        PrintStream out = new PrintStream(System.out, false, "UTF-8");
+        profile.report(out, top);
+        out.flush();
+    }
+
+    private void parseOptions(String[] inputArgs) {
+        String[] args  = Arrays.copyOf(inputArgs, inputArgs.length);
+        Getopt g = new Getopt("processor", args, "m:d:a:i:p:n:xlh");
+        g.setOpterr(true);
+
+        int opt;
+        boolean printHelp = false;
+        while ((opt = g.getopt()) != -1) {
+            switch(opt) {
+              case 'h':
+                  printHelp = true;
+                  break;
+              case 'm':
+                  break;
+              case 'd':
+                  dictFile = g.getOptarg();
+                  break;
+              case 'a':
+                  affixFile = g.getOptarg();
+                  break;
+              case 'i':
+                  inputFile = g.getOptarg();
+                  break;
+              case 'x':
+                  expand = true;
+                  break;
+              case 'p':
+                  depth = ServeRunner.parsePositive(g.getOptarg(), "depth", false);
+                  break;
+              case 'n':
+                  top = ServeRunner.parsePositive(g.getOptarg(), "number of rules", false);
+                  break;
+              case 'l':
+                  lowerCase = true;
+                  break;
+              case '?':
+                  break;
+              default:
+                  break;
+            }
+        }
+
+        if(printHelp) {
+            Main.printResourceToStderr("help-profile.txt");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package eu.horako.stemmer.run;
+
+import eu.horako.stemmer.AffixStemmer;
+import eu.horako.stemmer.server.StemServer;
+import gnu.getopt.Getopt;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads the dictionary/affix file pairs once and serves stemming requests
+ * over TCP (see {@link StemServer}) until the process is terminated.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class ServeRunner extends DictionaryRunner {
+    private String host = "127.0.0.1";
+    private int port = 7373;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int maxPendingConnections = 64;
+    private int maxBatchTokens = 10000;
+    private int idleSeconds = 60;
+    private boolean compiled = true;
+
+    @Override
+    public void init(String[] args) throws Exception {
+        parseOptions(args);
+        dictAffList = loadDictAffixFiles();
+        if(dictAffList == null || dictAffList.isEmpty()) {
+            System.err.println("ERROR: No dict/affix file pair loaded");
+            System.exit(1);
+        }
+    }
+
+    @Override
+    public void run() throws Exception {
+        AffixStemmer stemmer = createStemmer(dictAffList);
+        stemmer.setCompiled(compiled);
+        dictAffList = null; // the stemmer holds what it needs
+
+        final StemServer server = new StemServer(stemmer, new InetSocketAddress(host, port), threads, maxPendingConnections);
+        server.setLowerCase(lowerCase);
+        server.setMaxBatchTokens(maxBatchTokens);
+        server.setIdleTimeoutMillis((int)Math.min(Integer.MAX_VALUE, idleSeconds * 1000L));
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.shutdown(10000);
+                } catch(InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "stem-server-shutdown"));
+        server.start();
+        Logger.getLogger(ServeRunner.class.getName()).log(Level.INFO, "Serving on " + host + ":" + server.getPort());
+        server.awaitTermination();
+    }
+
+    private void parseOptions(String[] inputArgs) {
+        String[] args  = Arrays.copyOf(inputArgs, inputArgs.length);
+        Getopt g = new Getopt("processor", args, "d:a:m:H:p:t:q:b:i:lofnh");
+        g.setOpterr(true);
+
+        int opt;
+        boolean printHelp = false;
+        while ((opt = g.getopt()) != -1) {
+            switch(opt) {
+              case 'h':
+                  printHelp = true;
+                  break;
+              case 'm':
+                  break;
+              case 'l':
+                  lowerCase = true;
+                  break;
+              case 'o':
+                  offHeap = true;
+                  break;
+              case 'f':
+                  foldDiacritics = true;
+                  break;
+              case 'n':
+                  compiled = false;
+                  break;
+              case 'd':
+                  dictFiles.add(g.getOptarg());
+                  break;
+              case 'a':
+                  affixFiles.add(g.getOptarg());
+                  break;
+              case 'H':
+                  host = g.getOptarg();
+                  break;
+              case 'p':
+                  port = parsePositive(g.getOptarg(), "port", true);
+                  break;
+              case 't':
+                  threads = parsePositive(g.getOptarg(), "threads", false);
+                  break;
+              case 'q':
+                  maxPendingConnections = parsePositive(g.getOptarg(), "pending connections", true);
+                  break;
+              case 'b':
+                  maxBatchTokens = parsePositive(g.getOptarg(), "batch size", false);
+                  break;
+              case 'i':
+                  idleSeconds = parsePositive(g.getOptarg(), "idle timeout", false);
+                  break;
+              case '?':
+                  break;
+              default:
+                  break;
+            }
+        }
+
+        if(printHelp) {
+            Main.printResourceToStderr("help-serve.txt");
+            System.exit(1);
+        }
+    }
+
+    static int parsePositive(String value, String name, boolean zeroAllowed) {
+        try {
+            int n = Integer.parseInt(value);
+            if(n < 0 || n == 0 && !zeroAllowed) throw new NumberFormatException();
+            return n;
+        } catch(NumberFormatException ex) {
+            System.err.println("ERROR: " + name + " must be an integer " + (zeroAllowed ? ">= 0" : "> 0"));
+            System.exit(1);
+            return 0;
+        }
+    }
+}
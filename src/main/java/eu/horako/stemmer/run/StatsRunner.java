@@ -0,0 +1,134 @@
+package eu.horako.stemmer.run;
+
+import eu.horako.stemmer.AffixRuleSet;
+import eu.horako.stemmer.AffixStemmer;
+import eu.horako.stemmer.Dictionary;
+import eu.horako.stemmer.Pair;
+import gnu.getopt.Getopt;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Loads the dictionary/affix file pairs as the stemmer would and prints the
+ * memory taken by the parts of the model (see {@link Accountable}), next to
+ * the growth of the heap measured while loading it.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class StatsRunner extends DictionaryRunner {
+    private boolean compiled = true;
+    private double bloomFilterFpp = 0;
+    private long heapBefore;
+
+    @Override
+    public void init(String[] args) throws Exception {
+        parseOptions(args);
+        heapBefore = usedHeap();
+        dictAffList = loadDictAffixFiles();
+        if(dictAffList == null || dictAffList.isEmpty()) {
+            System.err.println("ERROR: No dict/affix file pair loaded");
+            System.exit(1);
+        }
+    }
+
+    @Override
+    public void run() throws Exception {
+        for(Pair<Dictionary,AffixRuleSet> dictAff : dictAffList) {
+            dictAff.first.setBloomFilterFpp(bloomFilterFpp);
+        }
+        AffixStemmer stemmer = createStemmer(dictAffList);
+        stemmer.setCompiled(compiled);
+        dictAffList = null; // the stemmer holds what it needs
+        long heapGrowth = usedHeap() - heapBefore; // the stemmer is still in use below
+
+        PrintStream out = new PrintStream(System.out, false, "UTF-8");
+        long total = stemmer.ramBytesUsed();
+        print(out, "model", stemmer, 0, total);
+        out.println();
+        out.println(String.format(Locale.ROOT, "estimated: %d bytes (%s), heap growth measured while loading: %d bytes (%s)",
+                total, RamUsageEstimator.humanReadableUnits(total), heapGrowth, RamUsageEstimator.humanReadableUnits(heapGrowth)));
+        out.flush();
+    }
+
+    private static void print(PrintStream out, String name, Accountable a, int depth, long total) {
+        long bytes = a.ramBytesUsed();
+        char[] indent = new char[2 * depth];
+        Arrays.fill(indent, ' ');
+        out.println(String.format(Locale.ROOT, "%-36s %12d %10s %6.1f%%", new String(indent) + name, bytes,
+                RamUsageEstimator.humanReadableUnits(bytes), total == 0 ? 0 : 100.0 * bytes / total));
+        for(Accountable child : a.getChildResources()) {
+            String childName = child.toString();
+            int bracket = childName.indexOf(" ["); // named accountables append the toString() of the wrapped object
+            print(out, bracket < 0 ? childName : childName.substring(0, bracket), child, depth + 1, total);
+        }
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private void parseOptions(String[] inputArgs) {
+        String[] args  = Arrays.copyOf(inputArgs, inputArgs.length);
+        Getopt g = new Getopt("processor", args, "d:a:m:b:lofnh");
+        g.setOpterr(true);
+
+        int opt;
+        boolean printHelp = false;
+        while ((opt = g.getopt()) != -1) {
+            switch(opt) {
+              case 'h':
+                  printHelp = true;
+                  break;
+              case 'm':
+                  break;
+              case 'l':
+                  lowerCase = true;
+                  break;
+              case 'o':
+                  offHeap = true;
+                  break;
+              case 'f':
+                  foldDiacritics = true;
+                  break;
+              case 'n':
+                  compiled = false;
+                  break;
+              case 'd':
+                  dictFiles.add(g.getOptarg());
+                  break;
+              case 'a':
+                  affixFiles.add(g.getOptarg());
+                  break;
+              case 'b':
+                  try {
+                      bloomFilterFpp = Double.parseDouble(g.getOptarg());
+                  } catch(NumberFormatException ex) {
+                      bloomFilterFpp = -1;
+                  }
+                  if(!(bloomFilterFpp > 0 && bloomFilterFpp < 1)) {
+                      System.err.println("ERROR: false positive probability must be in (0,1)");
+                      System.exit(1);
+                  }
+                  break;
+              case '?':
+                  break;
+              default:
+                  break;
+            }
+        }
+
+        if(printHelp) {
+            Main.printResourceToStderr("help-stats.txt");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package eu.horako.stemmer.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Client of {@link StemServer}. One client holds one connection and is not
+ * safe for use by several threads at once; use one client per thread.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class StemClient implements Closeable {
+    private final Socket socket;
+    private final DataInputStream input;
+    private final OutputStream output;
+
+    public StemClient(String host, int port) throws IOException {
+        this(host, port, 0);
+    }
+
+    /**
+     * @param host server host
+     * @param port server port
+     * @param timeoutMillis timeout of connecting and of waiting for a response; 0 - no timeout
+     * @throws IOException when the server cannot be reached
+     */
+    public StemClient(String host, int port, int timeoutMillis) throws IOException {
+        this.socket = new Socket();
+        this.socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+        this.socket.setSoTimeout(timeoutMillis);
+        this.socket.setTcpNoDelay(true);
+        this.input = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+        this.output = new BufferedOutputStream(this.socket.getOutputStream());
+    }
+
+    /**
+     * Stem a batch of tokens in one request.
+     * @param tokens tokens
+     * @return stems of the tokens, in the order of the tokens; a token without stems gets an empty set
+     * @throws IOException when the request fails or the server refuses it
+     */
+    public List<Set<String>> stem(List<String> tokens) throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream(16 * tokens.size() + 4);
+        DataOutputStream out = new DataOutputStream(request);
+        out.writeInt(tokens.size());
+        for(String token : tokens) {
+            StemProtocol.writeString(out, token);
+        }
+        StemProtocol.writeFrame(this.output, request);
+
+        byte[] response = StemProtocol.readFrame(this.input, Integer.MAX_VALUE);
+        if(response == null) {
+            throw new IOException("Connection closed by the server");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(response));
+        byte status = in.readByte();
+        if(status != StemProtocol.STATUS_OK) {
+            throw new IOException((status == StemProtocol.STATUS_BUSY ? "Server busy: " : "Request failed: ") + StemProtocol.readString(in));
+        }
+        int tokenCount = in.readInt();
+        if(tokenCount != tokens.size()) {
+            throw new IOException("Bad response: " + tokenCount + " tokens instead of " + tokens.size());
+        }
+        List<Set<String>> result = new ArrayList<Set<String>>(tokenCount);
+        for(int i = 0; i < tokenCount; i++) {
+            int stemCount = in.readUnsignedShort();
+            Set<String> stems = new LinkedHashSet<String>(stemCount * 2);
+            for(int j = 0; j < stemCount; j++) {
+                stems.add(StemProtocol.readString(in));
+            }
+            result.add(stems);
+        }
+        return result;
+    }
+
+    /**
+     * @param token token
+     * @return stems of the token
+     * @throws IOException when the request fails or the server refuses it
+     */
+    public Set<String> stem(String token) throws IOException {
+        return this.stem(Collections.singletonList(token)).get(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+}
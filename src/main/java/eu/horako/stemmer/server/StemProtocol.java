@@ -0,0 +1,98 @@
+package eu.horako.stemmer.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format of {@link StemServer}. All numbers are big-endian, all
+ * strings are UTF-8. Every message is a frame prefixed by its length:
+ *
+ * <pre>
+ * frame    := int length, byte[length] payload
+ * request  := int tokenCount, tokenCount * string
+ * response := byte status, (status OK: int tokenCount, tokenCount * (ushort stemCount, stemCount * string)
+ *                          | otherwise: string message)
+ * string   := ushort length, byte[length] UTF-8
+ * </pre>
+ *
+ * A connection carries any number of request/response pairs, one at a time.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+final class StemProtocol {
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1; // bad request; the server closes the connection
+    static final byte STATUS_BUSY = 2;  // too many connections; the server closes the connection
+
+    static final int MAX_STRING_BYTES = 0xffff;
+    static final int MAX_STEM_COUNT = 0xffff;
+
+    private StemProtocol() {
+    }
+
+    /**
+     * @param input input
+     * @param maxLength max. accepted frame length
+     * @return payload of the next frame or null at the end of the input
+     * @throws IOException when the input cannot be read or the frame is too long
+     */
+    static byte[] readFrame(DataInputStream input, int maxLength) throws IOException {
+        int b = input.read();
+        if(b == -1) { return null; }
+        int length = (b << 24) | (input.readUnsignedByte() << 16) | (input.readUnsignedByte() << 8) | input.readUnsignedByte();
+        if(length < 0 || length > maxLength) {
+            throw new ProtocolException("Frame length " + length + " out of range 0.." + maxLength);
+        }
+        byte[] payload = new byte[length];
+        input.readFully(payload);
+        return payload;
+    }
+
+    static void writeFrame(OutputStream output, ByteArrayOutputStream payload) throws IOException {
+        DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(payload.size());
+        payload.writeTo(out);
+        out.flush();
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if(bytes.length > MAX_STRING_BYTES) {
+            throw new ProtocolException("String too long: " + bytes.length + " bytes");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readUnsignedShort();
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void checkEnd(DataInputStream in) throws IOException {
+        if(in.read() != -1) {
+            throw new ProtocolException("Unexpected data at the end of the frame");
+        }
+    }
+
+    /**
+     * Malformed message.
+     */
+    static class ProtocolException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ProtocolException(String message) {
+            super(message);
+        }
+
+        ProtocolException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package eu.horako.stemmer.server;
+
+import eu.horako.stemmer.AffixStemmer;
+import eu.horako.stemmer.BatchSink;
+import eu.horako.stemmer.IAffixProcessor;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves a loaded stemmer over TCP, so that the model is parsed and the JIT
+ * warmed up once for any number of short requests. See {@link StemProtocol}
+ * for the wire format and {@link StemClient} for the client.
+ *
+ * Each connection is served by one worker thread of a fixed pool and its
+ * requests are processed one at a time, so a client sending faster than it
+ * is served is held back by TCP flow control. Connections beyond the pool
+ * size wait in a bounded queue; when the queue is full, the connection is
+ * answered by a BUSY response and closed. Requests are limited by the frame
+ * size and the number of tokens. A connection idle for longer than the idle
+ * timeout is closed, so that idle clients don't hold the workers.
+ *
+ * {@link #shutdown(long)} stops accepting connections, lets the requests in
+ * progress be answered and closes the idle connections.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class StemServer implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(StemServer.class);
+    private static final long MAX_ACCEPT_BACKOFF_MILLIS = 1000;
+
+    private final IAffixProcessor stemmer;
+    private final ServerSocket serverSocket;
+    private final ThreadPoolExecutor workers;
+    private final Set<Connection> connections = ConcurrentHashMap.<Connection>newKeySet();
+    private Thread acceptor = null;
+    private volatile boolean running = false;
+    private boolean lowerCase = false;
+    private int maxBatchTokens = 10000;
+    private int maxFrameBytes = 4 * 1024 * 1024;
+    private int idleTimeoutMillis = 60000;
+
+    /**
+     * @param stemmer stemmer; must be safe for use by several threads at once
+     * @param address address to listen on; port 0 chooses a free port
+     * @param threads number of connections served at once
+     * @param maxPendingConnections number of connections waiting for a free worker
+     * @throws IOException when the address cannot be bound
+     */
+    public StemServer(IAffixProcessor stemmer, InetSocketAddress address, int threads, int maxPendingConnections) throws IOException {
+        this.stemmer = stemmer;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(address, threads + maxPendingConnections);
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, maxPendingConnections)), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "stem-server-worker-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Start accepting connections in a background thread.
+     */
+    public synchronized void start() {
+        if(this.acceptor != null) { return; }
+        this.running = true;
+        this.acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "stem-server-acceptor");
+        this.acceptor.start();
+        logger.info("Stem server listening on " + this.serverSocket.getLocalSocketAddress());
+    }
+
+    // a failing accept() (e.g. out of file descriptors) is retried after a
+    // growing pause instead of spinning; a closed server socket ends the loop
+    private void acceptLoop() {
+        int failures = 0;
+        while(this.running) {
+            Socket socket;
+            try {
+                socket = this.serverSocket.accept();
+                failures = 0;
+            } catch(IOException ex) {
+                if(!this.running) { break; }
+                if(this.serverSocket.isClosed()) {
+                    logger.error("Server socket closed, not accepting connections any more", ex);
+                    break;
+                }
+                failures++;
+                long backoff = Math.min(MAX_ACCEPT_BACKOFF_MILLIS, 10L << Math.min(failures - 1, 10));
+                logger.error("Cannot accept connection (" + failures + " failure(s) in a row), retrying in " + backoff + " ms", ex);
+                try {
+                    Thread.sleep(backoff);
+                } catch(InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                continue;
+            }
+            Connection connection = new Connection(socket);
+            try {
+                this.workers.execute(connection);
+            } catch(RejectedExecutionException ex) {
+                connection.reject("Server busy");
+            }
+        }
+    }
+
+    /**
+     * Stop accepting connections, wait for the requests in progress and close
+     * all connections.
+     * @param timeoutMillis max. time to wait for the requests in progress
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        synchronized(this) {
+            if(!this.running) { return; }
+            this.running = false;
+        }
+        try {
+            this.serverSocket.close();
+        } catch(IOException ex) {
+            logger.warn("Cannot close server socket", ex);
+        }
+        this.workers.shutdown();
+        for(Connection connection : this.connections) {
+            connection.closeIfIdle();
+        }
+        if(!this.workers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            logger.warn("Requests not finished in " + timeoutMillis + " ms, closing connections");
+            for(Connection connection : this.connections) {
+                connection.close();
+            }
+            this.workers.shutdownNow();
+        }
+        logger.info("Stem server stopped");
+    }
+
+    /**
+     * Block until the server has been shut down.
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public void awaitTermination() throws InterruptedException {
+        while(!this.workers.awaitTermination(1, TimeUnit.SECONDS)) {
+            // wait
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.shutdown(5000);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return this.connections.size();
+    }
+
+    /**
+     * @param lowerCase true to convert the tokens to lower case before stemming
+     */
+    public void setLowerCase(boolean lowerCase) {
+        this.lowerCase = lowerCase;
+    }
+
+    /**
+     * @param maxBatchTokens max. number of tokens in one request
+     */
+    public void setMaxBatchTokens(int maxBatchTokens) {
+        this.maxBatchTokens = maxBatchTokens;
+    }
+
+    /**
+     * @param maxFrameBytes max. length of one request in bytes
+     */
+    public void setMaxFrameBytes(int maxFrameBytes) {
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    /**
+     * @param idleTimeoutMillis time a connection may wait for the next request
+     *   before it is closed (&gt; 0)
+     */
+    public void setIdleTimeoutMillis(int idleTimeoutMillis) {
+        if(idleTimeoutMillis <= 0) { throw new IllegalArgumentException("idleTimeoutMillis must be > 0"); }
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    private String[] readTokens(byte[] request) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(request));
+        try {
+            int tokenCount = in.readInt();
+            if(tokenCount < 0 || tokenCount > this.maxBatchTokens) {
+                throw new StemProtocol.ProtocolException("Token count " + tokenCount + " out of range 0.." + this.maxBatchTokens);
+            }
+            String[] tokens = new String[tokenCount];
+            for(int i = 0; i < tokenCount; i++) {
+                String token = StemProtocol.readString(in);
+                tokens[i] = this.lowerCase ? token.toLowerCase() : token;
+            }
+            StemProtocol.checkEnd(in);
+            return tokens;
+        } catch(EOFException ex) {
+            throw new StemProtocol.ProtocolException("Truncated request", ex);
+        }
+    }
+
+    private ByteArrayOutputStream process(byte[] request) throws IOException {
+        String[] tokens = this.readTokens(request);
+        int tokenCount = tokens.length;
+
+        final List<Set<String>> results = new ArrayList<Set<String>>(Collections.<Set<String>>nCopies(tokenCount, null));
+        if(this.stemmer instanceof AffixStemmer) { // the batch shares the work on common endings
+            ((AffixStemmer) this.stemmer).stemAll(tokens, new BatchSink() {
+                @Override
+                public void stems(int index, CharSequence word, Set<String> stems) {
+                    results.set(index, stems);
+                }
+            });
+        } else {
+            for(int i = 0; i < tokenCount; i++) {
+                results.set(i, this.stemmer.process(tokens[i]));
+            }
+        }
+
+        ByteArrayOutputStream response = new ByteArrayOutputStream(16 * tokenCount + 8);
+        DataOutputStream out = new DataOutputStream(response);
+        out.writeByte(StemProtocol.STATUS_OK);
+        out.writeInt(tokenCount);
+        for(int i = 0; i < tokenCount; i++) {
+            Set<String> stems = results.get(i);
+            if(stems.size() > StemProtocol.MAX_STEM_COUNT) {
+                throw new StemProtocol.ProtocolException("Too many stems of token " + i + ": " + stems.size());
+            }
+            out.writeShort(stems.size());
+            for(String stem : stems) {
+                StemProtocol.writeString(out, stem);
+            }
+        }
+        return response;
+    }
+
+    private static ByteArrayOutputStream errorResponse(byte status, String message) throws IOException {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(response);
+        out.writeByte(status);
+        StemProtocol.writeString(out, message.length() > 1000 ? message.substring(0, 1000) : message);
+        return response;
+    }
+
+    private class Connection implements Runnable {
+        private final Socket socket;
+        private boolean busy = false; // guarded by this
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            connections.add(this);
+            try {
+                this.socket.setTcpNoDelay(true);
+                this.socket.setSoTimeout(idleTimeoutMillis);
+                DataInputStream input = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+                OutputStream output = new BufferedOutputStream(this.socket.getOutputStream());
+                while(running) {
+                    byte[] request;
+                    try {
+                        request = StemProtocol.readFrame(input, maxFrameBytes);
+                    } catch(StemProtocol.ProtocolException ex) {
+                        StemProtocol.writeFrame(output, errorResponse(StemProtocol.STATUS_ERROR, ex.getMessage()));
+                        break;
+                    }
+                    if(request == null) { break; }
+                    synchronized(this) {
+                        if(this.socket.isClosed()) { break; }
+                        this.busy = true;
+                    }
+                    try {
+                        ByteArrayOutputStream response;
+                        try {
+                            response = process(request);
+                        } catch(StemProtocol.ProtocolException ex) {
+                            StemProtocol.writeFrame(output, errorResponse(StemProtocol.STATUS_ERROR, ex.getMessage()));
+                            break;
+                        }
+                        StemProtocol.writeFrame(output, response);
+                    } finally {
+                        synchronized(this) {
+                            this.busy = false;
+                        }
+                    }
+                }
+            } catch(SocketTimeoutException ex) {
+                logger.debug("Connection " + this.socket.getRemoteSocketAddress() + " idle, closing");
+            } catch(SocketException ex) {
+                logger.debug("Connection " + this.socket.getRemoteSocketAddress() + " closed: " + ex);
+            } catch(IOException | RuntimeException ex) {
+                logger.warn("Connection " + this.socket.getRemoteSocketAddress() + " failed", ex);
+            } finally {
+                connections.remove(this);
+                this.close();
+            }
+        }
+
+        // answers a connection that cannot be served
+        void reject(String message) {
+            try {
+                StemProtocol.writeFrame(this.socket.getOutputStream(), errorResponse(StemProtocol.STATUS_BUSY, message));
+            } catch(IOException ex) {
+                logger.debug("Cannot reject connection " + this.socket.getRemoteSocketAddress() + ": " + ex);
+            }
+            this.close();
+        }
+
+        synchronized void closeIfIdle() {
+            if(!this.busy) { this.close(); }
+        }
+
+        void close() {
+            try {
+                this.socket.close();
+            } catch(IOException ex) {
+                logger.debug("Cannot close connection: " + ex);
+            }
+        }
+    }
+}
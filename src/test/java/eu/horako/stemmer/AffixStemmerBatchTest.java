@@ -0,0 +1,51 @@
+package eu.horako.stemmer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * {@link AffixStemmer#stemAll(CharSequence[], BatchSink)} against stemming word by word.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class AffixStemmerBatchTest {
+
+    @Test
+    public void batchTestSameAsStem() throws IOException, AffixFormatException {
+        final AffixStemmer stemmer = TestModel.stemmer();
+        final List<String> words = new ArrayList<String>(TestModel.allForms());
+        words.addAll(new ArrayList<String>(words)); // repeated words
+        Collections.shuffle(words, new Random(1));
+        final int[] calls = {0};
+        stemmer.stemAll(words.toArray(new CharSequence[words.size()]), new BatchSink() {
+            @Override
+            public void stems(int index, CharSequence word, Set<String> stems) {
+                Assert.assertEquals(calls[0]++, index);
+                Assert.assertEquals(words.get(index), word);
+                Assert.assertEquals("Stems of " + word, stemmer.stem(word.toString()), stems);
+            }
+        });
+        Assert.assertEquals(words.size(), calls[0]);
+    }
+
+    @Test
+    public void batchTestStems() throws IOException, AffixFormatException {
+        AffixStemmer stemmer = TestModel.stemmer();
+        final List<Set<String>> results = new ArrayList<Set<String>>();
+        stemmer.stemAll(new CharSequence[] { "psa", "pivo", "pánovi", "psa", "praze", "" }, new BatchSink() {
+            @Override
+            public void stems(int index, CharSequence word, Set<String> stems) {
+                results.add(stems);
+            }
+        });
+        Assert.assertEquals(Arrays.asList(Collections.singleton("pes"), Collections.<String>emptySet(), Collections.singleton("pán"),
+                Collections.singleton("pes"), Collections.singleton("praha"), Collections.<String>emptySet()), results);
+    }
+}
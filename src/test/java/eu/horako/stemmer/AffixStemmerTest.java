@@ -4,11 +4,16 @@
 package eu.horako.stemmer;
 
 import eu.horako.stemmer.AffixStemmer.WordRule;
+import eu.horako.stemmer.metrics.StemmerMetrics;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import org.junit.Assert;
 import org.junit.After;
@@ -22,66 +27,9 @@ import org.junit.Test;
 public class AffixStemmerTest {
     AffixStemmer stemmer;
     
-    String dictInput = 
-       "3\n" +
-       "pán/P1\n" +
-       "pes/XXAA\n" +
-       "bůh/XXAABBCCDD\n" +
-       "vůl/XX\n" + 
-       "praha/P5";
+    String dictInput = TestModel.DICT;
     
-    String affixInput = 
-        "FLAG long\n" +
-        "SET UTF-8\n" +
-        "TRY aáeéěiíoóuúůyýbcčdďlmnňfjkprřsštťvghqwxzžAÁEÉĚIÍOÓUÚŮYÝBCČDĎLMNŇFJKPRŘSŠTŤVGHQWXZŽ\n" +
-        "\n" +
-        "SFX XX Y 5\n" +
-        "SFX XX   es          s/P1         pes  invalid\n" +
-        "SFX XX   ůl          ol/P1        vůl  invalid\n" +
-        "SFX XX   ůh          oh/P1        bůh  invalid\n" +
-        "SFX XX   h           žek/P2       bůh  sticky\n" +
-        "SFX XX   ý           ější/P3P4    ný  sticky\n" +
-        "\n" +
-
-        "PFX YY Y 1\n" +
-        "PFX YY   0           ne         .  reapply,sticky\n" +
-        "\n" +
-        "PFX ZZ Y 1\n" +
-        "PFX ZZ   0           ne         .  reapply,sticky\n" +
-        "\n" +
-        "PFX AA Y 1\n" +
-        "PFX AA   0           praso      .  reapply,sticky\n" +
-        "\n" +
-        "PFX BB Y 1\n" +
-        "PFX BB   0           polo/YY      .  reapply,sticky\n" +
-        "\n" +
-        "PFX CC Y 1\n" +
-        "PFX CC   0           skoro/YY      .  reapply,sticky\n" +
-        "\n" +
-        "PFX DD Y 1\n" +
-        "PFX DD   0           lži/ZZ      .  reapply,sticky\n" +
-        "\n" +
-        "SFX P1 Y 5\n" +
-        "SFX P1   0           a          [^aeok]\n" +
-        "SFX P1   0           u          [^aeoku]\n" +
-        "SFX P1   0           ovi        [^aeok]\n" +
-        "SFX P1   0           e          [^aeokurcgh]\n" +
-        "SFX P1   r           ře         [^aeiouyáéíóúůýě]r\n" +
-        "\n" +
-        "SFX P2 Y 3\n" +
-        "SFX P2   ek          ka         ek\n" +
-        "SFX P2   ek          ku         ek\n" +
-        "SFX P2   ek          kovi       ek\n" +
-        "\n" +
-        "PFX P3 Y 1\n" +
-        "PFX P3   0           nej        .\n" +
-        "\n" +
-        "SFX P4 Y 2\n" +
-        "SFX P4   0          ho         í\n" +
-        "SFX P4   0          mu         í\n" + 
-        "\n" +
-        "SFX P5 Y 1\n" +
-        "SFX P5   ha         ze         [^c]ha\n";
+    String affixInput = TestModel.AFFIX;
     
     public AffixStemmerTest() {
         
@@ -256,7 +204,182 @@ public class AffixStemmerTest {
         Assert.assertEquals(expected.length, words.size());
     }
 
-    
+    @Test
+    public void stemmerTestPruningKeepsStems() throws IOException, AffixFormatException {
+        AffixStemmer unpruned = TestModel.stemmer();
+        unpruned.setDictionaryPruning(false);
+        StemmerMetrics metrics = new StemmerMetrics("test");
+        this.stemmer.setMetrics(metrics);
+        for(String word : TestModel.allForms()) {
+            Assert.assertEquals("Stems of " + word, unpruned.stem(word), this.stemmer.stem(word));
+        }
+        Assert.assertEquals(Collections.singleton("pes"), this.stemmer.stem("psovi"));
+        Assert.assertEquals(Collections.singleton("polobůžek"), this.stemmer.stem("polobůžka"));
+        Assert.assertTrue(metrics.getPrunedCandidates() > 0);
+        Assert.assertTrue(metrics.getShapeRejections() > 0);
+    }
+
+    @Test
+    public void stemmerTestBufferReleasesModel() {
+        ReductionBuffer buf = AffixStemmer.BUFFERS.get();
+        Assert.assertEquals(Collections.singleton("pán"), this.stemmer.stem("pánovi"));
+        Assert.assertTrue(buf.firstStepRules.isEmpty()); // no rules of the model left in the thread
+        final List<Set<String>> results = new ArrayList<Set<String>>();
+        this.stemmer.stemAll(new CharSequence[] { "pánovi", "psa" }, new BatchSink() {
+            @Override
+            public void stems(int index, CharSequence word, Set<String> stems) {
+                results.add(stems);
+            }
+        });
+        Assert.assertEquals(Arrays.asList(Collections.singleton("pán"), Collections.singleton("pes")), results);
+        Assert.assertTrue(buf.firstStepRules.isEmpty());
+        Assert.assertSame(buf, AffixStemmer.BUFFERS.get()); // the arrays are kept
+    }
+
+    @Test
+    public void stemmerTestPruningDeadBranches() {
+        // word without stems -> number of its candidates cut before their lookup
+        String[][] dead = { { "hradovi", "1" }, { "hrádkovi", "1" }, { "bratře", "2" }, { "vraze", "2" } };
+        for(String[] d : dead) {
+            StemmerMetrics metrics = new StemmerMetrics("test");
+            this.stemmer.setMetrics(metrics);
+            Assert.assertTrue(d[0], this.stemmer.stem(d[0]).isEmpty());
+            Assert.assertEquals(d[0], Long.parseLong(d[1]), metrics.getPrunedCandidates());
+            Assert.assertEquals(d[0], 0, metrics.getShapeRejections()); // never got to the lookup
+        }
+        // live branches, including a sticky chain (bůžkovi -> bůžek) and a rule changing the stem end (praze -> praha)
+        String[][] live = { { "pánovi", "pán" }, { "bůžkovi", "bůžek" }, { "praze", "praha" } };
+        for(String[] l : live) {
+            StemmerMetrics metrics = new StemmerMetrics("test");
+            this.stemmer.setMetrics(metrics);
+            Assert.assertEquals(l[0], Collections.singleton(l[1]), this.stemmer.stem(l[0]));
+            Assert.assertEquals(l[0], 0, metrics.getPrunedCandidates());
+        }
+        this.stemmer.setMetrics(null);
+    }
+
+    @Test
+    public void stemmerTestPruningWithoutDictionaryCheck() throws IOException, AffixFormatException {
+        // without the dictionary check pruning keeps only the candidates consistent with the dictionary
+        AffixStemmer pruned = TestModel.stemmer();
+        pruned.setCheckAgainstDictionary(false);
+        AffixStemmer unpruned = TestModel.stemmer();
+        unpruned.setCheckAgainstDictionary(false);
+        unpruned.setDictionaryPruning(false);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("hradovi", "hrad")), unpruned.stem("hradovi"));
+        Assert.assertEquals(Collections.singleton("hradovi"), pruned.stem("hradovi"));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("vraze", "vraz", "vraha")), unpruned.stem("vraze"));
+        Assert.assertEquals(Collections.singleton("vraze"), pruned.stem("vraze"));
+        Assert.assertEquals(unpruned.stem("psovi"), pruned.stem("psovi"));
+        Assert.assertEquals(unpruned.stem("praze"), pruned.stem("praze"));
+    }
+
+    @Test
+    public void stemmerTestNonCrossProductCombination() throws IOException, AffixFormatException {
+        String affix =
+            "SFX A N 1\n" +
+            "SFX A   0   y   .\n" +
+            "PFX P N 1\n" +
+            "PFX P   0   ne  .\n";
+        AffixRuleSet ruleSet = new AffixRuleSet(new StringReader(affix),false);
+        Dictionary dict = new Dictionary(new StringReader("dobr/AP\n"),ruleSet,false);
+        AffixStemmer stemmer = new AffixStemmer(ruleSet, dict);
+        Set<String> expected = new HashSet<String>(Arrays.asList("dobr"));
+        Assert.assertEquals(expected, stemmer.stem("nedobry"));
+        stemmer.setCheckAgainstDictionary(false);
+        Assert.assertTrue(stemmer.stem("nedobry").contains("dobr"));
+    }
+
+    @Test(timeout = 10000)
+    public void stemmerTestReductionLimits() throws IOException, AffixFormatException {
+        String cyclicAffix = // A and B undo each other
+            "SFX A Y 1\n" +
+            "SFX A   b   a/B  b\n" +
+            "SFX B Y 1\n" +
+            "SFX B   a   b/A  a\n";
+        AffixRuleSet cyclicRules = new AffixRuleSet(new StringReader(cyclicAffix),false);
+        AffixStemmer cyclic = new AffixStemmer(cyclicRules, new Dictionary(new StringReader("xb/A\n"),cyclicRules,false));
+        StemmerMetrics metrics = new StemmerMetrics("test");
+        cyclic.setMetrics(metrics);
+        Assert.assertEquals(Collections.singleton("xb"), cyclic.stem("xa"));
+        cyclic.setCompiled(false);
+        Assert.assertEquals(Collections.singleton("xb"), cyclic.stem("xa"));
+        cyclic.setCompiled(true);
+        Assert.assertEquals(0, metrics.getReductionLimitHits());
+
+        cyclic.setMaxReductionDepth(1);
+        cyclic.stem("xb");
+        Assert.assertEquals(1, metrics.getReductionLimitHits());
+        Assert.assertEquals("xb", cyclic.stemBest("xa")); // WordRule path
+        Assert.assertEquals(2, metrics.getReductionLimitHits());
+
+        this.stemmer.setMetrics(metrics);
+        this.stemmer.setMaxReductionWork(2); // the word and one prefix reduction
+        Assert.assertEquals(new HashSet<String>(), this.stemmer.stem("prasopsa"));
+        Assert.assertEquals(3, metrics.getReductionLimitHits());
+        Assert.assertNull(this.stemmer.stemBest("prasopsa"));
+        Assert.assertEquals(4, metrics.getReductionLimitHits());
+        this.stemmer.setMaxReductionWork(6); // no budget left for the prefix/suffix pairs
+        Assert.assertEquals(new HashSet<String>(), this.stemmer.stem("prasopsa"));
+        Assert.assertNull(this.stemmer.stemBest("prasopsa"));
+        Assert.assertEquals(Collections.singleton("pes"), this.stemmer.stem("psa"));
+        this.stemmer.setMaxReductionWork(7);
+        Assert.assertEquals(Collections.singleton("prasopes"), this.stemmer.stem("prasopsa"));
+        Assert.assertEquals("prasopes", this.stemmer.stemBest("prasopsa"));
+    }
+
+    @Test
+    public void stemmerTestBest() throws IOException, AffixFormatException {
+        this.checkBest(this.stemmer, TestModel.allForms());
+
+        String affixInput2 =
+            "SFX A Y 2\n" +
+            "SFX A   0   y   [^y]\n" +
+            "SFX A   a   y   a\n" +
+            "PFX N Y 1\n" +
+            "PFX N   0   ne  .\n";
+        String dictInput2 =
+            "kočka/AN\n" +
+            "kočk/A\n" +
+            "kočky/N\n";
+        AffixRuleSet ruleSet2 = new AffixRuleSet(new StringReader(affixInput2),false);
+        Dictionary dict2 = new Dictionary(new StringReader(dictInput2),ruleSet2,false);
+        AffixStemmer stemmer2 = new AffixStemmer(ruleSet2, dict2);
+        Assert.assertEquals(3, stemmer2.stem("kočky").size());
+        Assert.assertEquals("kočky", stemmer2.stemBest("kočky")); // no reduction
+        Assert.assertEquals("kočky", stemmer2.stemBest("nekočky")); // 1 reduction, the combination needs 2
+        this.checkBest(stemmer2, new HashSet<String>(Arrays.asList("kočky", "nekočky", "nekočka", "kočka", "kočkyy", "pes")));
+    }
+
+    // the best stem must be the most frequent one for any frequencies
+    private void checkBest(AffixStemmer stemmer, Set<String> words) {
+        List<String> lemmas = new ArrayList<String>();
+        for(String word : words) {
+            Set<String> stems = stemmer.stem(word);
+            String best = stemmer.stemBest(word);
+            Assert.assertEquals("Best stem of " + word, stems.isEmpty(), best == null);
+            Assert.assertTrue("Best stem of " + word, best == null || stems.contains(best));
+            for(String stem : stems) {
+                if(!lemmas.contains(stem)) { lemmas.add(stem); }
+            }
+        }
+        Collections.sort(lemmas);
+        for(int round = 0; round < 2; round++) {
+            LemmaFrequencies frequencies = new LemmaFrequencies();
+            for(int i = 0; i < lemmas.size(); i++) {
+                frequencies.put(lemmas.get(i), round == 0 ? i + 1 : lemmas.size() - i);
+            }
+            stemmer.setLemmaFrequencies(frequencies);
+            for(String word : words) {
+                String expected = null;
+                for(String stem : stemmer.stem(word)) {
+                    if(expected == null || frequencies.getFrequency(stem) > frequencies.getFrequency(expected)) { expected = stem; }
+                }
+                Assert.assertEquals("Best stem of " + word, expected, stemmer.stemBest(word));
+            }
+        }
+        stemmer.setLemmaFrequencies(null);
+    }
     
     @Before
     public void setUp() throws IOException, AffixFormatException {
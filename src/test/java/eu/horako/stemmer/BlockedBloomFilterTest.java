@@ -0,0 +1,120 @@
+package eu.horako.stemmer;
+
+import eu.horako.stemmer.metrics.StemmerMetrics;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class BlockedBloomFilterTest {
+
+    @Test
+    public void bloomFilterTestStems() throws IOException, AffixFormatException {
+        AffixStemmer stemmer = TestModel.stemmer();
+        AffixRuleSet ruleSet = TestModel.ruleSet();
+        Dictionary dict = TestModel.dictionary(ruleSet);
+        dict.setBloomFilterFpp(0.01);
+        dict.freeze();
+        AffixStemmer filtered = new AffixStemmer(ruleSet, dict);
+        for(String word : TestModel.allForms()) {
+            Assert.assertEquals("Stems of " + word, stemmer.stem(word), filtered.stem(word));
+        }
+        Assert.assertEquals(Collections.singleton("pes"), filtered.stem("psa"));
+        Assert.assertEquals(Collections.singleton("praha"), filtered.stem("praze"));
+        Assert.assertTrue(filtered.stem("pivo").isEmpty());
+        Assert.assertTrue(dict.contains("pán"));
+        Assert.assertFalse(dict.contains("pivo"));
+        try {
+            dict.add("pivo", new HashSet<String>());
+            Assert.fail("Frozen dictionary must not be modified");
+        } catch(IllegalStateException ex) {
+        }
+    }
+
+    @Test
+    public void bloomFilterTestFalsePositiveRate() {
+        for(double fpp : new double[] { 0.01, 0.001 }) {
+            int n = 20000;
+            BlockedBloomFilter filter = new BlockedBloomFilter(n, fpp);
+            for(int i = 0; i < n; i++) {
+                filter.put(BlockedBloomFilter.hash("w" + i));
+            }
+            for(int i = 0; i < n; i++) {
+                Assert.assertTrue("w" + i, filter.mightContain(BlockedBloomFilter.hash("w" + i)));
+            }
+            int queries = 200000;
+            int falsePositives = 0;
+            for(int i = 0; i < queries; i++) {
+                if(filter.mightContain(BlockedBloomFilter.hash("x" + i))) { falsePositives++; }
+            }
+            // one block per key costs some accuracy against the textbook filter of the same size
+            double rate = (double)falsePositives / queries;
+            Assert.assertTrue("fpp " + fpp + ", measured " + rate, rate < 2 * fpp);
+            Assert.assertTrue("fpp " + fpp + ", measured " + rate, rate > fpp / 2); // not oversized either
+            Assert.assertEquals(0.5, filter.getOccupancy(), 0.05); // optimal number of hash functions
+        }
+    }
+
+    @Test
+    public void bloomFilterTestBlockBoundaries() {
+        BlockedBloomFilter single = new BlockedBloomFilter(1, 0.01);
+        Assert.assertEquals(64, single.getSizeInBytes()); // one 512-bit block
+        Assert.assertEquals(0, single.block(0));
+        Assert.assertEquals(0, single.block(-1L));
+
+        BlockedBloomFilter filter = new BlockedBloomFilter(150, 0.01); // 1438 bits rounded up to 3 blocks
+        int blocks = (int)(filter.getSizeInBytes() / 64);
+        Assert.assertEquals(3, blocks);
+        Assert.assertEquals(0, filter.block(0));
+        Assert.assertEquals(0, filter.block(0xFFFFFFFFL)); // the low bits don't choose the block
+        Assert.assertEquals(blocks - 1, filter.block(-1L));
+        List<Long> edges = new ArrayList<Long>(Arrays.asList(0L, 0xFFFFFFFFL, -1L, Long.MIN_VALUE, Long.MAX_VALUE));
+        for(int b = 1; b < blocks; b++) {
+            long high = ((long)b << 32) / blocks + (((long)b << 32) % blocks == 0 ? 0 : 1); // first hash of block b
+            Assert.assertEquals(b, filter.block(high << 32));
+            Assert.assertEquals(b - 1, filter.block(((high - 1) << 32) | 0xFFFFFFFFL));
+            edges.add(high << 32);
+            edges.add(((high - 1) << 32) | 0xFFFFFFFFL);
+        }
+        for(long hash : edges) {
+            Assert.assertFalse(Long.toHexString(hash), filter.mightContain(hash)); // empty filter
+        }
+        for(long hash : edges) {
+            filter.put(hash);
+        }
+        for(long hash : edges) {
+            Assert.assertTrue(Long.toHexString(hash), filter.mightContain(hash));
+        }
+    }
+
+    @Test
+    public void bloomFilterTestCounts() throws IOException, AffixFormatException {
+        AffixRuleSet ruleSet = TestModel.ruleSet();
+        Dictionary dict = TestModel.dictionary(ruleSet);
+        dict.setBloomFilterFpp(0.01);
+        dict.freeze();
+        AffixStemmer filtered = new AffixStemmer(ruleSet, dict);
+        StemmerMetrics metrics = new StemmerMetrics("test");
+        dict.setMetrics(metrics);
+        Assert.assertEquals(dict.getBloomFilter().getSizeInBytes(), metrics.getBloomFilterSizeBytes());
+        Assert.assertTrue(metrics.getBloomFilterOccupancy() > 0 && metrics.getBloomFilterOccupancy() < 1);
+        for(String word : TestModel.allForms()) {
+            filtered.stem(word);
+        }
+        long rejected = metrics.getBloomFilterRejected();
+        Assert.assertTrue(rejected > 0);
+        Assert.assertTrue(metrics.getBloomFilterPassed() > 0);
+        Assert.assertTrue(metrics.getBloomFilterFalsePositives() <= metrics.getBloomFilterPassed());
+
+        dict.setMetrics(null);
+        filtered.stem("pivo");
+        Assert.assertEquals(rejected, metrics.getBloomFilterRejected());
+    }
+}
@@ -0,0 +1,115 @@
+package eu.horako.stemmer;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class ByteAffixStemmerTest {
+    private AffixStemmer stemmer;
+    private ByteAffixStemmer byteStemmer;
+
+    private static Set<String> stems(ByteAffixStemmer stemmer, String word) {
+        Set<String> stems = new HashSet<String>();
+        for(BytesRef stem : stemmer.stem(new BytesRef(word))) {
+            stems.add(stem.utf8ToString());
+        }
+        return stems;
+    }
+
+    private static Set<String> set(String... words) {
+        return new HashSet<String>(Arrays.asList(words));
+    }
+
+    @Test
+    public void byteStemmerTestStems() throws IOException, AffixFormatException {
+        Assert.assertEquals(set("pes"), stems(this.byteStemmer, "psa"));
+        Assert.assertEquals(set("praha"), stems(this.byteStemmer, "praze"));
+        Assert.assertEquals(set("bůžek"), stems(this.byteStemmer, "bůžkovi"));
+        Assert.assertEquals(set("polobůžek"), stems(this.byteStemmer, "polobůžka"));
+        Assert.assertEquals(set("prasopes"), stems(this.byteStemmer, "prasopsa"));
+        Assert.assertEquals(set("vůl"), stems(this.byteStemmer, "vůl"));
+        Assert.assertEquals(set(), stems(this.byteStemmer, "pivo"));
+        Assert.assertEquals(set(), stems(this.byteStemmer, ""));
+
+        for(String word : TestModel.allForms()) {
+            Assert.assertEquals("Stems of " + word, this.stemmer.stem(word), stems(this.byteStemmer, word));
+        }
+    }
+
+    @Test
+    public void byteStemmerTestReductionLimits() throws IOException, AffixFormatException {
+        String cyclicAffix = // A and B undo each other
+            "SFX A Y 1\n" +
+            "SFX A   b   a/B  b\n" +
+            "SFX B Y 1\n" +
+            "SFX B   a   b/A  a\n";
+        AffixRuleSet cyclicRules = new AffixRuleSet(new StringReader(cyclicAffix),false);
+        Dictionary cyclicDict = new Dictionary(new StringReader("xb/A\n"),cyclicRules,false);
+        ByteAffixStemmer cyclic = new ByteAffixStemmer(cyclicRules, new OffHeapDictionary(cyclicDict));
+        Assert.assertEquals(Collections.singleton("xb"), new AffixStemmer(cyclicRules, cyclicDict).stem("xa"));
+        Assert.assertEquals(Collections.singleton(new BytesRef("xb")), cyclic.stem(new BytesRef("xa")));
+        cyclic.setMaxReductionWork(1); // only the word itself
+        Assert.assertTrue(cyclic.stem(new BytesRef("xa")).isEmpty());
+    }
+
+    @Test
+    public void byteStemmerTestNonCrossProductCombination() throws IOException, AffixFormatException {
+        String affix =
+            "SFX A N 1\n" +
+            "SFX A   0   y   .\n" +
+            "PFX P N 1\n" +
+            "PFX P   0   ne  .\n";
+        AffixRuleSet ruleSet = new AffixRuleSet(new StringReader(affix),false);
+        Dictionary dict = new Dictionary(new StringReader("dobr/AP\n"),ruleSet,false);
+        Assert.assertEquals(set("dobr"), stems(new ByteAffixStemmer(ruleSet, new OffHeapDictionary(dict)), "nedobry"));
+    }
+
+    @Test
+    public void byteStemmerTestMalformedUtf8() {
+        byte[][] malformed = {
+            { 'p', 'e', 's', (byte)0xC3 }, // truncated 2-byte sequence
+            { 'p', (byte)0xE2, (byte)0x82 }, // truncated 3-byte sequence
+            { (byte)0xF0, (byte)0x9F, (byte)0x98 }, // truncated 4-byte sequence
+            { 'p', 's', (byte)0xC1, (byte)0xA1 }, // overlong 'a'
+            { 'p', 's', (byte)0xE0, (byte)0x81, (byte)0xA1 }, // overlong 'a', 3 bytes
+            { 'p', (byte)0xED, (byte)0xA0, (byte)0x80 }, // encoded surrogate
+            { 'p', (byte)0xA1, 's', 'a' }, // stray continuation byte
+            { 'p', (byte)0xC3, 's', 'a' } // lead byte without continuation
+        };
+        for(byte[] bytes : malformed) {
+            Set<String> expected = this.stemmer.stem(new String(bytes, StandardCharsets.UTF_8));
+            Set<String> actual = new HashSet<String>();
+            for(BytesRef stem : this.byteStemmer.stem(new BytesRef(bytes))) {
+                actual.add(stem.utf8ToString());
+            }
+            Assert.assertEquals(Arrays.toString(bytes), expected, actual);
+        }
+        Assert.assertEquals(set("pes"), stems(this.byteStemmer, "psa"));
+        byte[] truncated = { 'p', 'e', 's', (byte)0xC3 };
+        Assert.assertEquals(-1, Utf8.check(truncated, 0, truncated.length));
+        Assert.assertEquals(1, Utf8.check(truncated, 0, 3));
+        byte[] bmp = "bůžek".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(2, Utf8.check(bmp, 0, bmp.length));
+        byte[] supplementary = "p\uD83D\uDE00".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(4, Utf8.check(supplementary, 0, supplementary.length));
+    }
+
+    @Before
+    public void setUp() throws IOException, AffixFormatException {
+        AffixRuleSet ruleSet = TestModel.ruleSet();
+        Dictionary dict = TestModel.dictionary(ruleSet);
+        this.stemmer = new AffixStemmer(ruleSet, dict);
+        this.byteStemmer = new ByteAffixStemmer(ruleSet, new OffHeapDictionary(dict));
+    }
+}
@@ -0,0 +1,129 @@
+package eu.horako.stemmer;
+
+import eu.horako.stemmer.AffixStemmer.WordRule;
+import eu.horako.stemmer.metrics.StemmerMetrics;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The compiled rules against the interpreted ones (the reference).
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class CompiledRuleSetTest {
+
+    private static List<String> reductions(AffixStemmer s, String word, AffixRuleType type) {
+        List<String> result = new ArrayList<String>();
+        for(WordRule wr : s.reduceAffix(word, type)) {
+            result.add(wr.word + "/" + (wr.rule == null ? "" : wr.rule.getFlag()));
+        }
+        return result;
+    }
+
+    @Test
+    public void compiledTestSameAsInterpreted() throws IOException, AffixFormatException {
+        AffixStemmer compiled = TestModel.stemmer();
+        Assert.assertTrue(compiled.isCompiled()); // the default
+        AffixStemmer interpreted = TestModel.stemmer();
+        interpreted.setCompiled(false);
+        Assert.assertFalse(interpreted.isCompiled());
+        StemmerMetrics compiledMetrics = new StemmerMetrics("compiled");
+        StemmerMetrics interpretedMetrics = new StemmerMetrics("interpreted");
+        compiled.setMetrics(compiledMetrics);
+        interpreted.setMetrics(interpretedMetrics);
+        for(String word : TestModel.allForms()) {
+            Assert.assertEquals("Stems of " + word, interpreted.stem(word), compiled.stem(word));
+            Assert.assertEquals("Best stem of " + word, interpreted.stemBest(word), compiled.stemBest(word));
+            for(AffixRuleType type : AffixRuleType.values()) {
+                Assert.assertEquals("Reductions of " + word, reductions(interpreted, word, type), reductions(compiled, word, type));
+            }
+        }
+        // both engines generate the same candidates and probe the dictionary in the same order
+        Assert.assertEquals(interpretedMetrics.getStemsReturned(), compiledMetrics.getStemsReturned());
+        Assert.assertEquals(interpretedMetrics.getFirstStepCandidates(), compiledMetrics.getFirstStepCandidates());
+        Assert.assertEquals(interpretedMetrics.getReductionSteps(), compiledMetrics.getReductionSteps());
+        Assert.assertEquals(interpretedMetrics.getDictionaryProbes(), compiledMetrics.getDictionaryProbes());
+        Assert.assertEquals(interpretedMetrics.getDictionaryHits(), compiledMetrics.getDictionaryHits());
+
+        for(AffixStemmer s : new AffixStemmer[] { compiled, interpreted }) {
+            Assert.assertEquals(Collections.singleton("prasopes"), s.stem("prasopsa"));
+            Assert.assertEquals(Collections.singleton("bůh"), s.stem("boha"));
+            Assert.assertEquals(Collections.singleton("bůžek"), s.stem("bůžkovi"));
+            Assert.assertEquals("pán", s.stemBest("pánovi"));
+        }
+    }
+
+    // checks the expected result against the regex of the rule and all the ways a condition is evaluated
+    private static void assertCondition(boolean expected, String condition, AffixRuleType type, String word) {
+        boolean suffix = type == AffixRuleType.SFX;
+        String msg = type + " " + condition + " on '" + word + "'";
+        Pattern regex = Pattern.compile(suffix ? condition + "$" : "^" + condition);
+        Assert.assertEquals(msg + " (regex)", expected, regex.matcher(word).find());
+        AffixCondition compiled = AffixCondition.compile(condition, type);
+        Assert.assertNotNull(msg, compiled);
+        Assert.assertEquals(msg, expected, compiled.matches(word));
+
+        // the candidate as the kept part of a longer word plus the affix of one char
+        int split = word.isEmpty() ? 0 : suffix ? word.offsetByCodePoints(word.length(), -1) : word.offsetByCodePoints(0, 1);
+        String kept = suffix ? word.substring(0, split) : word.substring(split);
+        String added = suffix ? word.substring(split) : word.substring(0, split);
+        String padded = "x" + kept + "x";
+        Assert.assertEquals(msg + " (split)", expected, compiled.matches(padded, 1, padded.length() - 1, added));
+        byte[] paddedBytes = padded.getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(msg + " (UTF-8)", expected,
+                compiled.matches(paddedBytes, 1, paddedBytes.length - 1, added.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void compiledTestNegatedClasses() {
+        AffixRuleType sfx = AffixRuleType.SFX;
+        AffixRuleType pfx = AffixRuleType.PFX;
+        assertCondition(true, "[^aeo]k", sfx, "vlk");
+        assertCondition(false, "[^aeo]k", sfx, "pek");
+        assertCondition(true, "[^aeo]k", sfx, "ák"); // accented chars are not excluded by their base letter
+        assertCondition(false, "[^aeo]k", sfx, "k"); // too short
+        assertCondition(false, "[^aeo]k", sfx, "kl");
+        assertCondition(false, "[^áé].", sfx, "pán");
+        assertCondition(true, "[^áé].", sfx, "pan");
+        assertCondition(true, "[^aeiouyáéíóúůýě]r", sfx, "bratr");
+        assertCondition(false, "[^aeiouyáéíóúůýě]r", sfx, "sýr");
+        assertCondition(true, "[^n]e", pfx, "pes");
+        assertCondition(false, "[^n]e", pfx, "nes");
+        assertCondition(true, "[^n]e", pfx, "ňes"); // 2-byte char at the start
+        assertCondition(true, "[^a]", sfx, "x\uD83D\uDE00"); // supplementary char matches a negated class
+        assertCondition(false, "[^a]", sfx, "");
+    }
+
+    @Test
+    public void compiledTestMultiCharClasses() {
+        AffixRuleType sfx = AffixRuleType.SFX;
+        AffixRuleType pfx = AffixRuleType.PFX;
+        assertCondition(true, "[aeo]k", sfx, "pek");
+        assertCondition(false, "[aeo]k", sfx, "pák");
+        assertCondition(true, "[oea]k", sfx, "ok"); // unsorted class
+        assertCondition(true, "[áéí]", sfx, "pá");
+        assertCondition(false, "[áéí]", sfx, "pa");
+        assertCondition(true, "[aá][nň]", sfx, "páň");
+        assertCondition(false, "[aá][nň]", sfx, "pánu");
+        assertCondition(true, "[nň][^e]", pfx, "ňadra");
+        assertCondition(false, "[nň][^e]", pfx, "nebe");
+        assertCondition(true, "[nň].[aá]", pfx, "nuance");
+        assertCondition(false, "[nň].[aá]", pfx, "noha");
+        assertCondition(false, "[a]", sfx, "x\uD83D\uDE00"); // supplementary char never matches a class of BMP chars
+    }
+
+    @Test
+    public void compiledTestUnsupportedConditions() {
+        for(String condition : new String[] { "(a|b)", "[a-z]", "[\\w]", "[]", "[^]", "[ab", "a]", "a*", "a$", "\uD83D\uDE00" }) {
+            Assert.assertNull(condition, AffixCondition.compile(condition, AffixRuleType.SFX));
+        }
+        Assert.assertNotNull(AffixCondition.compile("[-a]", AffixRuleType.SFX)); // '-' at the edge is a literal
+        Assert.assertEquals(0, AffixCondition.compile("", AffixRuleType.SFX).length());
+    }
+}
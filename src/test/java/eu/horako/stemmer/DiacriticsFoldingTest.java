@@ -0,0 +1,79 @@
+package eu.horako.stemmer;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class DiacriticsFoldingTest {
+
+    @Test
+    public void foldingTestStems() throws IOException, AffixFormatException {
+        AffixStemmer stemmer = TestModel.stemmer();
+        AffixRuleSet ruleSet = TestModel.ruleSet();
+        Dictionary dict = TestModel.dictionary(ruleSet);
+        AffixStemmer folding = new AffixStemmer(new DiacriticsFolding(ruleSet, dict));
+        AffixStemmer foldingInterpreted = new AffixStemmer(new DiacriticsFolding(ruleSet, dict));
+        foldingInterpreted.setCompiled(false);
+        for(String word : TestModel.allForms()) {
+            Set<String> stems = stemmer.stem(word);
+            Assert.assertEquals("Stems of " + word, stems, folding.stem(word));
+            Assert.assertEquals("Stems of " + word, stems, foldingInterpreted.stem(word));
+            Set<String> foldedStems = folding.stem(DiacriticsFolding.fold(word));
+            Assert.assertTrue("Stems of " + DiacriticsFolding.fold(word), foldedStems.containsAll(stems));
+        }
+        Assert.assertEquals(Collections.singleton("bůh"), folding.stem("boha"));
+        Assert.assertEquals(Collections.singleton("pán"), folding.stem("panovi"));
+        Assert.assertEquals(Collections.singleton("pán"), folding.stem("pánovi"));
+        Assert.assertEquals(Collections.singleton("vůl"), folding.stem("vul"));
+        Assert.assertTrue(folding.stem("pánóvi").isEmpty());
+    }
+
+    @Test
+    public void foldingTestCollisions() throws IOException, AffixFormatException {
+        String affix =
+            "SFX A Y 1\n" +
+            "SFX A   0   ovi  .\n" +
+            "SFX B Y 1\n" +
+            "SFX B   0   ě    .\n" +
+            "SFX C Y 1\n" +
+            "SFX C   0   e    [^é]n\n";
+        AffixRuleSet ruleSet = new AffixRuleSet(new StringReader(affix), false);
+        // pan/pán and len/lén fold to one word with the flags of both
+        Dictionary dict = new Dictionary(new StringReader("4\npan/A\npán/AB\nlen/C\nlén/C\n"), ruleSet, false);
+        AffixStemmer folding = new AffixStemmer(new DiacriticsFolding(ruleSet, dict));
+
+        Assert.assertEquals(set("pan", "pán"), folding.stem("panovi")); // a folded spelling of both
+        Assert.assertEquals(set("pán"), folding.stem("pánovi")); // the accent tells them apart
+        Assert.assertEquals(set("pan", "pán"), folding.stem("pan"));
+        Assert.assertEquals(set("pán"), folding.stem("pán"));
+        // B belongs to pán only, it is not lent to pan by the shared folded entry
+        Assert.assertEquals(set("pán"), folding.stem("pane"));
+        Assert.assertEquals(set("pán"), folding.stem("paně"));
+        Assert.assertEquals(set("pán"), folding.stem("páně"));
+        Assert.assertTrue(folding.stem("panově").isEmpty());
+        // the folded condition admits both, the original one is checked on the accented word
+        Assert.assertEquals(set("len"), folding.stem("lene"));
+        Assert.assertTrue(folding.stem("léne").isEmpty());
+        Assert.assertTrue(folding.stem("lenovi").isEmpty());
+    }
+
+    private static Set<String> set(String... words) {
+        return new HashSet<String>(Arrays.asList(words));
+    }
+
+    @Test
+    public void foldingTestConditions() {
+        Set<Character> alphabet = new HashSet<Character>(Arrays.asList('a', 'á', 'e', 'é', 'ě', 'r'));
+        Assert.assertEquals("[^aeiouy]r", DiacriticsFolding.foldCondition("[^aeiouyáéíóúůýě]r", alphabet));
+        Assert.assertEquals("[^iouy]r", DiacriticsFolding.foldCondition("[^iouyáíóúůý]r", alphabet));
+        Assert.assertEquals("pan", DiacriticsFolding.fold("pán"));
+    }
+}
@@ -0,0 +1,61 @@
+package eu.horako.stemmer;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class MultiModelStemmerTest {
+    private static final String AFFIX2 =
+        "SFX A Y 2\n" +
+        "SFX A   0   y   [^y]\n" +
+        "SFX A   a   ou  a\n" +
+        "PFX N Y 1\n" +
+        "PFX N   0   ne  .\n";
+    private static final String DICT2 =
+        "kočka/A\n" +
+        "pán/N\n" +
+        "pes/AN\n";
+
+    @Test
+    public void multiModelTestUnion() throws IOException, AffixFormatException {
+        AffixRuleSet ruleSet1 = TestModel.ruleSet();
+        Dictionary dict1 = TestModel.dictionary(ruleSet1);
+        AffixRuleSet ruleSet2 = new AffixRuleSet(new StringReader(AFFIX2),false);
+        Dictionary dict2 = new Dictionary(new StringReader(DICT2),ruleSet2,false);
+        AffixStemmer stemmer1 = new AffixStemmer(ruleSet1, dict1);
+        AffixStemmer stemmer2 = new AffixStemmer(ruleSet2, dict2);
+        MultiModelStemmer multi = new MultiModelStemmer(Arrays.asList(ruleSet1, ruleSet2), Arrays.asList(dict1, dict2));
+
+        Set<String> words = TestModel.allForms();
+        words.addAll(Arrays.asList("kočkou", "kočky", "nepán", "nepána", "nepsy", "psy", "pesy"));
+        for(String word : words) {
+            Set<String> union = new HashSet<String>(stemmer1.stem(word));
+            union.addAll(stemmer2.stem(word));
+            Assert.assertEquals("Stems of " + word, union, multi.stem(word));
+        }
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("kočka")), multi.stem("kočkou"));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("pán")), multi.stem("nepán")); // the second pair
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("pán")), multi.stem("pánovi")); // the first pair
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("pes")), multi.stem("psa"));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("pes")), multi.stem("nepesy"));
+        Assert.assertTrue(multi.stem("nepána").isEmpty()); // PFX of one pair, SFX of the other
+    }
+
+    @Test
+    public void multiModelTestSources() throws IOException, AffixFormatException {
+        AffixRuleSet ruleSet1 = TestModel.ruleSet();
+        AffixRuleSet ruleSet2 = new AffixRuleSet(new StringReader(AFFIX2),false);
+        MultiModelStemmer multi = new MultiModelStemmer(Arrays.asList(ruleSet1, ruleSet2),
+                Arrays.asList(TestModel.dictionary(ruleSet1), new Dictionary(new StringReader(DICT2),ruleSet2,false)));
+        Assert.assertEquals(new HashSet<Integer>(Arrays.asList(0, 1)), multi.getSources("pán"));
+        Assert.assertEquals(new HashSet<Integer>(Arrays.asList(1)), multi.getSources("kočka"));
+        Assert.assertEquals(new HashSet<Integer>(Arrays.asList(0)), multi.getSources("praha"));
+    }
+}
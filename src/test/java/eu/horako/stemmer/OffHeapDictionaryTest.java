@@ -0,0 +1,108 @@
+package eu.horako.stemmer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class OffHeapDictionaryTest {
+
+    @Test
+    public void offHeapTestSameAsDictionary() throws IOException, AffixFormatException {
+        AffixRuleSet ruleSet = TestModel.ruleSet();
+        Dictionary dict = TestModel.dictionary(ruleSet);
+        AffixExpander expander = new AffixExpander(ruleSet, dict);
+        expander.expandStickyRules();
+        OffHeapDictionary offHeap = new OffHeapDictionary(dict);
+        Assert.assertEquals(dict.getWords(), new HashSet<String>(offHeap.getWords()));
+        AffixStemmer stemmer = new AffixStemmer(ruleSet, dict);
+        AffixStemmer offHeapStemmer = new AffixStemmer(ruleSet, offHeap);
+        AffixExpander offHeapExpander = new AffixExpander(ruleSet, offHeap);
+        for(String word : TestModel.allForms()) {
+            Assert.assertEquals("Stems of " + word, stemmer.stem(word), offHeapStemmer.stem(word));
+            Assert.assertEquals("Forms of " + word, expander.expand(word, 5), offHeapExpander.expand(word, 5));
+            Assert.assertEquals(dict.getAllFlags(word), offHeap.getAllFlags(word));
+        }
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("pes")), offHeapStemmer.stem("psovi"));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("bůžek")), offHeapStemmer.stem("bůžkovi"));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("prasopes")), offHeapStemmer.stem("prasopsa"));
+        Assert.assertTrue(offHeapStemmer.stem("kravovi").isEmpty());
+        Assert.assertTrue(offHeapExpander.expand("pán", 5).contains("pánovi"));
+    }
+
+    @Test
+    public void offHeapTestContains() throws IOException, AffixFormatException {
+        AffixRuleSet ruleSet = TestModel.ruleSet();
+        Dictionary dict = TestModel.dictionary(ruleSet);
+        new AffixExpander(ruleSet, dict).expandStickyRules();
+        OffHeapDictionary offHeap = new OffHeapDictionary(dict);
+        char[] buffer = "xxpsovixx".toCharArray();
+        Assert.assertEquals(dict.contains("ps", "XX"), offHeap.contains(buffer, 2, 2, "XX"));
+        Assert.assertFalse(offHeap.contains(buffer, 2, 5));
+        Assert.assertTrue(offHeap.contains("bůh".toCharArray(), 0, 3));
+        Assert.assertTrue(offHeap.contains("pán".toCharArray(), 0, 3, "P1"));
+        Assert.assertFalse(offHeap.contains("pán".toCharArray(), 0, 3, "XX"));
+    }
+
+    @Test
+    public void offHeapTestGeneratedWords() {
+        String letters = "abcdeěéfghiíjklmnňoóprřsštťuůúvyýzž";
+        Random random = new Random(42);
+        Set<String> generated = new LinkedHashSet<String>();
+        while(generated.size() < 10000) {
+            StringBuilder sb = new StringBuilder();
+            for(int len = 1 + random.nextInt(10); sb.length() < len; ) {
+                sb.append(letters.charAt(random.nextInt(letters.length())));
+            }
+            generated.add(sb.toString());
+        }
+        List<String> words = new ArrayList<String>(); // every other word in the dictionary
+        List<String> others = new ArrayList<String>();
+        for(String word : generated) {
+            (words.size() == others.size() ? words : others).add(word);
+        }
+        Dictionary dict = new Dictionary();
+        for(String word : words) {
+            dict.add(word, Collections.singleton("A"));
+        }
+        OffHeapDictionary offHeap = new OffHeapDictionary(dict);
+        Assert.assertEquals(words.size(), offHeap.getWords().size());
+        for(String word : words) {
+            byte[] utf8 = ("x" + word).getBytes(StandardCharsets.UTF_8);
+            Assert.assertTrue(word, offHeap.contains(word, "A"));
+            Assert.assertTrue(word, offHeap.contains(("x" + word).toCharArray(), 1, word.length()));
+            Assert.assertTrue(word, offHeap.containsUtf8(utf8, 1, utf8.length - 1, "A"));
+        }
+        for(String word : others) {
+            byte[] utf8 = word.getBytes(StandardCharsets.UTF_8);
+            Assert.assertFalse(word, offHeap.contains(word));
+            Assert.assertFalse(word, offHeap.contains(word.toCharArray(), 0, word.length()));
+            Assert.assertFalse(word, offHeap.containsUtf8(utf8, 0, utf8.length));
+        }
+        Assert.assertFalse(offHeap.containsUtf8(new byte[] { 'a', (byte)0xC3 }, 0, 2)); // truncated
+        Assert.assertFalse(offHeap.containsUtf8(new byte[] { (byte)0xC1, (byte)0xA1 }, 0, 2)); // overlong 'a'
+    }
+
+    @Test
+    public void offHeapTestFlagShape() throws IOException, AffixFormatException {
+        AffixRuleSet ruleSet = TestModel.ruleSet();
+        Dictionary dict = TestModel.dictionary(ruleSet);
+        for(IDictionary d : new IDictionary[] { dict, new OffHeapDictionary(dict) }) {
+            Assert.assertTrue(d.admits("pán", "P1"));
+            Assert.assertFalse(d.admits("pánu", "P1")); // longer than any word with the flag
+            Assert.assertFalse(d.admits("pes", "P1"));
+            Assert.assertFalse(d.admits("pán", "ZZ")); // no word with the flag
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package eu.horako.stemmer;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.lucene.util.Accountable;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class RamUsageTest {
+
+    @Test
+    public void ramUsageTestStemmer() throws IOException, AffixFormatException {
+        AffixStemmer stemmer = TestModel.stemmer();
+        Dictionary dict = (Dictionary)stemmer.getDictionary();
+        long before = dict.ramBytesUsed();
+        Assert.assertTrue(before > 0);
+        dict.freeze();
+        Assert.assertTrue(dict.ramBytesUsed() > before); // plus the lookup indexes
+
+        long children = 0;
+        Set<String> names = new HashSet<String>();
+        for(Accountable child : stemmer.getChildResources()) {
+            children += child.ramBytesUsed();
+            names.add(child.toString().split(" \\[")[0]);
+        }
+        Assert.assertTrue(names.contains("affix rules"));
+        Assert.assertTrue(names.contains("dictionary"));
+        Assert.assertTrue(stemmer.ramBytesUsed() > children);
+        Assert.assertTrue(stemmer.ramBytesUsed() < children + 1024);
+    }
+
+    @Test
+    public void ramUsageTestOffHeap() throws IOException, AffixFormatException {
+        AffixRuleSet ruleSet = TestModel.ruleSet();
+        Dictionary dict = TestModel.dictionary(ruleSet);
+        dict.freeze();
+        OffHeapDictionary offHeap = new OffHeapDictionary(dict);
+        Assert.assertTrue(offHeap.ramBytesUsed() > 0);
+        Assert.assertTrue(new AffixStemmer(ruleSet, offHeap).ramBytesUsed() > offHeap.ramBytesUsed());
+    }
+}
@@ -0,0 +1,67 @@
+package eu.horako.stemmer;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class RuleSetOptimizerTest {
+
+    @Test
+    public void optimizerTestChanges() throws IOException, AffixFormatException {
+        String affix =
+            "SFX A Y 5\n" +
+            "SFX A   0   y     [^y]\n" +
+            "SFX A   0   y     [^y]\n" +   // duplicate
+            "SFX A   a   ou/U  a\n" +
+            "SFX A   0   ové   k\n" +
+            "SFX A   0   ové   l\n" +      // merged with the previous one
+            "SFX D Y 1\n" +
+            "SFX D   0   z/U   q\n" +      // dead
+            "SFX U Y 1\n" +
+            "SFX U   0   x     q\n" +      // dead
+            "SFX X Y 1\n" +
+            "SFX X   0   x     .\n";       // unreachable
+        String dict = "kočka/A\npes/AD\nkozel/A\nmrak/A\n";
+        AffixRuleSet ruleSet = new AffixRuleSet(new StringReader(affix),false);
+        RuleSetOptimizer optimizer = new RuleSetOptimizer(ruleSet, new Dictionary(new StringReader(dict),ruleSet,false), 5);
+        optimizer.analyze();
+        StringWriter out = new StringWriter();
+        Assert.assertEquals(3, optimizer.write(new StringReader(affix), out));
+        Assert.assertEquals(
+            "SFX A Y 3\n" +
+            "SFX A   0   y     [^y]\n" +
+            "SFX A   a   ou  a\n" +
+            "SFX A   0   ové   [kl]\n", out.toString());
+        Assert.assertEquals(Integer.valueOf(2), optimizer.getChangeCounts().get(RuleSetOptimizer.Change.DEAD));
+
+        AffixRuleSet optimized = new AffixRuleSet(new StringReader(out.toString()),false);
+        Dictionary optimizedDict = new Dictionary(new StringReader(dict),optimized,false);
+        Assert.assertEquals(optimizer.getDigest(), RuleSetOptimizer.expansionDigest(optimized, optimizedDict, 5));
+        AffixStemmer optimizedStemmer = new AffixStemmer(optimized, optimizedDict);
+        Assert.assertTrue(optimizedStemmer.stem("kočkou").contains("kočka"));
+        Assert.assertTrue(optimizedStemmer.stem("kozelové").contains("kozel"));
+        Assert.assertTrue(optimizedStemmer.stem("mrakové").contains("mrak"));
+    }
+
+    @Test
+    public void optimizerTestKeepsStems() throws IOException, AffixFormatException {
+        AffixRuleSet ruleSet = TestModel.ruleSet();
+        RuleSetOptimizer optimizer = new RuleSetOptimizer(ruleSet, TestModel.dictionary(ruleSet), 5);
+        optimizer.analyze();
+        StringWriter out = new StringWriter();
+        optimizer.write(new StringReader(TestModel.AFFIX), out);
+        AffixRuleSet optimized = new AffixRuleSet(new StringReader(out.toString()),false);
+        AffixStemmer stemmer = TestModel.stemmer();
+        AffixStemmer optimizedStemmer = new AffixStemmer(optimized, new Dictionary(new StringReader(TestModel.DICT),optimized,false));
+        for(String word : TestModel.allForms()) {
+            Assert.assertEquals("Stems of " + word, stemmer.stem(word), optimizedStemmer.stem(word));
+        }
+        Assert.assertTrue(optimizedStemmer.stem("praze").contains("praha"));
+        Assert.assertTrue(optimizedStemmer.stem("prasopsa").contains("prasopes"));
+    }
+}
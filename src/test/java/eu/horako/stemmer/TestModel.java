@@ -0,0 +1,107 @@
+package eu.horako.stemmer;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Dictionary/affix pair shared by the tests of the stemmer components.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public final class TestModel {
+    public static final String DICT =
+       "3\n" +
+       "pán/P1\n" +
+       "pes/XXAA\n" +
+       "bůh/XXAABBCCDD\n" +
+       "vůl/XX\n" +
+       "praha/P5";
+
+    public static final String AFFIX =
+        "FLAG long\n" +
+        "SET UTF-8\n" +
+        "TRY aáeéěiíoóuúůyýbcčdďlmnňfjkprřsštťvghqwxzžAÁEÉĚIÍOÓUÚŮYÝBCČDĎLMNŇFJKPRŘSŠTŤVGHQWXZŽ\n" +
+        "\n" +
+        "SFX XX Y 5\n" +
+        "SFX XX   es          s/P1         pes  invalid\n" +
+        "SFX XX   ůl          ol/P1        vůl  invalid\n" +
+        "SFX XX   ůh          oh/P1        bůh  invalid\n" +
+        "SFX XX   h           žek/P2       bůh  sticky\n" +
+        "SFX XX   ý           ější/P3P4    ný  sticky\n" +
+        "\n" +
+
+        "PFX YY Y 1\n" +
+        "PFX YY   0           ne         .  reapply,sticky\n" +
+        "\n" +
+        "PFX ZZ Y 1\n" +
+        "PFX ZZ   0           ne         .  reapply,sticky\n" +
+        "\n" +
+        "PFX AA Y 1\n" +
+        "PFX AA   0           praso      .  reapply,sticky\n" +
+        "\n" +
+        "PFX BB Y 1\n" +
+        "PFX BB   0           polo/YY      .  reapply,sticky\n" +
+        "\n" +
+        "PFX CC Y 1\n" +
+        "PFX CC   0           skoro/YY      .  reapply,sticky\n" +
+        "\n" +
+        "PFX DD Y 1\n" +
+        "PFX DD   0           lži/ZZ      .  reapply,sticky\n" +
+        "\n" +
+        "SFX P1 Y 5\n" +
+        "SFX P1   0           a          [^aeok]\n" +
+        "SFX P1   0           u          [^aeoku]\n" +
+        "SFX P1   0           ovi        [^aeok]\n" +
+        "SFX P1   0           e          [^aeokurcgh]\n" +
+        "SFX P1   r           ře         [^aeiouyáéíóúůýě]r\n" +
+        "\n" +
+        "SFX P2 Y 3\n" +
+        "SFX P2   ek          ka         ek\n" +
+        "SFX P2   ek          ku         ek\n" +
+        "SFX P2   ek          kovi       ek\n" +
+        "\n" +
+        "PFX P3 Y 1\n" +
+        "PFX P3   0           nej        .\n" +
+        "\n" +
+        "SFX P4 Y 2\n" +
+        "SFX P4   0          ho         í\n" +
+        "SFX P4   0          mu         í\n" +
+        "\n" +
+        "SFX P5 Y 1\n" +
+        "SFX P5   ha         ze         [^c]ha\n";
+
+    private TestModel() {
+    }
+
+    public static AffixRuleSet ruleSet() throws IOException, AffixFormatException {
+        return new AffixRuleSet(new StringReader(AFFIX),false);
+    }
+
+    public static Dictionary dictionary(AffixRuleSet ruleSet) throws IOException {
+        return new Dictionary(new StringReader(DICT),ruleSet,false);
+    }
+
+    public static AffixStemmer stemmer() throws IOException, AffixFormatException {
+        AffixRuleSet ruleSet = ruleSet();
+        return new AffixStemmer(ruleSet,dictionary(ruleSet));
+    }
+
+    /**
+     * @return all forms generated from the test dictionary plus some words unknown to the dictionary
+     */
+    public static Set<String> allForms() throws IOException, AffixFormatException {
+        AffixRuleSet ruleSet = ruleSet();
+        Dictionary dict = dictionary(ruleSet);
+        AffixExpander expander = new AffixExpander(ruleSet, dict);
+        Set<String> forms = new HashSet<String>();
+        for(String w : new HashSet<String>(dict.getWords())) {
+            forms.addAll(expander.expand(w, 5));
+        }
+        String[] other = {"pivo", "psovi", "kravovi", "dubu", "trpaslíkovi", "boh", "nepoloboh", "prasopsa", "nejnovější", "bůžkovi", "polobůžka", "e", ""};
+        forms.addAll(Arrays.asList(other));
+        return forms;
+    }
+}
@@ -0,0 +1,55 @@
+package eu.horako.stemmer.jfr;
+
+import eu.horako.stemmer.AffixFormatException;
+import eu.horako.stemmer.AffixRuleSet;
+import eu.horako.stemmer.AffixStemmer;
+import eu.horako.stemmer.TestModel;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class StemmerEventsTest {
+
+    @Test
+    public void eventsTestRecorded() throws IOException, AffixFormatException {
+        Assert.assertTrue(StemmerEvents.isAvailable());
+        File file = File.createTempFile("stemmer", ".jfr");
+        try(Recording recording = new Recording()) {
+            recording.enable("eu.horako.stemmer.SlowStem").withThreshold(Duration.ZERO);
+            recording.enable("eu.horako.stemmer.AffixParse");
+            recording.start();
+            AffixRuleSet ruleSet = TestModel.ruleSet();
+            AffixStemmer recorded = new AffixStemmer(ruleSet, TestModel.dictionary(ruleSet));
+            Assert.assertTrue(StemmerEvents.isRecording());
+            Assert.assertEquals(Collections.singleton("pán"), recorded.stem("pánovi"));
+            recording.stop();
+            recording.dump(file.toPath());
+        }
+        Assert.assertFalse(StemmerEvents.isRecording());
+
+        Set<String> seen = new HashSet<String>();
+        for(RecordedEvent e : RecordingFile.readAllEvents(file.toPath())) {
+            String name = e.getEventType().getName();
+            seen.add(name);
+            if(name.equals("eu.horako.stemmer.SlowStem")) {
+                Assert.assertEquals("pánovi", e.getString("word"));
+                Assert.assertTrue(e.getInt("probes") > 0);
+                Assert.assertEquals(1, e.getInt("stems"));
+            }
+        }
+        file.delete();
+        Assert.assertTrue(seen.contains("eu.horako.stemmer.SlowStem"));
+        Assert.assertTrue(seen.contains("eu.horako.stemmer.AffixParse"));
+    }
+}
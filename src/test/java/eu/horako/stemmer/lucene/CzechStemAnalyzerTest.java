@@ -0,0 +1,77 @@
+package eu.horako.stemmer.lucene;
+
+import eu.horako.stemmer.AffixFormatException;
+import eu.horako.stemmer.AffixStemmer;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.BaseTokenStreamTestCase;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+/**
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class CzechStemAnalyzerTest extends BaseTokenStreamTestCase {
+    private static final String TEXT = "Pána NEPÁNA, HradOVI a nepánovi; Neznámé.";
+
+    // the chain the analyzer replaces: a separate LowerCaseFilter pass
+    private static Analyzer referenceAnalyzer(final AffixStemmer stemmer, final StemEmissionPolicy policy) {
+        return new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                StandardTokenizer source = new StandardTokenizer();
+                TokenStream lowerCased = new LowerCaseFilter(source);
+                return new TokenStreamComponents(source, new StemFilter(lowerCased, new AtomicReference<AffixStemmer>(stemmer), false, policy));
+            }
+        };
+    }
+
+    @Test
+    public void analyzerTestLowerCase() throws IOException, AffixFormatException {
+        AffixStemmer stemmer = StemFilterTest.createStemmer(StemFilterTest.DICT);
+        StemEmissionPolicy policy = new StemEmissionPolicy();
+        policy.setOrder(StemEmissionPolicy.Order.SHORTEST);
+        try (Analyzer analyzer = new CzechStemAnalyzer(stemmer, false, policy, 16)) {
+            assertAnalyzesTo(analyzer, TEXT,
+                    new String[] { "pán", "pán", "nepán", "nepána", "hrad", "a", "pán", "nepán", "neznámé" },
+                    new int[] { 1, 1, 0, 0, 1, 1, 1, 0, 1 });
+            assertEquals(new BytesRef("nepána"), analyzer.normalize("f", "NePÁNA"));
+        }
+
+        for(boolean keepOriginal : new boolean[] { false, true }) {
+            policy = new StemEmissionPolicy();
+            policy.setKeepOriginal(keepOriginal);
+            try (Analyzer analyzer = new CzechStemAnalyzer(stemmer, false, policy, 16);
+                    Analyzer reference = referenceAnalyzer(stemmer, policy)) {
+                assertEquals(StemFilterTest.tokens(reference.tokenStream("f", TEXT)), StemFilterTest.tokens(analyzer.tokenStream("f", TEXT)));
+            }
+        }
+    }
+
+    @Test
+    public void analyzerTestReuse() throws IOException, AffixFormatException {
+        try (Analyzer analyzer = new CzechStemAnalyzer(StemFilterTest.createStemmer(StemFilterTest.DICT))) {
+            TokenStream first = analyzer.tokenStream("title", "Pána");
+            assertTokenStreamContents(first, new String[] { "pán" });
+            // the global reuse strategy: one stream for all the fields
+            TokenStream second = analyzer.tokenStream("body", "HRADOVI");
+            assertSame(first, second);
+            assertTokenStreamContents(second, new String[] { "hrad" });
+            assertSame(first, analyzer.tokenStream("title", "pánovi"));
+            assertTokenStreamContents(first, new String[] { "pán" });
+        }
+    }
+
+    @Test
+    public void analyzerTestRandom() throws IOException, AffixFormatException {
+        StemEmissionPolicy policy = new StemEmissionPolicy();
+        policy.setKeepOriginal(true);
+        try (Analyzer analyzer = new CzechStemAnalyzer(StemFilterTest.createStemmer(StemFilterTest.DICT), false, policy, 16)) {
+            checkRandomData(random(), analyzer, 200);
+        }
+    }
+}
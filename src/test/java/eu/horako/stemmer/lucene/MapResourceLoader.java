@@ -0,0 +1,40 @@
+package eu.horako.stemmer.lucene;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.analysis.util.ResourceLoader;
+
+/**
+ * Resources kept in memory, replaced by the tests.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+class MapResourceLoader implements ResourceLoader {
+    private final Map<String,String> resources = new HashMap<String,String>();
+
+    // content null - remove the resource
+    void put(String name, String content) {
+        this.resources.put(name, content);
+    }
+
+    @Override
+    public InputStream openResource(String resource) throws IOException {
+        String content = this.resources.get(resource);
+        if(content == null) { throw new IOException("Resource not found: " + resource); }
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public <T> Class<? extends T> findClass(String cname, Class<T> expectedType) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> T newInstance(String cname, Class<T> expectedType) {
+        throw new UnsupportedOperationException();
+    }
+}
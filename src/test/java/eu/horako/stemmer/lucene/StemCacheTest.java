@@ -0,0 +1,107 @@
+package eu.horako.stemmer.lucene;
+
+import eu.horako.stemmer.AffixFormatException;
+import eu.horako.stemmer.AffixStemmer;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.lucene.analysis.BaseTokenStreamTestCase;
+import org.apache.lucene.analysis.MockTokenizer;
+import org.junit.Test;
+
+/**
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class StemCacheTest extends BaseTokenStreamTestCase {
+    private static final String TEXT = "pána nepána pána hradovi pána hrad nepánovi hradovi";
+
+    private static StemFilter filter(MockTokenizer tokenizer, AtomicReference<AffixStemmer> stemmer, int cacheSize, boolean keepOriginal) {
+        StemEmissionPolicy policy = new StemEmissionPolicy();
+        policy.setOrder(StemEmissionPolicy.Order.SHORTEST);
+        policy.setKeepOriginal(keepOriginal);
+        return new StemFilter(tokenizer, stemmer, false, policy, cacheSize);
+    }
+
+    @Test
+    public void cacheTestFindPut() {
+        StemCache cache = new StemCache(3);
+        assertEquals(4, cache.size()); // rounded up to a power of two
+        char[] term = "pána".toCharArray();
+        int hash = StemCache.hash(term, term.length);
+        assertEquals(-1, cache.find(term, term.length, hash));
+        cache.put(term, term.length, hash, new char[][] { "pán".toCharArray() }, true);
+
+        char[] buffer = "pánaxyz".toCharArray(); // term in a longer buffer
+        int slot = cache.find(buffer, 4, StemCache.hash(buffer, 4));
+        assertTrue(slot >= 0);
+        assertEquals("pán", new String(cache.getStems(slot)[0]));
+        assertTrue(cache.isKeepOriginal(slot));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.clear();
+        assertEquals(-1, cache.find(term, term.length, hash));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void cacheTestHitsMisses() throws IOException, AffixFormatException {
+        AtomicReference<AffixStemmer> stemmer = new AtomicReference<AffixStemmer>(StemFilterTest.createStemmer(StemFilterTest.DICT));
+        StemFilter filter = filter(whitespaceMockTokenizer("pána pána hrad pána"), stemmer, 16, false);
+        assertTokenStreamContents(filter, new String[] { "pán", "pán", "hrad", "pán" }, new int[] { 1, 1, 1, 1 });
+        assertEquals(2, filter.getCacheHits());
+        assertEquals(2, filter.getCacheMisses());
+
+        // no cache, no counts
+        filter = filter(whitespaceMockTokenizer("pána pána"), stemmer, 0, false);
+        assertTokenStreamContents(filter, new String[] { "pán", "pán" }, new int[] { 1, 1 });
+        assertEquals(0, filter.getCacheHits());
+        assertEquals(0, filter.getCacheMisses());
+    }
+
+    @Test
+    public void cacheTestEviction() throws IOException, AffixFormatException {
+        AtomicReference<AffixStemmer> stemmer = new AtomicReference<AffixStemmer>(StemFilterTest.createStemmer(StemFilterTest.DICT));
+        // one entry: every other term evicts the previous one
+        StemFilter filter = filter(whitespaceMockTokenizer("pána hrada pána pána"), stemmer, 1, false);
+        assertTokenStreamContents(filter, new String[] { "pán", "hrad", "pán", "pán" }, new int[] { 1, 1, 1, 1 });
+        assertEquals(1, filter.getCacheHits());
+        assertEquals(3, filter.getCacheMisses());
+    }
+
+    @Test
+    public void cacheTestModelChange() throws IOException, AffixFormatException {
+        AtomicReference<AffixStemmer> stemmer = new AtomicReference<AffixStemmer>(StemFilterTest.createStemmer(StemFilterTest.DICT));
+        MockTokenizer tokenizer = whitespaceMockTokenizer("pána");
+        StemFilter filter = filter(tokenizer, stemmer, 16, false);
+        assertTokenStreamContents(filter, new String[] { "pán" }, new int[] { 1 });
+
+        tokenizer.setReader(new StringReader("pána"));
+        assertTokenStreamContents(filter, new String[] { "pán" }, new int[] { 1 });
+        assertEquals(1, filter.getCacheHits());
+
+        // stems of the old model must not be served by the new one
+        stemmer.set(StemFilterTest.createStemmer("1\npána/P1\n"));
+        tokenizer.setReader(new StringReader("pána"));
+        assertTokenStreamContents(filter, new String[] { "pána" }, new int[] { 1 });
+        assertEquals(1, filter.getCacheHits());
+        assertEquals(2, filter.getCacheMisses());
+    }
+
+    @Test
+    public void cacheTestSameOutput() throws IOException, AffixFormatException {
+        AtomicReference<AffixStemmer> stemmer = new AtomicReference<AffixStemmer>(StemFilterTest.createStemmer(StemFilterTest.DICT));
+        for(boolean keepOriginal : new boolean[] { false, true }) {
+            StemFilter cached = filter(whitespaceMockTokenizer(TEXT), stemmer, 4, keepOriginal);
+            assertEquals(StemFilterTest.tokens(filter(whitespaceMockTokenizer(TEXT), stemmer, 0, keepOriginal)),
+                    StemFilterTest.tokens(cached));
+            assertTrue(cached.getCacheHits() > 0);
+        }
+
+        StemFilter cached = filter(whitespaceMockTokenizer(TEXT), stemmer, 4, true);
+        assertTokenStreamContents(cached,
+                new String[] { "pána", "pán", "pán", "nepán", "nepána", "pána", "pán", "hradovi", "hrad",
+                        "pána", "pán", "hrad", "nepánovi", "pán", "nepán", "hradovi", "hrad" },
+                new int[] { 1, 0, 1, 0, 0, 1, 0, 1, 0, 1, 0, 1, 1, 0, 0, 1, 0 });
+    }
+}
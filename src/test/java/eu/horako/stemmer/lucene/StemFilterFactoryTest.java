@@ -0,0 +1,82 @@
+package eu.horako.stemmer.lucene;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Plain JUnit test: a JMX reload runs on the shared background thread of
+ * {@link StemmerReloader}, which the thread leak checks of LuceneTestCase
+ * would report.
+ *
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class StemFilterFactoryTest {
+
+    private static StemFilterFactory factory(MapResourceLoader loader) {
+        Map<String,String> args = new HashMap<String,String>();
+        args.put("dictionary", "test.dic");
+        args.put("affix", "test.aff");
+        args.put("reloadable", "true");
+        args.put("metrics", "true");
+        StemFilterFactory factory = new StemFilterFactory(args);
+        factory.inform(loader);
+        return factory;
+    }
+
+    private static List<String> stem(StemFilterFactory factory, String text) throws IOException {
+        Tokenizer tokenizer = new WhitespaceTokenizer();
+        tokenizer.setReader(new StringReader(text));
+        return StemFilterTest.tokens(factory.create(tokenizer));
+    }
+
+    @Test(timeout = 10000)
+    public void factoryTestSharedDictionaryReload() throws IOException, JMException, InterruptedException {
+        MapResourceLoader loader = new MapResourceLoader();
+        loader.put("test.aff", StemFilterTest.AFFIX);
+        loader.put("test.dic", StemFilterTest.DICT);
+        StemFilterFactory index = factory(loader);
+        StemFilterFactory query = factory(loader); // e.g. the query analyzer of the same field type
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName indexName = index.getReloader().getObjectName();
+        ObjectName queryName = query.getReloader().getObjectName();
+        ObjectName metricsName = index.getMetrics().getObjectName();
+        try {
+            Assert.assertTrue(server.isRegistered(metricsName));
+            Assert.assertNotEquals(metricsName, query.getMetrics().getObjectName());
+            Assert.assertNotEquals(indexName, queryName);
+            Assert.assertTrue(server.isRegistered(indexName));
+            Assert.assertTrue(server.isRegistered(queryName));
+            Assert.assertEquals(Arrays.asList("pán/1"), stem(index, "pána"));
+
+            loader.put("test.dic", "1\npána/P1\n");
+            for(ObjectName name : new ObjectName[] { indexName, queryName }) {
+                server.invoke(name, "reload", null, null);
+            }
+            while(index.getReloader().getReloadCount() == 0 || query.getReloader().getReloadCount() == 0) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(Arrays.asList("pána/1"), stem(index, "pána"));
+            Assert.assertEquals(Arrays.asList("pána/1"), stem(query, "pána"));
+        } finally {
+            index.close();
+            query.close();
+        }
+        Assert.assertFalse(server.isRegistered(indexName));
+        Assert.assertFalse(server.isRegistered(queryName));
+        Assert.assertFalse(server.isRegistered(metricsName));
+        Assert.assertNull(index.getReloader().getObjectName());
+        Assert.assertNull(query.getMetrics().getObjectName());
+    }
+}
@@ -0,0 +1,156 @@
+package eu.horako.stemmer.lucene;
+
+import eu.horako.stemmer.AffixFormatException;
+import eu.horako.stemmer.AffixRuleSet;
+import eu.horako.stemmer.AffixStemmer;
+import eu.horako.stemmer.Dictionary;
+import eu.horako.stemmer.LemmaFrequencies;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.lucene.analysis.BaseTokenStreamTestCase;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.miscellaneous.SetKeywordMarkerFilter;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.junit.Test;
+
+/**
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class StemFilterTest extends BaseTokenStreamTestCase {
+    static final String AFFIX =
+        "FLAG long\n" +
+        "SFX P1 Y 2\n" +
+        "SFX P1   0           a          [^aeok]\n" +
+        "SFX P1   0           ovi        [^aeok]\n" +
+        "PFX NE Y 1\n" +
+        "PFX NE   0           ne         .\n";
+    // nepána: pán (PFX + SFX), nepán (SFX), nepána (dictionary word with a flag)
+    static final String DICT = "4\npán/P1NE\nnepán/P1\nnepána/P1\nhrad/P1\n";
+
+    static AffixStemmer createStemmer(String dict) throws IOException, AffixFormatException {
+        AffixRuleSet ruleSet = new AffixRuleSet(new StringReader(AFFIX), false);
+        Dictionary dictionary = new Dictionary(new StringReader(dict), ruleSet, false);
+        dictionary.freeze();
+        return new AffixStemmer(ruleSet, dictionary);
+    }
+
+    private static StemFilter filter(String text, StemEmissionPolicy policy) throws IOException, AffixFormatException {
+        return new StemFilter(whitespaceMockTokenizer(text), new AtomicReference<AffixStemmer>(createStemmer(DICT)), false, policy);
+    }
+
+    private static StemEmissionPolicy order(StemEmissionPolicy.Order order, int maxStems) {
+        StemEmissionPolicy policy = new StemEmissionPolicy();
+        policy.setOrder(order);
+        policy.setMaxStems(maxStems);
+        return policy;
+    }
+
+    // terms of the stream with their position increments, e.g. "pána/1"
+    static List<String> tokens(TokenStream ts) throws IOException {
+        CharTermAttribute termAtt = ts.addAttribute(CharTermAttribute.class);
+        PositionIncrementAttribute posIncAtt = ts.addAttribute(PositionIncrementAttribute.class);
+        List<String> tokens = new ArrayList<String>();
+        ts.reset();
+        while(ts.incrementToken()) {
+            tokens.add(termAtt.toString() + "/" + posIncAtt.getPositionIncrement());
+        }
+        ts.end();
+        ts.close();
+        return tokens;
+    }
+
+    @Test
+    public void filterTestAllStems() throws IOException, AffixFormatException {
+        assertTokenStreamContents(filter("pána hradovi", new StemEmissionPolicy()),
+                new String[] { "pán", "hrad" }, new int[] { 1, 1 });
+        assertTokenStreamContents(filter("neznámé", new StemEmissionPolicy()),
+                new String[] { "neznámé" }, new int[] { 1 }); // unknown word unchanged
+
+        // all the stems stacked on one position, in no particular order
+        List<String> tokens = tokens(filter("nepána hrad", new StemEmissionPolicy()));
+        assertEquals(4, tokens.size());
+        assertEquals(new HashSet<String>(Arrays.asList("pán", "nepán", "nepána")),
+                new HashSet<String>(Arrays.asList(tokens.get(0).split("/")[0], tokens.get(1).split("/")[0], tokens.get(2).split("/")[0])));
+        assertEquals(Arrays.asList("1", "0", "0"), Arrays.asList(tokens.get(0).split("/")[1], tokens.get(1).split("/")[1], tokens.get(2).split("/")[1]));
+        assertEquals("hrad/1", tokens.get(3));
+    }
+
+    @Test
+    public void filterTestBestStem() throws IOException, AffixFormatException {
+        AtomicReference<AffixStemmer> stemmer = new AtomicReference<AffixStemmer>(createStemmer(DICT));
+        assertTokenStreamContents(new StemFilter(whitespaceMockTokenizer("pánovi hrady"), stemmer, true),
+                new String[] { "pán", "hrady" }, new int[] { 1, 1 });
+    }
+
+    @Test
+    public void filterTestSkipKeywords() throws IOException, AffixFormatException {
+        StemEmissionPolicy policy = new StemEmissionPolicy();
+        policy.setSkipKeywords(true);
+        CharArraySet keywords = new CharArraySet(Arrays.asList("pána"), false);
+        TokenStream marked = new SetKeywordMarkerFilter(whitespaceMockTokenizer("pána hradovi"), keywords);
+        assertTokenStreamContents(new StemFilter(marked, new AtomicReference<AffixStemmer>(createStemmer(DICT)), false, policy),
+                new String[] { "pána", "hrad" }, new int[] { 1, 1 });
+
+        // keywords are stemmed unless skipped
+        marked = new SetKeywordMarkerFilter(whitespaceMockTokenizer("pána hradovi"), keywords);
+        assertTokenStreamContents(new StemFilter(marked, new AtomicReference<AffixStemmer>(createStemmer(DICT))),
+                new String[] { "pán", "hrad" }, new int[] { 1, 1 });
+    }
+
+    @Test
+    public void filterTestProtectedWords() throws IOException, AffixFormatException {
+        StemEmissionPolicy policy = new StemEmissionPolicy();
+        policy.setProtectedWords(new CharArraySet(Arrays.asList("hradovi"), false));
+        assertTokenStreamContents(filter("pána hradovi hrada", policy),
+                new String[] { "pán", "hradovi", "hrad" }, new int[] { 1, 1, 1 });
+    }
+
+    @Test
+    public void filterTestMaxStemsOrder() throws IOException, AffixFormatException {
+        assertTokenStreamContents(filter("nepána", order(StemEmissionPolicy.Order.SHORTEST, 3)),
+                new String[] { "pán", "nepán", "nepána" }, new int[] { 1, 0, 0 });
+        assertTokenStreamContents(filter("nepána", order(StemEmissionPolicy.Order.SHORTEST, 2)),
+                new String[] { "pán", "nepán" }, new int[] { 1, 0 });
+        assertTokenStreamContents(filter("nepána", order(StemEmissionPolicy.Order.ALPHABETICAL, 2)),
+                new String[] { "nepán", "nepána" }, new int[] { 1, 0 });
+        assertTokenStreamContents(filter("nepána hrada", order(StemEmissionPolicy.Order.ALPHABETICAL, 1)),
+                new String[] { "nepán", "hrad" }, new int[] { 1, 1 });
+
+        StemEmissionPolicy policy = order(StemEmissionPolicy.Order.FREQUENCY, 2);
+        AffixStemmer stemmer = createStemmer(DICT);
+        LemmaFrequencies frequencies = new LemmaFrequencies();
+        frequencies.put("nepána", 10);
+        frequencies.put("pán", 5);
+        stemmer.setLemmaFrequencies(frequencies);
+        assertTokenStreamContents(new StemFilter(whitespaceMockTokenizer("nepána"), new AtomicReference<AffixStemmer>(stemmer), false, policy),
+                new String[] { "nepána", "pán" }, new int[] { 1, 0 });
+        // without frequencies the shortest first
+        assertTokenStreamContents(filter("nepána", policy),
+                new String[] { "pán", "nepán" }, new int[] { 1, 0 });
+
+        // NONE keeps the stemmer's order, only the count is limited
+        List<String> tokens = tokens(filter("nepána hrad", order(StemEmissionPolicy.Order.NONE, 1)));
+        assertEquals(2, tokens.size());
+        assertTrue(tokens.get(0), Arrays.asList("pán/1", "nepán/1", "nepána/1").contains(tokens.get(0)));
+        assertEquals("hrad/1", tokens.get(1));
+    }
+
+    @Test
+    public void filterTestKeepOriginal() throws IOException, AffixFormatException {
+        StemEmissionPolicy policy = order(StemEmissionPolicy.Order.SHORTEST, Integer.MAX_VALUE);
+        policy.setKeepOriginal(true);
+        assertTokenStreamContents(filter("pána hrad neznámé pánovi", policy),
+                new String[] { "pána", "pán", "hrad", "neznámé", "pánovi", "pán" },
+                new int[] { 1, 0, 1, 1, 1, 0 });
+        // the original is one of the stems: not repeated
+        assertTokenStreamContents(filter("nepána", policy),
+                new String[] { "pán", "nepán", "nepána" }, new int[] { 1, 0, 0 });
+    }
+}
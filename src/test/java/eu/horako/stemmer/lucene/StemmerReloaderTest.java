@@ -0,0 +1,122 @@
+package eu.horako.stemmer.lucene;
+
+import eu.horako.stemmer.AffixFormatException;
+import eu.horako.stemmer.AffixStemmer;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.lucene.analysis.BaseTokenStreamTestCase;
+import org.apache.lucene.analysis.MockTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.util.ResourceLoader;
+import org.junit.Test;
+
+/**
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class StemmerReloaderTest extends BaseTokenStreamTestCase {
+    private static final String DICT_RESOURCE = "test.dic";
+
+    // builds the model from the dictionary resource of the loader
+    private static class DictBuilder implements StemmerReloader.ModelBuilder {
+        private final ResourceLoader loader;
+        private int builds = 0;
+
+        DictBuilder(ResourceLoader loader) {
+            this.loader = loader;
+        }
+
+        @Override
+        public AffixStemmer build() throws IOException, AffixFormatException {
+            this.builds++;
+            StringBuilder dict = new StringBuilder();
+            try (InputStreamReader reader = new InputStreamReader(this.loader.openResource(DICT_RESOURCE), StandardCharsets.UTF_8)) {
+                char[] buffer = new char[1024];
+                int n;
+                while((n = reader.read(buffer)) > 0) {
+                    dict.append(buffer, 0, n);
+                }
+            }
+            return StemFilterTest.createStemmer(dict.toString());
+        }
+    }
+
+    private static StemmerReloader reloader(AtomicReference<AffixStemmer> current, StemmerReloader.ModelBuilder builder, ResourceLoader loader) {
+        return new StemmerReloader("test", current, builder, loader, Arrays.asList(DICT_RESOURCE), 0);
+    }
+
+    @Test
+    public void reloaderTestReloadNow() throws IOException, AffixFormatException {
+        MapResourceLoader loader = new MapResourceLoader();
+        loader.put(DICT_RESOURCE, StemFilterTest.DICT);
+        DictBuilder builder = new DictBuilder(loader);
+        AtomicReference<AffixStemmer> current = new AtomicReference<AffixStemmer>(builder.build());
+        AffixStemmer initial = current.get();
+        StemmerReloader reloader = reloader(current, builder, loader);
+        assertEquals(Arrays.asList("pán"), Arrays.asList(current.get().stem("pána").toArray()));
+
+        loader.put(DICT_RESOURCE, "1\npána/P1\n");
+        assertTrue(reloader.reloadNow());
+        assertNotSame(initial, current.get());
+        assertEquals(Arrays.asList("pána"), Arrays.asList(current.get().stem("pána").toArray()));
+        assertEquals(1, reloader.getReloadCount());
+        assertEquals(0, reloader.getFailedReloadCount());
+        assertNull(reloader.getLastError());
+        assertEquals(2, builder.builds);
+    }
+
+    @Test
+    public void reloaderTestFailedReload() throws IOException, AffixFormatException {
+        MapResourceLoader loader = new MapResourceLoader();
+        loader.put(DICT_RESOURCE, StemFilterTest.DICT);
+        DictBuilder builder = new DictBuilder(loader);
+        AtomicReference<AffixStemmer> current = new AtomicReference<AffixStemmer>(builder.build());
+        AffixStemmer initial = current.get();
+        StemmerReloader reloader = reloader(current, builder, loader);
+
+        loader.put(DICT_RESOURCE, null); // the dictionary is gone
+        assertFalse(reloader.reloadNow());
+        assertSame(initial, current.get());
+        assertEquals(0, reloader.getReloadCount());
+        assertEquals(1, reloader.getFailedReloadCount());
+        assertTrue(reloader.getLastError(), reloader.getLastError().contains("Resource not found: " + DICT_RESOURCE));
+
+        // a later good reload clears the error
+        loader.put(DICT_RESOURCE, "1\npána/P1\n");
+        assertTrue(reloader.reloadNow());
+        assertNotSame(initial, current.get());
+        assertEquals(1, reloader.getReloadCount());
+        assertEquals(1, reloader.getFailedReloadCount());
+        assertNull(reloader.getLastError());
+    }
+
+    @Test
+    public void reloaderTestFilterKeepsModelTillReset() throws IOException, AffixFormatException {
+        MapResourceLoader loader = new MapResourceLoader();
+        loader.put(DICT_RESOURCE, StemFilterTest.DICT);
+        DictBuilder builder = new DictBuilder(loader);
+        AtomicReference<AffixStemmer> current = new AtomicReference<AffixStemmer>(builder.build());
+        StemmerReloader reloader = reloader(current, builder, loader);
+
+        MockTokenizer tokenizer = whitespaceMockTokenizer("pána pána");
+        StemFilter filter = new StemFilter(tokenizer, current);
+        CharTermAttribute termAtt = filter.addAttribute(CharTermAttribute.class);
+        filter.reset();
+        assertTrue(filter.incrementToken());
+        assertEquals("pán", termAtt.toString());
+
+        loader.put(DICT_RESOURCE, "1\npána/P1\n");
+        assertTrue(reloader.reloadNow());
+        assertTrue(filter.incrementToken()); // the stream finishes on the model it started with
+        assertEquals("pán", termAtt.toString());
+        assertFalse(filter.incrementToken());
+        filter.end();
+        filter.close();
+
+        tokenizer.setReader(new StringReader("pána"));
+        assertTokenStreamContents(filter, new String[] { "pána" }); // the new model after reset()
+    }
+}
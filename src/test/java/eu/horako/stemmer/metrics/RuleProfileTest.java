@@ -0,0 +1,45 @@
+package eu.horako.stemmer.metrics;
+
+import eu.horako.stemmer.AffixExpander;
+import eu.horako.stemmer.AffixFormatException;
+import eu.horako.stemmer.AffixRule;
+import eu.horako.stemmer.AffixRuleSet;
+import eu.horako.stemmer.AffixStemmer;
+import eu.horako.stemmer.Dictionary;
+import eu.horako.stemmer.TestModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class RuleProfileTest {
+
+    @Test
+    public void profileTestCounts() throws IOException, AffixFormatException {
+        AffixRuleSet ruleSet = TestModel.ruleSet();
+        Dictionary dict = TestModel.dictionary(ruleSet);
+        RuleProfile profile = new RuleProfile(ruleSet);
+        AffixExpander expander = new AffixExpander(ruleSet, dict);
+        expander.setProfile(profile);
+        Assert.assertTrue(expander.expand("pán", 5).contains("pánovi"));
+        AffixStemmer profiled = new AffixStemmer(ruleSet, dict);
+        profiled.setProfile(profile);
+        Assert.assertEquals(Collections.singleton("pán"), profiled.stem("pánovi"));
+
+        int ovi = -1; // SFX P1 0 ovi [^aeok]
+        for(AffixRule r : ruleSet.getRulesByFlag("P1")) {
+            if(r.getAppend().equals("ovi")) { ovi = r.getId(); }
+        }
+        Assert.assertEquals(1, profile.getExpandForms(ovi));
+        Assert.assertEquals(1, profile.getCandidates(ovi));
+        Assert.assertEquals(1, profile.getHits(ovi));
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        profile.report(new PrintStream(report, true, "UTF-8"), 10);
+        Assert.assertTrue(report.toString("UTF-8").contains(ovi + " SFX P1 0 ovi [^aeok]"));
+    }
+}
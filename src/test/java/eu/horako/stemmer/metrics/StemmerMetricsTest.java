@@ -0,0 +1,58 @@
+package eu.horako.stemmer.metrics;
+
+import eu.horako.stemmer.AffixFormatException;
+import eu.horako.stemmer.AffixStemmer;
+import eu.horako.stemmer.TestModel;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class StemmerMetricsTest {
+
+    @Test
+    public void metricsTestStemCalls() throws IOException, AffixFormatException {
+        AffixStemmer stemmer = TestModel.stemmer();
+        StemmerMetrics metrics = new StemmerMetrics("test");
+        stemmer.setMetrics(metrics);
+        stemmer.stem("psa");
+        stemmer.stem("pivo");
+        stemmer.setMetrics(null);
+        stemmer.stem("psa");
+
+        Assert.assertEquals(2, metrics.getStemCalls());
+        Assert.assertEquals(1, metrics.getStemsReturned());
+        Assert.assertTrue(metrics.getFirstStepCandidates() > 0);
+        Assert.assertTrue(metrics.getReductionSteps() > 0);
+        Assert.assertTrue(metrics.getDictionaryHits() > 0);
+        Assert.assertTrue(metrics.getDictionaryProbes() >= metrics.getDictionaryHits());
+        Assert.assertEquals(2, metrics.getStemLatency().getCount());
+        Assert.assertTrue(metrics.getStemLatency().getValueAtPercentile(99) <= metrics.getStemLatency().getMax());
+    }
+
+    @Test
+    public void metricsTestRegisterSameModel() throws JMException {
+        StemmerMetrics index = new StemmerMetrics("test");
+        StemmerMetrics query = new StemmerMetrics("test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName indexName = index.register();
+        ObjectName queryName = query.register();
+        try {
+            Assert.assertNotEquals(indexName, queryName);
+            Assert.assertTrue(server.isRegistered(indexName));
+            Assert.assertTrue(server.isRegistered(queryName));
+        } finally {
+            index.unregister();
+            query.unregister();
+        }
+        Assert.assertFalse(server.isRegistered(indexName));
+        Assert.assertFalse(server.isRegistered(queryName));
+        Assert.assertNull(index.getObjectName());
+    }
+}
@@ -0,0 +1,166 @@
+package eu.horako.stemmer.run;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class BenchRunnerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 30000)
+    public void benchTestJsonOutput() throws Exception {
+        File dict = this.write("test.dic", "2\npán/P1\npes/P1\n");
+        File affix = this.write("test.aff",
+            "SFX P1 Y 2\n" +
+            "SFX P1   0           a          [^aeok]\n" +
+            "SFX P1   0           ovi        [^aeok]\n");
+        File input = this.write("input.txt", "pána\npánovi\npes\nkočka\n");
+
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BenchRunner runner = new BenchRunner();
+        try {
+            System.setOut(new PrintStream(output, true, "UTF-8"));
+            runner.init(new String[] { "-m", "bench", "-d", dict.getPath(), "-a", affix.getPath(),
+                "-i", input.getPath(), "-t", "2", "-w", "0", "-r", "1", "-n" });
+            runner.run();
+        } finally {
+            System.setOut(stdout);
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String,Object> json = (Map<String,Object>) new JsonParser(new String(output.toByteArray(), StandardCharsets.UTF_8)).parse();
+        Assert.assertEquals(Arrays.asList(dict.getPath()), json.get("dictionaries"));
+        @SuppressWarnings("unchecked")
+        Map<String,Object> options = (Map<String,Object>) json.get("options");
+        Assert.assertEquals(Boolean.FALSE, options.get("compiled"));
+        Assert.assertNull(((Map<?,?>) json.get("loadMs")).get("stickyExpansion"));
+        Assert.assertEquals(4.0, json.get("inputWords"));
+        Assert.assertEquals(2.0, json.get("threads"));
+        Assert.assertEquals(1.0, json.get("measureSeconds"));
+        double tokens = (Double) json.get("tokens");
+        Assert.assertTrue(tokens > 0);
+        Assert.assertEquals(tokens, (Double) json.get("tokensPerSecond"), 0.1);
+        Map<?,?> latency = (Map<?,?>) json.get("latencyNs");
+        Assert.assertTrue((Double) latency.get("p50") <= (Double) latency.get("p99"));
+        Assert.assertTrue((Double) latency.get("p99") <= (Double) latency.get("max"));
+        Assert.assertTrue((Double) json.get("modelBytes") > 0);
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = this.folder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    // just enough JSON for the output of the bench mode: objects, arrays, strings, numbers, true/false/null
+    private static class JsonParser {
+        private final String s;
+        private int pos = 0;
+
+        JsonParser(String s) {
+            this.s = s;
+        }
+
+        Object parse() {
+            Object value = this.value();
+            this.skipSpace();
+            Assert.assertEquals("Trailing data", this.s.length(), this.pos);
+            return value;
+        }
+
+        private Object value() {
+            this.skipSpace();
+            char c = this.s.charAt(this.pos);
+            if(c == '{') {
+                Map<String,Object> map = new LinkedHashMap<String,Object>();
+                this.pos++;
+                if(!this.consume('}')) {
+                    do {
+                        this.skipSpace();
+                        String key = this.string();
+                        this.expect(':');
+                        Assert.assertNull("Duplicate key " + key, map.put(key, this.value()));
+                    } while(this.consume(','));
+                    this.expect('}');
+                }
+                return map;
+            }
+            if(c == '[') {
+                List<Object> list = new ArrayList<Object>();
+                this.pos++;
+                if(!this.consume(']')) {
+                    do {
+                        list.add(this.value());
+                    } while(this.consume(','));
+                    this.expect(']');
+                }
+                return list;
+            }
+            if(c == '"') { return this.string(); }
+            for(String literal : new String[] { "true", "false", "null" }) {
+                if(this.s.startsWith(literal, this.pos)) {
+                    this.pos += literal.length();
+                    return literal.equals("null") ? null : Boolean.valueOf(literal);
+                }
+            }
+            int start = this.pos;
+            while(this.pos < this.s.length() && "+-.eE0123456789".indexOf(this.s.charAt(this.pos)) >= 0) {
+                this.pos++;
+            }
+            return Double.valueOf(this.s.substring(start, this.pos));
+        }
+
+        private String string() {
+            this.expect('"');
+            StringBuilder sb = new StringBuilder();
+            char c;
+            while((c = this.s.charAt(this.pos++)) != '"') {
+                if(c == '\\') {
+                    c = this.s.charAt(this.pos++);
+                    if(c == 'u') {
+                        c = (char) Integer.parseInt(this.s.substring(this.pos, this.pos + 4), 16);
+                        this.pos += 4;
+                    }
+                }
+                sb.append(c);
+            }
+            return sb.toString();
+        }
+
+        private boolean consume(char c) {
+            this.skipSpace();
+            if(this.pos < this.s.length() && this.s.charAt(this.pos) == c) {
+                this.pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            Assert.assertTrue("Expected " + c + " at " + this.pos, this.consume(c));
+        }
+
+        private void skipSpace() {
+            while(this.pos < this.s.length() && Character.isWhitespace(this.s.charAt(this.pos))) {
+                this.pos++;
+            }
+        }
+    }
+}
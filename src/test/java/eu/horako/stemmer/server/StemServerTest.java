@@ -0,0 +1,184 @@
+package eu.horako.stemmer.server;
+
+import eu.horako.stemmer.AffixFormatException;
+import eu.horako.stemmer.AffixRuleSet;
+import eu.horako.stemmer.AffixStemmer;
+import eu.horako.stemmer.Dictionary;
+import eu.horako.stemmer.IAffixProcessor;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Ondrej Horak &lt;ondrej.horak@centrum.cz&gt;
+ */
+public class StemServerTest {
+    private static final String AFFIX =
+        "FLAG long\n" +
+        "SFX P1 Y 2\n" +
+        "SFX P1   0           a          [^aeok]\n" +
+        "SFX P1   0           ovi        [^aeok]\n" +
+        "PFX NE Y 1\n" +
+        "PFX NE   0           ne         .\n";
+    private static final String DICT = "2\npán/P1NE\nhrad/P1\n";
+
+    private StemServer server;
+
+    @Before
+    public void setUp() throws IOException, AffixFormatException {
+        AffixRuleSet ruleSet = new AffixRuleSet(new StringReader(AFFIX), false);
+        AffixStemmer stemmer = new AffixStemmer(ruleSet, new Dictionary(new StringReader(DICT), ruleSet, false));
+        this.server = new StemServer(stemmer, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1, 1);
+        this.server.setLowerCase(true);
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        this.server.shutdown(1000);
+    }
+
+    @Test(timeout = 10000)
+    public void serverTestBatch() throws IOException {
+        try (StemClient client = this.client()) {
+            List<Set<String>> stems = client.stem(Arrays.asList("pána", "Hradovi", "nepánovi", "hrady", ""));
+            Assert.assertEquals(Arrays.asList(set("pán"), set("hrad"), set("pán"), set(), set()), stems);
+            Assert.assertEquals(set("pán"), client.stem("pánovi")); // keep-alive
+            Assert.assertEquals(Collections.<Set<String>>emptyList(), client.stem(Collections.<String>emptyList()));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void serverTestBadRequests() throws IOException {
+        this.server.setMaxFrameBytes(16);
+        try (StemClient client = this.client()) {
+            client.stem(Arrays.asList("pána", "hradovi", "nepánovi"));
+            Assert.fail("Oversized frame must be refused");
+        } catch(IOException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().startsWith("Request failed: Frame length"));
+        }
+
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(request);
+        out.writeInt(2); // two tokens, only one sent
+        StemProtocol.writeString(out, "pána");
+        try (Socket socket = this.socket()) {
+            StemProtocol.writeFrame(socket.getOutputStream(), request);
+            assertResponse(socket, StemProtocol.STATUS_ERROR, "Truncated request");
+            Assert.assertEquals(-1, socket.getInputStream().read()); // closed by the server
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void serverTestBusy() throws IOException {
+        StemClient served = this.client();
+        try (Socket queued = this.socket(); Socket refused = this.socket()) {
+            Assert.assertEquals(set("pán"), served.stem("pána")); // holds the only worker
+            assertResponse(refused, StemProtocol.STATUS_BUSY, "Server busy");
+            Assert.assertEquals(-1, refused.getInputStream().read());
+            served.close(); // the queued connection gets the worker
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(request);
+            out.writeInt(1);
+            StemProtocol.writeString(out, "hrada");
+            StemProtocol.writeFrame(queued.getOutputStream(), request);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(StemProtocol.readFrame(new DataInputStream(queued.getInputStream()), 1000)));
+            Assert.assertEquals(StemProtocol.STATUS_OK, in.readByte());
+            Assert.assertEquals(1, in.readInt());
+            Assert.assertEquals(1, in.readUnsignedShort());
+            Assert.assertEquals("hrad", StemProtocol.readString(in));
+        } finally {
+            served.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void serverTestTooManyStems() throws IOException, InterruptedException {
+        final Set<String> many = new HashSet<String>();
+        for(int i = 0; i <= StemProtocol.MAX_STEM_COUNT; i++) {
+            many.add("s" + i);
+        }
+        StemServer manyStems = new StemServer(new IAffixProcessor() {
+            @Override
+            public Set<String> process(String word) {
+                return many;
+            }
+        }, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1, 1);
+        manyStems.start();
+        try (StemClient client = new StemClient(InetAddress.getLoopbackAddress().getHostAddress(), manyStems.getPort(), 5000)) {
+            client.stem("x");
+            Assert.fail("A stem count not fitting the protocol must be refused");
+        } catch(IOException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().startsWith("Request failed: Too many stems of token 0"));
+        } finally {
+            manyStems.shutdown(1000);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void serverTestIdleTimeout() throws IOException {
+        this.server.setIdleTimeoutMillis(200);
+        try (Socket idle = this.socket(); StemClient client = this.client()) {
+            Assert.assertEquals(-1, idle.getInputStream().read()); // closed by the server, the worker is free
+            Assert.assertEquals(set("hrad"), client.stem("hradovi"));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void serverTestShutdown() throws IOException, InterruptedException {
+        StemClient client = this.client();
+        Assert.assertEquals(set("pán"), client.stem("pána"));
+        this.server.shutdown(1000);
+        Assert.assertEquals(0, this.server.getConnectionCount());
+        try {
+            client.stem("pána");
+            Assert.fail("The idle connection must be closed");
+        } catch(IOException ex) {
+        } finally {
+            client.close();
+        }
+        try {
+            this.client().close();
+            Assert.fail("The server must not accept connections");
+        } catch(IOException ex) {
+        }
+    }
+
+    private StemClient client() throws IOException {
+        return new StemClient(InetAddress.getLoopbackAddress().getHostAddress(), this.server.getPort(), 5000);
+    }
+
+    private Socket socket() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.server.getPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void assertResponse(Socket socket, byte status, String messagePrefix) throws IOException {
+        byte[] response = StemProtocol.readFrame(new DataInputStream(socket.getInputStream()), 1000);
+        Assert.assertNotNull(response);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(response));
+        Assert.assertEquals(status, in.readByte());
+        String message = StemProtocol.readString(in);
+        Assert.assertTrue(message, message.startsWith(messagePrefix));
+    }
+
+    private static Set<String> set(String... stems) {
+        return new HashSet<String>(Arrays.asList(stems));
+    }
+}